@@ -0,0 +1,152 @@
+package bn.com.onix.validation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * OnixBenchmarkCorpus --- This class creates the synthetic ONIX files (and configures the validator) for the benchmarks,
+ *                         so that every benchmark run is measured against the same content.
+ * <p>
+ * The files are valid against the EDITEUR grammars (i.e., the ONIX 2.1 reference DTD and the ONIX 3.0 reference XSD),
+ * which must be found under the local ONIX root given by the 'onix.localDtdRoot' system property.
+ * @author    Aaron Kendall
+ */
+class OnixBenchmarkCorpus {
+
+	public static final String CONST_LOCAL_DTD_ROOT_PROPERTY = "onix.localDtdRoot";
+
+	public static final String CONST_ONIX21 = OnixCorpusGenerator.CONST_ONIX21;
+	public static final String CONST_ONIX30 = OnixCorpusGenerator.CONST_ONIX30;
+
+	public static final int CONST_CODE_LIST_ISSUE = 61;
+
+	/**
+	 * The numbers of the code lists against which the coded elements of ONIX 2.1 and 3.0 are checked (see OnixCodeLists).
+	 */
+	private static final int[] CONST_CODE_LIST_NUMBERS = { 1, 2, 5, 7, 15, 17, 21, 22, 27, 49, 51, 58, 64, 65, 74, 78, 91, 96, 150, 153, 163, 175 };
+
+	/**
+	 * The alphabetic codes of the synthetic files (Ex. a LanguageCode, a CurrencyCode), which are added to every list.
+	 */
+	private static final String[] CONST_EXTRA_CODES = { "eng", "fre", "ger", "spa", "CAD", "EUR", "GBP", "USD" };
+
+	private static boolean s_bValidatorConfigured = false;
+
+	/**
+	 * Configures the validator (i.e., its logger, its entity resolver, its DTDs and its schemas) as the main program would,
+	 * using the local ONIX root given by the 'onix.localDtdRoot' system property.
+	 *
+	 * @return the local ONIX root
+	 * @see    IllegalStateException
+	 */
+	public static synchronized String configureValidator() {
+
+		String sLocalDtdRoot = System.getProperty(CONST_LOCAL_DTD_ROOT_PROPERTY, "").trim();
+
+		if (sLocalDtdRoot.length() <= 0 || !new File(sLocalDtdRoot).isDirectory())
+			throw new IllegalStateException("The system property(" + CONST_LOCAL_DTD_ROOT_PROPERTY +
+					                        ") must name the local directory that contains the downloaded ONIX DTDs/XSDs.");
+
+		if (!s_bValidatorConfigured) {
+
+			configureLogger();
+
+			OnixEntityResolver oEntityResolver = new OnixEntityResolver(sLocalDtdRoot);
+
+			OnixFileValidator.setEntityResolver(oEntityResolver);
+
+			try {
+				OnixValidator.registerGrammars(sLocalDtdRoot, oEntityResolver);
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("The local ONIX DTDs under(" + sLocalDtdRoot + ") could not be compiled.", e);
+			}
+
+			File oSchemaFile = new File(sLocalDtdRoot, OnixValidator.CONST_DEFAULT_ONIX30_REF_XSD);
+			if (oSchemaFile.exists())
+				OnixSchemaCache.getInstance().registerSchema(OnixFileFormat.CONST_ONIX30_REF_NAMESPACE, oSchemaFile);
+
+			s_bValidatorConfigured = true;
+		}
+
+		return sLocalDtdRoot;
+	}
+
+	/**
+	 * Configures only the logger of the validator, for the benchmarks that do not parse any ONIX.
+	 *
+	 * @return None
+	 */
+	public static synchronized void configureLogger() {
+
+		if (OnixValidator.s_oSearchExtractLog == null)
+			OnixValidator.s_oSearchExtractLog = LoggerFactory.getLogger(OnixBenchmarkCorpus.class);
+	}
+
+	/**
+	 * Creates the file of a synthetic issue of the code lists (Ex. "ONIX_BookProduct_Codelists_Issue_61.txt"), in the
+	 * tab-separated format of EDITEUR.  Each list holds every code of the synthetic ONIX files, along with enough others
+	 * (i.e., each two-digit code, each two-letter code and each letter followed by two digits) that its lookups are searched
+	 * across hundreds of codes, as with the lists of a real issue.
+	 *
+	 * @param  poDirectory the directory in which to create the file
+	 * @return the created file
+	 * @see    IOException
+	 */
+	public static File createCodeListFile(File poDirectory)
+			throws IOException {
+
+		File oCodeListFile = new File(poDirectory, "ONIX_BookProduct_Codelists_Issue_" + CONST_CODE_LIST_ISSUE + ".txt");
+
+		try (BufferedWriter oWriter = Files.newBufferedWriter(oCodeListFile.toPath(), StandardCharsets.UTF_8)) {
+
+			oWriter.write("List number\tCode value\tCode description\n");
+
+			for (int nListNumber : CONST_CODE_LIST_NUMBERS) {
+
+				for (int i = 0; i < 100; ++i)
+					oWriter.write(nListNumber + "\t" + String.format("%02d", i) + "\tCode\n");
+
+				for (char cFirst = 'A'; cFirst <= 'Z'; ++cFirst) {
+
+					for (char cSecond = 'A'; cSecond <= 'Z'; ++cSecond)
+						oWriter.write(nListNumber + "\t" + cFirst + cSecond + "\tCode\n");
+
+					for (int i = 1; i < 100; ++i)
+						oWriter.write(nListNumber + "\t" + cFirst + String.format("%02d", i) + "\tCode\n");
+				}
+
+				for (String sCode : CONST_EXTRA_CODES)
+					oWriter.write(nListNumber + "\t" + sCode + "\tCode\n");
+			}
+		}
+
+		return oCodeListFile;
+	}
+
+	/**
+	 * Creates a synthetic ONIX file (via the OnixCorpusGenerator) with the specified number of Products, whose
+	 * descriptions are padded so that the file will be (approximately) the specified size.
+	 *
+	 * @param  poOnixFile the file to create (or to overwrite)
+	 * @param  psOnixVersion the version of ONIX (i.e., CONST_ONIX21 or CONST_ONIX30)
+	 * @param  pnProductCount the number of Products in the file
+	 * @param  pnTargetBytes the approximate size of the file
+	 * @return the created file
+	 * @see    IOException
+	 */
+	public static File createOnixFile(File poOnixFile, String psOnixVersion, int pnProductCount, long pnTargetBytes)
+			throws IOException {
+
+		// NOTE: The seed is fixed, so that every run of a benchmark measures the same content
+		OnixCorpusGenerator oGenerator = new OnixCorpusGenerator(psOnixVersion, pnProductCount, pnTargetBytes, 0, 0, 1);
+
+		return oGenerator.generateFile(poOnixFile, psOnixVersion, false, new Random(1)).oOnixFile;
+	}
+}
@@ -0,0 +1,101 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * OnixGzipBenchmark --- This benchmark measures the compression of an ONIX file, both via the shared compressor used by
+ *                       OnixValidatorCommonCalls.gzipIt() and via a compressor with the specified threads and block size.
+ * @author    Aaron Kendall
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OnixGzipBenchmark {
+
+	@Param({ "3.0" })
+	public String onixVersion;
+
+	@Param({ "16", "128" })
+	public int fileSizeMB;
+
+	@Param({ "10000" })
+	public int productCount;
+
+	@Param({ "1", "4", "0" })
+	public int threads;
+
+	@Param({ "1024" })
+	public int blockKB;
+
+	private File m_oWorkDir  = null;
+	private File m_oOnixFile = null;
+	private File m_oGzipFile = null;
+
+	private OnixParallelGzip m_oCompressor = null;
+
+	@Setup(Level.Trial)
+	public void createOnixFile()
+			throws IOException {
+
+		OnixBenchmarkCorpus.configureLogger();
+
+		m_oWorkDir  = Files.createTempDirectory("onix-bench-gzip").toFile();
+		m_oOnixFile = OnixBenchmarkCorpus.createOnixFile(new File(m_oWorkDir, "Feed.xml"), onixVersion, productCount, fileSizeMB * 1024L * 1024L);
+		m_oGzipFile = new File(m_oWorkDir, "Feed.xml" + OnixParallelGzip.CONST_GZIP_SUFFIX);
+
+		m_oCompressor = new OnixParallelGzip(threads, blockKB * 1024, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteOnixFile()
+			throws IOException {
+
+		m_oCompressor.awaitCompletion();
+
+		FileUtils.deleteDirectory(m_oWorkDir);
+	}
+
+	/**
+	 * Compresses the file via gzipIt() (i.e., with the shared compressor, which uses every core).
+	 */
+	@Benchmark
+	public long gzipIt()
+			throws IOException {
+
+		OnixValidatorCommonCalls.gzipIt(m_oOnixFile.getAbsolutePath());
+
+		return m_oGzipFile.length();
+	}
+
+	/**
+	 * Compresses the file with the specified number of threads and block size.
+	 */
+	@Benchmark
+	public long compressFile()
+			throws IOException {
+
+		return m_oCompressor.compressFile(m_oOnixFile, m_oGzipFile);
+	}
+}
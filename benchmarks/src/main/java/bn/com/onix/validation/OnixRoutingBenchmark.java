@@ -0,0 +1,136 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * OnixRoutingBenchmark --- This benchmark measures the batch steps of the validator against a whole Inbox directory
+ *                          (i.e., the DOCTYPE rewrite, the file moves and the validation of every file by the workers).
+ * <p>
+ * The Inbox is restored from a pristine copy before each operation, so that every operation sees the same files
+ * (and the copying is not included in the measurement).
+ * @author    Aaron Kendall
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OnixRoutingBenchmark {
+
+	@Param({ "2.1", "3.0" })
+	public String onixVersion;
+
+	@Param({ "1" })
+	public int fileSizeMB;
+
+	@Param({ "100" })
+	public int productCount;
+
+	@Param({ "64" })
+	public int fileCount;
+
+	@Param({ "1", "4", "0" })
+	public int threads;
+
+	private String m_sLocalDtdRoot = null;
+
+	private File m_oWorkDir     = null;
+	private File m_oPristineDir = null;
+	private File m_oInboxDir    = null;
+	private File m_oOutputDir   = null;
+	private File m_oFailedDir   = null;
+
+	@Setup(Level.Trial)
+	public void createOnixFiles()
+			throws IOException {
+
+		m_sLocalDtdRoot = OnixBenchmarkCorpus.configureValidator();
+
+		m_oWorkDir     = Files.createTempDirectory("onix-bench-routing").toFile();
+		m_oPristineDir = new File(m_oWorkDir, "pristine");
+		m_oInboxDir    = new File(m_oWorkDir, "inbox");
+		m_oOutputDir   = new File(m_oWorkDir, "output");
+		m_oFailedDir   = new File(m_oWorkDir, "failed");
+
+		File oOnixFile =
+			OnixBenchmarkCorpus.createOnixFile(new File(m_oPristineDir, "Feed_0.xml"), onixVersion, productCount, fileSizeMB * 1024L * 1024L);
+
+		for (int i = 1; i < fileCount; ++i)
+			FileUtils.copyFile(oOnixFile, new File(m_oPristineDir, "Feed_" + i + ".xml"));
+	}
+
+	@Setup(Level.Invocation)
+	public void restoreInbox()
+			throws IOException {
+
+		FileUtils.deleteDirectory(m_oInboxDir);
+		FileUtils.deleteDirectory(m_oOutputDir);
+		FileUtils.deleteDirectory(m_oFailedDir);
+
+		FileUtils.copyDirectory(m_oPristineDir, m_oInboxDir);
+
+		m_oOutputDir.mkdirs();
+		m_oFailedDir.mkdirs();
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteOnixFiles()
+			throws IOException {
+
+		FileUtils.deleteDirectory(m_oWorkDir);
+	}
+
+	/**
+	 * Rewrites the DOCTYPE tag of every file in the Inbox (as done when 'dtdResolutionMode' is REWRITE).
+	 */
+	@Benchmark
+	public void replaceDtdReferences()
+			throws Exception {
+
+		OnixValidator.replaceDtdReferences(m_oInboxDir.getAbsolutePath(), OnixValidator.CONST_DEFAULT_ONIX_DTD_URL_BASE, m_sLocalDtdRoot);
+	}
+
+	/**
+	 * Moves every file in the Inbox into the Output directory, as the workers do after validating each file.
+	 */
+	@Benchmark
+	public int moveFiles()
+			throws IOException {
+
+		File[] aSourceFiles = m_oInboxDir.listFiles();
+
+		for (File onixFile : aSourceFiles)
+			FileUtils.moveFile(onixFile, new File(m_oOutputDir, onixFile.getName()));
+
+		return aSourceFiles.length;
+	}
+
+	/**
+	 * Validates every file in the Inbox and routes it into the appropriate directory (i.e., the complete batch run).
+	 */
+	@Benchmark
+	public void validateOnixFiles()
+			throws Exception {
+
+		OnixValidator.validateOnixFiles(m_oInboxDir.getAbsolutePath(), m_oOutputDir.getAbsolutePath(), m_oFailedDir.getAbsolutePath(), threads);
+	}
+}
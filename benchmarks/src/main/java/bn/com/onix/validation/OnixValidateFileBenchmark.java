@@ -0,0 +1,176 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * OnixValidateFileBenchmark --- This benchmark measures the validation of a single ONIX file, both by one call of
+ *                               OnixFileValidator.ValidateFile() and by the Product-level split of the file.
+ * <p>
+ * When 'threads' is greater than 1, that many validations of the file run at the same time (each with its own parser),
+ * so that the cost of one operation shows how well the validation scales across cores.  When 'codeLists' is "on", a
+ * synthetic issue of the code lists is loaded, so that the cost of checking the coded elements during the parse can be
+ * compared with the validation against the DTD/XSD alone.
+ * @author    Aaron Kendall
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OnixValidateFileBenchmark {
+
+	@Param({ "2.1", "3.0" })
+	public String onixVersion;
+
+	@Param({ "1", "16" })
+	public int fileSizeMB;
+
+	@Param({ "100", "10000" })
+	public int productCount;
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	@Param({ "off", "on" })
+	public String codeLists;
+
+	private File m_oWorkDir = null;
+
+	private File m_oOnixFile = null;
+
+	private ExecutorService m_oExecutor = null;
+
+	@Setup(Level.Trial)
+	public void createOnixFile()
+			throws Exception {
+
+		OnixBenchmarkCorpus.configureValidator();
+
+		m_oWorkDir  = Files.createTempDirectory("onix-bench-validate").toFile();
+		m_oOnixFile = OnixBenchmarkCorpus.createOnixFile(new File(m_oWorkDir, "Feed.xml"), onixVersion, productCount, fileSizeMB * 1024L * 1024L);
+
+		if ("on".equals(codeLists)) {
+
+			File oCodeListDir = new File(m_oWorkDir, "codelists");
+
+			oCodeListDir.mkdirs();
+
+			OnixBenchmarkCorpus.createCodeListFile(oCodeListDir);
+
+			OnixCodeLists.setInstance(OnixCodeLists.load(oCodeListDir.getAbsolutePath(), OnixBenchmarkCorpus.CONST_CODE_LIST_ISSUE));
+		}
+		else
+			OnixCodeLists.setInstance(null);
+
+		// NOTE: A file that fails to validate would measure the error handling instead of the validation
+		if (!OnixFileValidator.ValidateFile(m_oOnixFile))
+			throw new IllegalStateException("The synthetic ONIX file(" + m_oOnixFile.getAbsolutePath() + ") is not valid.");
+
+		if (threads > 1)
+			m_oExecutor = Executors.newFixedThreadPool(threads);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteOnixFile()
+			throws IOException {
+
+		if (m_oExecutor != null)
+			OnixValidatorCommonCalls.waitOnThreads(new ExecutorService[] { m_oExecutor });
+
+		OnixCodeLists.setInstance(null);
+
+		FileUtils.deleteDirectory(m_oWorkDir);
+	}
+
+	/**
+	 * Validates the file with a single parse (as done for most files).
+	 */
+	@Benchmark
+	public boolean validateFile()
+			throws Exception {
+
+		if (m_oExecutor == null)
+			return validateOnce(false);
+
+		return validateConcurrently(false);
+	}
+
+	/**
+	 * Validates the file by splitting it at its Product boundaries (as done for files beyond 'productSplitThresholdMB').
+	 */
+	@Benchmark
+	public boolean validateFileByProducts()
+			throws Exception {
+
+		if (m_oExecutor == null)
+			return validateOnce(true);
+
+		return validateConcurrently(true);
+	}
+
+	private boolean validateConcurrently(final boolean pbSplitByProducts)
+			throws Exception {
+
+		List<Future<Boolean>> oResults = new ArrayList<Future<Boolean>>(threads);
+
+		for (int i = 0; i < threads; ++i) {
+
+			oResults.add(m_oExecutor.submit(new Callable<Boolean>() {
+
+				@Override
+				public Boolean call() throws Exception {
+					return validateOnce(pbSplitByProducts);
+				}
+			}));
+		}
+
+		boolean bValid = true;
+
+		for (Future<Boolean> oResult : oResults)
+			bValid &= oResult.get();
+
+		return bValid;
+	}
+
+	private boolean validateOnce(boolean pbSplitByProducts)
+			throws Exception {
+
+		OnixFileErrorHandler oErrorHandler = new OnixFileErrorHandler(m_oOnixFile.getAbsolutePath());
+
+		if (pbSplitByProducts) {
+
+			int nProductsPerChunk = Math.max(productCount / (Runtime.getRuntime().availableProcessors() * 4), 1);
+
+			OnixProductParallelValidator.ValidateFile(m_oOnixFile, oErrorHandler, nProductsPerChunk);
+		}
+		else
+			OnixFileValidator.ValidateFile(m_oOnixFile, oErrorHandler);
+
+		return oErrorHandler.isValid();
+	}
+}
@@ -0,0 +1,396 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OnixAdmissionScheduler --- This class sits in front of the OnixValidationEngine (or the validate stage of the OnixValidationPipeline),
+ *                            deciding which of the discovered ONIX files is validated next and whether there is enough memory to
+ *                            start validating it yet.
+ * <p>
+ * The cost of each file is estimated from its size and format (i.e., the uncompressed size of a gzip file is read from its
+ * trailer, while the size of a zip archive is multiplied by a typical ratio of compression).  The files are ordered by
+ * shortest-job-first with aging: a file is treated as if it had arrived later by an amount of time proportional to its size,
+ * so that hundreds of small feeds are no longer stuck behind one giant file, while a giant file is still guaranteed its turn
+ * once it has waited long enough.
+ * <p>
+ * A file is only handed to the engine when a worker is free and its estimated heap usage fits within both the memory budget
+ * (less the estimates of the files already being validated) and the live headroom of the heap.  Since only the head of the
+ * queue is ever admitted, a large file that is waiting for memory cannot be overtaken indefinitely; and since a file is always
+ * admitted when nothing else is being validated, a file larger than the budget is still validated (alone).
+ * <p>
+ * The admitted files are handed to an AdmissionTarget, which must run the given callback once the file has been validated,
+ * so that its reservation of memory is released.  If the target fails to accept a file (i.e., admit() throws), the reservation
+ * is undone at once and the file is abandoned (and left where it is), so that awaitIdle() never waits for it.
+ * @author    Aaron Kendall
+ */
+public class OnixAdmissionScheduler {
+
+	private static final long CONST_BASE_COST_MB = 4;
+
+	private static final int CONST_ZIP_COMPRESSION_RATIO  = 8;
+	private static final int CONST_GZIP_COMPRESSION_RATIO = 8;
+
+	private static final long CONST_BYTES_PER_MB = 1024L * 1024L;
+
+	/**
+	 * AdmissionTarget --- The recipient of the admitted files (Ex. the OnixValidationEngine).
+	 */
+	public interface AdmissionTarget {
+
+		/**
+		 * Starts the validation of an admitted file, without blocking for long (since the scheduler is locked meanwhile).
+		 *
+		 * @param  poOnixFile the ONIX file to validate
+		 * @param  psOutputDir the directory to which the file will be moved if valid
+		 * @param  psFailedDir the directory to which the file will be moved if invalid
+		 * @param  poOnRelease the callback that must be run (exactly once) when the file has been validated or abandoned
+		 * @return None
+		 */
+		void admit(File poOnixFile, String psOutputDir, String psFailedDir, Runnable poOnRelease);
+	}
+
+	/**
+	 * PendingFile --- A discovered file that is waiting for its admission.
+	 */
+	private static class PendingFile {
+
+		final File     oOnixFile;
+		final String   sOutputDir;
+		final String   sFailedDir;
+		final long     nCostMB;
+		final long     nPriority;
+		final long     nSequence;
+		final long     nQueuedMillis;
+		final Runnable oOnComplete;
+
+		final AtomicBoolean oReleased = new AtomicBoolean(false);
+
+		PendingFile(File poOnixFile, String psOutputDir, String psFailedDir, long pnCostMB, long pnPriority, long pnSequence, long pnQueuedMillis,
+				    Runnable poOnComplete) {
+
+			oOnixFile     = poOnixFile;
+			sOutputDir    = psOutputDir;
+			sFailedDir    = psFailedDir;
+			nCostMB       = pnCostMB;
+			nPriority     = pnPriority;
+			nSequence     = pnSequence;
+			nQueuedMillis = pnQueuedMillis;
+			oOnComplete   = poOnComplete;
+		}
+	}
+
+	private final AdmissionTarget      m_oTarget;
+	private final OnixValidationEngine m_oEngine;
+
+	private final int  m_nMaxInFlight;
+	private final int  m_nMaxQueued;
+	private final long m_nMemoryBudgetMB;
+	private final int  m_nHeapPercent;
+	private final long m_nAgingMillisPerMB;
+
+	private final ReentrantLock m_oLock    = new ReentrantLock();
+	private final Condition     m_oChanged = m_oLock.newCondition();
+
+	// NOTE: The state of the queue and of the admitted files (guarded by m_oLock)
+	private final PriorityQueue<PendingFile> m_oQueue;
+
+	private int         m_nInFlight     = 0;
+	private long        m_nReservedMB   = 0;
+	private long        m_nSequence     = 0;
+	private PendingFile m_oDeferredHead = null;
+
+	private long m_nAdmittedCount   = 0;
+	private long m_nDeferralCount   = 0;
+	private long m_nTotalWaitMillis = 0;
+	private long m_nMaxWaitMillis   = 0;
+	private long m_nPeakReservedMB  = 0;
+
+	/**
+	 * Creates the scheduler for an engine.
+	 *
+	 * @param  poEngine the engine that will validate (and route) the admitted files
+	 * @param  pnMaxQueued the number of discovered files that can wait for admission (after which submit() blocks)
+	 * @param  pnMemoryBudgetMB the heap (in MB) that the admitted files may use in total (where 0 indicates 75% of the maximum heap)
+	 * @param  pnHeapPercent the estimated heap usage of a file, as a percentage of its uncompressed size
+	 * @param  pnAgingMillisPerMB the delay (in ms) by which each MB of a file postpones its turn (where 0 indicates FIFO order)
+	 */
+	public OnixAdmissionScheduler(final OnixValidationEngine poEngine, int pnMaxQueued, long pnMemoryBudgetMB, int pnHeapPercent, 
+			                      long pnAgingMillisPerMB) {
+
+		this(new AdmissionTarget() {
+
+			@Override
+			public void admit(File poOnixFile, String psOutputDir, String psFailedDir, Runnable poOnRelease) {
+				poEngine.submit(poOnixFile, psOutputDir, psFailedDir, poOnRelease);
+			}
+		}, poEngine, poEngine.getNumOfThreads(), pnMaxQueued, pnMemoryBudgetMB, pnHeapPercent, pnAgingMillisPerMB);
+	}
+
+	/**
+	 * Creates the scheduler for any other target (Ex. the validate stage of the OnixValidationPipeline).
+	 *
+	 * @param  poTarget the target that will validate the admitted files
+	 * @param  pnMaxInFlight the number of admitted files that may be awaiting (or undergoing) their validation at once
+	 * @param  pnMaxQueued the number of discovered files that can wait for admission (after which submit() blocks)
+	 * @param  pnMemoryBudgetMB the heap (in MB) that the admitted files may use in total (where 0 indicates 75% of the maximum heap)
+	 * @param  pnHeapPercent the estimated heap usage of a file, as a percentage of its uncompressed size
+	 * @param  pnAgingMillisPerMB the delay (in ms) by which each MB of a file postpones its turn (where 0 indicates FIFO order)
+	 */
+	public OnixAdmissionScheduler(AdmissionTarget poTarget, int pnMaxInFlight, int pnMaxQueued, long pnMemoryBudgetMB, int pnHeapPercent, 
+			                      long pnAgingMillisPerMB) {
+
+		this(poTarget, null, pnMaxInFlight, pnMaxQueued, pnMemoryBudgetMB, pnHeapPercent, pnAgingMillisPerMB);
+	}
+
+	private OnixAdmissionScheduler(AdmissionTarget poTarget, OnixValidationEngine poEngine, int pnMaxInFlight, int pnMaxQueued, 
+			                       long pnMemoryBudgetMB, int pnHeapPercent, long pnAgingMillisPerMB) {
+
+		m_oTarget           = poTarget;
+		m_oEngine           = poEngine;
+		m_nMaxInFlight      = Math.max(pnMaxInFlight, 1);
+		m_nMaxQueued        = Math.max(pnMaxQueued, 1);
+		m_nMemoryBudgetMB   = (pnMemoryBudgetMB > 0) ? pnMemoryBudgetMB : ((getMaxHeapMB() * 3) / 4);
+		m_nHeapPercent      = Math.max(pnHeapPercent, 0);
+		m_nAgingMillisPerMB = Math.max(pnAgingMillisPerMB, 0);
+
+		m_oQueue = new PriorityQueue<PendingFile>(m_nMaxQueued, new Comparator<PendingFile>() {
+
+			@Override
+			public int compare(PendingFile poFirst, PendingFile poSecond) {
+
+				int nResult = Long.compare(poFirst.nPriority, poSecond.nPriority);
+
+				return (nResult != 0) ? nResult : Long.compare(poFirst.nSequence, poSecond.nSequence);
+			}
+		});
+	}
+
+	/**
+	 * Blocks until every submitted file has been validated and routed, after which the engine (if any) will no longer accept any files.
+	 *
+	 * @return None
+	 */
+	public void awaitCompletion() {
+
+		awaitIdle();
+
+		if (m_oEngine != null)
+			m_oEngine.awaitCompletion();
+	}
+
+	/**
+	 * Blocks until every submitted file has been admitted and then released by the target.
+	 *
+	 * @return None
+	 */
+	public void awaitIdle() {
+
+		m_oLock.lock();
+		try {
+			while (!m_oQueue.isEmpty() || (m_nInFlight > 0))
+				m_oChanged.awaitUninterruptibly();
+		}
+		finally {
+			m_oLock.unlock();
+		}
+	}
+
+	/**
+	 * Hands the files at the head of the queue to the engine, for as long as there are free workers and enough memory.
+	 * <p>
+	 * This function must be called while holding m_oLock.
+	 */
+	private void dispatch() {
+
+		while (!m_oQueue.isEmpty() && (m_nInFlight < m_nMaxInFlight)) {
+
+			final PendingFile oHead = m_oQueue.peek();
+
+			if ((m_nInFlight > 0) && !fitsInMemory(oHead.nCostMB)) {
+
+				// NOTE: The head waits (rather than being overtaken) until a validation completes and frees its memory
+				if (m_oDeferredHead != oHead) {
+
+					m_oDeferredHead = oHead;
+					++m_nDeferralCount;
+
+					OnixValidator.logDebug("Deferring ONIX file(" + oHead.oOnixFile.getAbsolutePath() + ") with an estimated cost of (" +
+					                       oHead.nCostMB + ") MB : Reserved MB(" + m_nReservedMB + "), Used MB(" +
+					                       OnixValidatorCommonCalls.getUsedMemoryMB() + "), Free MB(" +
+					                       OnixValidatorCommonCalls.getAvailableMemoryMB() + ").");
+				}
+
+				break;
+			}
+
+			m_oQueue.poll();
+
+			long nWaitMillis = System.currentTimeMillis() - oHead.nQueuedMillis;
+
+			++m_nAdmittedCount;
+			m_nTotalWaitMillis += nWaitMillis;
+			m_nMaxWaitMillis    = Math.max(m_nMaxWaitMillis, nWaitMillis);
+
+			++m_nInFlight;
+			m_nReservedMB    += oHead.nCostMB;
+			m_nPeakReservedMB = Math.max(m_nPeakReservedMB, m_nReservedMB);
+
+			try {
+				m_oTarget.admit(oHead.oOnixFile, oHead.sOutputDir, oHead.sFailedDir, new Runnable() {
+
+					@Override
+					public void run() {
+						release(oHead);
+					}
+				});
+			}
+			catch (RuntimeException e) {
+
+				OnixValidator.logError("ERROR!  Could not admit ONIX file(" + oHead.oOnixFile.getAbsolutePath() + "), so it is left in place.");
+				OnixValidator.logException(e);
+
+				// NOTE: The reservation is undone here (unless the target already released it), since the target will never release it
+				if (oHead.oReleased.compareAndSet(false, true)) {
+
+					--m_nInFlight;
+					m_nReservedMB -= oHead.nCostMB;
+
+					if (oHead.oOnComplete != null)
+						oHead.oOnComplete.run();
+				}
+			}
+		}
+
+		// NOTE: The discovery may be waiting for room in the queue
+		m_oChanged.signalAll();
+	}
+
+	/**
+	 * Estimates the uncompressed size of a file, as indicated by its format.
+	 */
+	static long estimateUncompressedBytes(File poOnixFile) {
+
+		long nFileLength = poOnixFile.length();
+
+		if (OnixArchiveValidator.isZipArchive(poOnixFile))
+			return nFileLength * CONST_ZIP_COMPRESSION_RATIO;
+
+		if (OnixArchiveValidator.isGzipFile(poOnixFile) && (nFileLength >= 18)) {
+
+			// NOTE: The last 4 bytes of a gzip file hold its uncompressed size (modulo 4 GB, so a smaller value means it wrapped)
+			try (RandomAccessFile oGzipFile = new RandomAccessFile(poOnixFile, "r")) {
+
+				oGzipFile.seek(nFileLength - 4);
+
+				long nTrailerSize = (oGzipFile.read() & 0xFFL) | ((oGzipFile.read() & 0xFFL) << 8) |
+				                    ((oGzipFile.read() & 0xFFL) << 16) | ((oGzipFile.read() & 0xFFL) << 24);
+
+				if (nTrailerSize >= nFileLength)
+					return nTrailerSize;
+			}
+			catch (IOException e) {
+				// NOTE: The file will fail in the same way during its validation, where the failure is reported
+			}
+
+			return nFileLength * CONST_GZIP_COMPRESSION_RATIO;
+		}
+
+		return nFileLength;
+	}
+
+	private boolean fitsInMemory(long pnCostMB) {
+
+		long nHeadroomMB = getMaxHeapMB() - OnixValidatorCommonCalls.getUsedMemoryMB();
+
+		return ((m_nReservedMB + pnCostMB) <= m_nMemoryBudgetMB) && (pnCostMB <= nHeadroomMB);
+	}
+
+	private static long getMaxHeapMB() {
+		return Runtime.getRuntime().maxMemory() / CONST_BYTES_PER_MB;
+	}
+
+	public String getStatistics() {
+
+		m_oLock.lock();
+		try {
+			return "Admission statistics: Admitted(" + m_nAdmittedCount + "), Deferred for Memory(" + m_nDeferralCount + "), Avg Wait ms(" +
+			       ((m_nAdmittedCount > 0) ? (m_nTotalWaitMillis / m_nAdmittedCount) : 0) + "), Max Wait ms(" + m_nMaxWaitMillis +
+			       "), Peak Reserved MB(" + m_nPeakReservedMB + "), Budget MB(" + m_nMemoryBudgetMB + ").";
+		}
+		finally {
+			m_oLock.unlock();
+		}
+	}
+
+	private void release(PendingFile poFile) {
+
+		// NOTE: A target that runs the callback more than once must not release the reservation twice
+		if (!poFile.oReleased.compareAndSet(false, true))
+			return;
+
+		if (poFile.oOnComplete != null)
+			poFile.oOnComplete.run();
+
+		m_oLock.lock();
+		try {
+			--m_nInFlight;
+			m_nReservedMB -= poFile.nCostMB;
+
+			dispatch();
+		}
+		finally {
+			m_oLock.unlock();
+		}
+	}
+
+	/**
+	 * Queues a discovered ONIX file for its admission, blocking while the queue is full.
+	 *
+	 * @param  poOnixFile the ONIX file to validate
+	 * @param  psOutputDir the directory to which the file will be moved if valid
+	 * @param  psFailedDir the directory to which the file will be moved if invalid
+	 * @return None
+	 */
+	public void submit(File poOnixFile, String psOutputDir, String psFailedDir) {
+		submit(poOnixFile, psOutputDir, psFailedDir, null);
+	}
+
+	/**
+	 * Queues a discovered ONIX file for its admission, blocking while the queue is full.
+	 *
+	 * @param  poOnixFile the ONIX file to validate
+	 * @param  psOutputDir the directory to which the file will be moved if valid
+	 * @param  psFailedDir the directory to which the file will be moved if invalid
+	 * @param  poOnComplete the callback to run once the file has been validated (or null if there is none)
+	 * @return None
+	 */
+	public void submit(File poOnixFile, String psOutputDir, String psFailedDir, Runnable poOnComplete) {
+
+		long nSizeMB       = estimateUncompressedBytes(poOnixFile) / CONST_BYTES_PER_MB;
+		long nCostMB       = CONST_BASE_COST_MB + ((nSizeMB * m_nHeapPercent) / 100);
+		long nQueuedMillis = System.currentTimeMillis();
+
+		// NOTE: Since the delay of a file depends only upon its size, the order of the queue never changes as the files wait
+		long nPriority = nQueuedMillis + (nSizeMB * m_nAgingMillisPerMB);
+
+		m_oLock.lock();
+		try {
+			while (m_oQueue.size() >= m_nMaxQueued)
+				m_oChanged.awaitUninterruptibly();
+
+			m_oQueue.add(new PendingFile(poOnixFile, psOutputDir, psFailedDir, nCostMB, nPriority, m_nSequence++, nQueuedMillis, poOnComplete));
+
+			dispatch();
+		}
+		finally {
+			m_oLock.unlock();
+		}
+	}
+}
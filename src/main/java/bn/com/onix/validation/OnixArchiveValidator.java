@@ -0,0 +1,437 @@
+package bn.com.onix.validation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.GZIPInputStream;
+
+
+/**
+ * OnixArchiveValidator --- This class validates compressed ONIX deliveries directly, without unpacking them to disk.
+ * <p>
+ * A gzip file (i.e., "*.gz") is decompressed on the fly into the parser, and it is routed like any other file.  The entries
+ * of a zip archive (i.e., "*.zip") are read through the zip FileSystem and validated in parallel, each with its own verdict.
+ * Then, the archive is either routed as a whole (into the failed directory if any entry is invalid) or split, so that each
+ * entry is extracted into the appropriate directory on its own.
+ * @author    Aaron Kendall
+ */
+public class OnixArchiveValidator {
+
+	public static final String CONST_GZIP_SUFFIX     = ".gz";
+	public static final String CONST_ZIP_SUFFIX      = ".zip";
+	public static final String CONST_VERDICTS_SUFFIX = ".verdicts.jsonl";
+
+	public static final int CONST_GZIP_BUFFER_SIZE = 64 * 1024;
+
+	private static final Charset s_oManifestCharset = Charset.forName("UTF-8");
+
+	/**
+	 * Describes a plain or gzip file in the Inbox.
+	 */
+	private static class FileSource implements OnixContentSource {
+
+		private final File    m_oOnixFile;
+		private final boolean m_bGzip;
+
+		FileSource(File poOnixFile) {
+
+			m_oOnixFile = poOnixFile;
+			m_bGzip     = isGzipFile(poOnixFile);
+		}
+
+		@Override
+		public String getOnixPath() {
+			return m_oOnixFile.getAbsolutePath();
+		}
+
+		@Override
+		public File getOnixFile() {
+			return m_bGzip ? null : m_oOnixFile;
+		}
+
+		@Override
+		public String getReportName() {
+			return m_oOnixFile.getName();
+		}
+
+		@Override
+		public String getSystemId() {
+			return m_oOnixFile.toURI().toString();
+		}
+
+		@Override
+		public InputStream openStream()
+				throws IOException {
+
+			// NOTE: It is necessary to use an InputStream here since the file will remain registered as "locked"
+			//       on Windows unless you take control and create a scope around its file handle
+			InputStream oFileStream = new FileInputStream(m_oOnixFile);
+
+			if (!m_bGzip)
+				return oFileStream;
+
+			try {
+				return new GZIPInputStream(oFileStream, CONST_GZIP_BUFFER_SIZE);
+			}
+			catch (IOException e) {
+				oFileStream.close();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Describes an entry within a zip archive, which is read through the archive's zip FileSystem.
+	 */
+	private static class ZipEntrySource implements OnixContentSource {
+
+		private final File   m_oArchiveFile;
+		private final Path   m_oEntryPath;
+		private final String m_sEntryName;
+
+		private String m_sReportName;
+
+		ZipEntrySource(File poArchiveFile, Path poEntryPath) {
+
+			String sArchiveName = poArchiveFile.getName();
+			String sArchiveBase = sArchiveName.substring(0, sArchiveName.length() - CONST_ZIP_SUFFIX.length());
+
+			m_oArchiveFile = poArchiveFile;
+			m_oEntryPath   = poEntryPath;
+			m_sEntryName   = poEntryPath.toString().startsWith("/") ? poEntryPath.toString().substring(1) : poEntryPath.toString();
+			m_sReportName  = sArchiveBase + "_" + m_sEntryName.replace('/', '_');
+		}
+
+		String getEntryName() {
+			return m_sEntryName;
+		}
+
+		Path getEntryPath() {
+			return m_oEntryPath;
+		}
+
+		@Override
+		public String getOnixPath() {
+			return m_oArchiveFile.getAbsolutePath() + "!/" + m_sEntryName;
+		}
+
+		@Override
+		public File getOnixFile() {
+			return null;
+		}
+
+		/**
+		 * Returns the name of the entry once it is extracted (Ex. "Feed_books_2024.xml" for the entry "books/2024.xml"
+		 * within "Feed.zip"), which is also the name of its report.
+		 */
+		@Override
+		public String getReportName() {
+			return m_sReportName;
+		}
+
+		void setReportName(String psReportName) {
+			m_sReportName = psReportName;
+		}
+
+		/**
+		 * Returns the URI of the archive itself, so that relative references resolve as if the entry had been unpacked beside it.
+		 */
+		@Override
+		public String getSystemId() {
+			return m_oArchiveFile.toURI().toString();
+		}
+
+		@Override
+		public InputStream openStream()
+				throws IOException {
+			return Files.newInputStream(m_oEntryPath);
+		}
+	}
+
+	/**
+	 * Validates a range of archive entries, dividing the range in half until each task covers a single entry.
+	 */
+	private static class EntryTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient List<ZipEntrySource> m_oEntries;
+		private final transient boolean[]            m_abVerdicts;
+		private final String                         m_sFailedDir;
+		private final int                            m_nFirst;
+		private final int                            m_nLast;
+
+		EntryTask(List<ZipEntrySource> poEntries, boolean[] pabVerdicts, String psFailedDir, int pnFirst, int pnLast) {
+
+			m_oEntries   = poEntries;
+			m_abVerdicts = pabVerdicts;
+			m_sFailedDir = psFailedDir;
+			m_nFirst     = pnFirst;
+			m_nLast      = pnLast;
+		}
+
+		@Override
+		protected void compute() {
+
+			if ((m_nLast - m_nFirst) > 1) {
+
+				int nMiddle = (m_nFirst + m_nLast) >>> 1;
+
+				invokeAll(new EntryTask(m_oEntries, m_abVerdicts, m_sFailedDir, m_nFirst, nMiddle),
+				          new EntryTask(m_oEntries, m_abVerdicts, m_sFailedDir, nMiddle, m_nLast));
+			}
+			else {
+				ZipEntrySource oEntry = m_oEntries.get(m_nFirst);
+
+				try {
+					m_abVerdicts[m_nFirst] = OnixValidator.validateContent(oEntry, m_sFailedDir);
+				}
+				catch (Exception e) {
+					OnixValidator.logError("ERROR!  Could not validate the ONIX entry(" + oEntry.getOnixPath() + ").");
+					OnixValidator.logException(e);
+
+					m_abVerdicts[m_nFirst] = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the content source of a file in the Inbox, which is decompressed on the fly if it is a gzip file.
+	 *
+	 * @param  poOnixFile the ONIX file (plain or gzip)
+	 * @return the source through which the file can be validated
+	 */
+	public static OnixContentSource forFile(File poOnixFile) {
+		return new FileSource(poOnixFile);
+	}
+
+	public static boolean isGzipFile(File poFile) {
+		return poFile.getName().toLowerCase().endsWith(CONST_GZIP_SUFFIX);
+	}
+
+	public static boolean isZipArchive(File poFile) {
+		return poFile.getName().toLowerCase().endsWith(CONST_ZIP_SUFFIX);
+	}
+
+	/**
+	 * Validates every ONIX entry of a zip archive in parallel (straight from the archive), and then routes the archive.
+	 * <p>
+	 * If the archive is routed as a whole, a manifest with the verdict of each entry (Ex. "Feed.zip.verdicts.jsonl") is written
+	 * next to it.  If the archive is split, each entry is extracted into the appropriate directory and the archive is deleted.
+	 *
+	 * @param  poArchiveFile the zip archive to validate
+	 * @param  psOutputDir the directory to which valid content will be moved
+	 * @param  psFailedDir the directory to which invalid content will be moved
+	 * @param  pbSplit indicates whether the archive should be split into its entries (rather than routed as a whole)
+	 * @return boolean Indicates whether or not every entry of the archive was valid
+	 * @see    IOException
+	 */
+	public static boolean validateAndRouteZip(File poArchiveFile, String psOutputDir, String psFailedDir, boolean pbSplit)
+			throws IOException {
+
+		boolean   bAllValid  = false;
+		boolean[] abVerdicts = null;
+		long      nSplitId   = 0;
+
+		List<ZipEntrySource> oEntries      = new ArrayList<ZipEntrySource>();
+		List<File>           oSplitTargets = new ArrayList<File>();
+
+		OnixRoutingJournal oRoutingJournal = OnixValidator.getRoutingJournal();
+
+		try (FileSystem oZipFs = FileSystems.newFileSystem(poArchiveFile.toPath(), (ClassLoader) null)) {
+
+			for (Path oRoot : oZipFs.getRootDirectories())
+				collectEntries(poArchiveFile, oRoot, oEntries);
+
+			Collections.sort(oEntries, new Comparator<ZipEntrySource>() {
+
+				@Override
+				public int compare(ZipEntrySource poLeft, ZipEntrySource poRight) {
+					return poLeft.getEntryName().compareTo(poRight.getEntryName());
+				}
+			});
+
+			assignReportNames(oEntries);
+
+			abVerdicts = new boolean[oEntries.size()];
+
+			if (!oEntries.isEmpty())
+				OnixProductParallelValidator.getForkJoinPool().invoke(new EntryTask(oEntries, abVerdicts, psFailedDir, 0, oEntries.size()));
+
+			bAllValid = !oEntries.isEmpty();
+
+			for (int i = 0; i < abVerdicts.length; ++i) {
+
+				OnixValidator.logInfo("The verdict for ONIX entry(" + oEntries.get(i).getOnixPath() + ") is (" +
+				                      (abVerdicts[i] ? "valid" : "invalid") + ").");
+
+				bAllValid &= abVerdicts[i];
+			}
+
+			if (oEntries.isEmpty())
+				OnixValidator.logError("ERROR!  The ONIX archive(" + poArchiveFile.getAbsolutePath() + ") does not contain any entries.");
+
+			// NOTE: The entries must be extracted while the zip FileSystem is still open
+			if (pbSplit && !oEntries.isEmpty()) {
+
+				for (int i = 0; i < abVerdicts.length; ++i)
+					oSplitTargets.add(OnixValidator.getRoutingFile(abVerdicts[i] ? psOutputDir : psFailedDir, oEntries.get(i).getReportName()));
+
+				if (oRoutingJournal != null)
+					nSplitId = oRoutingJournal.beginSplit(poArchiveFile, oSplitTargets);
+
+				int nExtracted = 0;
+
+				try {
+					// NOTE: Each entry only appears under its final name once it has been completely extracted (and forced to disk),
+					//       and, as with any other routed file, an existing file is never replaced
+					for (; nExtracted < abVerdicts.length; ++nExtracted)
+						OnixRoutingJournal.extractIntoPlace(oEntries.get(nExtracted).getEntryPath(), oSplitTargets.get(nExtracted).toPath());
+				}
+				catch (IOException e) {
+
+					// NOTE: The entries that were extracted are removed, since the whole archive is routed to the failed directory instead
+					for (int i = 0; i < nExtracted; ++i)
+						Files.deleteIfExists(oSplitTargets.get(i).toPath());
+
+					if (oRoutingJournal != null)
+						oRoutingJournal.abandonSplit(nSplitId);
+
+					throw e;
+				}
+			}
+		}
+		catch (IOException e) {
+			OnixValidator.logError("ERROR!  Could not read the ONIX archive(" + poArchiveFile.getAbsolutePath() + ").");
+			OnixValidator.logException(e);
+
+			OnixValidator.routeFile(poArchiveFile, OnixValidator.getRoutingFile(psFailedDir, poArchiveFile.getName()));
+
+			return false;
+		}
+
+		if (pbSplit && !oEntries.isEmpty()) {
+
+			if (oRoutingJournal != null)
+				oRoutingJournal.endSplit(nSplitId, poArchiveFile, oSplitTargets);
+			else if (!poArchiveFile.delete())
+				OnixValidator.logError("ERROR!  Could not delete the split ONIX archive(" + poArchiveFile.getAbsolutePath() + ").");
+		}
+		else {
+			String sTargetDir = bAllValid ? psOutputDir : psFailedDir;
+
+			File oTargetFile = OnixValidator.getRoutingFile(sTargetDir, poArchiveFile.getName());
+
+			// NOTE: The manifest is written into the same (possibly sharded) directory as its archive
+			writeManifest(new File(oTargetFile.getParentFile(), poArchiveFile.getName() + CONST_VERDICTS_SUFFIX), oEntries, abVerdicts);
+
+			OnixValidator.routeFile(poArchiveFile, oTargetFile);
+		}
+
+		return bAllValid;
+	}
+
+	/**
+	 * Collects the entries of an archive that should be validated, skipping directories along with any hidden
+	 * files or metadata (Ex. "__MACOSX/").
+	 */
+	private static void collectEntries(final File poArchiveFile, Path poRoot, final List<ZipEntrySource> poEntries)
+			throws IOException {
+
+		Files.walkFileTree(poRoot, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path poDir, BasicFileAttributes poAttrs) {
+
+				Path oName = poDir.getFileName();
+
+				if ((oName != null) && (oName.toString().startsWith(".") || oName.toString().startsWith("__MACOSX")))
+					return FileVisitResult.SKIP_SUBTREE;
+
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path poFile, BasicFileAttributes poAttrs) {
+
+				if (poAttrs.isRegularFile() && !poFile.getFileName().toString().startsWith("."))
+					poEntries.add(new ZipEntrySource(poArchiveFile, poFile));
+
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Ensures that no two entries share a name once they are flattened (Ex. "a/b.xml" and "a_b.xml" within "Feed.zip"), since
+	 * they would otherwise be extracted onto (and report into) the same file.  The first of the (sorted) entries keeps its name,
+	 * and each later one has its index inserted before its extension (Ex. "Feed_a_b_1.xml").
+	 */
+	private static void assignReportNames(List<ZipEntrySource> poEntries) {
+
+		Set<String> oTakenNames = new HashSet<String>();
+
+		for (int i = 0; i < poEntries.size(); ++i) {
+
+			ZipEntrySource oEntry = poEntries.get(i);
+
+			String sBaseName   = oEntry.getReportName();
+			String sReportName = sBaseName;
+
+			// NOTE: The names are compared without case, since the entries may be extracted onto a case-insensitive file system
+			for (int nIndex = i; !oTakenNames.add(sReportName.toLowerCase()); ++nIndex) {
+
+				int nExtension = sBaseName.lastIndexOf('.');
+
+				if (nExtension > 0)
+					sReportName = sBaseName.substring(0, nExtension) + "_" + nIndex + sBaseName.substring(nExtension);
+				else
+					sReportName = sBaseName + "_" + nIndex;
+			}
+
+			oEntry.setReportName(sReportName);
+		}
+	}
+
+	private static void writeManifest(File poManifestFile, List<ZipEntrySource> poEntries, boolean[] pabVerdicts) {
+
+		try (Writer oWriter = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(poManifestFile.toPath()), s_oManifestCharset))) {
+
+			for (int i = 0; i < pabVerdicts.length; ++i) {
+
+				StringBuilder sbLine = new StringBuilder(256);
+
+				sbLine.append("{\"entry\":");
+				OnixErrorReport.appendJsonString(sbLine, poEntries.get(i).getOnixPath());
+				sbLine.append(",\"valid\":").append(pabVerdicts[i]);
+				sbLine.append("}\n");
+
+				oWriter.write(sbLine.toString());
+			}
+		}
+		catch (IOException e) {
+			OnixValidator.logError("ERROR!  Could not write the verdict manifest(" + poManifestFile.getAbsolutePath() + ").");
+			OnixValidator.logException(e);
+		}
+	}
+}
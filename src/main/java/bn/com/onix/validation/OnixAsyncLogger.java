@@ -0,0 +1,329 @@
+package bn.com.onix.validation;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.WriterAppender;
+import org.slf4j.Logger;
+
+/**
+ * OnixAsyncLogger --- This class moves the writing of log messages off of the worker threads, so that a flood of messages
+ *                     (Ex. from a badly broken feed) does not turn the log into the bottleneck of the validator.
+ * <p>
+ * The messages are placed into a bounded ring buffer (whose slots are allocated once), and a single background thread writes
+ * them to the underlying logger in batches, flushing the log files once per batch rather than once per message.  When the
+ * buffer is full, new messages are either dropped (and later summarized by a single warning) or the caller waits for room,
+ * as specified by the overflow policy.  Stack traces are only rendered by the background thread, and only when their level
+ * is enabled.
+ * @author    Aaron Kendall
+ */
+public class OnixAsyncLogger {
+
+	public static final int CONST_LEVEL_DEBUG = 0;
+	public static final int CONST_LEVEL_INFO  = 1;
+	public static final int CONST_LEVEL_ERROR = 2;
+
+	public static final String CONST_OVERFLOW_DROP  = "DROP";
+	public static final String CONST_OVERFLOW_BLOCK = "BLOCK";
+
+	private static final String[] CONST_LEVEL_NAMES = { "debug", "info", "error" };
+
+	private final Logger  m_oLogger;
+	private final int     m_nCapacity;
+	private final int     m_nBatchSize;
+	private final long    m_nFlushNanos;
+	private final boolean m_bBlockOnOverflow;
+
+	private final ReentrantLock m_oLock     = new ReentrantLock();
+	private final Condition     m_oNotEmpty = m_oLock.newCondition();
+	private final Condition     m_oNotFull  = m_oLock.newCondition();
+
+	// NOTE: The ring buffer (guarded by m_oLock)
+	private final int[]       m_aLevels;
+	private final String[]    m_aMessages;
+	private final Throwable[] m_aThrowables;
+	private final long[]      m_aDropped = new long[CONST_LEVEL_NAMES.length];
+
+	private int m_nHead  = 0;
+	private int m_nCount = 0;
+
+	// NOTE: The batch being written (only used by the writer thread)
+	private final int[]       m_aBatchLevels;
+	private final String[]    m_aBatchMessages;
+	private final Throwable[] m_aBatchThrowables;
+	private final long[]      m_aBatchDropped = new long[CONST_LEVEL_NAMES.length];
+
+	private final List<WriterAppender> m_oFlushAppenders = new ArrayList<WriterAppender>();
+
+	private final Thread m_oWriterThread;
+
+	private volatile boolean m_bClosed = false;
+
+	/**
+	 * Creates (but does not start) the asynchronous path for a logger.
+	 *
+	 * @param  poLogger the underlying logger, which will only be called by the writer thread
+	 * @param  pnCapacity the number of messages that the ring buffer can hold
+	 * @param  pnBatchSize the maximum number of messages written (and flushed) at a time
+	 * @param  pnFlushMillis the longest time that a message can wait in the buffer before it is written
+	 * @param  psOverflowPolicy the handling of a message when the buffer is full (i.e., CONST_OVERFLOW_DROP or CONST_OVERFLOW_BLOCK)
+	 */
+	public OnixAsyncLogger(Logger poLogger, int pnCapacity, int pnBatchSize, long pnFlushMillis, String psOverflowPolicy) {
+
+		m_oLogger          = poLogger;
+		m_nCapacity        = Math.max(pnCapacity, 16);
+		m_nBatchSize       = Math.max(Math.min(pnBatchSize, m_nCapacity), 1);
+		m_nFlushNanos      = TimeUnit.MILLISECONDS.toNanos(Math.max(pnFlushMillis, 1));
+		m_bBlockOnOverflow = CONST_OVERFLOW_BLOCK.equalsIgnoreCase(psOverflowPolicy);
+
+		m_aLevels     = new int[m_nCapacity];
+		m_aMessages   = new String[m_nCapacity];
+		m_aThrowables = new Throwable[m_nCapacity];
+
+		m_aBatchLevels     = new int[m_nBatchSize];
+		m_aBatchMessages   = new String[m_nBatchSize];
+		m_aBatchThrowables = new Throwable[m_nBatchSize];
+
+		m_oWriterThread = new Thread("onix-async-logger") {
+
+			@Override
+			public void run() {
+				writeBatches();
+			}
+		};
+
+		m_oWriterThread.setDaemon(true);
+	}
+
+	/**
+	 * Stops accepting messages and blocks until every message in the buffer has been written.  Any message logged
+	 * afterwards is written directly to the underlying logger.
+	 *
+	 * @return None
+	 */
+	public void close() {
+
+		m_oLock.lock();
+		try {
+			if (m_bClosed)
+				return;
+
+			m_bClosed = true;
+
+			m_oNotEmpty.signalAll();
+			m_oNotFull.signalAll();
+		}
+		finally {
+			m_oLock.unlock();
+		}
+
+		try {
+			m_oWriterThread.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		setImmediateFlush(true);
+	}
+
+	public boolean isEnabled(int pnLevel) {
+
+		switch (pnLevel) {
+		case CONST_LEVEL_DEBUG : return m_oLogger.isDebugEnabled();
+		case CONST_LEVEL_INFO  : return m_oLogger.isInfoEnabled();
+		default                : return m_oLogger.isErrorEnabled();
+		}
+	}
+
+	/**
+	 * Places a message into the buffer, so that it will be written by the writer thread.
+	 * <p>
+	 * Messages whose level is disabled are discarded immediately.  When the buffer is full, the message is either dropped
+	 * (and counted for the next summary) or the caller waits for room, as specified by the overflow policy.
+	 *
+	 * @param  pnLevel the level of the message (Ex. CONST_LEVEL_ERROR)
+	 * @param  psMessage the message (which can be null if there is a Throwable)
+	 * @param  poThrowable the exception whose stack trace should be logged (or null if there is none)
+	 * @return None
+	 */
+	public void log(int pnLevel, String psMessage, Throwable poThrowable) {
+
+		if (!isEnabled(pnLevel))
+			return;
+
+		m_oLock.lock();
+		try {
+			while (!m_bClosed && (m_nCount >= m_nCapacity)) {
+
+				if (!m_bBlockOnOverflow) {
+					++m_aDropped[pnLevel];
+					return;
+				}
+
+				m_oNotFull.awaitUninterruptibly();
+			}
+
+			if (!m_bClosed) {
+
+				int nTail = (m_nHead + m_nCount) % m_nCapacity;
+
+				m_aLevels[nTail]     = pnLevel;
+				m_aMessages[nTail]   = psMessage;
+				m_aThrowables[nTail] = poThrowable;
+
+				// NOTE: The writer is only woken once a batch is ready (or else by its flush interval)
+				if (++m_nCount == m_nBatchSize)
+					m_oNotEmpty.signal();
+
+				return;
+			}
+		}
+		finally {
+			m_oLock.unlock();
+		}
+
+		write(pnLevel, psMessage, poThrowable);
+	}
+
+	/**
+	 * Starts the writer thread, which is stopped (after writing the buffer) by close().  The logger must be closed by its
+	 * owner (Ex. by the shutdown hook of the OnixValidator, once every other message has been logged).
+	 *
+	 * @return None
+	 */
+	public void start() {
+
+		// NOTE: The log files are flushed once per batch by the writer, rather than once per message
+		Enumeration<?> oAppenders = LogManager.getRootLogger().getAllAppenders();
+
+		while (oAppenders.hasMoreElements()) {
+
+			Object oAppender = oAppenders.nextElement();
+
+			if (oAppender instanceof WriterAppender)
+				m_oFlushAppenders.add((WriterAppender) oAppender);
+		}
+
+		setImmediateFlush(false);
+
+		m_oWriterThread.start();
+	}
+
+	private void setImmediateFlush(boolean pbImmediateFlush) {
+
+		for (WriterAppender oAppender : m_oFlushAppenders)
+			oAppender.setImmediateFlush(pbImmediateFlush);
+	}
+
+	private void write(int pnLevel, String psMessage, Throwable poThrowable) {
+
+		if (psMessage != null) {
+
+			switch (pnLevel) {
+			case CONST_LEVEL_DEBUG : m_oLogger.debug(psMessage); break;
+			case CONST_LEVEL_INFO  : m_oLogger.info(psMessage);  break;
+			default                : m_oLogger.error(psMessage); break;
+			}
+		}
+
+		// NOTE: The stack trace is rendered here (rather than by the worker) and only when it will be written
+		if ((poThrowable != null) && m_oLogger.isErrorEnabled())
+			m_oLogger.error(OnixValidatorCommonCalls.getStackTrace(poThrowable));
+	}
+
+	/**
+	 * The loop of the writer thread, which takes a batch of messages out of the buffer and writes them
+	 * (outside of the lock), until the logger is closed and the buffer is empty.
+	 */
+	private void writeBatches() {
+
+		while (true) {
+
+			int     nBatchCount = 0;
+			long    nDroppedSum = 0;
+			boolean bFinished   = false;
+
+			m_oLock.lock();
+			try {
+				if (!m_bClosed && (m_nCount < m_nBatchSize)) {
+					try {
+						m_oNotEmpty.awaitNanos(m_nFlushNanos);
+					}
+					catch (InterruptedException e) {
+						m_bClosed = true;
+					}
+				}
+
+				nBatchCount = Math.min(m_nCount, m_nBatchSize);
+
+				for (int i = 0; i < nBatchCount; ++i) {
+
+					int nSlot = (m_nHead + i) % m_nCapacity;
+
+					m_aBatchLevels[i]     = m_aLevels[nSlot];
+					m_aBatchMessages[i]   = m_aMessages[nSlot];
+					m_aBatchThrowables[i] = m_aThrowables[nSlot];
+
+					m_aMessages[nSlot]   = null;
+					m_aThrowables[nSlot] = null;
+				}
+
+				m_nHead   = (m_nHead + nBatchCount) % m_nCapacity;
+				m_nCount -= nBatchCount;
+
+				for (int i = 0; i < m_aDropped.length; ++i) {
+
+					m_aBatchDropped[i] = m_aDropped[i];
+					nDroppedSum       += m_aDropped[i];
+					m_aDropped[i]      = 0;
+				}
+
+				bFinished = m_bClosed && (m_nCount == 0);
+
+				if (nBatchCount > 0)
+					m_oNotFull.signalAll();
+			}
+			finally {
+				m_oLock.unlock();
+			}
+
+			try {
+				for (int i = 0; i < nBatchCount; ++i) {
+
+					if ((i == (nBatchCount - 1)) && (nDroppedSum == 0))
+						setImmediateFlush(true);
+
+					write(m_aBatchLevels[i], m_aBatchMessages[i], m_aBatchThrowables[i]);
+
+					m_aBatchMessages[i]   = null;
+					m_aBatchThrowables[i] = null;
+				}
+
+				if (nDroppedSum > 0) {
+
+					setImmediateFlush(true);
+
+					m_oLogger.error("WARNING!  The log buffer was full, so (" + nDroppedSum + ") messages were dropped : Errors(" +
+							        m_aBatchDropped[CONST_LEVEL_ERROR] + "), Info(" + m_aBatchDropped[CONST_LEVEL_INFO] + "), Debug(" +
+							        m_aBatchDropped[CONST_LEVEL_DEBUG] + ").");
+				}
+			}
+			catch (RuntimeException e) {
+				// NOTE: A failure of the underlying logger must not stop the writer (or else the workers would eventually block), 
+				//       and it cannot be reported via System.err since that stream may itself be proxied into this logger
+			}
+			finally {
+				setImmediateFlush(false);
+			}
+
+			if (bFinished)
+				return;
+		}
+	}
+}
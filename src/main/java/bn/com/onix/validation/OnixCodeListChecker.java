@@ -0,0 +1,189 @@
+package bn.com.onix.validation;
+
+import java.util.Arrays;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * OnixCodeListChecker --- This class follows the parse of an ONIX file, checking the value of each coded element
+ *                         (Ex. ProductForm, CurrencyCode) against its list within the OnixCodeLists.
+ * <p>
+ * The check happens during the same streaming parse as the validation against the DTD/XSD, so the file is not read twice.
+ * Only the characters of a coded element are buffered, and a value is looked up without creating any objects, so the cost
+ * is small compared to the parse itself.  The release of the file (i.e., ONIX 2.1 or 3.0) is determined from its root element.
+ * An invalid value is reported to the error handler as an error, at the line where the element ends.  The content events
+ * are also passed onward to the path tracker (if any), so that the errors are still reported with their location.
+ * @author    Aaron Kendall
+ */
+public class OnixCodeListChecker extends DefaultHandler {
+
+	private final OnixCodeLists          m_oCodeLists;
+	private final OnixFileErrorHandler   m_oErrorHandler;
+	private final OnixElementPathTracker m_oPathTracker;
+
+	private Locator m_oLocator = null;
+	private boolean m_bOnix30  = true;
+	private int     m_nDepth   = 0;
+
+	// NOTE: The coded element being parsed (if any) and its characters
+	private OnixCodeLists.ElementRule m_oRule        = null;
+	private String                    m_sRuleTag     = null;
+	private int                       m_nRuleDepth   = 0;
+	private char[]                    m_aValue       = new char[64];
+	private int                       m_nValueLength = 0;
+
+	private long m_nCheckedCount = 0;
+	private long m_nInvalidCount = 0;
+
+	/**
+	 * Creates the checker for one validation of an ONIX file.
+	 *
+	 * @param  poCodeLists the code lists against which the values are checked
+	 * @param  poErrorHandler the handler to which any invalid values are reported
+	 * @param  poPathTracker the tracker to which the content events are passed onward (or null if there is none)
+	 */
+	public OnixCodeListChecker(OnixCodeLists poCodeLists, OnixFileErrorHandler poErrorHandler, OnixElementPathTracker poPathTracker) {
+
+		m_oCodeLists    = poCodeLists;
+		m_oErrorHandler = poErrorHandler;
+		m_oPathTracker  = poPathTracker;
+	}
+
+	@Override
+	public void characters(char[] paChars, int pnStart, int pnLength) {
+
+		if (m_oPathTracker != null)
+			m_oPathTracker.characters(paChars, pnStart, pnLength);
+
+		if (m_oRule != null) {
+
+			if ((m_nValueLength + pnLength) > m_aValue.length)
+				m_aValue = Arrays.copyOf(m_aValue, Math.max(m_aValue.length * 2, m_nValueLength + pnLength));
+
+			System.arraycopy(paChars, pnStart, m_aValue, m_nValueLength, pnLength);
+			m_nValueLength += pnLength;
+		}
+	}
+
+	/**
+	 * Checks each value (i.e., each code of a multi-valued element) of the coded element that has just ended.
+	 */
+	private void checkValue()
+			throws SAXException {
+
+		int nStart = 0;
+
+		while (nStart < m_nValueLength) {
+
+			while ((nStart < m_nValueLength) && (m_aValue[nStart] <= ' '))
+				++nStart;
+
+			int nEnd = nStart;
+
+			if (m_oRule.bMultiValued) {
+				while ((nEnd < m_nValueLength) && (m_aValue[nEnd] > ' '))
+					++nEnd;
+			}
+			else {
+				nEnd = m_nValueLength;
+
+				while ((nEnd > nStart) && (m_aValue[nEnd - 1] <= ' '))
+					--nEnd;
+			}
+
+			if (nEnd == nStart)
+				return;
+
+			++m_nCheckedCount;
+
+			if (!m_oRule.oCodeList.contains(m_aValue, nStart, nEnd - nStart)) {
+
+				++m_nInvalidCount;
+
+				String sMessage = "The value(" + new String(m_aValue, nStart, nEnd - nStart) + ") of element(" + m_sRuleTag +
+				                  ") is not a code of ONIX code list " + m_oRule.oCodeList.nListNumber + " (Issue " + m_oCodeLists.getIssue() + ").";
+
+				m_oErrorHandler.error((m_oLocator != null) ? new SAXParseException(sMessage, m_oLocator)
+				                                           : new SAXParseException(sMessage, null, null, -1, -1));
+			}
+
+			nStart = nEnd;
+		}
+	}
+
+	@Override
+	public void endDocument() {
+		m_oCodeLists.recordChecks(m_nCheckedCount, m_nInvalidCount);
+	}
+
+	@Override
+	public void endElement(String psUri, String psLocalName, String psQName)
+			throws SAXException {
+
+		// NOTE: The value is checked before the tracker leaves the element, so that the error is reported with its path
+		if ((m_oRule != null) && (m_nDepth == m_nRuleDepth)) {
+
+			checkValue();
+
+			m_oRule = null;
+		}
+
+		if (m_oPathTracker != null)
+			m_oPathTracker.endElement(psUri, psLocalName, psQName);
+
+		--m_nDepth;
+	}
+
+	@Override
+	public void setDocumentLocator(Locator poLocator) {
+
+		m_oLocator = poLocator;
+
+		if (m_oPathTracker != null)
+			m_oPathTracker.setDocumentLocator(poLocator);
+	}
+
+	@Override
+	public void startDocument() {
+
+		if (m_oPathTracker != null)
+			m_oPathTracker.startDocument();
+
+		m_nDepth        = 0;
+		m_oRule         = null;
+		m_nCheckedCount = 0;
+		m_nInvalidCount = 0;
+	}
+
+	@Override
+	public void startElement(String psUri, String psLocalName, String psQName, Attributes poAttributes) {
+
+		if (m_oPathTracker != null)
+			m_oPathTracker.startElement(psUri, psLocalName, psQName, poAttributes);
+
+		String sName = ((psLocalName != null) && !psLocalName.isEmpty()) ? psLocalName : psQName;
+
+		// NOTE: The release is declared by the root element (or, failing that, implied by the namespace of an ONIX 3.0 XSD)
+		if (++m_nDepth == 1) {
+
+			String sRelease = poAttributes.getValue("release");
+
+			if (sRelease != null)
+				m_bOnix30 = sRelease.trim().startsWith("3");
+			else
+				m_bOnix30 = (psUri != null) && psUri.startsWith("http://ns.editeur.org/onix/3");
+		}
+
+		m_oRule = m_oCodeLists.getRule(sName, m_bOnix30);
+
+		if (m_oRule != null) {
+			m_sRuleTag     = sName;
+			m_nRuleDepth   = m_nDepth;
+			m_nValueLength = 0;
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package bn.com.onix.validation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * OnixCodeLists --- This class holds one issue of the EDITEUR code lists as immutable lookup tables, along with the
+ *                   elements of ONIX 2.1 and 3.0 whose values must come from each list.
+ * <p>
+ * The lists are loaded from the tab-separated (or comma-separated) file of an issue (Ex. "ONIX_BookProduct_Codelists_Issue_61.txt"),
+ * in which the first column of each row is the number of a list and the second column is one of its codes.  Since nearly
+ * every code is a short ASCII string, each code of up to 8 characters is packed into a long, and each list becomes a sorted
+ * array of longs that is searched without creating any objects; the rare longer codes are held in a sorted array of strings.
+ * <p>
+ * An element is only checked if its list is part of the loaded issue, so a list that has been retired (Ex. the ONIX 2.1 list
+ * of product forms) is simply not checked.  An instance is thread-safe, since it is never modified once it has been loaded.
+ * @author    Aaron Kendall
+ */
+public class OnixCodeLists {
+
+	private static final Pattern s_oIssuePattern = Pattern.compile("(?i).*issue[ _-]?(\\d+).*\\.(txt|tsv|csv)");
+
+	/**
+	 * The elements whose values are checked, as {reference tag, short tag, ONIX 2.1 list, ONIX 3.0 list, multi-valued}.
+	 * A list of 0 means that the element is not checked for that release.
+	 */
+	private static final String[][] CONST_ELEMENT_LISTS = {
+		{ "NotificationType",        "a002", "1",  "1",   "N" },
+		{ "ProductIDType",           "b221", "5",  "5",   "N" },
+		{ "ProductComposition",      "x314", "0",  "2",   "N" },
+		{ "ProductForm",             "b012", "7",  "150", "N" },
+		{ "ProductFormDetail",       "b333", "78", "175", "N" },
+		{ "TitleType",               "b202", "15", "15",  "N" },
+		{ "ContributorRole",         "b035", "17", "17",  "N" },
+		{ "EditionType",             "x419", "0",  "21",  "N" },
+		{ "EditionTypeCode",         "b056", "21", "0",   "N" },
+		{ "LanguageRole",            "b253", "22", "22",  "N" },
+		{ "LanguageCode",            "b252", "74", "74",  "N" },
+		{ "SubjectSchemeIdentifier", "b067", "27", "27",  "N" },
+		{ "ProductRelationCode",     "x455", "0",  "51",  "N" },
+		{ "PriceTypeCode",           "j148", "58", "0",   "N" },
+		{ "PriceType",               "x462", "0",  "58",  "N" },
+		{ "PublishingStatus",        "b394", "64", "64",  "N" },
+		{ "ProductAvailability",     "j396", "65", "65",  "N" },
+		{ "CountryCode",             "b251", "91", "91",  "N" },
+		{ "CountriesIncluded",       "x449", "0",  "91",  "Y" },
+		{ "CountriesExcluded",       "x451", "0",  "91",  "Y" },
+		{ "RegionsIncluded",         "x450", "0",  "49",  "Y" },
+		{ "RegionsExcluded",         "x452", "0",  "49",  "Y" },
+		{ "CurrencyCode",            "j152", "96", "96",  "N" },
+		{ "TextType",                "x426", "0",  "153", "N" },
+		{ "PublishingDateRole",      "x448", "0",  "163", "N" }
+	};
+
+	private static volatile OnixCodeLists s_oInstance = null;
+
+	/**
+	 * The codes of a single list.
+	 */
+	static final class CodeList {
+
+		final int      nListNumber;
+		final long[]   aPackedCodes;
+		final String[] aLongCodes;
+
+		CodeList(int pnListNumber, long[] paPackedCodes, String[] paLongCodes) {
+
+			nListNumber  = pnListNumber;
+			aPackedCodes = paPackedCodes;
+			aLongCodes   = paLongCodes;
+		}
+
+		/**
+		 * Indicates whether the specified characters (i.e., a code that has already been trimmed) belong to the list.
+		 */
+		boolean contains(char[] paChars, int pnStart, int pnLength) {
+
+			long nPacked = pack(paChars, pnStart, pnLength);
+
+			if (nPacked >= 0)
+				return (Arrays.binarySearch(aPackedCodes, nPacked) >= 0);
+
+			return (aLongCodes.length > 0) && (Arrays.binarySearch(aLongCodes, new String(paChars, pnStart, pnLength)) >= 0);
+		}
+	}
+
+	/**
+	 * The list against which the values of an element are checked.
+	 */
+	static final class ElementRule {
+
+		final String   sElementName;
+		final CodeList oCodeList;
+		final boolean  bMultiValued;
+
+		ElementRule(String psElementName, CodeList poCodeList, boolean pbMultiValued) {
+
+			sElementName = psElementName;
+			oCodeList    = poCodeList;
+			bMultiValued = pbMultiValued;
+		}
+	}
+
+	private final int    m_nIssue;
+	private final String m_sSourceFile;
+	private final int    m_nListCount;
+	private final int    m_nCodeCount;
+
+	private final Map<String, ElementRule> m_oOnix21Rules = new HashMap<String, ElementRule>();
+	private final Map<String, ElementRule> m_oOnix30Rules = new HashMap<String, ElementRule>();
+
+	private final LongAdder m_nCheckedCount = new LongAdder();
+	private final LongAdder m_nInvalidCount = new LongAdder();
+
+	private OnixCodeLists(int pnIssue, String psSourceFile, Map<Integer, TreeSet<String>> poCodes) {
+
+		Map<Integer, CodeList> oCodeLists = new HashMap<Integer, CodeList>();
+		int                    nCodeCount = 0;
+
+		for (Map.Entry<Integer, TreeSet<String>> oEntry : poCodes.entrySet()) {
+
+			long[]       aPacked    = new long[oEntry.getValue().size()];
+			int          nPacked    = 0;
+			List<String> oLongCodes = new ArrayList<String>();
+
+			for (String sCode : oEntry.getValue()) {
+
+				long nCode = pack(sCode.toCharArray(), 0, sCode.length());
+
+				if (nCode >= 0)
+					aPacked[nPacked++] = nCode;
+				else
+					oLongCodes.add(sCode);
+			}
+
+			aPacked = Arrays.copyOf(aPacked, nPacked);
+			Arrays.sort(aPacked);
+
+			String[] aLongCodes = oLongCodes.toArray(new String[oLongCodes.size()]);
+			Arrays.sort(aLongCodes);
+
+			oCodeLists.put(oEntry.getKey(), new CodeList(oEntry.getKey(), aPacked, aLongCodes));
+
+			nCodeCount += oEntry.getValue().size();
+		}
+
+		for (String[] aElement : CONST_ELEMENT_LISTS) {
+
+			boolean  bMultiValued = aElement[4].equals("Y");
+			CodeList oOnix21List  = oCodeLists.get(Integer.valueOf(aElement[2]));
+			CodeList oOnix30List  = oCodeLists.get(Integer.valueOf(aElement[3]));
+
+			if (oOnix21List != null) {
+				m_oOnix21Rules.put(aElement[0], new ElementRule(aElement[0], oOnix21List, bMultiValued));
+				m_oOnix21Rules.put(aElement[1], new ElementRule(aElement[0], oOnix21List, bMultiValued));
+			}
+
+			if (oOnix30List != null) {
+				m_oOnix30Rules.put(aElement[0], new ElementRule(aElement[0], oOnix30List, bMultiValued));
+				m_oOnix30Rules.put(aElement[1], new ElementRule(aElement[0], oOnix30List, bMultiValued));
+			}
+		}
+
+		m_nIssue      = pnIssue;
+		m_sSourceFile = psSourceFile;
+		m_nListCount  = oCodeLists.size();
+		m_nCodeCount  = nCodeCount;
+	}
+
+	/**
+	 * Returns the code lists that are currently used by the validation.
+	 *
+	 * @return the code lists (or null if the code lists are not being checked)
+	 */
+	public static OnixCodeLists getInstance() {
+		return s_oInstance;
+	}
+
+	/**
+	 * Sets the code lists that will be used by every validation that starts afterwards (Ex. upon the release of a new issue).
+	 *
+	 * @param  poCodeLists the code lists (or null to stop checking them)
+	 * @return None
+	 */
+	public static void setInstance(OnixCodeLists poCodeLists) {
+		s_oInstance = poCodeLists;
+	}
+
+	public int getIssue() {
+		return m_nIssue;
+	}
+
+	/**
+	 * Returns the list against which an element is checked.
+	 *
+	 * @param  psElementName the name of the element (i.e., either its reference tag or its short tag)
+	 * @param  pbOnix30 indicates whether the file is an ONIX 3.0 file (rather than an ONIX 2.1 file)
+	 * @return the rule of the element (or null if the element is not checked)
+	 */
+	ElementRule getRule(String psElementName, boolean pbOnix30) {
+		return pbOnix30 ? m_oOnix30Rules.get(psElementName) : m_oOnix21Rules.get(psElementName);
+	}
+
+	public String getStatistics() {
+
+		return "Code list statistics: Issue(" + m_nIssue + "), Lists(" + m_nListCount + "), Codes(" + m_nCodeCount + "), Values Checked(" +
+		       m_nCheckedCount.sum() + "), Invalid Values(" + m_nInvalidCount.sum() + ").";
+	}
+
+	/**
+	 * Loads an issue of the code lists from a directory that holds the files of one or more issues.
+	 *
+	 * @param  psDirectory the directory that holds the files of the code lists
+	 * @param  pnIssue the issue to load (or 0 for the latest issue in the directory)
+	 * @return the code lists of the issue
+	 * @see    IOException
+	 */
+	public static OnixCodeLists load(String psDirectory, int pnIssue)
+			throws IOException {
+
+		File   oSourceFile = null;
+		int    nIssue      = 0;
+		File[] aFiles      = new File(psDirectory).listFiles();
+
+		if (aFiles == null)
+			throw new IOException("The code list directory(" + psDirectory + ") does not exist.");
+
+		for (File oFile : aFiles) {
+
+			Matcher oMatcher = s_oIssuePattern.matcher(oFile.getName());
+
+			if (!oFile.isFile() || !oMatcher.matches())
+				continue;
+
+			int nFileIssue = Integer.parseInt(oMatcher.group(1));
+
+			if (((pnIssue > 0) && (nFileIssue == pnIssue)) || ((pnIssue <= 0) && (nFileIssue > nIssue))) {
+				oSourceFile = oFile;
+				nIssue      = nFileIssue;
+			}
+		}
+
+		if (oSourceFile == null)
+			throw new IOException("No file for Issue(" + ((pnIssue > 0) ? String.valueOf(pnIssue) : "any") +
+			                      ") of the code lists was found in the directory(" + psDirectory + ").");
+
+		Map<Integer, TreeSet<String>> oCodes = new TreeMap<Integer, TreeSet<String>>();
+
+		try (BufferedReader oReader = Files.newBufferedReader(oSourceFile.toPath(), StandardCharsets.UTF_8)) {
+
+			String sLine = null;
+
+			while ((sLine = oReader.readLine()) != null) {
+
+				String[] aColumns = sLine.split((sLine.indexOf('\t') >= 0) ? "\t" : ",", 3);
+
+				if (aColumns.length < 2)
+					continue;
+
+				String sListNumber = unquote(aColumns[0]);
+				String sCode       = unquote(aColumns[1]);
+
+				// NOTE: Any header (or other row without a list number) is skipped
+				if (sListNumber.isEmpty() || sCode.isEmpty() || !isNumber(sListNumber))
+					continue;
+
+				Integer oListNumber = Integer.valueOf(sListNumber);
+				TreeSet<String> oListCodes = oCodes.get(oListNumber);
+
+				if (oListCodes == null) {
+					oListCodes = new TreeSet<String>();
+					oCodes.put(oListNumber, oListCodes);
+				}
+
+				oListCodes.add(sCode);
+			}
+		}
+
+		OnixCodeLists oCodeLists = new OnixCodeLists(nIssue, oSourceFile.getAbsolutePath(), oCodes);
+
+		OnixValidator.logInfo("Loaded (" + oCodeLists.m_nCodeCount + ") codes in (" + oCodeLists.m_nListCount + ") code lists from Issue(" +
+		                      nIssue + ") in the file(" + oCodeLists.m_sSourceFile + ").");
+
+		return oCodeLists;
+	}
+
+	private static boolean isNumber(String psValue) {
+
+		for (int i = 0; i < psValue.length(); ++i) {
+
+			if (!Character.isDigit(psValue.charAt(i)))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Packs a code of up to 8 ASCII characters into a long (which is never negative, since each character is below 0x80).
+	 *
+	 * @return long the packed code (or -1 if the code is empty, too long or not ASCII)
+	 */
+	static long pack(char[] paChars, int pnStart, int pnLength) {
+
+		if ((pnLength <= 0) || (pnLength > 8))
+			return -1;
+
+		long nPacked = 0;
+
+		for (int i = pnStart; i < (pnStart + pnLength); ++i) {
+
+			char cChar = paChars[i];
+
+			if ((cChar == 0) || (cChar > 0x7F))
+				return -1;
+
+			nPacked = (nPacked << 8) | cChar;
+		}
+
+		return nPacked;
+	}
+
+	/**
+	 * Adds the counts of a finished validation to the statistics.
+	 */
+	void recordChecks(long pnCheckedCount, long pnInvalidCount) {
+
+		m_nCheckedCount.add(pnCheckedCount);
+		m_nInvalidCount.add(pnInvalidCount);
+	}
+
+	private static String unquote(String psValue) {
+
+		String sValue = psValue.trim();
+
+		if ((sValue.length() >= 2) && (sValue.charAt(0) == '"') && (sValue.charAt(sValue.length() - 1) == '"'))
+			sValue = sValue.substring(1, sValue.length() - 1).trim();
+
+		return sValue;
+	}
+}
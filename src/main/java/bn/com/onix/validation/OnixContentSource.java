@@ -0,0 +1,44 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * OnixContentSource --- This interface describes a unit of ONIX content to be validated, which can be a plain file,
+ *                       a compressed file or an entry within an archive.
+ * @author    Aaron Kendall
+ */
+public interface OnixContentSource {
+
+	/**
+	 * Returns the path of the content, which is used for logging and reports (Ex. "/inbox/Feed.zip!/Feed.xml").
+	 */
+	public String getOnixPath();
+
+	/**
+	 * Returns the plain file that holds the content, for the validations that need random access to it.
+	 *
+	 * @return the uncompressed file (or null if the content can only be streamed)
+	 */
+	public File getOnixFile();
+
+	/**
+	 * Returns the name under which the content's error report should be written (i.e., without the report's suffix).
+	 */
+	public String getReportName();
+
+	/**
+	 * Returns the system ID of the content, which is used to resolve any relative references (Ex. to a DTD).
+	 */
+	public String getSystemId();
+
+	/**
+	 * Opens a new stream of the (uncompressed) content, which must be closed by the caller.
+	 *
+	 * @return the stream of the content
+	 * @see    IOException
+	 */
+	public InputStream openStream()
+			throws IOException;
+}
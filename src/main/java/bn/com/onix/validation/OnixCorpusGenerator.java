@@ -0,0 +1,638 @@
+package bn.com.onix.validation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OnixCorpusGenerator --- This program creates synthetic (but syntactically realistic) ONIX 2.1 and 3.0 files, so that the
+ *                         validator can be tested at scale without any real publisher feeds.
+ * <p>
+ * Each file is written as a stream, one Product at a time, so that memory use stays constant regardless of the size of the
+ * file or the number of files (Ex. an Inbox of 100,000 files or a single file of 20 GB).  The files refer to the EDITEUR
+ * DTDs/XSDs, using either the reference tags or the short tags, and a share of their Products can be made invalid on purpose.
+ * <p>
+ * Usage: OnixCorpusGenerator -out &lt;dir&gt; [-files N] [-products N] [-sizeKB N] [-version 2.1|3.0|mixed] [-shortTags 0.0-1.0]
+ *                            [-violationRate 0.0-1.0] [-seed N] [-threads N]
+ * @author    Aaron Kendall
+ */
+public class OnixCorpusGenerator {
+
+	public static final String CONST_ONIX21 = "2.1";
+	public static final String CONST_ONIX30 = "3.0";
+	public static final String CONST_MIXED  = "mixed";
+
+	public static final String CONST_ONIX21_REF_DTD_URL   = OnixValidator.CONST_DEFAULT_ONIX_DTD_URL_BASE + "2.1/reference/onix-international.dtd";
+	public static final String CONST_ONIX21_SHORT_DTD_URL = OnixValidator.CONST_DEFAULT_ONIX_DTD_URL_BASE + "2.1/short/onix-international.dtd";
+
+	public static final int CONST_DEFAULT_TEXT_LENGTH = 400;
+
+	public static final int CONST_VIOLATION_MISSING_ELEMENT    = 0;
+	public static final int CONST_VIOLATION_UNDECLARED_ELEMENT = 1;
+	public static final int CONST_VIOLATION_ELEMENT_ORDER      = 2;
+
+	private static final int CONST_VIOLATION_KINDS = 3;
+
+	private static final String[] CONST_WORDS =
+		{ "the", "of", "and", "history", "garden", "river", "a", "secret", "in", "winter", "letters", "from", "an", "island",
+		  "guide", "to", "modern", "cooking", "night", "city", "stories", "with", "illustrations", "by", "author", "edition",
+		  "revised", "complete", "collected", "poems", "journey", "through", "northern", "lights", "children", "adventure" };
+
+	private static final String[] CONST_PRODUCT_FORMS = { "BB", "BC", "DG", "AJ" };
+
+	private static final Charset s_oOnixCharset = Charset.forName("UTF-8");
+
+	private static final Map<String, String> s_oShortTags = createShortTags();
+
+	private final String m_sOnixVersion;
+	private final int    m_nProductCount;
+	private final long   m_nTargetBytes;
+	private final double m_dShortTagShare;
+	private final double m_dViolationRate;
+	private final long   m_nSeed;
+
+	/**
+	 * GeneratedFile --- This class describes a single file created by the generator.
+	 */
+	public static class GeneratedFile {
+
+		public final File    oOnixFile;
+		public final String  sOnixVersion;
+		public final boolean bShortTags;
+		public final long    nProductCount;
+		public final long    nByteCount;
+		public final long    nViolationCount;
+
+		GeneratedFile(File poOnixFile, String psOnixVersion, boolean pbShortTags, long pnProductCount, long pnByteCount, long pnViolationCount) {
+
+			oOnixFile       = poOnixFile;
+			sOnixVersion    = psOnixVersion;
+			bShortTags      = pbShortTags;
+			nProductCount   = pnProductCount;
+			nByteCount      = pnByteCount;
+			nViolationCount = pnViolationCount;
+		}
+	}
+
+	/**
+	 * CountingWriter --- This class counts the characters written to a file, which (since the generator only writes ASCII)
+	 *                    is also the size of the file.
+	 */
+	private static class CountingWriter extends FilterWriter {
+
+		private long m_nCount = 0;
+
+		CountingWriter(Writer poWriter) {
+			super(poWriter);
+		}
+
+		@Override
+		public void write(int pnChar) throws IOException {
+			out.write(pnChar);
+			++m_nCount;
+		}
+
+		@Override
+		public void write(char[] paBuffer, int pnOffset, int pnLength) throws IOException {
+			out.write(paBuffer, pnOffset, pnLength);
+			m_nCount += pnLength;
+		}
+
+		@Override
+		public void write(String psValue, int pnOffset, int pnLength) throws IOException {
+			out.write(psValue, pnOffset, pnLength);
+			m_nCount += pnLength;
+		}
+
+		long getCount() {
+			return m_nCount;
+		}
+	}
+
+	/**
+	 * Creates the generator with the specified shape of file.
+	 *
+	 * @param  psOnixVersion the version of ONIX (i.e., CONST_ONIX21, CONST_ONIX30 or CONST_MIXED for a random choice per file)
+	 * @param  pnProductCount the number of Products per file (or 0 to write Products until the file reaches its size)
+	 * @param  pnTargetBytes the approximate size of each file (or 0 to use descriptions of a default length)
+	 * @param  pdShortTagShare the share of files that will use the short tags (Ex. 0.25)
+	 * @param  pdViolationRate the share of Products that will be made invalid (Ex. 0.001)
+	 * @param  pnSeed the seed of the random choices, so that the same corpus can be created again
+	 */
+	public OnixCorpusGenerator(String psOnixVersion, int pnProductCount, long pnTargetBytes, double pdShortTagShare, double pdViolationRate, long pnSeed) {
+
+		m_sOnixVersion   = psOnixVersion;
+		m_nProductCount  = Math.max(pnProductCount, 0);
+		m_nTargetBytes   = Math.max(pnTargetBytes, 0);
+		m_dShortTagShare = pdShortTagShare;
+		m_dViolationRate = pdViolationRate;
+		m_nSeed          = pnSeed;
+
+		if ((m_nProductCount == 0) && (m_nTargetBytes == 0))
+			throw new IllegalArgumentException("Either the number of Products or the size of the file must be specified.");
+	}
+
+	/**
+	 * This method is the main thread of the generator, which creates the requested number of files in the output directory.
+	 *
+	 * @param  args the command line arguments given to the program (as listed in the description of the class)
+	 * @return      void
+	 */
+	public static void main(String[] args) {
+
+		Map<String, String> oArgs = new HashMap<String, String>();
+
+		for (int i = 0; (i + 1) < args.length; i += 2)
+			oArgs.put(args[i].replaceFirst("^-+", ""), args[i + 1]);
+
+		if (!oArgs.containsKey("out")) {
+
+			System.err.println("Usage: OnixCorpusGenerator -out <dir> [-files N] [-products N] [-sizeKB N] [-version 2.1|3.0|mixed] " +
+					           "[-shortTags 0.0-1.0] [-violationRate 0.0-1.0] [-seed N] [-threads N]");
+			System.exit(1);
+		}
+
+		try {
+			final File oOutputDir = new File(oArgs.get("out"));
+
+			int  nFileCount = Integer.parseInt(getArg(oArgs, "files", "1"));
+			int  nThreads   = Integer.parseInt(getArg(oArgs, "threads", "1"));
+			long nSizeKB    = Long.parseLong(getArg(oArgs, "sizeKB", "0"));
+
+			final OnixCorpusGenerator oGenerator =
+				new OnixCorpusGenerator(getArg(oArgs, "version", CONST_ONIX30),
+						                Integer.parseInt(getArg(oArgs, "products", (nSizeKB > 0) ? "0" : "1000")),
+						                nSizeKB * 1024L,
+						                Double.parseDouble(getArg(oArgs, "shortTags", "0")),
+						                Double.parseDouble(getArg(oArgs, "violationRate", "0")),
+						                Long.parseLong(getArg(oArgs, "seed", "1")));
+
+			oOutputDir.mkdirs();
+
+			final AtomicLong oProducts   = new AtomicLong();
+			final AtomicLong oBytes      = new AtomicLong();
+			final AtomicLong oViolations = new AtomicLong();
+			final AtomicLong oFailures   = new AtomicLong();
+
+			// NOTE: The number of files waiting for a thread is bounded, so that an Inbox of any size can be created in constant memory
+			final Semaphore       oInFlight = new Semaphore(Math.max(nThreads, 1) * 2);
+			final ExecutorService oThreads  = Executors.newFixedThreadPool(Math.max(nThreads, 1));
+
+			long nStartMillis = System.currentTimeMillis();
+
+			for (int i = 0; i < nFileCount; ++i) {
+
+				final int nFileIndex = i;
+
+				oInFlight.acquire();
+
+				oThreads.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							GeneratedFile oFile = oGenerator.generateFile(oOutputDir, nFileIndex);
+
+							oProducts.addAndGet(oFile.nProductCount);
+							oBytes.addAndGet(oFile.nByteCount);
+							oViolations.addAndGet(oFile.nViolationCount);
+						}
+						catch (IOException e) {
+							System.err.println("ERROR!  Could not create ONIX file #" + nFileIndex + " : " + e.getMessage());
+							oFailures.incrementAndGet();
+						}
+						finally {
+							oInFlight.release();
+						}
+					}
+				});
+			}
+
+			OnixValidatorCommonCalls.waitOnThreads(new ExecutorService[] { oThreads });
+
+			long nElapsedMillis = Math.max(System.currentTimeMillis() - nStartMillis, 1);
+
+			System.out.println("Generated (" + (nFileCount - oFailures.get()) + ") ONIX files in (" + oOutputDir.getAbsolutePath() +
+					           ") in (" + nElapsedMillis + ") ms : Products(" + oProducts.get() + "), Bytes(" + oBytes.get() +
+					           "), Violations(" + oViolations.get() + "), Failures(" + oFailures.get() + "), Bytes/sec(" +
+					           ((oBytes.get() * 1000L) / nElapsedMillis) + ").");
+
+			System.exit((oFailures.get() > 0) ? 1 : 0);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Creates one file of the corpus, whose random choices depend only upon the seed and the index of the file
+	 * (i.e., not upon the order in which the files are created).
+	 *
+	 * @param  poOutputDir the directory into which the file will be written
+	 * @param  pnFileIndex the index of the file within the corpus
+	 * @return the description of the created file
+	 * @see    IOException
+	 */
+	public GeneratedFile generateFile(File poOutputDir, int pnFileIndex)
+			throws IOException {
+
+		Random  oRandom      = new Random(mixSeed(m_nSeed, pnFileIndex));
+		String  sOnixVersion = CONST_MIXED.equals(m_sOnixVersion) ? (oRandom.nextBoolean() ? CONST_ONIX21 : CONST_ONIX30) : m_sOnixVersion;
+		boolean bShortTags   = (oRandom.nextDouble() < m_dShortTagShare);
+
+		String sFilename = String.format("Onix%s_%s_%06d.xml", sOnixVersion.replace(".", ""), (bShortTags ? "short" : "ref"), pnFileIndex);
+
+		return generateFile(new File(poOutputDir, sFilename), sOnixVersion, bShortTags, oRandom);
+	}
+
+	/**
+	 * Creates a single file with the specified version and tags.
+	 *
+	 * @param  poOnixFile the file to create (or to overwrite)
+	 * @param  psOnixVersion the version of ONIX (i.e., CONST_ONIX21 or CONST_ONIX30)
+	 * @param  pbShortTags Indicates whether or not the file will use the short tags
+	 * @param  poRandom the source of the random choices for the file
+	 * @return the description of the created file
+	 * @see    IOException
+	 */
+	public GeneratedFile generateFile(File poOnixFile, String psOnixVersion, boolean pbShortTags, Random poRandom)
+			throws IOException {
+
+		boolean bOnix30     = CONST_ONIX30.equals(psOnixVersion);
+		long    nProducts   = 0;
+		long    nViolations = 0;
+		long    nOverhead   = 0;
+
+		poOnixFile.getAbsoluteFile().getParentFile().mkdirs();
+
+		try (CountingWriter oWriter =
+				new CountingWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(poOnixFile.toPath()), s_oOnixCharset), 64 * 1024))) {
+
+			writeHeader(oWriter, bOnix30, pbShortTags);
+
+			while (true) {
+
+				if ((m_nProductCount > 0) ? (nProducts >= m_nProductCount) : (oWriter.getCount() >= m_nTargetBytes))
+					break;
+
+				int nTextLength = CONST_DEFAULT_TEXT_LENGTH;
+
+				// NOTE: The descriptions are sized from the bytes still to be written, so that the file ends up close to its target
+				if ((m_nProductCount > 0) && (m_nTargetBytes > 0)) {
+
+					long nRemainingBytes = m_nTargetBytes - oWriter.getCount();
+
+					nTextLength = (int) Math.min(Math.max((nRemainingBytes / (m_nProductCount - nProducts)) - nOverhead, 16), Integer.MAX_VALUE / 2);
+				}
+
+				int nViolation = (poRandom.nextDouble() < m_dViolationRate) ? poRandom.nextInt(CONST_VIOLATION_KINDS) : -1;
+
+				long nStartCount = oWriter.getCount();
+
+				if (bOnix30)
+					writeOnix30Product(oWriter, pbShortTags, ++nProducts, nTextLength, nViolation, poRandom);
+				else
+					writeOnix21Product(oWriter, pbShortTags, ++nProducts, nTextLength, nViolation, poRandom);
+
+				nOverhead = Math.max((oWriter.getCount() - nStartCount) - nTextLength, 0);
+
+				if (nViolation >= 0)
+					++nViolations;
+			}
+
+			writeClose(oWriter, pbShortTags, "ONIXMessage");
+			oWriter.write("\n");
+			oWriter.flush();
+
+			return new GeneratedFile(poOnixFile, psOnixVersion, pbShortTags, nProducts, oWriter.getCount(), nViolations);
+		}
+	}
+
+	private static Map<String, String> createShortTags() {
+
+		String[][] aTags = {
+			{ "ONIXMessage", "ONIXmessage" }, { "Header", "header" }, { "FromCompany", "m174" }, { "SentDate", "m182" },
+			{ "Sender", "sender" }, { "SenderName", "x298" }, { "SentDateTime", "x307" }, { "Product", "product" },
+			{ "RecordReference", "a001" }, { "NotificationType", "a002" }, { "ProductIdentifier", "productidentifier" },
+			{ "ProductIDType", "b221" }, { "IDValue", "b244" }, { "ProductForm", "b012" }, { "Title", "title" },
+			{ "TitleType", "b202" }, { "TitleText", "b203" }, { "Contributor", "contributor" }, { "SequenceNumber", "b034" },
+			{ "ContributorRole", "b035" }, { "PersonName", "b036" }, { "Language", "language" }, { "LanguageRole", "b253" },
+			{ "LanguageCode", "b252" }, { "OtherText", "othertext" }, { "TextTypeCode", "d102" }, { "Text", "d104" },
+			{ "Publisher", "publisher" }, { "PublishingRole", "b291" }, { "PublisherName", "b081" }, { "PublishingStatus", "b394" },
+			{ "PublicationDate", "b003" }, { "SupplyDetail", "supplydetail" }, { "SupplierName", "j137" },
+			{ "ProductAvailability", "j396" }, { "Price", "price" }, { "PriceTypeCode", "j148" }, { "PriceAmount", "j151" },
+			{ "CurrencyCode", "j152" }, { "DescriptiveDetail", "descriptivedetail" }, { "ProductComposition", "x314" },
+			{ "TitleDetail", "titledetail" }, { "TitleElement", "titleelement" }, { "TitleElementLevel", "x409" },
+			{ "CollateralDetail", "collateraldetail" }, { "TextContent", "textcontent" }, { "TextType", "x426" },
+			{ "ContentAudience", "x427" }, { "PublishingDetail", "publishingdetail" }, { "ProductSupply", "productsupply" },
+			{ "Supplier", "supplier" }, { "SupplierRole", "j292" }, { "PriceType", "x462" }, { "UnexpectedElement", "unexpectedelement" }
+		};
+
+		Map<String, String> oShortTags = new HashMap<String, String>();
+
+		for (String[] aTag : aTags)
+			oShortTags.put(aTag[0], aTag[1]);
+
+		return oShortTags;
+	}
+
+	/**
+	 * Creates a (checksum-correct) ISBN-13 from the sequence number of a Product.
+	 */
+	private static String createIsbn(long pnSequence) {
+
+		String sIsbn = "978" + String.format("%09d", pnSequence % 1000000000L);
+		int    nSum  = 0;
+
+		for (int i = 0; i < sIsbn.length(); ++i)
+			nSum += (sIsbn.charAt(i) - '0') * (((i % 2) == 0) ? 1 : 3);
+
+		return sIsbn + ((10 - (nSum % 10)) % 10);
+	}
+
+	private static String getArg(Map<String, String> poArgs, String psName, String psDefault) {
+		return poArgs.containsKey(psName) ? poArgs.get(psName).trim() : psDefault;
+	}
+
+	private static String getTag(boolean pbShortTags, String psReferenceTag) {
+		return pbShortTags ? s_oShortTags.get(psReferenceTag) : psReferenceTag;
+	}
+
+	/**
+	 * Mixes the seed of the corpus with the index of a file, since java.util.Random yields similar first values
+	 * for consecutive seeds (i.e., every file of a mixed corpus would otherwise get the same version).
+	 */
+	private static long mixSeed(long pnSeed, long pnFileIndex) {
+
+		long nSeed = pnSeed + ((pnFileIndex + 1) * 0x9E3779B97F4A7C15L);
+
+		nSeed = (nSeed ^ (nSeed >>> 30)) * 0xBF58476D1CE4E5B9L;
+		nSeed = (nSeed ^ (nSeed >>> 27)) * 0x94D049BB133111EBL;
+
+		return nSeed ^ (nSeed >>> 31);
+	}
+
+	private static void writeClose(Writer poWriter, boolean pbShortTags, String psReferenceTag)
+			throws IOException {
+
+		poWriter.write("</");
+		poWriter.write(getTag(pbShortTags, psReferenceTag));
+		poWriter.write(">");
+	}
+
+	private static void writeElement(Writer poWriter, boolean pbShortTags, String psReferenceTag, String psValue)
+			throws IOException {
+
+		writeOpen(poWriter, pbShortTags, psReferenceTag);
+		poWriter.write(psValue);
+		writeClose(poWriter, pbShortTags, psReferenceTag);
+	}
+
+	private static void writeHeader(Writer poWriter, boolean pbOnix30, boolean pbShortTags)
+			throws IOException {
+
+		poWriter.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+
+		if (pbOnix30) {
+			String sNamespace = pbShortTags ? OnixFileFormat.CONST_ONIX30_SHORT_NAMESPACE : OnixFileFormat.CONST_ONIX30_REF_NAMESPACE;
+
+			poWriter.write("<" + getTag(pbShortTags, "ONIXMessage") + " release=\"3.0\" xmlns=\"" + sNamespace + "\">\n");
+
+			writeOpen(poWriter, pbShortTags, "Header");
+			writeOpen(poWriter, pbShortTags, "Sender");
+			writeElement(poWriter, pbShortTags, "SenderName", "Synthetic Books");
+			writeClose(poWriter, pbShortTags, "Sender");
+			writeElement(poWriter, pbShortTags, "SentDateTime", "20140101");
+			writeClose(poWriter, pbShortTags, "Header");
+		}
+		else {
+			poWriter.write("<!DOCTYPE " + getTag(pbShortTags, "ONIXMessage") + " SYSTEM \"" +
+					       (pbShortTags ? CONST_ONIX21_SHORT_DTD_URL : CONST_ONIX21_REF_DTD_URL) + "\">\n");
+
+			writeOpen(poWriter, pbShortTags, "ONIXMessage");
+			poWriter.write("\n");
+
+			writeOpen(poWriter, pbShortTags, "Header");
+			writeElement(poWriter, pbShortTags, "FromCompany", "Synthetic Books");
+			writeElement(poWriter, pbShortTags, "SentDate", "20140101");
+			writeClose(poWriter, pbShortTags, "Header");
+		}
+
+		poWriter.write("\n");
+	}
+
+	private static void writeOpen(Writer poWriter, boolean pbShortTags, String psReferenceTag)
+			throws IOException {
+
+		poWriter.write("<");
+		poWriter.write(getTag(pbShortTags, psReferenceTag));
+		poWriter.write(">");
+	}
+
+	private static void writeContributors(Writer poWriter, boolean pbShortTags, Random poRandom)
+			throws IOException {
+
+		int nContributors = 1 + poRandom.nextInt(3);
+
+		for (int i = 1; i <= nContributors; ++i) {
+
+			writeOpen(poWriter, pbShortTags, "Contributor");
+			writeElement(poWriter, pbShortTags, "SequenceNumber", String.valueOf(i));
+			writeElement(poWriter, pbShortTags, "ContributorRole", (i == 1) ? "A01" : "B01");
+			writeOpen(poWriter, pbShortTags, "PersonName");
+			writeWords(poWriter, 12 + poRandom.nextInt(12), poRandom);
+			writeClose(poWriter, pbShortTags, "PersonName");
+			writeClose(poWriter, pbShortTags, "Contributor");
+		}
+	}
+
+	private static void writeIdentifiers(Writer poWriter, boolean pbShortTags, long pnSequence, int pnViolation)
+			throws IOException {
+
+		if (pnViolation != CONST_VIOLATION_MISSING_ELEMENT)
+			writeElement(poWriter, pbShortTags, "RecordReference", "synthetic." + pnSequence);
+
+		writeElement(poWriter, pbShortTags, "NotificationType", "03");
+
+		if (pnViolation != CONST_VIOLATION_ELEMENT_ORDER)
+			writeProductIdentifier(poWriter, pbShortTags, pnSequence);
+	}
+
+	private static void writeOnix21Product(Writer poWriter, boolean pbShortTags, long pnSequence, int pnTextLength, int pnViolation, Random poRandom)
+			throws IOException {
+
+		writeOpen(poWriter, pbShortTags, "Product");
+		writeIdentifiers(poWriter, pbShortTags, pnSequence, pnViolation);
+		writeElement(poWriter, pbShortTags, "ProductForm", CONST_PRODUCT_FORMS[poRandom.nextInt(CONST_PRODUCT_FORMS.length)]);
+
+		if (pnViolation == CONST_VIOLATION_ELEMENT_ORDER)
+			writeProductIdentifier(poWriter, pbShortTags, pnSequence);
+
+		writeOpen(poWriter, pbShortTags, "Title");
+		writeElement(poWriter, pbShortTags, "TitleType", "01");
+		writeOpen(poWriter, pbShortTags, "TitleText");
+		writeWords(poWriter, 16 + poRandom.nextInt(48), poRandom);
+		writeClose(poWriter, pbShortTags, "TitleText");
+		writeClose(poWriter, pbShortTags, "Title");
+
+		writeContributors(poWriter, pbShortTags, poRandom);
+
+		if (pnViolation == CONST_VIOLATION_UNDECLARED_ELEMENT)
+			writeElement(poWriter, pbShortTags, "UnexpectedElement", "X");
+
+		writeOpen(poWriter, pbShortTags, "Language");
+		writeElement(poWriter, pbShortTags, "LanguageRole", "01");
+		writeElement(poWriter, pbShortTags, "LanguageCode", "eng");
+		writeClose(poWriter, pbShortTags, "Language");
+
+		writeOpen(poWriter, pbShortTags, "OtherText");
+		writeElement(poWriter, pbShortTags, "TextTypeCode", "01");
+		writeOpen(poWriter, pbShortTags, "Text");
+		writeWords(poWriter, pnTextLength, poRandom);
+		writeClose(poWriter, pbShortTags, "Text");
+		writeClose(poWriter, pbShortTags, "OtherText");
+
+		writeOpen(poWriter, pbShortTags, "Publisher");
+		writeElement(poWriter, pbShortTags, "PublishingRole", "01");
+		writeElement(poWriter, pbShortTags, "PublisherName", "Synthetic Books");
+		writeClose(poWriter, pbShortTags, "Publisher");
+		writeElement(poWriter, pbShortTags, "PublishingStatus", "04");
+		writeElement(poWriter, pbShortTags, "PublicationDate", String.format("20%02d%02d%02d", 1 + poRandom.nextInt(14), 1 + poRandom.nextInt(12), 1 + poRandom.nextInt(28)));
+
+		writeOpen(poWriter, pbShortTags, "SupplyDetail");
+		writeElement(poWriter, pbShortTags, "SupplierName", "Synthetic Distribution");
+		writeElement(poWriter, pbShortTags, "ProductAvailability", "21");
+		writeOpen(poWriter, pbShortTags, "Price");
+		writeElement(poWriter, pbShortTags, "PriceTypeCode", "01");
+		writeElement(poWriter, pbShortTags, "PriceAmount", createPrice(poRandom));
+		writeElement(poWriter, pbShortTags, "CurrencyCode", "USD");
+		writeClose(poWriter, pbShortTags, "Price");
+		writeClose(poWriter, pbShortTags, "SupplyDetail");
+
+		writeClose(poWriter, pbShortTags, "Product");
+		poWriter.write("\n");
+	}
+
+	private static void writeOnix30Product(Writer poWriter, boolean pbShortTags, long pnSequence, int pnTextLength, int pnViolation, Random poRandom)
+			throws IOException {
+
+		writeOpen(poWriter, pbShortTags, "Product");
+		writeIdentifiers(poWriter, pbShortTags, pnSequence, pnViolation);
+
+		writeOpen(poWriter, pbShortTags, "DescriptiveDetail");
+		writeElement(poWriter, pbShortTags, "ProductComposition", "00");
+		writeElement(poWriter, pbShortTags, "ProductForm", CONST_PRODUCT_FORMS[poRandom.nextInt(CONST_PRODUCT_FORMS.length)]);
+		writeOpen(poWriter, pbShortTags, "TitleDetail");
+		writeElement(poWriter, pbShortTags, "TitleType", "01");
+		writeOpen(poWriter, pbShortTags, "TitleElement");
+		writeElement(poWriter, pbShortTags, "TitleElementLevel", "01");
+		writeOpen(poWriter, pbShortTags, "TitleText");
+		writeWords(poWriter, 16 + poRandom.nextInt(48), poRandom);
+		writeClose(poWriter, pbShortTags, "TitleText");
+		writeClose(poWriter, pbShortTags, "TitleElement");
+		writeClose(poWriter, pbShortTags, "TitleDetail");
+
+		writeContributors(poWriter, pbShortTags, poRandom);
+
+		if (pnViolation == CONST_VIOLATION_UNDECLARED_ELEMENT)
+			writeElement(poWriter, pbShortTags, "UnexpectedElement", "X");
+
+		writeOpen(poWriter, pbShortTags, "Language");
+		writeElement(poWriter, pbShortTags, "LanguageRole", "01");
+		writeElement(poWriter, pbShortTags, "LanguageCode", "eng");
+		writeClose(poWriter, pbShortTags, "Language");
+		writeClose(poWriter, pbShortTags, "DescriptiveDetail");
+
+		if (pnViolation == CONST_VIOLATION_ELEMENT_ORDER)
+			writeProductIdentifier(poWriter, pbShortTags, pnSequence);
+
+		writeOpen(poWriter, pbShortTags, "CollateralDetail");
+		writeOpen(poWriter, pbShortTags, "TextContent");
+		writeElement(poWriter, pbShortTags, "TextType", "03");
+		writeElement(poWriter, pbShortTags, "ContentAudience", "00");
+		writeOpen(poWriter, pbShortTags, "Text");
+		writeWords(poWriter, pnTextLength, poRandom);
+		writeClose(poWriter, pbShortTags, "Text");
+		writeClose(poWriter, pbShortTags, "TextContent");
+		writeClose(poWriter, pbShortTags, "CollateralDetail");
+
+		writeOpen(poWriter, pbShortTags, "PublishingDetail");
+		writeOpen(poWriter, pbShortTags, "Publisher");
+		writeElement(poWriter, pbShortTags, "PublishingRole", "01");
+		writeElement(poWriter, pbShortTags, "PublisherName", "Synthetic Books");
+		writeClose(poWriter, pbShortTags, "Publisher");
+		writeElement(poWriter, pbShortTags, "PublishingStatus", "04");
+		writeClose(poWriter, pbShortTags, "PublishingDetail");
+
+		writeOpen(poWriter, pbShortTags, "ProductSupply");
+		writeOpen(poWriter, pbShortTags, "SupplyDetail");
+		writeOpen(poWriter, pbShortTags, "Supplier");
+		writeElement(poWriter, pbShortTags, "SupplierRole", "01");
+		writeElement(poWriter, pbShortTags, "SupplierName", "Synthetic Distribution");
+		writeClose(poWriter, pbShortTags, "Supplier");
+		writeElement(poWriter, pbShortTags, "ProductAvailability", "21");
+		writeOpen(poWriter, pbShortTags, "Price");
+		writeElement(poWriter, pbShortTags, "PriceType", "01");
+		writeElement(poWriter, pbShortTags, "PriceAmount", createPrice(poRandom));
+		writeElement(poWriter, pbShortTags, "CurrencyCode", "USD");
+		writeClose(poWriter, pbShortTags, "Price");
+		writeClose(poWriter, pbShortTags, "SupplyDetail");
+		writeClose(poWriter, pbShortTags, "ProductSupply");
+
+		writeClose(poWriter, pbShortTags, "Product");
+		poWriter.write("\n");
+	}
+
+	private static String createPrice(Random poRandom) {
+		return (4 + poRandom.nextInt(46)) + ".99";
+	}
+
+	private static void writeProductIdentifier(Writer poWriter, boolean pbShortTags, long pnSequence)
+			throws IOException {
+
+		writeOpen(poWriter, pbShortTags, "ProductIdentifier");
+		writeElement(poWriter, pbShortTags, "ProductIDType", "15");
+		writeElement(poWriter, pbShortTags, "IDValue", createIsbn(pnSequence));
+		writeClose(poWriter, pbShortTags, "ProductIdentifier");
+	}
+
+	/**
+	 * Writes random words (of exactly the specified length) directly to the file, so that even a huge description
+	 * is never held in memory.
+	 */
+	private static void writeWords(Writer poWriter, int pnLength, Random poRandom)
+			throws IOException {
+
+		int nWritten = 0;
+
+		while (nWritten < pnLength) {
+
+			String sWord = CONST_WORDS[poRandom.nextInt(CONST_WORDS.length)];
+
+			if (nWritten > 0) {
+				poWriter.write(' ');
+
+				if (++nWritten >= pnLength)
+					break;
+			}
+
+			int nWordLength = Math.min(sWord.length(), pnLength - nWritten);
+
+			poWriter.write(sWord, 0, nWordLength);
+			nWritten += nWordLength;
+		}
+	}
+}
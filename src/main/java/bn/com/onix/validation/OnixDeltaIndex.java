@@ -0,0 +1,567 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * OnixDeltaIndex --- This class remembers the content of every valid Product record that has been seen, as a persistent map
+ *                    from the hash of its RecordReference to the hash of its (normalized) content.
+ * <p>
+ * Since the index must hold tens of millions of records, it is not a map of objects; instead, it is an open-addressing
+ * table (with linear probing) of 16-byte slots within a memory-mapped file, so that it costs neither heap nor loading time
+ * and the OS keeps only its active pages in memory.  The table doubles its capacity (into a new file) once it is 75% full.
+ * Records are never removed.  A slot whose key is 0 is empty, so a hash of 0 is stored as 1 instead.
+ * <p>
+ * Each table is a numbered generation of the index (Ex. "deltas.idx.3"), while the index file itself is a small pointer that
+ * holds the number of the current generation.  A growth writes the next generation and then replaces the pointer, so a mapped
+ * table is never renamed or replaced (which Windows does not allow while the file is mapped).  Any other generations are
+ * deleted when they are no longer mapped, or else upon the next opening of the index.
+ * <p>
+ * The file is marked as dirty until its pages have been forced to disk, so that a crash is detected upon the next opening
+ * (when the count of records is rebuilt).  Since a torn or lost update can only make a record look changed (rather than
+ * unchanged), the worst outcome of a crash is that some records are validated again.  All of the methods are thread-safe.
+ * @author    Aaron Kendall
+ */
+public class OnixDeltaIndex {
+
+	private static final long CONST_MAGIC = 0x4F4E495844495831L;
+
+	private static final int CONST_HEADER_BYTES   = 4096;
+	private static final int CONST_SLOT_BYTES     = 16;
+	private static final int CONST_SEGMENT_SHIFT  = 26;
+	private static final int CONST_SEGMENT_SLOTS  = 1 << CONST_SEGMENT_SHIFT;
+	private static final long CONST_MIN_CAPACITY  = 1024;
+
+	private static final int CONST_CAPACITY_OFFSET = 8;
+	private static final int CONST_SIZE_OFFSET     = 16;
+	private static final int CONST_DIRTY_OFFSET    = 24;
+
+	private static final String CONST_POINTER_TEMP_SUFFIX = ".tmp";
+
+	private static final Charset s_oPointerCharset = Charset.forName("UTF-8");
+
+	private final File m_oPointerFile;
+
+	// NOTE: The current generation of the table (guarded by m_oLock)
+	private File m_oIndexFile  = null;
+	private long m_nGeneration = 0;
+
+	private final ReentrantReadWriteLock m_oLock = new ReentrantReadWriteLock();
+
+	// NOTE: The mapping of the table (guarded by m_oLock)
+	private FileChannel        m_oChannel  = null;
+	private MappedByteBuffer   m_oHeader   = null;
+	private MappedByteBuffer[] m_aSegments = null;
+
+	private long    m_nCapacity = 0;
+	private long    m_nMask     = 0;
+	private long    m_nSize     = 0;
+	private boolean m_bDirty    = false;
+
+	private final AtomicLong m_nLookupCount    = new AtomicLong(0);
+	private final AtomicLong m_nUnchangedCount = new AtomicLong(0);
+	private final AtomicLong m_nUpdateCount    = new AtomicLong(0);
+	private final AtomicLong m_nGrowCount      = new AtomicLong(0);
+
+	/**
+	 * Opens (or creates) the index file, rebuilding its count of records if it was not closed cleanly.
+	 *
+	 * @param  psIndexFilepath the path of the index file (i.e., the pointer to the current generation of the table)
+	 * @param  pnInitialCapacity the number of slots of a new index (which is rounded up to a power of 2)
+	 * @see    IOException
+	 */
+	public OnixDeltaIndex(String psIndexFilepath, long pnInitialCapacity)
+			throws IOException {
+
+		m_oPointerFile = new File(psIndexFilepath).getAbsoluteFile();
+
+		if (m_oPointerFile.getParentFile() != null)
+			m_oPointerFile.getParentFile().mkdirs();
+
+		long nGeneration = readGeneration();
+
+		if ((nGeneration >= 0) && getTableFile(nGeneration).isFile()) {
+
+			m_nGeneration = nGeneration;
+			m_oIndexFile  = getTableFile(nGeneration);
+
+			map(m_oIndexFile, 0);
+		}
+		else {
+			if (nGeneration >= 0)
+				OnixValidator.logError("ERROR!  The current table of the delta index(" + m_oPointerFile.getPath() + ") is missing, so the index " +
+				                       "has been started again.");
+
+			m_nGeneration = Math.max(nGeneration + 1, 0);
+			m_oIndexFile  = getTableFile(m_nGeneration);
+
+			map(m_oIndexFile, Long.highestOneBit(Math.max(pnInitialCapacity, CONST_MIN_CAPACITY) - 1) << 1);
+
+			writeGeneration(m_nGeneration);
+		}
+
+		// NOTE: A generation left over from an interrupted growth is incomplete, since it only becomes current once it is finished
+		deleteOtherGenerations();
+
+		if (m_oHeader.getLong(CONST_DIRTY_OFFSET) != 0) {
+
+			m_nSize = countRecords();
+
+			OnixValidator.logError("ERROR!  The delta index(" + m_oIndexFile.getPath() + ") was not closed cleanly, so its count of records " +
+			                       "has been rebuilt as (" + m_nSize + ").");
+		}
+
+		OnixValidator.logInfo("Loaded (" + m_nSize + ") records (within (" + m_nCapacity + ") slots) from the delta index(" +
+		                      m_oIndexFile.getPath() + ").");
+	}
+
+	/**
+	 * Forces the index to disk and closes it.
+	 *
+	 * @return None
+	 * @see    IOException
+	 */
+	public void close()
+			throws IOException {
+
+		m_oLock.writeLock().lock();
+		try {
+			if (m_oChannel == null)
+				return;
+
+			forceLocked();
+
+			unmap();
+		}
+		finally {
+			m_oLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Ensures that the index has not been closed (since its table is no longer mapped).
+	 * <p>
+	 * This function must be called while holding m_oLock.
+	 */
+	private void checkOpen() {
+
+		if (m_oChannel == null)
+			throw new IllegalStateException("The delta index(" + m_oPointerFile.getAbsolutePath() + ") has been closed.");
+	}
+
+	private long countRecords() {
+
+		long nCount = 0;
+
+		for (long i = 0; i < m_nCapacity; ++i) {
+
+			if (getKey(i) != 0)
+				++nCount;
+		}
+
+		m_oHeader.putLong(CONST_SIZE_OFFSET, nCount);
+
+		return nCount;
+	}
+
+	/**
+	 * Deletes every generation of the table other than the current one (along with any temporary pointer file).
+	 * <p>
+	 * A generation that cannot be deleted (Ex. since Windows keeps a file locked until its mapping is garbage collected) is
+	 * left for the next opening of the index.
+	 */
+	private void deleteOtherGenerations() {
+
+		File   oDirectory = m_oPointerFile.getParentFile();
+		String sPrefix    = m_oPointerFile.getName() + ".";
+
+		new File(m_oPointerFile.getPath() + CONST_POINTER_TEMP_SUFFIX).delete();
+
+		String[] aNames = (oDirectory != null) ? oDirectory.list() : null;
+
+		if (aNames == null)
+			return;
+
+		for (String sName : aNames) {
+
+			if (!sName.startsWith(sPrefix) || (sName.length() == sPrefix.length()))
+				continue;
+
+			long nGeneration = parseGeneration(sName.substring(sPrefix.length()));
+
+			if ((nGeneration < 0) || (nGeneration == m_nGeneration))
+				continue;
+
+			new File(oDirectory, sName).delete();
+		}
+	}
+
+	/**
+	 * Forces every change to disk, after which the index is marked as clean.
+	 *
+	 * @return None
+	 * @see    IllegalStateException
+	 */
+	public void force() {
+
+		m_oLock.writeLock().lock();
+		try {
+			checkOpen();
+
+			forceLocked();
+		}
+		finally {
+			m_oLock.writeLock().unlock();
+		}
+	}
+
+	private void forceLocked() {
+
+		if (!m_bDirty)
+			return;
+
+		for (MappedByteBuffer oSegment : m_aSegments)
+			oSegment.force();
+
+		m_oHeader.putLong(CONST_SIZE_OFFSET, m_nSize);
+		m_oHeader.putLong(CONST_DIRTY_OFFSET, 0);
+		m_oHeader.force();
+
+		m_bDirty = false;
+	}
+
+	/**
+	 * Provides the content hash that was last stored for a record.
+	 *
+	 * @param  pnKeyHash the hash of the RecordReference of the record
+	 * @return long the hash of the content of the record (or 0 if the record is unknown)
+	 * @see    IllegalStateException
+	 */
+	public long getContentHash(long pnKeyHash) {
+
+		long nKeyHash = (pnKeyHash != 0) ? pnKeyHash : 1;
+
+		m_nLookupCount.incrementAndGet();
+
+		m_oLock.readLock().lock();
+		try {
+			checkOpen();
+
+			for (long nSlot = nKeyHash & m_nMask; ; nSlot = (nSlot + 1) & m_nMask) {
+
+				long nSlotKey = getKey(nSlot);
+
+				if (nSlotKey == nKeyHash)
+					return getContent(nSlot);
+				else if (nSlotKey == 0)
+					return 0;
+			}
+		}
+		finally {
+			m_oLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Indicates whether a record is known and its content has not changed since it was last stored.
+	 *
+	 * @param  pnKeyHash the hash of the RecordReference of the record
+	 * @param  pnContentHash the hash of the current content of the record
+	 * @return boolean Indicates whether or not the record is unchanged
+	 * @see    IllegalStateException
+	 */
+	public boolean isUnchanged(long pnKeyHash, long pnContentHash) {
+
+		boolean bUnchanged = (getContentHash(pnKeyHash) == ((pnContentHash != 0) ? pnContentHash : 1));
+
+		if (bUnchanged)
+			m_nUnchangedCount.incrementAndGet();
+
+		return bUnchanged;
+	}
+
+	private long getContent(long pnSlot) {
+		return m_aSegments[(int) (pnSlot >>> CONST_SEGMENT_SHIFT)].getLong((int) (pnSlot & (CONST_SEGMENT_SLOTS - 1)) * CONST_SLOT_BYTES + 8);
+	}
+
+	private long getKey(long pnSlot) {
+		return m_aSegments[(int) (pnSlot >>> CONST_SEGMENT_SHIFT)].getLong((int) (pnSlot & (CONST_SEGMENT_SLOTS - 1)) * CONST_SLOT_BYTES);
+	}
+
+	public long getSize() {
+
+		m_oLock.readLock().lock();
+		try {
+			return m_nSize;
+		}
+		finally {
+			m_oLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Provides the file that holds a generation of the table (Ex. "deltas.idx.3").
+	 */
+	private File getTableFile(long pnGeneration) {
+		return new File(m_oPointerFile.getPath() + "." + pnGeneration);
+	}
+
+	public String getStatistics() {
+
+		return "Delta index statistics: Records(" + getSize() + "), Lookups(" + m_nLookupCount.get() + "), Unchanged(" +
+		       m_nUnchangedCount.get() + "), Updates(" + m_nUpdateCount.get() + "), Growths(" + m_nGrowCount.get() + ").";
+	}
+
+	/**
+	 * Doubles the capacity of the table, by rehashing every record into the next generation, which then becomes current.
+	 */
+	private void grow()
+			throws IOException {
+
+		long               nOldCapacity = m_nCapacity;
+		MappedByteBuffer[] aOldSegments = m_aSegments;
+		FileChannel        oOldChannel  = m_oChannel;
+		File               oOldFile     = m_oIndexFile;
+		long               nGeneration  = m_nGeneration + 1;
+		File               oGrowFile    = getTableFile(nGeneration);
+
+		map(oGrowFile, nOldCapacity * 2);
+
+		for (long i = 0; i < nOldCapacity; ++i) {
+
+			MappedByteBuffer oSegment = aOldSegments[(int) (i >>> CONST_SEGMENT_SHIFT)];
+			int              nOffset  = (int) (i & (CONST_SEGMENT_SLOTS - 1)) * CONST_SLOT_BYTES;
+			long             nKey     = oSegment.getLong(nOffset);
+
+			if (nKey != 0)
+				insert(nKey, oSegment.getLong(nOffset + 8));
+		}
+
+		m_bDirty = true;
+		forceLocked();
+
+		// NOTE: The growth is only complete once the pointer names the new generation
+		writeGeneration(nGeneration);
+
+		m_oIndexFile  = oGrowFile;
+		m_nGeneration = nGeneration;
+
+		oOldChannel.close();
+
+		// NOTE: On Windows, the old table cannot be deleted until its mapping has been garbage collected
+		if (!oOldFile.delete())
+			OnixValidator.logDebug("The previous table(" + oOldFile.getPath() + ") of the delta index will be deleted upon its next opening.");
+
+		m_nGrowCount.incrementAndGet();
+
+		OnixValidator.logInfo("Grew the delta index(" + m_oIndexFile.getPath() + ") to (" + m_nCapacity + ") slots.");
+	}
+
+	/**
+	 * Stores a record into the first free (or matching) slot, without checking the load of the table.
+	 *
+	 * @return boolean Indicates whether or not a new record was added (rather than an existing one being updated)
+	 */
+	private boolean insert(long pnKeyHash, long pnContentHash) {
+
+		for (long nSlot = pnKeyHash & m_nMask; ; nSlot = (nSlot + 1) & m_nMask) {
+
+			MappedByteBuffer oSegment = m_aSegments[(int) (nSlot >>> CONST_SEGMENT_SHIFT)];
+			int              nOffset  = (int) (nSlot & (CONST_SEGMENT_SLOTS - 1)) * CONST_SLOT_BYTES;
+			long             nKey     = oSegment.getLong(nOffset);
+
+			if ((nKey == pnKeyHash) || (nKey == 0)) {
+
+				// NOTE: The content is written before the key, since the key is what makes the slot visible
+				oSegment.putLong(nOffset + 8, pnContentHash);
+				oSegment.putLong(nOffset, pnKeyHash);
+
+				if (nKey == 0)
+					++m_nSize;
+
+				return (nKey == 0);
+			}
+		}
+	}
+
+	/**
+	 * Maps the table of an index file, creating the file (with the specified capacity) if it is new.
+	 */
+	private void map(File poIndexFile, long pnNewCapacity)
+			throws IOException {
+
+		FileChannel oChannel = FileChannel.open(poIndexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			if (pnNewCapacity > 0)
+				oChannel.truncate(0);
+
+			// NOTE: The table is extended (by its mapping) rather than written, so that on most file systems its empty pages take no space
+			MappedByteBuffer oHeader = oChannel.map(FileChannel.MapMode.READ_WRITE, 0, CONST_HEADER_BYTES);
+
+			if (pnNewCapacity > 0) {
+
+				oHeader.putLong(0, CONST_MAGIC);
+				oHeader.putLong(CONST_CAPACITY_OFFSET, pnNewCapacity);
+				oHeader.putLong(CONST_SIZE_OFFSET, 0);
+				oHeader.putLong(CONST_DIRTY_OFFSET, 0);
+			}
+			else if (oHeader.getLong(0) != CONST_MAGIC)
+				throw new IOException("The file(" + poIndexFile.getPath() + ") is not a delta index.");
+
+			long nCapacity = oHeader.getLong(CONST_CAPACITY_OFFSET);
+			int  nSegments = (int) ((nCapacity + CONST_SEGMENT_SLOTS - 1) >>> CONST_SEGMENT_SHIFT);
+
+			MappedByteBuffer[] aSegments = new MappedByteBuffer[nSegments];
+
+			for (int i = 0; i < nSegments; ++i) {
+
+				long nSegmentSlots = Math.min(CONST_SEGMENT_SLOTS, nCapacity - ((long) i << CONST_SEGMENT_SHIFT));
+
+				aSegments[i] = oChannel.map(FileChannel.MapMode.READ_WRITE, CONST_HEADER_BYTES + (((long) i << CONST_SEGMENT_SHIFT) * CONST_SLOT_BYTES),
+				                            nSegmentSlots * CONST_SLOT_BYTES);
+			}
+
+			m_oChannel  = oChannel;
+			m_oHeader   = oHeader;
+			m_aSegments = aSegments;
+			m_nCapacity = nCapacity;
+			m_nMask     = nCapacity - 1;
+			m_nSize     = oHeader.getLong(CONST_SIZE_OFFSET);
+		}
+		catch (IOException e) {
+			oChannel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the number of the current generation from the pointer file.
+	 * <p>
+	 * An index written before the generations were introduced (i.e., a table under the name of the pointer) becomes generation 0.
+	 *
+	 * @return long the number of the current generation (or -1 if the index is new)
+	 */
+	private long readGeneration()
+			throws IOException {
+
+		if (!m_oPointerFile.isFile() || (m_oPointerFile.length() == 0))
+			return -1;
+
+		byte[] aPointer = Files.readAllBytes(m_oPointerFile.toPath());
+
+		if ((aPointer.length >= 8) && (ByteBuffer.wrap(aPointer, 0, 8).getLong() == CONST_MAGIC)) {
+
+			Files.move(m_oPointerFile.toPath(), getTableFile(0).toPath());
+
+			writeGeneration(0);
+
+			return 0;
+		}
+
+		long nGeneration = parseGeneration(new String(aPointer, s_oPointerCharset).trim());
+
+		if (nGeneration < 0)
+			throw new IOException("The file(" + m_oPointerFile.getPath() + ") is not a delta index.");
+
+		return nGeneration;
+	}
+
+	/**
+	 * Parses the number of a generation (Ex. the suffix of a table file).
+	 *
+	 * @return long the number of the generation (or -1 if the text is not one)
+	 */
+	private static long parseGeneration(String psGeneration) {
+
+		try {
+			long nGeneration = Long.parseLong(psGeneration);
+
+			return ((nGeneration >= 0) && psGeneration.equals(String.valueOf(nGeneration))) ? nGeneration : -1;
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Stores the content hashes of several records at once (Ex. the changed records of a file that has been found valid).
+	 *
+	 * @param  paKeyHashes the hashes of the RecordReferences of the records
+	 * @param  paContentHashes the hashes of the contents of the records
+	 * @param  pnCount the number of records to store
+	 * @return None
+	 * @see    IOException
+	 * @see    IllegalStateException
+	 */
+	public void putAll(long[] paKeyHashes, long[] paContentHashes, int pnCount)
+			throws IOException {
+
+		m_oLock.writeLock().lock();
+		try {
+			checkOpen();
+
+			for (int i = 0; i < pnCount; ++i) {
+
+				if ((m_nSize + 1) > ((m_nCapacity * 3) / 4))
+					grow();
+
+				// NOTE: The file is marked before its first change (and again after a growth, which leaves it clean)
+				if (!m_bDirty) {
+
+					m_oHeader.putLong(CONST_DIRTY_OFFSET, 1);
+					m_oHeader.force();
+
+					m_bDirty = true;
+				}
+
+				insert((paKeyHashes[i] != 0) ? paKeyHashes[i] : 1, (paContentHashes[i] != 0) ? paContentHashes[i] : 1);
+			}
+
+			m_nUpdateCount.addAndGet(pnCount);
+		}
+		finally {
+			m_oLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replaces the pointer file (which is never mapped) with one that names the specified generation, forcing it to disk first.
+	 */
+	private void writeGeneration(long pnGeneration)
+			throws IOException {
+
+		File oTempFile = new File(m_oPointerFile.getPath() + CONST_POINTER_TEMP_SUFFIX);
+
+		try (FileChannel oTempChannel = FileChannel.open(oTempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, 
+		                                                 StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			ByteBuffer oPointerBuffer = ByteBuffer.wrap(String.valueOf(pnGeneration).getBytes(s_oPointerCharset));
+
+			while (oPointerBuffer.hasRemaining())
+				oTempChannel.write(oPointerBuffer);
+
+			oTempChannel.force(true);
+		}
+
+		OnixRoutingJournal.replaceAtomically(oTempFile.toPath(), m_oPointerFile.toPath());
+	}
+
+	private void unmap()
+			throws IOException {
+
+		m_oChannel.close();
+
+		m_oChannel  = null;
+		m_oHeader   = null;
+		m_aSegments = null;
+	}
+}
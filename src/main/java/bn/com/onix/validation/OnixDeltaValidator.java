@@ -0,0 +1,551 @@
+package bn.com.onix.validation;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+import org.xml.sax.SAXParseException;
+
+/**
+ * OnixDeltaValidator --- This class validates only the Product records of an ONIX file that are new or have changed since
+ *                        the previous feed, as remembered by the OnixDeltaIndex.
+ * <p>
+ * Most daily full feeds repeat the records of the previous day almost entirely.  So, during the byte-level scan of the file
+ * (i.e., by the OnixProductSplitter), each Product record is hashed in two ways: its RecordReference identifies the record,
+ * and its normalized content (i.e., ignoring the whitespace between tags, and including the grammar of the file) identifies
+ * its version.  A record whose content hash matches the one in the index is skipped; the others are validated as a single
+ * synthetic message (i.e., the file's header, the changed records and the file's tail), whose errors are mapped back onto
+ * the line numbers of the original file.  A record without a RecordReference is always validated.
+ * <p>
+ * The index is only updated once the delta has been found valid, so that an invalid record is validated again the next time
+ * it appears.  If requested, the valid delta is also written as a standalone ONIX file for the downstream systems.
+ * @author    Aaron Kendall
+ */
+public class OnixDeltaValidator {
+
+	public static final String CONST_DELTA_SUFFIX = ".delta.xml";
+
+	public static final int CONST_WINDOW_BYTES      = 1024 * 1024;
+	public static final int CONST_MAX_PRODUCT_BYTES = 64 * 1024 * 1024;
+
+	private static final long CONST_FNV_OFFSET = 0xCBF29CE484222325L;
+	private static final long CONST_FNV_PRIME  = 0x100000001B3L;
+
+	private static final byte[] CONST_RECORD_REF_TAG       = "<RecordReference".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CONST_RECORD_REF_SHORT_TAG = "<a001".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] CONST_NEWLINE              = { '\n' };
+
+	/**
+	 * Collects the Product records of a file that are not already known (with the same content) by the index.
+	 */
+	private static class ChangedProducts implements OnixProductSplitter.ProductListener {
+
+		private final FileChannel    m_oChannel;
+		private final OnixDeltaIndex m_oIndex;
+		private final long           m_nGrammarSeed;
+
+		// NOTE: The window of the file from which the records are hashed, so that it is not read once per record
+		private byte[] m_aWindow       = new byte[CONST_WINDOW_BYTES];
+		private long   m_nWindowStart  = 0;
+		private int    m_nWindowLength = 0;
+
+		long[] aStartOffsets  = new long[1024];
+		long[] aEndOffsets    = new long[1024];
+		long[] aStartLines    = new long[1024];
+		long[] aEndLines      = new long[1024];
+		long[] aKeyHashes     = new long[1024];
+		long[] aContentHashes = new long[1024];
+		int    nCount         = 0;
+
+		long nProductCount = 0;
+		long nFirstStart   = -1;
+		long nFirstEnd     = -1;
+		long nFirstLine    = 1;
+		long nFirstEndLine = 1;
+
+		ChangedProducts(FileChannel poChannel, OnixDeltaIndex poIndex, long pnGrammarSeed) {
+
+			m_oChannel     = poChannel;
+			m_oIndex       = poIndex;
+			m_nGrammarSeed = pnGrammarSeed;
+		}
+
+		void add(long pnStartOffset, long pnEndOffset, long pnStartLine, long pnEndLine, long pnKeyHash, long pnContentHash) {
+
+			if (nCount == aStartOffsets.length) {
+
+				int nNewLength = nCount * 2;
+
+				aStartOffsets  = Arrays.copyOf(aStartOffsets, nNewLength);
+				aEndOffsets    = Arrays.copyOf(aEndOffsets, nNewLength);
+				aStartLines    = Arrays.copyOf(aStartLines, nNewLength);
+				aEndLines      = Arrays.copyOf(aEndLines, nNewLength);
+				aKeyHashes     = Arrays.copyOf(aKeyHashes, nNewLength);
+				aContentHashes = Arrays.copyOf(aContentHashes, nNewLength);
+			}
+
+			aStartOffsets[nCount]  = pnStartOffset;
+			aEndOffsets[nCount]    = pnEndOffset;
+			aStartLines[nCount]    = pnStartLine;
+			aEndLines[nCount]      = pnEndLine;
+			aKeyHashes[nCount]     = pnKeyHash;
+			aContentHashes[nCount] = pnContentHash;
+
+			++nCount;
+		}
+
+		@Override
+		public void product(long pnStartOffset, long pnEndOffset, long pnStartLine, long pnEndLine)
+				throws IOException {
+
+			if (nProductCount++ == 0) {
+				nFirstStart   = pnStartOffset;
+				nFirstEnd     = pnEndOffset;
+				nFirstLine    = pnStartLine;
+				nFirstEndLine = pnEndLine;
+			}
+
+			long nLength = pnEndOffset - pnStartOffset;
+
+			// NOTE: A record too large to be hashed in memory is simply validated every time
+			if (nLength > CONST_MAX_PRODUCT_BYTES) {
+				add(pnStartOffset, pnEndOffset, pnStartLine, pnEndLine, 0, 0);
+				return;
+			}
+
+			if ((pnStartOffset < m_nWindowStart) || (pnEndOffset > (m_nWindowStart + m_nWindowLength)))
+				readWindow(pnStartOffset, pnEndOffset);
+
+			int nStart = (int) (pnStartOffset - m_nWindowStart);
+			int nEnd   = (int) (pnEndOffset - m_nWindowStart);
+
+			long nKeyHash     = hashRecordReference(m_aWindow, nStart, nEnd);
+			long nContentHash = 0;
+
+			if (nKeyHash != 0) {
+
+				nContentHash = hashContent(m_nGrammarSeed, m_aWindow, nStart, nEnd);
+
+				if (m_oIndex.isUnchanged(nKeyHash, nContentHash))
+					return;
+			}
+
+			add(pnStartOffset, pnEndOffset, pnStartLine, pnEndLine, nKeyHash, nContentHash);
+		}
+
+		/**
+		 * Moves the window so that it begins with the specified record (and holds at least all of it).
+		 */
+		private void readWindow(long pnStartOffset, long pnEndOffset)
+				throws IOException {
+
+			int nLength = (int) (pnEndOffset - pnStartOffset);
+
+			if (m_aWindow.length < nLength)
+				m_aWindow = new byte[nLength];
+
+			ByteBuffer oBuffer = ByteBuffer.wrap(m_aWindow);
+
+			while (oBuffer.position() < nLength) {
+
+				if (m_oChannel.read(oBuffer, pnStartOffset + oBuffer.position()) < 0)
+					throw new IOException("Unexpected end of file while reading the Product at offset(" + pnStartOffset + ").");
+			}
+
+			m_nWindowStart  = pnStartOffset;
+			m_nWindowLength = oBuffer.position();
+		}
+	}
+
+	/**
+	 * Forwards the errors of the delta to the handler of the whole file, translating their line numbers from the delta
+	 * onto the original file.
+	 */
+	private static class DeltaErrorHandler extends OnixFileErrorHandler {
+
+		private final OnixFileErrorHandler m_oFileErrorHandler;
+		private final String               m_sSystemId;
+		private final long[]               m_aDeltaLines;
+		private final long[]               m_aOriginalLines;
+
+		private volatile long m_nErrorCount = 0;
+
+		DeltaErrorHandler(OnixFileErrorHandler poFileErrorHandler, String psSystemId, long[] paDeltaLines, long[] paOriginalLines) {
+
+			super(poFileErrorHandler.getOnixFilepath(), null, (poFileErrorHandler.getPathTracker() != null));
+
+			m_oFileErrorHandler = poFileErrorHandler;
+			m_sSystemId         = psSystemId;
+			m_aDeltaLines       = paDeltaLines;
+			m_aOriginalLines    = paOriginalLines;
+		}
+
+		@Override
+		public long getErrorCount() {
+			return m_nErrorCount;
+		}
+
+		@Override
+		public boolean isValid() {
+			return (m_nErrorCount == 0) && !isAborted();
+		}
+
+		@Override
+		public void recordError(Exception poException, String psSeverity, String psElementPath, String psRecordReference) {
+
+			if ((poException instanceof SAXParseException) && (((SAXParseException) poException).getLineNumber() > 0)) {
+
+				SAXParseException oParseException = (SAXParseException) poException;
+				long              nLine           = oParseException.getLineNumber();
+
+				// NOTE: Each region of the delta begins on a known line of the original file
+				int nRegion = Arrays.binarySearch(m_aDeltaLines, nLine);
+
+				if (nRegion < 0)
+					nRegion = -nRegion - 2;
+				else {
+					while (((nRegion + 1) < m_aDeltaLines.length) && (m_aDeltaLines[nRegion + 1] == nLine))
+						++nRegion;
+				}
+
+				nLine = m_aOriginalLines[nRegion] + (nLine - m_aDeltaLines[nRegion]);
+
+				poException = new SAXParseException(oParseException.getMessage(), oParseException.getPublicId(), m_sSystemId,
+				                                    (int) nLine, oParseException.getColumnNumber(), oParseException.getException());
+			}
+
+			m_oFileErrorHandler.recordError(poException, psSeverity, psElementPath, psRecordReference);
+
+			++m_nErrorCount;
+		}
+	}
+
+	/**
+	 * Finishes a hash (i.e., the finalizer of MurmurHash3), so that the low bits used by the index are well mixed.
+	 */
+	private static long finishHash(long pnHash) {
+
+		pnHash ^= (pnHash >>> 33);
+		pnHash *= 0xFF51AFD7ED558CCDL;
+		pnHash ^= (pnHash >>> 33);
+		pnHash *= 0xC4CEB9FE1A85EC53L;
+		pnHash ^= (pnHash >>> 33);
+
+		return pnHash;
+	}
+
+	private static long hashBytes(long pnHash, byte[] paBytes, int pnStart, int pnEnd) {
+
+		for (int i = pnStart; i < pnEnd; ++i)
+			pnHash = (pnHash ^ (paBytes[i] & 0xFF)) * CONST_FNV_PRIME;
+
+		return pnHash;
+	}
+
+	/**
+	 * Hashes the content of a Product record, ignoring any whitespace that merely separates its tags (Ex. indentation),
+	 * so that the same record is recognized after it has been reformatted.
+	 *
+	 * @param  pnSeed the seed of the hash (i.e., the hash of the grammar of the file)
+	 * @param  paBytes the buffer that holds the Product record
+	 * @param  pnStart the offset at which the Product record begins within the buffer
+	 * @param  pnEnd the offset at which the Product record ends within the buffer
+	 * @return long the hash of the normalized content
+	 */
+	static long hashContent(long pnSeed, byte[] paBytes, int pnStart, int pnEnd) {
+
+		long    nHash         = pnSeed;
+		int     nPendingStart = -1;
+		boolean bAfterTag     = false;
+
+		for (int i = pnStart; i < pnEnd; ++i) {
+
+			byte nByte = paBytes[i];
+
+			if ((nByte == ' ') || (nByte == '\t') || (nByte == '\r') || (nByte == '\n')) {
+
+				if (nPendingStart < 0)
+					nPendingStart = i;
+
+				continue;
+			}
+
+			if (nPendingStart >= 0) {
+
+				if (!bAfterTag || (nByte != '<'))
+					nHash = hashBytes(nHash, paBytes, nPendingStart, i);
+
+				nPendingStart = -1;
+			}
+
+			nHash     = (nHash ^ (nByte & 0xFF)) * CONST_FNV_PRIME;
+			bAfterTag = (nByte == '>');
+		}
+
+		return finishHash(nHash);
+	}
+
+	/**
+	 * Hashes the RecordReference (or its short tag 'a001') of a Product record.
+	 *
+	 * @param  paBytes the buffer that holds the Product record
+	 * @param  pnStart the offset at which the Product record begins within the buffer
+	 * @param  pnEnd the offset at which the Product record ends within the buffer
+	 * @return long the hash of the trimmed RecordReference (or 0 if the record has none)
+	 */
+	static long hashRecordReference(byte[] paBytes, int pnStart, int pnEnd) {
+
+		int nTagEnd = findTagEnd(paBytes, pnStart, pnEnd, CONST_RECORD_REF_TAG);
+
+		if (nTagEnd < 0)
+			nTagEnd = findTagEnd(paBytes, pnStart, pnEnd, CONST_RECORD_REF_SHORT_TAG);
+
+		if (nTagEnd < 0)
+			return 0;
+
+		int nStart = nTagEnd;
+		int nEnd   = nTagEnd;
+
+		while ((nEnd < pnEnd) && (paBytes[nEnd] != '<'))
+			++nEnd;
+
+		while ((nStart < nEnd) && (paBytes[nStart] <= ' '))
+			++nStart;
+
+		while ((nEnd > nStart) && (paBytes[nEnd - 1] <= ' '))
+			--nEnd;
+
+		if (nStart == nEnd)
+			return 0;
+
+		long nHash = finishHash(hashBytes(CONST_FNV_OFFSET, paBytes, nStart, nEnd));
+
+		return (nHash != 0) ? nHash : 1;
+	}
+
+	/**
+	 * Finds the first start tag with the specified name, returning the offset just after its '>'.
+	 */
+	private static int findTagEnd(byte[] paBytes, int pnStart, int pnEnd, byte[] paTag) {
+
+		for (int i = pnStart; (i + paTag.length) < pnEnd; ++i) {
+
+			int j = 0;
+
+			while ((j < paTag.length) && (paBytes[i + j] == paTag[j]))
+				++j;
+
+			if (j < paTag.length)
+				continue;
+
+			byte nNext = paBytes[i + j];
+
+			// NOTE: The name must end here (Ex. "<a001>" or "<a001 datestamp=...>", but not "<a0010>")
+			if ((nNext != '>') && (nNext > ' ') && (nNext != '/'))
+				continue;
+
+			for (int k = i + j; k < pnEnd; ++k) {
+
+				if (paBytes[k] == '>')
+					return (paBytes[k - 1] != '/') ? (k + 1) : -1;
+			}
+
+			return -1;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Opens the delta as a single stream (i.e., the header, each changed record on its own line, and the tail), reading
+	 * the records from the original file as it goes.
+	 */
+	private static InputStream openDeltaStream(final FileChannel poChannel, final byte[] paHeader, final byte[] paTail, final ChangedProducts poChanges) {
+
+		return new SequenceInputStream(new Enumeration<InputStream>() {
+
+			private int m_nPart = 0;
+
+			@Override
+			public boolean hasMoreElements() {
+				return (m_nPart < ((poChanges.nCount * 2) + 2));
+			}
+
+			@Override
+			public InputStream nextElement() {
+
+				if (!hasMoreElements())
+					throw new NoSuchElementException();
+
+				int nPart = m_nPart++;
+
+				if (nPart == 0)
+					return new ByteArrayInputStream(paHeader);
+				else if (nPart == ((poChanges.nCount * 2) + 1))
+					return new ByteArrayInputStream(paTail);
+				else if ((nPart % 2) == 0)
+					return new ByteArrayInputStream(CONST_NEWLINE);
+
+				int nIndex = (nPart - 1) / 2;
+
+				return new OnixProductParallelValidator.FileRegionInputStream(poChannel, poChanges.aStartOffsets[nIndex], poChanges.aEndOffsets[nIndex]);
+			}
+		});
+	}
+
+	/**
+	 * Validates only the new and changed Product records of a specified ONIX file, as determined by the delta index.
+	 * <p>
+	 * If the file cannot be split into its Product records (Ex. it has a multi-byte encoding), nothing is validated,
+	 * and the caller should validate the whole file instead.
+	 *
+	 * @param  pOnixFile the ONIX file that we are attempting to validate
+	 * @param  poIndex the index of the records that have already been found valid
+	 * @param  poErrorHandler the handler that records whether the ONIX file is valid or invalid
+	 * @param  psDeltaOutputDir the directory into which the valid delta will be written (or null/empty if it should not be written)
+	 * @return long the number of bytes that were validated (or -1 if the file could not be validated as a delta)
+	 */
+	public static long ValidateFile(File pOnixFile, OnixDeltaIndex poIndex, OnixFileErrorHandler poErrorHandler, String psDeltaOutputDir)
+			throws org.xml.sax.SAXException, java.io.IOException, javax.xml.parsers.ParserConfigurationException  {
+
+		long nStartMillis = System.currentTimeMillis();
+
+		try (FileChannel oChannel = FileChannel.open(pOnixFile.toPath(), StandardOpenOption.READ)) {
+
+			long nFileLength = oChannel.size();
+
+			// NOTE: The same record under another grammar (Ex. a new version of the DTD) is a different record
+			OnixFileFormat oFormat =
+				OnixFileFormat.sniff(new BufferedInputStream(new OnixProductParallelValidator.FileRegionInputStream(oChannel, 0, nFileLength),
+				                                             OnixFileFormat.CONST_SNIFF_BYTES));
+
+			byte[] aGrammarId   = oFormat.getGrammarId().getBytes(StandardCharsets.UTF_8);
+			long   nGrammarSeed = hashBytes(CONST_FNV_OFFSET, aGrammarId, 0, aGrammarId.length);
+
+			// NOTE: Likewise, a record that was checked against one issue of the code lists must be checked against a new issue
+			if (OnixCodeLists.getInstance() != null)
+				nGrammarSeed = (nGrammarSeed ^ OnixCodeLists.getInstance().getIssue()) * CONST_FNV_PRIME;
+
+			ChangedProducts     oChanges  = new ChangedProducts(oChannel, poIndex, nGrammarSeed);
+			OnixProductSplitter oSplitter = OnixProductSplitter.scan(pOnixFile, Integer.MAX_VALUE, oChanges);
+
+			if ((oSplitter == null) ||
+				(oSplitter.getHeaderEndOffset() > OnixProductParallelValidator.CONST_MAX_HEADER_BYTES) ||
+				((oSplitter.getFileLength() - oSplitter.getTailStartOffset()) > OnixProductParallelValidator.CONST_MAX_TAIL_BYTES)) {
+				return -1;
+			}
+
+			int nChangedCount = oChanges.nCount;
+
+			// NOTE: A message needs at least one Product to be valid, so an unchanged file is checked with its first record
+			if (nChangedCount == 0)
+				oChanges.add(oChanges.nFirstStart, oChanges.nFirstEnd, oChanges.nFirstLine, oChanges.nFirstEndLine, 0, 0);
+
+			byte[] aHeader = OnixProductParallelValidator.readRegion(oChannel, 0, oSplitter.getHeaderEndOffset());
+			byte[] aTail   = OnixProductParallelValidator.readRegion(oChannel, oSplitter.getTailStartOffset(), oSplitter.getFileLength());
+
+			// NOTE: The map from the first line of each region of the delta (i.e., header, records, tail) to its line in the original file
+			long[] aDeltaLines    = new long[oChanges.nCount + 2];
+			long[] aOriginalLines = new long[oChanges.nCount + 2];
+			long   nDeltaLine     = oSplitter.getHeaderEndLine();
+			long   nDeltaBytes    = aHeader.length + aTail.length;
+
+			aDeltaLines[0]    = 1;
+			aOriginalLines[0] = 1;
+
+			for (int i = 0; i < oChanges.nCount; ++i) {
+
+				aDeltaLines[i + 1]    = nDeltaLine;
+				aOriginalLines[i + 1] = oChanges.aStartLines[i];
+
+				nDeltaLine  += (oChanges.aEndLines[i] - oChanges.aStartLines[i]) + 1;
+				nDeltaBytes += (oChanges.aEndOffsets[i] - oChanges.aStartOffsets[i]) + 1;
+			}
+
+			aDeltaLines[oChanges.nCount + 1]    = nDeltaLine;
+			aOriginalLines[oChanges.nCount + 1] = oSplitter.getTailStartLine();
+
+			String            sSystemId = pOnixFile.toURI().toString();
+			DeltaErrorHandler oHandler  = new DeltaErrorHandler(poErrorHandler, sSystemId, aDeltaLines, aOriginalLines);
+
+			oHandler.setErrorBudget(poErrorHandler.getMaxErrors(), poErrorHandler.getDeadlineMillis());
+
+			try (InputStream oDeltaStream = openDeltaStream(oChannel, aHeader, aTail, oChanges)) {
+				OnixFileValidator.ValidateStream(oDeltaStream, sSystemId, oHandler);
+			}
+
+			if (oHandler.isAborted())
+				poErrorHandler.abort(oHandler.getAbortReason());
+
+			if (oHandler.isValid() && (nChangedCount > 0)) {
+
+				if ((psDeltaOutputDir != null) && !psDeltaOutputDir.isEmpty())
+					writeDelta(pOnixFile, psDeltaOutputDir, openDeltaStream(oChannel, aHeader, aTail, oChanges));
+
+				storeChanges(poIndex, oChanges, nChangedCount);
+			}
+
+			OnixValidator.logInfo("Validated the delta of ONIX file(" + pOnixFile.getAbsolutePath() + ") : (" + nChangedCount + ") of (" +
+			                      oChanges.nProductCount + ") Products were new or changed, validated in (" +
+			                      (System.currentTimeMillis() - nStartMillis) + ") ms.");
+
+			return nDeltaBytes;
+		}
+	}
+
+	/**
+	 * Stores the content hashes of the changed records (i.e., those with a RecordReference) into the index, and then forces it to disk.
+	 */
+	private static void storeChanges(OnixDeltaIndex poIndex, ChangedProducts poChanges, int pnChangedCount)
+			throws IOException {
+
+		long[] aKeyHashes     = new long[pnChangedCount];
+		long[] aContentHashes = new long[pnChangedCount];
+		int    nKeyedCount    = 0;
+
+		for (int i = 0; i < pnChangedCount; ++i) {
+
+			if (poChanges.aKeyHashes[i] != 0) {
+				aKeyHashes[nKeyedCount]     = poChanges.aKeyHashes[i];
+				aContentHashes[nKeyedCount] = poChanges.aContentHashes[i];
+				++nKeyedCount;
+			}
+		}
+
+		poIndex.putAll(aKeyHashes, aContentHashes, nKeyedCount);
+		poIndex.force();
+	}
+
+	/**
+	 * Writes the delta as a standalone ONIX file (i.e., "<name>.delta.xml"), which only appears once it is complete.
+	 */
+	private static void writeDelta(File pOnixFile, String psDeltaOutputDir, InputStream poDeltaStream)
+			throws IOException {
+
+		File oDeltaDir  = new File(psDeltaOutputDir);
+		File oDeltaFile = new File(oDeltaDir, pOnixFile.getName() + CONST_DELTA_SUFFIX);
+		File oTempFile  = new File(oDeltaDir, oDeltaFile.getName() + ".tmp");
+
+		oDeltaDir.mkdirs();
+
+		try (InputStream oDeltaStream = poDeltaStream) {
+			Files.copy(oDeltaStream, oTempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		OnixRoutingJournal.replaceAtomically(oTempFile.toPath(), oDeltaFile.toPath());
+
+		OnixValidator.logInfo("Wrote the delta of ONIX file(" + pOnixFile.getAbsolutePath() + ") to (" + oDeltaFile.getAbsolutePath() + ").");
+	}
+}
@@ -0,0 +1,255 @@
+package bn.com.onix.validation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * OnixDoctypeRewriter --- This class replaces the DTD URL inside the DOCTYPE tag of an ONIX file at the byte level.
+ * <p>
+ * Only the XML prolog is decoded and patched (in the encoding declared by the file itself), and the remainder
+ * of the file is copied verbatim through FileChannel.transferTo(), so that a multi-GB file costs one sequential copy.
+ * Files whose DOCTYPE does not contain the URL are not touched at all.
+ * @author    Aaron Kendall
+ */
+public class OnixDoctypeRewriter {
+
+	public static final int CONST_PROLOG_SCAN_BYTES = 64 * 1024;
+
+	private static final Pattern s_oEncodingPattern = Pattern.compile("encoding\\s*=\\s*[\"']([A-Za-z0-9._:\\-]+)[\"']");
+
+	/**
+	 * Replaces the URL inside the DOCTYPE tag of the specified ONIX file.
+	 * <p>
+	 * The patched copy is written to a temporary file, which then replaces the original.  If the replacement cannot be
+	 * encoded in the charset of the file (Ex. a local path with Cyrillic letters in an ISO-8859-1 file), the file is left unchanged.
+	 *
+	 * @param  poOnixFile the ONIX file whose DOCTYPE tag should be edited
+	 * @param  psSearchUrl the substring of the URL to replace (Ex. "http://www.editeur.org/onix")
+	 * @param  psReplaceUrl the string to replace the specified substring (Ex. "Y:/onix_dtds")
+	 * @return boolean Indicates whether or not the file was rewritten
+	 * @see    IOException
+	 */
+	public static boolean rewriteDoctype(File poOnixFile, String psSearchUrl, String psReplaceUrl)
+			throws IOException {
+
+		File onixTmpFile = new File(poOnixFile.getAbsolutePath() + ".tmp");
+
+		try (FileChannel oInChannel = FileChannel.open(poOnixFile.toPath(), StandardOpenOption.READ)) {
+
+			ByteBuffer oHeadBuffer = ByteBuffer.allocate((int) Math.min(CONST_PROLOG_SCAN_BYTES, oInChannel.size()));
+
+			while (oHeadBuffer.hasRemaining() && (oInChannel.read(oHeadBuffer) >= 0)) {}
+
+			byte[] aHead      = oHeadBuffer.array();
+			int    nHeadLen   = oHeadBuffer.position();
+			int    nBomLength = getBomLength(aHead, nHeadLen);
+
+			Charset oCharset  = detectCharset(aHead, nHeadLen, nBomLength);
+			int     nUnitSize = encode(oCharset, "<").length;
+
+			int nDoctypeStart = indexOf(aHead, nBomLength, nHeadLen, encode(oCharset, "<!DOCTYPE"), nBomLength, nUnitSize);
+			if (nDoctypeStart < 0)
+				return false;
+
+			// NOTE: The URL can only appear in the external ID, which ends at either the internal subset or the closing bracket
+			int nSubsetStart = indexOf(aHead, nDoctypeStart, nHeadLen, encode(oCharset, "["), nBomLength, nUnitSize);
+			int nDoctypeEnd  = indexOf(aHead, nDoctypeStart, nHeadLen, encode(oCharset, ">"), nBomLength, nUnitSize);
+
+			if ((nSubsetStart >= 0) && ((nDoctypeEnd < 0) || (nSubsetStart < nDoctypeEnd)))
+				nDoctypeEnd = nSubsetStart;
+
+			if (nDoctypeEnd < 0) {
+				OnixValidator.logDebug("The DOCTYPE tag of ONIX file(" + poOnixFile.getAbsolutePath() + ") is not within the first (" +
+				                       CONST_PROLOG_SCAN_BYTES + ") bytes, so it will not be rewritten.");
+				return false;
+			}
+
+			byte[] aSearchUrl  = null;
+			byte[] aReplaceUrl = null;
+
+			try {
+				aSearchUrl  = encode(oCharset, psSearchUrl);
+				aReplaceUrl = encode(oCharset, psReplaceUrl);
+			}
+			catch (IllegalArgumentException e) {
+				OnixValidator.logError("WARNING!  The DOCTYPE tag of ONIX file(" + poOnixFile.getAbsolutePath() + ") cannot be rewritten, so the file " +
+				                       "is left unchanged : " + e.getMessage());
+				return false;
+			}
+
+			byte[] aPatchedDoctype = replaceAll(aHead, nDoctypeStart, nDoctypeEnd, aSearchUrl, aReplaceUrl, nBomLength, nUnitSize);
+
+			if (aPatchedDoctype == null)
+				return false;
+
+			try (FileChannel oOutChannel =
+					FileChannel.open(onixTmpFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+				writeFully(oOutChannel, ByteBuffer.wrap(aHead, 0, nDoctypeStart));
+				writeFully(oOutChannel, ByteBuffer.wrap(aPatchedDoctype));
+
+				long nPosition = nDoctypeEnd;
+				long nFileSize = oInChannel.size();
+
+				while (nPosition < nFileSize)
+					nPosition += oInChannel.transferTo(nPosition, nFileSize - nPosition, oOutChannel);
+			}
+		}
+		catch (IOException e) {
+			Files.deleteIfExists(onixTmpFile.toPath());
+			throw e;
+		}
+
+		OnixRoutingJournal.replaceAtomically(onixTmpFile.toPath(), poOnixFile.toPath());
+
+		return true;
+	}
+
+	/**
+	 * Determines the encoding of the XML prolog, via either its byte order mark or its XML declaration.
+	 *
+	 * @param  paHead the first bytes of the file
+	 * @param  pnHeadLen the number of valid bytes in 'paHead'
+	 * @param  pnBomLength the length of the byte order mark (if any)
+	 * @return the charset of the file (without any byte order mark handling, since the mark is skipped)
+	 * @see    Charset
+	 */
+	private static Charset detectCharset(byte[] paHead, int pnHeadLen, int pnBomLength) {
+
+		if (pnHeadLen >= 2) {
+
+			int nFirst  = paHead[0] & 0xFF;
+			int nSecond = paHead[1] & 0xFF;
+
+			if ((nFirst == 0xFE) && (nSecond == 0xFF))
+				return Charset.forName("UTF-16BE");
+			else if ((nFirst == 0xFF) && (nSecond == 0xFE))
+				return Charset.forName("UTF-16LE");
+			else if ((nFirst == 0x00) && (nSecond == 0x3C))
+				return Charset.forName("UTF-16BE");
+			else if ((nFirst == 0x3C) && (nSecond == 0x00))
+				return Charset.forName("UTF-16LE");
+		}
+
+		if (pnBomLength == 0) {
+
+			// NOTE: The XML declaration is always in ASCII for the remaining (i.e., single-byte compatible) encodings
+			int    nDeclEnd = Math.min(pnHeadLen, 256);
+			String sDecl    = new String(paHead, 0, nDeclEnd, Charset.forName("ISO-8859-1"));
+
+			if (sDecl.startsWith("<?xml")) {
+
+				Matcher oMatcher = s_oEncodingPattern.matcher(sDecl.substring(0, Math.max(sDecl.indexOf("?>"), 0)));
+
+				if (oMatcher.find() && Charset.isSupported(oMatcher.group(1))) {
+
+					Charset oDeclared = Charset.forName(oMatcher.group(1));
+
+					if (encode(oDeclared, "<").length == 1)
+						return oDeclared;
+				}
+			}
+		}
+
+		return Charset.forName("UTF-8");
+	}
+
+	private static byte[] encode(Charset poCharset, String psText) {
+
+		try {
+			CharsetEncoder oEncoder = poCharset.newEncoder();
+			oEncoder.onMalformedInput(CodingErrorAction.REPORT);
+			oEncoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+
+			ByteBuffer oEncoded = oEncoder.encode(CharBuffer.wrap(psText));
+			byte[]     aEncoded = new byte[oEncoded.remaining()];
+			oEncoded.get(aEncoded);
+
+			return aEncoded;
+		}
+		catch (CharacterCodingException e) {
+			throw new IllegalArgumentException("The text(" + psText + ") cannot be encoded in charset(" + poCharset.name() + ").", e);
+		}
+	}
+
+	private static int getBomLength(byte[] paHead, int pnHeadLen) {
+
+		if ((pnHeadLen >= 3) && ((paHead[0] & 0xFF) == 0xEF) && ((paHead[1] & 0xFF) == 0xBB) && ((paHead[2] & 0xFF) == 0xBF))
+			return 3;
+		else if ((pnHeadLen >= 2) && ((((paHead[0] & 0xFF) == 0xFE) && ((paHead[1] & 0xFF) == 0xFF)) ||
+		                              (((paHead[0] & 0xFF) == 0xFF) && ((paHead[1] & 0xFF) == 0xFE))))
+			return 2;
+
+		return 0;
+	}
+
+	/**
+	 * Finds the first occurrence of a byte sequence within a range, only considering the offsets that fall
+	 * on a character boundary (i.e., for multi-byte encodings like UTF-16).
+	 *
+	 * @return the offset of the occurrence (or -1 if there is none)
+	 */
+	private static int indexOf(byte[] paData, int pnFrom, int pnTo, byte[] paTarget, int pnBomLength, int pnUnitSize) {
+
+		for (int i = pnFrom; i <= (pnTo - paTarget.length); ++i) {
+
+			if (((i - pnBomLength) % pnUnitSize) != 0)
+				continue;
+
+			int j = 0;
+			while ((j < paTarget.length) && (paData[i + j] == paTarget[j]))
+				++j;
+
+			if (j == paTarget.length)
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Replaces every occurrence of a byte sequence within a range.
+	 *
+	 * @return the patched copy of the range (or null if the byte sequence was not found)
+	 */
+	private static byte[] replaceAll(byte[] paData, int pnFrom, int pnTo, byte[] paSearch, byte[] paReplace, int pnBomLength, int pnUnitSize) {
+
+		ByteArrayOutputStream oPatched = new ByteArrayOutputStream((pnTo - pnFrom) + paReplace.length);
+
+		boolean bFound    = false;
+		int     nPosition = pnFrom;
+		int     nMatch    = 0;
+
+		while ((nMatch = indexOf(paData, nPosition, pnTo, paSearch, pnBomLength, pnUnitSize)) >= 0) {
+
+			oPatched.write(paData, nPosition, nMatch - nPosition);
+			oPatched.write(paReplace, 0, paReplace.length);
+
+			nPosition = nMatch + paSearch.length;
+			bFound    = true;
+		}
+
+		oPatched.write(paData, nPosition, pnTo - nPosition);
+
+		return bFound ? oPatched.toByteArray() : null;
+	}
+
+	private static void writeFully(FileChannel poChannel, ByteBuffer poBuffer)
+			throws IOException {
+
+		while (poBuffer.hasRemaining())
+			poChannel.write(poBuffer);
+	}
+}
@@ -0,0 +1,113 @@
+package bn.com.onix.validation;
+
+import java.util.Arrays;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * OnixElementPathTracker --- This class follows the parse of an ONIX file, so that an error can be reported along with
+ *                            the path of the element being parsed and the RecordReference of the current Product.
+ * <p>
+ * Only the current path (and not the document) is held in memory.  Both the reference tags (Ex. "RecordReference")
+ * and the short tags (Ex. "a001") are recognized.
+ * @author    Aaron Kendall
+ */
+public class OnixElementPathTracker extends DefaultHandler {
+
+	public static final String CONST_PRODUCT_TAG           = "Product";
+	public static final String CONST_PRODUCT_SHORT_TAG     = "product";
+	public static final String CONST_RECORD_REF_TAG        = "RecordReference";
+	public static final String CONST_RECORD_REF_SHORT_TAG  = "a001";
+
+	private final StringBuilder m_sbElementPath    = new StringBuilder(256);
+	private final StringBuilder m_sbRecordRefValue = new StringBuilder(64);
+
+	private int[] m_anPathLengths = new int[32];
+	private int   m_nDepth        = 0;
+
+	private boolean m_bInProduct        = false;
+	private boolean m_bInRecordRef      = false;
+	private String  m_sRecordReference  = null;
+
+	@Override
+	public void characters(char[] paChars, int pnStart, int pnLength) {
+
+		if (m_bInRecordRef)
+			m_sbRecordRefValue.append(paChars, pnStart, pnLength);
+	}
+
+	@Override
+	public void endElement(String psUri, String psLocalName, String psQName) {
+
+		String sName = getName(psLocalName, psQName);
+
+		if (m_bInRecordRef) {
+			m_sRecordReference = m_sbRecordRefValue.toString().trim();
+			m_bInRecordRef     = false;
+		}
+		else if (isProduct(sName))
+			m_bInProduct = false;
+
+		if (m_nDepth > 0)
+			m_sbElementPath.setLength(m_anPathLengths[--m_nDepth]);
+	}
+
+	@Override
+	public void startDocument() {
+
+		m_sbElementPath.setLength(0);
+		m_nDepth           = 0;
+		m_bInProduct       = false;
+		m_bInRecordRef     = false;
+		m_sRecordReference = null;
+	}
+
+	@Override
+	public void startElement(String psUri, String psLocalName, String psQName, Attributes poAttributes) {
+
+		String sName = getName(psLocalName, psQName);
+
+		if (m_nDepth == m_anPathLengths.length)
+			m_anPathLengths = Arrays.copyOf(m_anPathLengths, m_nDepth * 2);
+
+		m_anPathLengths[m_nDepth++] = m_sbElementPath.length();
+		m_sbElementPath.append('/').append(sName);
+
+		if (isProduct(sName)) {
+			m_bInProduct       = true;
+			m_sRecordReference = null;
+		}
+		else if (m_bInProduct && (m_nDepth > 1) && (m_sRecordReference == null) &&
+		         (sName.equals(CONST_RECORD_REF_TAG) || sName.equals(CONST_RECORD_REF_SHORT_TAG))) {
+			m_bInRecordRef = true;
+			m_sbRecordRefValue.setLength(0);
+		}
+	}
+
+	/**
+	 * Returns the path of the element currently being parsed (Ex. "/ONIXMessage/Product/DescriptiveDetail").
+	 *
+	 * @return the path of the current element (or an empty string if outside of the root element)
+	 */
+	public String getElementPath() {
+		return m_sbElementPath.toString();
+	}
+
+	/**
+	 * Returns the RecordReference of the Product currently being parsed.
+	 *
+	 * @return the RecordReference (or null if outside of a Product or if the RecordReference has not yet been parsed)
+	 */
+	public String getRecordReference() {
+		return m_bInProduct ? m_sRecordReference : null;
+	}
+
+	private static String getName(String psLocalName, String psQName) {
+		return ((psLocalName != null) && !psLocalName.isEmpty()) ? psLocalName : psQName;
+	}
+
+	private static boolean isProduct(String psName) {
+		return psName.equals(CONST_PRODUCT_TAG) || psName.equals(CONST_PRODUCT_SHORT_TAG);
+	}
+}
@@ -0,0 +1,132 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * OnixEntityResolver --- This class maps the EDITEUR URLs of the ONIX DTDs/XSDs onto the local copies of those files,
+ *                        so that ONIX files can be validated as-is (i.e., without rewriting their DOCTYPE tags).
+ * <p>
+ * The resolver holds no state other than its configuration, so one instance can be shared by all of the worker threads.
+ * When created for untrusted content (i.e., the payloads of the validation service), the resolver denies every external
+ * entity that is neither an EDITEUR DTD/XSD nor a file within the local directory, so that a payload cannot make the parser
+ * fetch an arbitrary URL or read an arbitrary file.
+ * @author    Aaron Kendall
+ */
+public class OnixEntityResolver implements EntityResolver {
+
+	public static final String[] CONST_EDITEUR_URL_BASES =
+		{ OnixValidator.CONST_DEFAULT_ONIX_DTD_URL_BASE, "https://www.editeur.org/onix/" };
+
+	private final File    m_oLocalDtdRoot;
+	private final boolean m_bLocalOnly;
+
+	/**
+	 * Creates the resolver for a local directory, which should mirror the layout of EDITEUR's site
+	 * (Ex. "Y:/onix_dtds/2.1/reference/onix-international.dtd").
+	 *
+	 * @param  psLocalDtdRoot the local directory that contains the downloaded DTDs/XSDs
+	 */
+	public OnixEntityResolver(String psLocalDtdRoot) {
+		this(psLocalDtdRoot, false);
+	}
+
+	/**
+	 * Creates the resolver for a local directory, optionally denying any external entity that does not belong to it.
+	 *
+	 * @param  psLocalDtdRoot the local directory that contains the downloaded DTDs/XSDs
+	 * @param  pbLocalOnly whether every other external entity (Ex. "file:///etc/passwd", "http://intranet/") should be denied
+	 */
+	public OnixEntityResolver(String psLocalDtdRoot, boolean pbLocalOnly) {
+
+		m_oLocalDtdRoot = new File(psLocalDtdRoot);
+		m_bLocalOnly    = pbLocalOnly;
+	}
+
+	/**
+	 * Determines whether a system ID (as expanded by the parser) is a file within the local directory, such as a module
+	 * that an EDITEUR DTD includes by a relative reference.
+	 *
+	 * @param  psSystemId the system ID of the external entity
+	 * @return the boolean that indicates whether the system ID is a file within the local directory
+	 */
+	private boolean isWithinLocalDtdRoot(String psSystemId) {
+
+		try {
+			URI oUri = new URI(psSystemId);
+
+			if (!"file".equalsIgnoreCase(oUri.getScheme()))
+				return false;
+
+			String sRootPath = m_oLocalDtdRoot.getCanonicalPath() + File.separator;
+
+			return new File(oUri).getCanonicalPath().startsWith(sRootPath);
+		}
+		catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the local copy of the referenced DTD/XSD when its system ID points to the EDITEUR site.
+	 *
+	 * @param  psPublicId the public ID of the external entity (which can be null)
+	 * @param  psSystemId the system ID of the external entity
+	 * @return the InputSource for the local copy (or null so that the parser will use the system ID as-is)
+	 * @throws SAXException if the resolver is local-only and the external entity does not belong to the local directory
+	 * @see    InputSource
+	 */
+	@Override
+	public InputSource resolveEntity(String psPublicId, String psSystemId)
+			throws SAXException, IOException {
+
+		String sLocalSystemId = resolveSystemId(psSystemId);
+
+		// NOTE: An EDITEUR system ID is checked as well, since it could climb out of the local directory (Ex. ".../onix/../../x")
+		if (m_bLocalOnly) {
+
+			String sCheckedSystemId = (sLocalSystemId != null) ? sLocalSystemId : psSystemId;
+
+			if ((sCheckedSystemId == null) || !isWithinLocalDtdRoot(sCheckedSystemId))
+				throw new SAXException("The external entity(" + psSystemId + ") is not permitted, since it is neither an EDITEUR DTD/XSD " +
+				                       "nor a file within the local directory.");
+		}
+
+		if (sLocalSystemId == null)
+			return null;
+
+		InputSource oLocalSource = new InputSource(sLocalSystemId);
+		oLocalSource.setPublicId(psPublicId);
+
+		return oLocalSource;
+	}
+
+	/**
+	 * Translates an EDITEUR system ID into the URI of its local copy.
+	 *
+	 * @param  psSystemId the system ID of the external entity
+	 * @return the URI of the local copy (or null if the system ID does not point to the EDITEUR site)
+	 */
+	public String resolveSystemId(String psSystemId) {
+
+		if (psSystemId == null)
+			return null;
+
+		for (String sUrlBase : CONST_EDITEUR_URL_BASES) {
+
+			if (psSystemId.startsWith(sUrlBase)) {
+
+				File oLocalFile = new File(m_oLocalDtdRoot, psSystemId.substring(sUrlBase.length()));
+
+				return oLocalFile.toURI().toString();
+			}
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,234 @@
+package bn.com.onix.validation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.xml.sax.SAXParseException;
+
+/**
+ * OnixErrorReport --- This class writes the errors of a single ONIX file as a machine-readable report, with one
+ *                     JSON object per line (i.e., the JSON Lines format).
+ * <p>
+ * Each error is written as soon as it arrives, so that memory use stays constant regardless of the number of errors.
+ * The report is only created upon the first error, and it is written under a temporary name until it is closed.
+ * <p>
+ * A subclass can keep the report elsewhere (Ex. in the response of the OnixValidationService) by overriding writeLine().
+ * @author    Aaron Kendall
+ */
+public class OnixErrorReport {
+
+	public static final String CONST_REPORT_SUFFIX = ".errors.jsonl";
+
+	public static final String CONST_SEVERITY_ERROR = "error";
+	public static final String CONST_SEVERITY_FATAL = "fatal";
+	public static final String CONST_SEVERITY_ABORT = "abort";
+
+	private static final Charset s_oReportCharset = Charset.forName("UTF-8");
+
+	private final File   m_oReportFile;
+	private final File   m_oTempFile;
+	private final String m_sOnixFilepath;
+
+	private Writer m_oReportWriter = null;
+	private long   m_nErrorCount   = 0;
+
+	/**
+	 * Creates the report for an ONIX file, which will be placed into the specified directory.
+	 *
+	 * @param  psReportDir the directory that will hold the report (i.e., the failed directory)
+	 * @param  poOnixFile the ONIX file being validated
+	 */
+	public OnixErrorReport(String psReportDir, File poOnixFile) {
+		this(psReportDir, poOnixFile.getName(), poOnixFile.getAbsolutePath());
+	}
+
+	/**
+	 * Creates the report for ONIX content that is not a file of its own (Ex. an entry within an archive).
+	 *
+	 * @param  psReportDir the directory that will hold the report (i.e., the failed directory)
+	 * @param  psReportName the name of the report (i.e., without its suffix)
+	 * @param  psOnixFilepath the path of the ONIX content, as it should appear within the report
+	 */
+	public OnixErrorReport(String psReportDir, String psReportName, String psOnixFilepath) {
+
+		m_oReportFile   = new File(psReportDir, psReportName + CONST_REPORT_SUFFIX);
+		m_oTempFile     = new File(psReportDir, psReportName + CONST_REPORT_SUFFIX + ".tmp");
+		m_sOnixFilepath = psOnixFilepath;
+	}
+
+	/**
+	 * Creates a report that is not written to a file, for a subclass that overrides writeLine().
+	 *
+	 * @param  psOnixFilepath the path of the ONIX content, as it should appear within the report
+	 */
+	protected OnixErrorReport(String psOnixFilepath) {
+
+		m_oReportFile   = null;
+		m_oTempFile     = null;
+		m_sOnixFilepath = psOnixFilepath;
+	}
+
+	/**
+	 * Finishes the report (if any errors were written), moving it to its final name.
+	 *
+	 * @return None
+	 * @see    IOException
+	 */
+	public synchronized void close()
+			throws IOException {
+
+		if (m_oReportWriter != null) {
+
+			m_oReportWriter.close();
+			m_oReportWriter = null;
+
+			OnixRoutingJournal.replaceAtomically(m_oTempFile.toPath(), m_oReportFile.toPath());
+		}
+	}
+
+	public long getErrorCount() {
+		return m_nErrorCount;
+	}
+
+	/**
+	 * Returns the file of the report.
+	 *
+	 * @return the report file (or null if the report is not written to a file)
+	 */
+	public File getReportFile() {
+		return m_oReportFile;
+	}
+
+	/**
+	 * Appends an error to the report, creating the report upon the first error.
+	 * <p>
+	 * A failure to write the report is logged but otherwise ignored, since it does not change the verdict of the file.
+	 *
+	 * @param  poException the error (whose line and column are included if it is a SAXParseException)
+	 * @param  psSeverity the severity of the error (i.e., CONST_SEVERITY_ERROR or CONST_SEVERITY_FATAL)
+	 * @param  psElementPath the path of the element being parsed when the error occurred (or null if unknown)
+	 * @param  psRecordReference the RecordReference of the Product being parsed when the error occurred (or null if unknown)
+	 * @return None
+	 */
+	public synchronized void writeError(Exception poException, String psSeverity, String psElementPath, String psRecordReference) {
+
+		long nLine   = -1;
+		long nColumn = -1;
+
+		if (poException instanceof SAXParseException) {
+			nLine   = ((SAXParseException) poException).getLineNumber();
+			nColumn = ((SAXParseException) poException).getColumnNumber();
+		}
+
+		String sMessage = (poException.getMessage() != null) ? poException.getMessage() : poException.getClass().getName();
+
+		StringBuilder sbLine = new StringBuilder(256);
+
+		sbLine.append("{\"file\":");
+		appendJsonString(sbLine, m_sOnixFilepath);
+		sbLine.append(",\"severity\":");
+		appendJsonString(sbLine, psSeverity);
+		sbLine.append(",\"line\":").append(nLine);
+		sbLine.append(",\"column\":").append(nColumn);
+		sbLine.append(",\"path\":");
+		appendJsonString(sbLine, psElementPath);
+		sbLine.append(",\"recordReference\":");
+		appendJsonString(sbLine, psRecordReference);
+		sbLine.append(",\"message\":");
+		appendJsonString(sbLine, sMessage);
+		sbLine.append("}\n");
+
+		if (writeLine(sbLine.toString()))
+			++m_nErrorCount;
+	}
+
+	/**
+	 * Appends the summary of an aborted validation to the report, which will be its final entry.
+	 *
+	 * @param  psReason the reason that the validation was aborted
+	 * @param  pnErrorCount the number of errors that were found before the abort
+	 * @return None
+	 */
+	public synchronized void writeSummary(String psReason, long pnErrorCount) {
+
+		StringBuilder sbLine = new StringBuilder(256);
+
+		sbLine.append("{\"file\":");
+		appendJsonString(sbLine, m_sOnixFilepath);
+		sbLine.append(",\"severity\":");
+		appendJsonString(sbLine, CONST_SEVERITY_ABORT);
+		sbLine.append(",\"errorCount\":").append(pnErrorCount);
+		sbLine.append(",\"message\":");
+		appendJsonString(sbLine, psReason);
+		sbLine.append("}\n");
+
+		writeLine(sbLine.toString());
+	}
+
+	/**
+	 * Writes a line to the report, creating the report if necessary.
+	 *
+	 * @param  psLine the line to write (i.e., a single JSON object followed by a newline)
+	 * @return boolean Indicates whether or not the line was written
+	 */
+	protected boolean writeLine(String psLine) {
+
+		try {
+			if (m_oReportWriter == null) {
+
+				m_oTempFile.getAbsoluteFile().getParentFile().mkdirs();
+
+				m_oReportWriter =
+					new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(m_oTempFile.toPath()), s_oReportCharset));
+			}
+
+			m_oReportWriter.write(psLine);
+
+			return true;
+		}
+		catch (IOException e) {
+			OnixValidator.logError("ERROR!  Could not write to the error report(" + m_oTempFile.getAbsolutePath() + ").");
+			OnixValidator.logException(e);
+
+			return false;
+		}
+	}
+
+	/**
+	 * Appends a value as a JSON string (or as null), escaping it as necessary.
+	 */
+	static void appendJsonString(StringBuilder psbJson, String psValue) {
+
+		if (psValue == null) {
+			psbJson.append("null");
+			return;
+		}
+
+		psbJson.append('"');
+
+		for (int i = 0; i < psValue.length(); ++i) {
+
+			char cValue = psValue.charAt(i);
+
+			switch (cValue) {
+			case '"'  : psbJson.append("\\\""); break;
+			case '\\' : psbJson.append("\\\\"); break;
+			case '\n' : psbJson.append("\\n");  break;
+			case '\r' : psbJson.append("\\r");  break;
+			case '\t' : psbJson.append("\\t");  break;
+			default   :
+				if (cValue < 0x20)
+					psbJson.append(String.format("\\u%04x", (int) cValue));
+				else
+					psbJson.append(cValue);
+			}
+		}
+
+		psbJson.append('"');
+	}
+}
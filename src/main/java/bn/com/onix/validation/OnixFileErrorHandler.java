@@ -0,0 +1,287 @@
+package bn.com.onix.validation;
+
+import java.io.IOException;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * OnixFileErrorHandler --- This class holds the state of a single validation call, so that
+ *                          several ONIX files can be validated at the same time.
+ * <p>
+ * If an error report is provided, each error is also written to the report along with the element path and the
+ * RecordReference at which it occurred (as tracked by the handler's OnixElementPathTracker).
+ * <p>
+ * If an error budget is set, the parse is aborted (via an OnixValidationAbortException) as soon as the file has
+ * either too many errors or has passed its deadline, so that a hopeless file does not occupy a worker any longer.
+ * <p>
+ * If the code lists have been loaded (see OnixCodeLists), the handler also provides an OnixCodeListChecker for the parse,
+ * which reports each coded value that is not part of its list as an error.
+ * @author    Aaron Kendall
+ */
+public class OnixFileErrorHandler implements ErrorHandler {
+
+	public static final String CONST_DEADLINE_REASON = "The deadline for validating the file has passed.";
+
+	private final String                 m_sOnixFilepath;
+	private final OnixErrorReport        m_oErrorReport;
+	private final OnixElementPathTracker m_oPathTracker;
+	private final OnixCodeLists          m_oCodeLists;
+
+	// NOTE: The code list checker reports back to this handler, so it is only created once the handler has been fully constructed
+	private ContentHandler m_oContentHandler = null;
+
+	private Exception m_oLastException = null;
+
+	private volatile boolean m_bOnixFileIsValid = true;
+	private volatile long    m_nErrorCount      = 0;
+	private volatile boolean m_bIoFailure       = false;
+	private volatile String  m_sAbortReason     = null;
+
+	private long m_nMaxErrors      = 0;
+	private long m_nDeadlineMillis = 0;
+
+	/**
+	 * Creates the handler that will record the errors for one validation of the specified ONIX file.
+	 *
+	 * @param  psOnixFilepath the path of the ONIX file being validated (used for logging)
+	 */
+	public OnixFileErrorHandler(String psOnixFilepath) {
+		this(psOnixFilepath, null, false);
+	}
+
+	/**
+	 * Creates the handler that will record the errors for one validation of the specified ONIX file, writing them
+	 * to the provided report as well.
+	 *
+	 * @param  psOnixFilepath the path of the ONIX file being validated (used for logging)
+	 * @param  poErrorReport the report to which each error will be written (or null if there is no report)
+	 */
+	public OnixFileErrorHandler(String psOnixFilepath, OnixErrorReport poErrorReport) {
+		this(psOnixFilepath, poErrorReport, (poErrorReport != null));
+	}
+
+	protected OnixFileErrorHandler(String psOnixFilepath, OnixErrorReport poErrorReport, boolean pbTrackPaths) {
+
+		m_sOnixFilepath = psOnixFilepath;
+		m_oErrorReport  = poErrorReport;
+		m_oPathTracker  = pbTrackPaths ? new OnixElementPathTracker() : null;
+		m_oCodeLists    = OnixCodeLists.getInstance();
+	}
+
+	/**
+	 * Aborts the validation of the ONIX file, recording the reason as the final entry for the file.
+	 *
+	 * @param  psReason the reason for the abort (Ex. the error budget has been exceeded)
+	 * @return the exception that should be thrown in order to stop the parse
+	 */
+	public synchronized OnixValidationAbortException abort(String psReason) {
+
+		OnixValidationAbortException oAbortException = new OnixValidationAbortException(psReason);
+
+		if (m_sAbortReason == null) {
+
+			m_sAbortReason     = psReason;
+			m_bOnixFileIsValid = false;
+
+			OnixValidator.logError("ERROR!  Aborted the validation of ONIX file(" + m_sOnixFilepath + ") after (" + getErrorCount() + 
+			                       ") errors : " + psReason);
+
+			if (m_oErrorReport != null)
+				m_oErrorReport.writeSummary(psReason, getErrorCount());
+		}
+
+		return oAbortException;
+	}
+
+	/**
+	 * Throws the abort exception if the ONIX file has exhausted its error budget (i.e., its error count or its deadline).
+	 *
+	 * @return None
+	 * @see    OnixValidationAbortException
+	 */
+	public void checkBudget()
+			throws OnixValidationAbortException {
+
+		if (m_sAbortReason != null)
+			throw new OnixValidationAbortException(m_sAbortReason);
+
+		if ((m_nMaxErrors > 0) && (getErrorCount() >= m_nMaxErrors))
+			throw abort("The error budget of (" + m_nMaxErrors + ") errors has been exhausted.");
+
+		if ((m_nDeadlineMillis > 0) && (System.currentTimeMillis() > m_nDeadlineMillis))
+			throw abort(CONST_DEADLINE_REASON);
+	}
+
+	@Override
+	public void error(SAXParseException exception) throws SAXException {
+		recordError(exception, OnixErrorReport.CONST_SEVERITY_ERROR);
+		checkBudget();
+	}
+
+	@Override
+	public void fatalError(SAXParseException exception) throws SAXException {
+		recordError(exception, OnixErrorReport.CONST_SEVERITY_FATAL);
+		checkBudget();
+	}
+
+	/**
+	 * Returns the reason for which the validation was aborted.
+	 *
+	 * @return the reason (or null if the validation was not aborted)
+	 */
+	public String getAbortReason() {
+		return m_sAbortReason;
+	}
+
+	/**
+	 * Returns the handler that must receive the parser's content events (i.e., the code list checker and/or the path tracker).
+	 *
+	 * @return the content handler (or null if the content events are not needed)
+	 */
+	public synchronized ContentHandler getContentHandler() {
+
+		if ((m_oContentHandler == null) && (m_oCodeLists != null))
+			m_oContentHandler = new OnixCodeListChecker(m_oCodeLists, this, m_oPathTracker);
+		else if (m_oContentHandler == null)
+			m_oContentHandler = m_oPathTracker;
+
+		return m_oContentHandler;
+	}
+
+	public long getDeadlineMillis() {
+		return m_nDeadlineMillis;
+	}
+
+	@Override
+	public void warning(SAXParseException exception) throws SAXException {
+		exception.printStackTrace();
+	}
+
+	public long getErrorCount() {
+		return m_nErrorCount;
+	}
+
+	public long getMaxErrors() {
+		return m_nMaxErrors;
+	}
+
+	public OnixErrorReport getErrorReport() {
+		return m_oErrorReport;
+	}
+
+	public String getOnixFilepath() {
+		return m_sOnixFilepath;
+	}
+
+	/**
+	 * Returns the tracker that must receive the parser's content events, so that errors can be reported with their location.
+	 *
+	 * @return the path tracker (or null if errors are not being reported with their location)
+	 */
+	public OnixElementPathTracker getPathTracker() {
+		return m_oPathTracker;
+	}
+
+	/**
+	 * Indicates whether or not the ONIX file could not be read (as opposed to being read and found invalid).
+	 *
+	 * @return boolean Indicates whether or not an I/O error occurred during the validation
+	 */
+	public boolean hasIoFailure() {
+		return m_bIoFailure;
+	}
+
+	public boolean isAborted() {
+		return (m_sAbortReason != null);
+	}
+
+	/**
+	 * Indicates whether or not the validation was aborted because the deadline had passed, in which case the
+	 * verdict says more about the load on the host than about the content of the file.
+	 *
+	 * @return boolean Indicates whether or not the validation ran out of time
+	 */
+	public boolean isDeadlineExceeded() {
+		return CONST_DEADLINE_REASON.equals(m_sAbortReason);
+	}
+
+	public boolean isValid() {
+		return m_bOnixFileIsValid;
+	}
+
+	/**
+	 * Records an exception (i.e., one that happened outside of the parser callbacks) against the ONIX file.
+	 *
+	 * @param  poException the exception that invalidates the ONIX file
+	 * @return None
+	 */
+	public void recordError(Exception poException) {
+		recordError(poException, OnixErrorReport.CONST_SEVERITY_FATAL);
+	}
+
+	/**
+	 * Records an error against the ONIX file, along with the location at which the parse currently stands.
+	 * <p>
+	 * A fatal error is reported both to the handler and by the failed parse itself, so it is only recorded once.
+	 *
+	 * @param  poException the exception that invalidates the ONIX file
+	 * @param  psSeverity the severity of the error (i.e., OnixErrorReport.CONST_SEVERITY_ERROR or OnixErrorReport.CONST_SEVERITY_FATAL)
+	 * @return None
+	 */
+	protected void recordError(Exception poException, String psSeverity) {
+
+		// NOTE: Anything reported after an abort is merely the fallout of stopping the parse
+		if ((poException == m_oLastException) || (m_sAbortReason != null))
+			return;
+
+		m_oLastException = poException;
+
+		if (m_oPathTracker != null)
+			recordError(poException, psSeverity, m_oPathTracker.getElementPath(), m_oPathTracker.getRecordReference());
+		else
+			recordError(poException, psSeverity, null, null);
+	}
+
+	/**
+	 * Records an error against the ONIX file, whose location has already been determined.
+	 *
+	 * @param  poException the exception that invalidates the ONIX file
+	 * @param  psSeverity the severity of the error
+	 * @param  psElementPath the path of the element being parsed when the error occurred (or null if unknown)
+	 * @param  psRecordReference the RecordReference of the Product being parsed when the error occurred (or null if unknown)
+	 * @return None
+	 */
+	public void recordError(Exception poException, String psSeverity, String psElementPath, String psRecordReference) {
+
+		// NOTE: When there is a report, the details of each error belong there instead of in the log, and the caller
+		//       logs a single summary line for the file once its validation is done
+		if (m_oErrorReport != null)
+			m_oErrorReport.writeError(poException, psSeverity, psElementPath, psRecordReference);
+		else {
+			OnixValidator.logError("ERROR!  Could not correctly parse ONIX file(" + m_sOnixFilepath + ").");
+			OnixValidator.logException(poException);
+		}
+
+		m_nErrorCount++;
+		m_bOnixFileIsValid = false;
+
+		if (poException instanceof IOException)
+			m_bIoFailure = true;
+	}
+
+	/**
+	 * Sets the error budget of the ONIX file, after which its validation will be aborted.
+	 *
+	 * @param  pnMaxErrors the maximum number of errors (or 0 for no limit)
+	 * @param  pnDeadlineMillis the time (i.e., as returned by System.currentTimeMillis()) by which the validation must end (or 0 for no limit)
+	 * @return None
+	 */
+	public void setErrorBudget(long pnMaxErrors, long pnDeadlineMillis) {
+
+		m_nMaxErrors      = Math.max(pnMaxErrors, 0);
+		m_nDeadlineMillis = Math.max(pnDeadlineMillis, 0);
+	}
+}
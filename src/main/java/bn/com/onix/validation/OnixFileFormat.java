@@ -0,0 +1,181 @@
+package bn.com.onix.validation;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * OnixFileFormat --- This class describes the grammar that an ONIX file refers to (i.e., either a DTD via its DOCTYPE tag
+ *                    or an XSD via the namespace of its root element), as determined by sniffing the start of the file.
+ * @author    Aaron Kendall
+ */
+public class OnixFileFormat {
+
+	public static final int CONST_SNIFF_BYTES = 64 * 1024;
+
+	public static final String CONST_ONIX30_REF_NAMESPACE   = "http://ns.editeur.org/onix/3.0/reference";
+	public static final String CONST_ONIX30_SHORT_NAMESPACE = "http://ns.editeur.org/onix/3.0/short";
+
+	private static final Pattern s_oSystemIdPattern = Pattern.compile("(?:SYSTEM|PUBLIC\\s+[\"'][^\"']*[\"'])\\s+[\"']([^\"']*)[\"']");
+	private static final Pattern s_oLiteralPattern  = Pattern.compile("\"[^\"]*\"|'[^']*'");
+
+	private static final XMLInputFactory s_oSniffFactory = createSniffFactory();
+
+	private final boolean m_bHasDoctype;
+	private final boolean m_bHasInternalSubset;
+	private final String  m_sDoctypeSystemId;
+	private final String  m_sRootElement;
+	private final String  m_sNamespace;
+
+	private OnixFileFormat(boolean pbHasDoctype, boolean pbHasInternalSubset, String psDoctypeSystemId, String psRootElement, String psNamespace) {
+
+		m_bHasDoctype        = pbHasDoctype;
+		m_bHasInternalSubset = pbHasInternalSubset;
+		m_sDoctypeSystemId   = psDoctypeSystemId;
+		m_sRootElement       = psRootElement;
+		m_sNamespace         = psNamespace;
+	}
+
+	/**
+	 * Determines the grammar of an ONIX file by scanning only the start of its stream (i.e., up to its root element).
+	 * <p>
+	 * The stream is reset afterwards, so that the same stream can then be handed to the parser; in that way,
+	 * the file is neither reopened nor parsed twice.
+	 *
+	 * @param  poOnixStream the buffered stream of the ONIX file (which must support mark/reset)
+	 * @return the format of the ONIX file
+	 * @see    IOException
+	 */
+	public static OnixFileFormat sniff(BufferedInputStream poOnixStream)
+			throws IOException {
+
+		byte[] aHead    = new byte[CONST_SNIFF_BYTES];
+		int    nHeadLen = 0;
+		int    nRead    = 0;
+
+		poOnixStream.mark(CONST_SNIFF_BYTES);
+
+		try {
+			while ((nHeadLen < aHead.length) && ((nRead = poOnixStream.read(aHead, nHeadLen, aHead.length - nHeadLen)) > 0))
+				nHeadLen += nRead;
+		}
+		finally {
+			poOnixStream.reset();
+		}
+
+		boolean bHasDoctype = false;
+		boolean bHasSubset  = false;
+		String  sSystemId   = null;
+		String  sRoot       = null;
+		String  sNamespace  = null;
+
+		XMLStreamReader oReader = null;
+
+		try {
+			oReader = s_oSniffFactory.createXMLStreamReader(new ByteArrayInputStream(aHead, 0, nHeadLen));
+
+			while (oReader.hasNext() && (sRoot == null)) {
+
+				int nEvent = oReader.next();
+
+				if (nEvent == XMLStreamConstants.DTD) {
+
+					bHasDoctype = true;
+
+					String sDoctype = oReader.getText();
+
+					Matcher oMatcher = s_oSystemIdPattern.matcher(sDoctype);
+					if (oMatcher.find())
+						sSystemId = oMatcher.group(1);
+
+					// NOTE: Any bracket outside of the quoted IDs opens the internal subset
+					bHasSubset = (s_oLiteralPattern.matcher(sDoctype).replaceAll("").indexOf('[') >= 0);
+				}
+				else if (nEvent == XMLStreamConstants.START_ELEMENT) {
+
+					sRoot      = oReader.getLocalName();
+					sNamespace = oReader.getNamespaceURI();
+				}
+			}
+		}
+		catch (XMLStreamException e) {
+			// NOTE: The parser will report any problem with the prolog, so the format is left as undetermined here
+		}
+		finally {
+			if (oReader != null) {
+				try { oReader.close(); }
+				catch (XMLStreamException e) {}
+			}
+		}
+
+		return new OnixFileFormat(bHasDoctype, bHasSubset, sSystemId, sRoot, sNamespace);
+	}
+
+	private static XMLInputFactory createSniffFactory() {
+
+		XMLInputFactory oFactory = XMLInputFactory.newInstance();
+		oFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		oFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		oFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+
+		return oFactory;
+	}
+
+	/**
+	 * Returns the identifier of the grammar (i.e., the DTD system ID or the XSD namespace) that the file refers to.
+	 *
+	 * @return the grammar identifier (or an empty string if it could not be determined)
+	 */
+	public String getGrammarId() {
+
+		if (isXsd())
+			return m_sNamespace;
+		else if (m_sDoctypeSystemId != null)
+			return m_sDoctypeSystemId;
+
+		return "";
+	}
+
+	public String getDoctypeSystemId() {
+		return m_sDoctypeSystemId;
+	}
+
+	public String getNamespace() {
+		return m_sNamespace;
+	}
+
+	public String getRootElement() {
+		return m_sRootElement;
+	}
+
+	public boolean hasDoctype() {
+		return m_bHasDoctype;
+	}
+
+	/**
+	 * Indicates whether or not the DOCTYPE tag of the file has an internal subset (i.e., declarations of its own), which is
+	 * also assumed when the start of the file could not be sniffed up to its root element.
+	 *
+	 * @return boolean Indicates whether or not the file has (or may have) an internal subset
+	 */
+	public boolean hasInternalSubset() {
+		return m_bHasInternalSubset || (m_sRootElement == null);
+	}
+
+	/**
+	 * Indicates whether or not the file should be validated against an XSD, which is the case when it has
+	 * no DOCTYPE tag and its root element belongs to an ONIX namespace.
+	 *
+	 * @return boolean Indicates whether or not XSD validation applies
+	 */
+	public boolean isXsd() {
+		return !m_bHasDoctype && (m_sNamespace != null) && m_sNamespace.startsWith("http://ns.editeur.org/onix/");
+	}
+}
@@ -1,91 +1,509 @@
 package bn.com.onix.validation;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.InputStream;
 import java.io.IOException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Validator;
 
+import org.apache.xerces.impl.XMLEntityManager;
+import org.apache.xerces.util.SecurityManager;
 import org.w3c.dom.Document;
-import org.xml.sax.ErrorHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
 
 /**
  * OnixFileValidator --- This simple class will validate a XML file against its respective DTD/XSD.
+ * <p>
+ * The class keeps no state between calls (each call receives its own error handler), and each thread
+ * reuses its own parser, so that any number of worker threads can validate files at the same time.
+ * <p>
+ * By default, files are validated with a streaming SAX parse that never builds a DOM tree, so memory use
+ * stays flat regardless of the file size.  Only callers that need the tree should use ValidateDocument().
+ * <p>
+ * The streaming parser shares the OnixGrammarCache, so the trusted ONIX DTDs are only compiled once; a file whose DOCTYPE
+ * has an internal subset (and any untrusted stream) is parsed without the cache, so that its declarations stay its own.
+ * If an entity resolver has been registered, both parsers will also use it to find the local copies of the DTDs.
+ * <p>
+ * ONIX 3.0 files without a DOCTYPE tag are validated against their XSD instead (via the OnixSchemaCache), 
+ * which is chosen by sniffing the namespace of the root element.
  * @author    Aaron Kendall
  */
 public class OnixFileValidator {
 
-	private static Object OnixFileLock = new Object();
-	
-	private static boolean OnixFileIsValid = true;
-	private static String  CurrentOnixFile = "";
-	
+	public static final String CONST_XERCES_DOM_FACTORY = "org.apache.xerces.jaxp.DocumentBuilderFactoryImpl";
+	public static final String CONST_XERCES_SAX_FACTORY = "org.apache.xerces.jaxp.SAXParserFactoryImpl";
+
+	public static final String CONST_XERCES_SECURITY_MGR_PROP = "http://apache.org/xml/properties/security-manager";
+
+	public static final String CONST_SAX_EXTERNAL_GENERAL_ENTITIES = "http://xml.org/sax/features/external-general-entities";
+
+	public static final int CONST_STREAM_BUFFER_SIZE = OnixFileFormat.CONST_SNIFF_BYTES;
+
+	private static final ThreadLocal<DocumentBuilder> s_oThreadDocBuilder = new ThreadLocal<DocumentBuilder>() {
+
+		@Override
+		protected DocumentBuilder initialValue() {
+
+			try {
+				DocumentBuilderFactory domFactory = 
+						DocumentBuilderFactory.newInstance(CONST_XERCES_DOM_FACTORY, OnixFileValidator.class.getClassLoader());
+				domFactory.setValidating(true);
+				domFactory.setAttribute(CONST_XERCES_SECURITY_MGR_PROP, createSecurityManager());
+
+				return domFactory.newDocumentBuilder();
+			}
+			catch (ParserConfigurationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private static final ThreadLocal<SAXParser> s_oThreadSaxParser = new ThreadLocal<SAXParser>() {
+
+		@Override
+		protected SAXParser initialValue() {
+
+			try {
+				SAXParserFactory saxFactory = 
+						SAXParserFactory.newInstance(CONST_XERCES_SAX_FACTORY, OnixFileValidator.class.getClassLoader());
+				saxFactory.setValidating(true);
+
+				return saxFactory.newSAXParser();
+			}
+			catch (ParserConfigurationException e) {
+				throw new IllegalStateException(e);
+			}
+			catch (SAXException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private static final ThreadLocal<SAXParser> s_oThreadXsdSaxParser = new ThreadLocal<SAXParser>() {
+
+		@Override
+		protected SAXParser initialValue() {
+
+			try {
+				SAXParserFactory saxFactory = 
+						SAXParserFactory.newInstance(CONST_XERCES_SAX_FACTORY, OnixFileValidator.class.getClassLoader());
+				saxFactory.setNamespaceAware(true);
+
+				return saxFactory.newSAXParser();
+			}
+			catch (ParserConfigurationException e) {
+				throw new IllegalStateException(e);
+			}
+			catch (SAXException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private static volatile EntityResolver s_oEntityResolver = null;
+
+	/**
+	 * Stops the parse once the deadline of the handler has passed, by failing the next read from the ONIX stream.
+	 * <p>
+	 * Since the parser reads in large blocks, the deadline is checked often enough without slowing down the parse.
+	 */
+	private static class DeadlineInputStream extends FilterInputStream {
+
+		private final OnixFileErrorHandler m_oErrorHandler;
+
+		DeadlineInputStream(InputStream poStream, OnixFileErrorHandler poErrorHandler) {
+
+			super(poStream);
+
+			m_oErrorHandler = poErrorHandler;
+		}
+
+		@Override
+		public int read() throws IOException {
+
+			checkDeadline();
+
+			return super.read();
+		}
+
+		@Override
+		public int read(byte[] paBuffer, int pnOffset, int pnLength) throws IOException {
+
+			checkDeadline();
+
+			return super.read(paBuffer, pnOffset, pnLength);
+		}
+
+		private void checkDeadline() throws IOException {
+
+			try {
+				m_oErrorHandler.checkBudget();
+			}
+			catch (OnixValidationAbortException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+		}
+	}
+
+	private static final ThreadLocal<SecurityManager> s_oThreadSecurityMgr = new ThreadLocal<SecurityManager>() {
+
+		@Override
+		protected SecurityManager initialValue() {
+			return createSecurityManager();
+		}
+	};
+
 	/**
 	 * Does the majority of work in determining whether a specified ONIX file is valid or invalid.
 	 * <p>
 	 * In addition to indicating whether the ONIX file is valid or invalid, the method will log any errors on behalf of the caller.
+	 * This method is thread-safe.
 	 *
 	 * @param  pOnixFile the ONIX file that we are attempting to validate
 	 * @return the boolean that indicates whether the ONIX file is valid or invalid
 	 * @see    File
-	 */		
-	public static boolean ValidateFile(File pOnixFile) 
+	 */
+	public static boolean ValidateFile(File pOnixFile)
+			throws org.xml.sax.SAXException, java.io.IOException, javax.xml.parsers.ParserConfigurationException  {
+
+		OnixFileErrorHandler oErrorHandler = new OnixFileErrorHandler(pOnixFile.getAbsolutePath());
+
+		ValidateFile(pOnixFile, oErrorHandler);
+
+		return oErrorHandler.isValid();
+	}
+
+	/**
+	 * Validates a specified ONIX file, recording the verdict and any errors with the provided handler.
+	 * <p>
+	 * This method is thread-safe.
+	 *
+	 * @param  pOnixFile the ONIX file that we are attempting to validate
+	 * @param  poErrorHandler the handler that records whether the ONIX file is valid or invalid
+	 * @return the format of the ONIX file (or null if it could not be read)
+	 * @see    OnixFileFormat
+	 */
+	public static OnixFileFormat ValidateFile(File pOnixFile, OnixFileErrorHandler poErrorHandler)
+			throws org.xml.sax.SAXException, java.io.IOException, javax.xml.parsers.ParserConfigurationException  {
+
+		OnixFileFormat oFormat = null;
+
+		// NOTE: It is necessary to use an InputStream here since the file will remain registered as "locked"
+		//       on Windows unless you take control and create a scope around its file handle
+		try (InputStream onixFileStream = new FileInputStream(pOnixFile.getAbsolutePath())) {
+			oFormat = ValidateStream(onixFileStream, pOnixFile.toURI().toString(), poErrorHandler);
+		}
+		catch (IOException exception) {
+			poErrorHandler.recordError(exception);
+		}
+
+		return oFormat;
+	}
+
+	/**
+	 * Validates the contents of an ONIX stream, choosing between DTD and XSD validation by sniffing the start of the stream.
+	 * <p>
+	 * The stream is only read once, and it is not closed by this method.  Any errors are recorded by the provided handler.
+	 * This method is thread-safe.
+	 *
+	 * @param  poOnixStream the stream containing the ONIX content
+	 * @param  psSystemId the system ID of the stream (i.e., the URI of the file), used to resolve relative references
+	 * @param  poErrorHandler the handler that records whether the ONIX content is valid or invalid
+	 * @return the format of the ONIX content, as determined by sniffing it
+	 * @see    OnixFileFormat
+	 */
+	public static OnixFileFormat ValidateStream(InputStream poOnixStream, String psSystemId, OnixFileErrorHandler poErrorHandler)
+			throws org.xml.sax.SAXException, javax.xml.parsers.ParserConfigurationException  {
+
+		return validateStream(poOnixStream, psSystemId, poErrorHandler, s_oEntityResolver, false);
+	}
+
+	/**
+	 * Validates the contents of an untrusted ONIX stream (Ex. the payload of a request to the validation service).
+	 * <p>
+	 * Unlike ValidateStream(), the parse does not include any external general entities, and the provided resolver (which
+	 * should deny anything other than the local DTDs/XSDs) is used instead of the registered one.  So, a payload cannot make
+	 * the parser fetch an arbitrary URL or copy the text of an arbitrary file into an error message.  The parameter entities
+	 * stay enabled, since the EDITEUR DTDs are built from modules, but each module must also pass through the resolver.
+	 * The parse never uses the grammar cache, so that nothing in a payload can affect the verdict of any other file.
+	 * This method is thread-safe.
+	 *
+	 * @param  poOnixStream the stream containing the ONIX content
+	 * @param  psSystemId the system ID of the stream, used to resolve relative references
+	 * @param  poErrorHandler the handler that records whether the ONIX content is valid or invalid
+	 * @param  poEntityResolver the local-only resolver for the DTD/XSD referenced by the stream
+	 * @return the format of the ONIX content, as determined by sniffing it
+	 * @see    OnixEntityResolver
+	 */
+	public static OnixFileFormat ValidateUntrustedStream(InputStream poOnixStream, String psSystemId, OnixFileErrorHandler poErrorHandler,
+			                                             EntityResolver poEntityResolver)
+			throws org.xml.sax.SAXException, javax.xml.parsers.ParserConfigurationException  {
+
+		return validateStream(poOnixStream, psSystemId, poErrorHandler, poEntityResolver, true);
+	}
+
+	/**
+	 * Validates the contents of an ONIX stream on behalf of ValidateStream() and ValidateUntrustedStream().
+	 *
+	 * @param  poOnixStream the stream containing the ONIX content
+	 * @param  psSystemId the system ID of the stream, used to resolve relative references
+	 * @param  poErrorHandler the handler that records whether the ONIX content is valid or invalid
+	 * @param  poEntityResolver the resolver for the external entities (or null to use the system IDs as-is)
+	 * @param  pbUntrusted whether the external general entities (and the grammar cache) should be excluded from the parse
+	 * @return the format of the ONIX content, as determined by sniffing it
+	 */
+	private static OnixFileFormat validateStream(InputStream poOnixStream, String psSystemId, OnixFileErrorHandler poErrorHandler,
+			                                     EntityResolver poEntityResolver, boolean pbUntrusted)
+			throws org.xml.sax.SAXException, javax.xml.parsers.ParserConfigurationException  {
+
+		OnixFileFormat oFormat = null;
+
+		try {
+			InputStream oSourceStream = poOnixStream;
+
+			if (poErrorHandler.getDeadlineMillis() > 0)
+				oSourceStream = new DeadlineInputStream(poOnixStream, poErrorHandler);
+
+			BufferedInputStream oBufferedStream = new BufferedInputStream(oSourceStream, CONST_STREAM_BUFFER_SIZE);
+
+			oFormat = OnixFileFormat.sniff(oBufferedStream);
+
+			Validator oXsdValidator = oFormat.isXsd() ? OnixSchemaCache.getInstance().getValidator(oFormat.getNamespace()) : null;
+
+			if (oXsdValidator != null) {
+
+				oXsdValidator.setErrorHandler(poErrorHandler);
+
+				// NOTE: The validator only passes its content events onward when it is fed by a SAX parser, and
+				//       only a SAX parser can be stopped from including the external entities of an untrusted stream
+				if ((poErrorHandler.getContentHandler() != null) || pbUntrusted) {
+
+					XMLReader feedReader = getXsdFeedReader();
+
+					if (pbUntrusted)
+						excludeExternalEntities(feedReader, poEntityResolver);
+
+					InputSource onixSource = new InputSource(oBufferedStream);
+					onixSource.setSystemId(psSystemId);
+
+					if (poErrorHandler.getContentHandler() != null)
+						oXsdValidator.validate(new SAXSource(feedReader, onixSource), new SAXResult(poErrorHandler.getContentHandler()));
+					else
+						oXsdValidator.validate(new SAXSource(feedReader, onixSource));
+				}
+				else
+					oXsdValidator.validate(new StreamSource(oBufferedStream, psSystemId));
+			}
+			else {
+				XMLReader reader = getXmlReader(!pbUntrusted && !oFormat.hasInternalSubset());
+				reader.setErrorHandler(poErrorHandler);
+				reader.setContentHandler(poErrorHandler.getContentHandler());
+				reader.setEntityResolver(poEntityResolver);
+
+				if (pbUntrusted)
+					excludeExternalEntities(reader, poEntityResolver);
+
+				InputSource onixSource = new InputSource(oBufferedStream);
+				onixSource.setSystemId(psSystemId);
+
+				reader.parse(onixSource);
+			}
+		}
+		catch (SAXException exception) {
+			poErrorHandler.recordError(exception);
+		}
+		catch (IOException exception) {
+			poErrorHandler.recordError(exception);
+		}
+
+		return oFormat;
+	}
+
+	/**
+	 * Validates a specified ONIX file while building its DOM tree, for the callers that need the tree itself.
+	 * <p>
+	 * Since the whole file is held in memory, this method should not be used for large files when only
+	 * the verdict is needed (i.e., use ValidateFile() instead).
+	 *
+	 * @param  pOnixFile the ONIX file that we are attempting to validate
+	 * @param  poErrorHandler the handler that records whether the ONIX file is valid or invalid
+	 * @return the DOM tree of the ONIX file (or null if it could not be parsed)
+	 * @see    Document
+	 */
+	public static Document ValidateDocument(File pOnixFile, OnixFileErrorHandler poErrorHandler)
 			throws org.xml.sax.SAXException, java.io.IOException, javax.xml.parsers.ParserConfigurationException  {
 
-		synchronized (OnixFileLock) {
-			
-		    OnixFileIsValid = true;
-		    CurrentOnixFile = pOnixFile.getAbsolutePath();
-		    			
-            DocumentBuilderFactory domFactory = DocumentBuilderFactory.newInstance();
-		    domFactory.setValidating(true);
-		  
-		    DocumentBuilder builder = domFactory.newDocumentBuilder();
-		    builder.setErrorHandler(new ErrorHandler() {
-			
-		        @Override
-			    public void error(SAXParseException exception) throws org.xml.sax.SAXException {
-
-		        	OnixValidator.logError("ERROR!  Could not correctly parse ONIX file(" + CurrentOnixFile + ").");
-			        OnixValidator.logException(exception);
-			        OnixFileIsValid = false;
-			    }
-		    
-			    @Override
-			    public void fatalError(SAXParseException exception) throws org.xml.sax.SAXException {
-			    	
-		        	OnixValidator.logError("ERROR!  Could not correctly parse ONIX file(" + CurrentOnixFile + ").");			    	
-			    	OnixValidator.logException(exception);
-			        OnixFileIsValid = false;
-			    }
-
-			    @Override
-			    public void warning(SAXParseException exception) throws org.xml.sax.SAXException {
-			        exception.printStackTrace();
-			    }
-	        });
-
-		    // NOTE: It is necessary to use an InputStream here since the file will remain registered as "locked"		    
-		    //       on Windows unless you take control and create a scope around its file handle
-		    try (InputStream onixFileStream = new FileInputStream(pOnixFile.getAbsolutePath())) {
-		        Document doc = builder.parse(onixFileStream);		        
-		    }
-	        catch (SAXException exception) {
-	        	OnixValidator.logError("ERROR!  Could not correctly parse ONIX file(" + CurrentOnixFile + ").");			    	
-		    	OnixValidator.logException(exception);	        	
-	            OnixFileIsValid = false;
-	        }
-	        catch (IOException exception) {
-	        	OnixValidator.logError("ERROR!  Could not correctly parse ONIX file(" + CurrentOnixFile + ").");			    	
-		    	OnixValidator.logException(exception);	        	
-	            OnixFileIsValid = false;
-	        }
-		}
-		
-		return OnixFileIsValid;
+		Document doc = null;
+
+		DocumentBuilder builder = getDocumentBuilder();
+		builder.setErrorHandler(poErrorHandler);
+		builder.setEntityResolver(s_oEntityResolver);
+
+		try (InputStream onixFileStream = new FileInputStream(pOnixFile.getAbsolutePath())) {
+
+			InputStream oSourceStream = onixFileStream;
+
+			if (poErrorHandler.getDeadlineMillis() > 0)
+				oSourceStream = new DeadlineInputStream(onixFileStream, poErrorHandler);
+
+			doc = builder.parse(oSourceStream, pOnixFile.toURI().toString());
+		}
+		catch (SAXException exception) {
+			poErrorHandler.recordError(exception);
+		}
+		catch (IOException exception) {
+			poErrorHandler.recordError(exception);
+		}
+
+		return doc;
+	}
+
+	/**
+	 * Registers the resolver that all subsequent parses (on every thread) will use to locate external DTDs/XSDs.
+	 *
+	 * @param  poEntityResolver the resolver to use (or null to use the system IDs as-is)
+	 * @return None
+	 * @see    OnixEntityResolver
+	 */
+	public static void setEntityResolver(EntityResolver poEntityResolver) {
+		s_oEntityResolver = poEntityResolver;
+	}
+
+	/**
+	 * Creates the Xerces security manager that caps the number of entity expansions (i.e., the 'maxEntityCount' property),
+	 * since the ONIX code list entity sets will exceed the default limit.
+	 *
+	 * @return the security manager to be registered with a parser
+	 * @see    SecurityManager
+	 */
+	private static SecurityManager createSecurityManager() {
+
+		SecurityManager oSecurityMgr = new SecurityManager();
+		oSecurityMgr.setEntityExpansionLimit(OnixValidator.getMaxEntityCount());
+
+		return oSecurityMgr;
+	}
+
+	/**
+	 * Configures a parser for an untrusted stream, so that it does not include any external general entities and so that
+	 * the external entities it does load (i.e., the DTD and its parameter-entity modules) must pass through the provided resolver.
+	 * <p>
+	 * Since the parsers are reset before each use, this configuration does not leak into the next parse on the same thread.
+	 *
+	 * @param  poReader the parser that will read the untrusted stream
+	 * @param  poEntityResolver the local-only resolver for the DTD/XSD referenced by the stream
+	 * @return None
+	 */
+	private static void excludeExternalEntities(XMLReader poReader, EntityResolver poEntityResolver)
+			throws SAXException {
+
+		poReader.setFeature(CONST_SAX_EXTERNAL_GENERAL_ENTITIES, false);
+		poReader.setEntityResolver(poEntityResolver);
+	}
+
+	/**
+	 * Returns the DOM parser owned by the calling thread, after resetting it to its original configuration.
+	 *
+	 * @return the validating DocumentBuilder that can be used by the current thread
+	 * @see    DocumentBuilder
+	 */
+	private static DocumentBuilder getDocumentBuilder()
+			throws ParserConfigurationException {
+
+		try {
+			DocumentBuilder builder = s_oThreadDocBuilder.get();
+			builder.reset();
+
+			return builder;
+		}
+		catch (IllegalStateException e) {
+
+			if (e.getCause() instanceof ParserConfigurationException)
+				throw (ParserConfigurationException) e.getCause();
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the non-validating (but namespace-aware) parser owned by the calling thread, which feeds an XSD validator.
+	 *
+	 * @return the XMLReader that can be used by the current thread
+	 * @see    XMLReader
+	 */
+	private static XMLReader getXsdFeedReader()
+			throws ParserConfigurationException, SAXException {
+
+		try {
+			SAXParser parser = s_oThreadXsdSaxParser.get();
+			parser.reset();
+
+			XMLReader reader = parser.getXMLReader();
+			reader.setProperty(CONST_XERCES_SECURITY_MGR_PROP, s_oThreadSecurityMgr.get());
+
+			return reader;
+		}
+		catch (IllegalStateException e) {
+
+			if (e.getCause() instanceof ParserConfigurationException)
+				throw (ParserConfigurationException) e.getCause();
+			else if (e.getCause() instanceof SAXException)
+				throw (SAXException) e.getCause();
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the streaming parser owned by the calling thread, after resetting it to its original configuration.
+	 *
+	 * @param  pbUseGrammarCache whether the parser should be given the cached DTDs (i.e., only for a trusted file without an internal subset)
+	 * @return the validating XMLReader that can be used by the current thread
+	 * @see    XMLReader
+	 */
+	private static XMLReader getXmlReader(boolean pbUseGrammarCache)
+			throws ParserConfigurationException, SAXException {
+
+		try {
+			SAXParser parser = s_oThreadSaxParser.get();
+			parser.reset();
+
+			XMLReader reader = parser.getXMLReader();
+
+			// NOTE: The reset has already removed the pool of the previous parse (if any)
+			if (pbUseGrammarCache) {
+
+				XMLEntityManager oEntityManager = (XMLEntityManager) reader.getProperty(OnixGrammarCache.CONST_XERCES_ENTITY_MANAGER_PROP);
+
+				reader.setProperty(OnixGrammarCache.CONST_XERCES_GRAMMAR_POOL_PROP, OnixGrammarCache.getInstance().getParserPool(oEntityManager));
+			}
+
+			reader.setProperty(CONST_XERCES_SECURITY_MGR_PROP, s_oThreadSecurityMgr.get());
+
+			return reader;
+		}
+		catch (IllegalStateException e) {
+
+			if (e.getCause() instanceof ParserConfigurationException)
+				throw (ParserConfigurationException) e.getCause();
+			else if (e.getCause() instanceof SAXException)
+				throw (SAXException) e.getCause();
+
+			throw e;
+		}
 	}
 }
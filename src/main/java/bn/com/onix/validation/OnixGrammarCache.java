@@ -0,0 +1,299 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.xerces.impl.XMLEntityManager;
+import org.apache.xerces.impl.dtd.DTDGrammar;
+import org.apache.xerces.impl.dtd.XMLElementDecl;
+import org.apache.xerces.impl.dtd.XMLEntityDecl;
+import org.apache.xerces.parsers.XMLGrammarPreparser;
+import org.apache.xerces.util.EntityResolverWrapper;
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLDTDDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import org.apache.xerces.xni.parser.XMLInputSource;
+import org.xml.sax.EntityResolver;
+
+/**
+ * OnixGrammarCache --- This class holds the compiled ONIX DTDs (including their code list entity sets) in memory,
+ *                      so that each DTD version is only read and compiled once per process.
+ * <p>
+ * Only the trusted EDITEUR DTDs found in the local ONIX root are cached: they are compiled up front by loadGrammars(),
+ * and the pool is locked, so that a parse can never add (or change) a grammar that the other files will then be
+ * validated against.  A grammar is keyed by the system ID of the DTD (i.e., either its EDITEUR URL or its local file),
+ * and it is never modified once it has been loaded, so that the one instance can be shared by all of the worker threads.
+ * <p>
+ * Since the parser skips the external subset of a cached DTD, the entities declared by the DTD (Ex. "&amp;eacute;") are
+ * declared again for each parse by the pool of that parser (see getParserPool()).  A file whose DOCTYPE has an internal
+ * subset must not be given the pool at all, since its declarations would otherwise be merged into the cached grammar.
+ * @author    Aaron Kendall
+ */
+public class OnixGrammarCache extends XMLGrammarPoolImpl {
+
+	public static final String CONST_XERCES_GRAMMAR_POOL_PROP   = "http://apache.org/xml/properties/internal/grammar-pool";
+	public static final String CONST_XERCES_ENTITY_MANAGER_PROP = "http://apache.org/xml/properties/internal/entity-manager";
+
+	private static final OnixGrammarCache s_oInstance = new OnixGrammarCache();
+
+	private final AtomicLong m_nHitCount  = new AtomicLong(0);
+	private final AtomicLong m_nMissCount = new AtomicLong(0);
+
+	// NOTE: The map is replaced (rather than modified) by each load, so it can be read without any locking
+	private volatile Map<String, DTDGrammar> m_oGrammars = new HashMap<String, DTDGrammar>();
+
+	/**
+	 * The pool handed to a single parser, which serves the cached grammars and declares their entities with that parser.
+	 */
+	private static class ParserPool implements XMLGrammarPool {
+
+		private final OnixGrammarCache m_oCache;
+		private final XMLEntityManager m_oEntityManager;
+
+		ParserPool(OnixGrammarCache poCache, XMLEntityManager poEntityManager) {
+
+			m_oCache         = poCache;
+			m_oEntityManager = poEntityManager;
+		}
+
+		@Override
+		public void cacheGrammars(String psGrammarType, Grammar[] paGrammars) {}
+
+		@Override
+		public void clear() {}
+
+		@Override
+		public void lockPool() {}
+
+		@Override
+		public Grammar retrieveGrammar(XMLGrammarDescription poDescription) {
+
+			Grammar oGrammar = m_oCache.retrieveGrammar(poDescription);
+
+			if ((oGrammar instanceof DTDGrammar) && (m_oEntityManager != null))
+				declareEntities((DTDGrammar) oGrammar, m_oEntityManager);
+
+			return oGrammar;
+		}
+
+		@Override
+		public Grammar[] retrieveInitialGrammarSet(String psGrammarType) {
+			return m_oCache.retrieveInitialGrammarSet(psGrammarType);
+		}
+
+		@Override
+		public void unlockPool() {}
+	}
+
+	private OnixGrammarCache() {
+
+		super();
+
+		// NOTE: Nothing that a parser compiles is ever added, since only the grammars of loadGrammars() are trusted
+		lockPool();
+	}
+
+	public static OnixGrammarCache getInstance() {
+		return s_oInstance;
+	}
+
+	/**
+	 * Declares the general entities of a cached DTD with the entity manager of a parser, since the parser does not read
+	 * the external subset (where they were declared) once it has been handed the cached grammar.
+	 *
+	 * @param  poGrammar the cached grammar of the DTD
+	 * @param  poEntityManager the entity manager of the parser that is about to read the document
+	 * @return None
+	 */
+	private static void declareEntities(DTDGrammar poGrammar, XMLEntityManager poEntityManager) {
+
+		XMLEntityDecl oEntityDecl = new XMLEntityDecl();
+
+		for (int i = 0; poGrammar.getEntityDecl(i, oEntityDecl); ++i) {
+
+			// NOTE: The parameter entities are only needed while the DTD itself is read
+			if (oEntityDecl.isPE || poEntityManager.isDeclaredEntity(oEntityDecl.name))
+				continue;
+
+			try {
+				if (oEntityDecl.notation != null)
+					poEntityManager.addUnparsedEntity(oEntityDecl.name, oEntityDecl.publicId, oEntityDecl.systemId, oEntityDecl.baseSystemId,
+					                                  oEntityDecl.notation);
+				else if (oEntityDecl.systemId != null)
+					poEntityManager.addExternalEntity(oEntityDecl.name, oEntityDecl.publicId, oEntityDecl.systemId, oEntityDecl.baseSystemId);
+				else
+					poEntityManager.addInternalEntity(oEntityDecl.name, oEntityDecl.value);
+			}
+			catch (IOException e) {
+				OnixValidator.logDebug("The entity(" + oEntityDecl.name + ") of the cached DTD(" +
+				                       poGrammar.getGrammarDescription().getExpandedSystemId() + ") could not be declared : " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Provides the key under which a grammar is cached, so that the different forms of the same local file
+	 * (Ex. "file:/onix_dtds/x.dtd" and "file:///onix_dtds/x.dtd") refer to the same grammar.
+	 */
+	private static String getGrammarKey(String psSystemId) {
+
+		if ((psSystemId == null) || !psSystemId.regionMatches(true, 0, "file:", 0, 5))
+			return psSystemId;
+
+		try {
+			return "file:" + new File(new URI(psSystemId)).getCanonicalPath();
+		}
+		catch (Exception e) {
+			return psSystemId;
+		}
+	}
+
+	public long getHitCount() {
+		return m_nHitCount.get();
+	}
+
+	public long getMissCount() {
+		return m_nMissCount.get();
+	}
+
+	/**
+	 * Provides the pool to be handed to a single parser, which serves the cached grammars and which declares the entities
+	 * of a cached DTD with the entity manager of that parser.
+	 *
+	 * @param  poEntityManager the entity manager of the parser (i.e., its CONST_XERCES_ENTITY_MANAGER_PROP property)
+	 * @return the pool to register as the CONST_XERCES_GRAMMAR_POOL_PROP property of the parser
+	 * @see    XMLGrammarPool
+	 */
+	public XMLGrammarPool getParserPool(XMLEntityManager poEntityManager) {
+		return new ParserPool(this, poEntityManager);
+	}
+
+	/**
+	 * Returns a summary of the cache's usage, which is intended for logging.
+	 *
+	 * @return the string that describes the number of cached grammars, hits and misses
+	 */
+	public String getStatistics() {
+		return "Grammar Cache : Grammars(" + m_oGrammars.size() + "), Hits(" + getHitCount() + "), Misses(" + getMissCount() + ")";
+	}
+
+	/**
+	 * Compiles the trusted DTDs of the local ONIX root, which then become the only grammars served by the cache.
+	 * <p>
+	 * Each DTD is cached under its EDITEUR URL(s) and under its local file, so that it is found both for the original
+	 * files and for the files whose DOCTYPE tags have been rewritten.  Any grammars of a previous load are replaced.
+	 *
+	 * @param  psLocalDtdRoot the local directory that contains the downloaded DTDs
+	 * @param  paDtdPaths the paths of the DTDs (relative to the local directory and to the EDITEUR URL base)
+	 * @param  poEntityResolver the resolver that maps the EDITEUR URLs onto the local copies of the DTDs and their modules
+	 * @return None
+	 * @see    IOException
+	 */
+	public synchronized void loadGrammars(String psLocalDtdRoot, String[] paDtdPaths, EntityResolver poEntityResolver)
+			throws IOException {
+
+		Map<String, DTDGrammar> oGrammars = new HashMap<String, DTDGrammar>();
+
+		XMLGrammarPreparser oPreparser = new XMLGrammarPreparser();
+		oPreparser.registerPreparser(XMLGrammarDescription.XML_DTD, null);
+
+		if (poEntityResolver != null)
+			oPreparser.setEntityResolver(new EntityResolverWrapper(poEntityResolver));
+
+		for (String sDtdPath : paDtdPaths) {
+
+			File oLocalFile = new File(psLocalDtdRoot, sDtdPath);
+
+			if (!oLocalFile.isFile()) {
+				OnixValidator.logDebug("The DTD(" + oLocalFile.getAbsolutePath() + ") does not exist, so it has not been cached.");
+				continue;
+			}
+
+			String sSystemId = OnixEntityResolver.CONST_EDITEUR_URL_BASES[0] + sDtdPath;
+
+			DTDGrammar oGrammar = null;
+
+			// NOTE: The DTD is read from its local copy under its EDITEUR URL, so that its modules are resolved as during a parse
+			try (InputStream oDtdStream = new FileInputStream(oLocalFile)) {
+
+				XMLInputSource oDtdSource = new XMLInputSource(null, sSystemId, null);
+				oDtdSource.setByteStream(oDtdStream);
+
+				oGrammar = (DTDGrammar) oPreparser.preparseGrammar(XMLGrammarDescription.XML_DTD, oDtdSource);
+			}
+
+			// NOTE: The content models are built lazily, so they are built here rather than by the worker threads that share the grammar
+			XMLElementDecl oElementDecl = new XMLElementDecl();
+
+			for (int nIndex = oGrammar.getFirstElementDeclIndex(); nIndex >= 0; nIndex = oGrammar.getNextElementDeclIndex(nIndex))
+				oGrammar.getElementDecl(nIndex, oElementDecl);
+
+			for (String sUrlBase : OnixEntityResolver.CONST_EDITEUR_URL_BASES)
+				oGrammars.put(getGrammarKey(sUrlBase + sDtdPath), oGrammar);
+
+			oGrammars.put(getGrammarKey(oLocalFile.toURI().toString()), oGrammar);
+
+			OnixValidator.logInfo("Cached the DTD(" + oLocalFile.getAbsolutePath() + ").");
+		}
+
+		m_oGrammars = oGrammars;
+	}
+
+	/**
+	 * Returns the cached grammar that matches the description (i.e., the system ID of the DTD),
+	 * recording whether or not the lookup was a hit.
+	 *
+	 * @param  poDescription the description of the grammar requested by the parser
+	 * @return the cached grammar (or null if the parser must load and compile it)
+	 * @see    Grammar
+	 */
+	@Override
+	public Grammar retrieveGrammar(XMLGrammarDescription poDescription) {
+
+		Grammar oGrammar = null;
+
+		if (poDescription instanceof XMLDTDDescription) {
+
+			String sSystemId = poDescription.getExpandedSystemId();
+
+			if (sSystemId == null)
+				sSystemId = poDescription.getLiteralSystemId();
+
+			oGrammar = m_oGrammars.get(getGrammarKey(sSystemId));
+		}
+		else
+			oGrammar = super.retrieveGrammar(poDescription);
+
+		if (oGrammar != null)
+			m_nHitCount.incrementAndGet();
+		else
+			m_nMissCount.incrementAndGet();
+
+		return oGrammar;
+	}
+
+	/**
+	 * Returns no grammars at the start of each document, so that every DTD is looked up through retrieveGrammar() by its ID.
+	 * <p>
+	 * Otherwise, the parser would copy every cached DTD grammar into its own bucket at the start of every file.
+	 *
+	 * @param  psGrammarType the type of grammar (i.e., DTD or XSD)
+	 * @return the grammars to preload into the parser
+	 */
+	@Override
+	public Grammar[] retrieveInitialGrammarSet(String psGrammarType) {
+
+		if (XMLGrammarDescription.XML_DTD.equals(psGrammarType))
+			return new Grammar[0];
+
+		return super.retrieveInitialGrammarSet(psGrammarType);
+	}
+}
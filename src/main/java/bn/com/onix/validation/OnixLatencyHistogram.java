@@ -0,0 +1,110 @@
+package bn.com.onix.validation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * OnixLatencyHistogram --- This class records latencies (in nanoseconds) into log-linear buckets, in the manner of an
+ *                          HDR histogram, so that any percentile can be reported within a fixed relative error.
+ * <p>
+ * Each power of two is divided into 2^CONST_PRECISION_BITS buckets (i.e., a relative error of less than 1%), and
+ * recording a value costs only a few atomic increments, so that it can be done by every worker thread without any locks.
+ * @author    Aaron Kendall
+ */
+public class OnixLatencyHistogram {
+
+	public static final int CONST_PRECISION_BITS = 7;
+
+	private static final int CONST_SUB_BUCKETS  = 1 << CONST_PRECISION_BITS;
+	private static final int CONST_MAX_EXPONENT = 62;
+	private static final int CONST_BUCKETS      = (CONST_MAX_EXPONENT - CONST_PRECISION_BITS + 2) * CONST_SUB_BUCKETS;
+
+	private final AtomicLongArray m_aCounts = new AtomicLongArray(CONST_BUCKETS);
+
+	private final AtomicLong m_nCount = new AtomicLong(0);
+	private final AtomicLong m_nTotal = new AtomicLong(0);
+	private final AtomicLong m_nMax   = new AtomicLong(0);
+
+	public long getCount() {
+		return m_nCount.get();
+	}
+
+	public long getMax() {
+		return m_nMax.get();
+	}
+
+	public long getTotal() {
+		return m_nTotal.get();
+	}
+
+	/**
+	 * Returns the value below which the specified percentage of the recorded values fall.
+	 *
+	 * @param  pdPercentile the percentile of interest (Ex. 99.9)
+	 * @return the highest value that is equivalent (i.e., within the same bucket) to the value at the percentile,
+	 *         or 0 if no values have been recorded
+	 */
+	public long getValueAtPercentile(double pdPercentile) {
+
+		long nCount = m_nCount.get();
+
+		if (nCount <= 0)
+			return 0;
+
+		long nTarget = Math.max((long) Math.ceil((Math.min(pdPercentile, 100.0) / 100.0) * nCount), 1);
+		long nSeen   = 0;
+
+		for (int i = 0; i < CONST_BUCKETS; ++i) {
+
+			nSeen += m_aCounts.get(i);
+
+			if (nSeen >= nTarget)
+				return Math.min(getHighestEquivalentValue(i), m_nMax.get());
+		}
+
+		return m_nMax.get();
+	}
+
+	/**
+	 * Records a single value.
+	 *
+	 * @param  pnValue the value to record (where negative values are recorded as 0)
+	 * @return None
+	 */
+	public void record(long pnValue) {
+
+		long nValue = Math.max(pnValue, 0);
+
+		m_aCounts.incrementAndGet(getBucketIndex(nValue));
+		m_nCount.incrementAndGet();
+		m_nTotal.addAndGet(nValue);
+
+		long nMax = m_nMax.get();
+
+		while ((nValue > nMax) && !m_nMax.compareAndSet(nMax, nValue))
+			nMax = m_nMax.get();
+	}
+
+	private static int getBucketIndex(long pnValue) {
+
+		if (pnValue < CONST_SUB_BUCKETS)
+			return (int) pnValue;
+
+		int nExponent = 63 - Long.numberOfLeadingZeros(pnValue);
+		int nSubIndex = (int) (pnValue >>> (nExponent - CONST_PRECISION_BITS)) - CONST_SUB_BUCKETS;
+
+		return ((nExponent - CONST_PRECISION_BITS + 1) * CONST_SUB_BUCKETS) + nSubIndex;
+	}
+
+	private static long getHighestEquivalentValue(int pnBucketIndex) {
+
+		if (pnBucketIndex < CONST_SUB_BUCKETS)
+			return pnBucketIndex;
+
+		int nExponent = (pnBucketIndex / CONST_SUB_BUCKETS) - 1 + CONST_PRECISION_BITS;
+		int nSubIndex = pnBucketIndex % CONST_SUB_BUCKETS;
+		int nShift    = nExponent - CONST_PRECISION_BITS;
+
+		return (((long) (CONST_SUB_BUCKETS + nSubIndex)) << nShift) + ((1L << nShift) - 1);
+	}
+}
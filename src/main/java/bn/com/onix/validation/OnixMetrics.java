@@ -0,0 +1,282 @@
+package bn.com.onix.validation;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * OnixMetrics --- This class holds the runtime metrics of the validator (i.e., the latency of each phase, the throughput,
+ *                 the error counts, the depth of the work queue and the heap usage), which are shared by every worker thread.
+ * <p>
+ * The metrics are published via JMX (as an OnixMetricsMBean) and in the Prometheus text format (via the OnixMetricsServer).
+ * Recording a file costs only a few atomic operations, so that the metrics can always be collected.
+ * @author    Aaron Kendall
+ */
+public class OnixMetrics implements OnixMetricsMBean {
+
+	public static final String CONST_OBJECT_NAME = "bn.com.onix.validation:type=OnixMetrics";
+
+	public static final String CONST_PHASE_DTD_REWRITE = "dtd_rewrite";
+	public static final String CONST_PHASE_VALIDATE    = "validate";
+	public static final String CONST_PHASE_MOVE        = "move";
+
+	private static final double[] CONST_QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private static final double CONST_NANOS_PER_MILLI  = 1000000.0;
+	private static final double CONST_NANOS_PER_SECOND = 1000000000.0;
+
+	private static final OnixMetrics s_oInstance = new OnixMetrics();
+
+	private final OnixLatencyHistogram m_oDtdRewriteLatency = new OnixLatencyHistogram();
+	private final OnixLatencyHistogram m_oValidateLatency   = new OnixLatencyHistogram();
+	private final OnixLatencyHistogram m_oMoveLatency       = new OnixLatencyHistogram();
+
+	private final AtomicLong m_nValidFiles     = new AtomicLong(0);
+	private final AtomicLong m_nInvalidFiles   = new AtomicLong(0);
+	private final AtomicLong m_nBytesValidated = new AtomicLong(0);
+	private final AtomicLong m_nErrorCount     = new AtomicLong(0);
+	private final AtomicLong m_nAbortedFiles   = new AtomicLong(0);
+
+	private final AtomicInteger m_nQueueDepth    = new AtomicInteger(0);
+	private final AtomicInteger m_nActiveWorkers = new AtomicInteger(0);
+
+	private final long m_nStartNanos = System.nanoTime();
+
+	private OnixMetrics() {}
+
+	public static OnixMetrics getInstance() {
+		return s_oInstance;
+	}
+
+	/**
+	 * Adjusts the number of files that are waiting for a worker thread.
+	 *
+	 * @param  pnDelta the change in the number of waiting files
+	 * @return None
+	 */
+	public void adjustQueueDepth(int pnDelta) {
+		m_nQueueDepth.addAndGet(pnDelta);
+	}
+
+	/**
+	 * Adjusts the number of worker threads that are busy with a file.
+	 *
+	 * @param  pnDelta the change in the number of busy workers
+	 * @return None
+	 */
+	public void adjustActiveWorkers(int pnDelta) {
+		m_nActiveWorkers.addAndGet(pnDelta);
+	}
+
+	/**
+	 * Records the rewrite of the DOCTYPE tag of a single file.
+	 *
+	 * @param  pnElapsedNanos the duration of the rewrite
+	 * @return None
+	 */
+	public void recordDtdRewrite(long pnElapsedNanos) {
+		m_oDtdRewriteLatency.record(pnElapsedNanos);
+	}
+
+	/**
+	 * Records the move of a single file into either the output directory or the failed directory.
+	 *
+	 * @param  pnElapsedNanos the duration of the move
+	 * @return None
+	 */
+	public void recordMove(long pnElapsedNanos) {
+		m_oMoveLatency.record(pnElapsedNanos);
+	}
+
+	/**
+	 * Records the validation of a single unit of ONIX content.
+	 *
+	 * @param  pnElapsedNanos the duration of the validation (or a negative value if the content was not parsed)
+	 * @param  pnBytes the number of (uncompressed) bytes that were parsed
+	 * @param  pnErrorCount the number of errors that were found
+	 * @param  pbValid Indicates whether or not the content was valid
+	 * @param  pbAborted Indicates whether or not the validation was aborted
+	 * @return None
+	 */
+	public void recordValidation(long pnElapsedNanos, long pnBytes, long pnErrorCount, boolean pbValid, boolean pbAborted) {
+
+		if (pnElapsedNanos >= 0)
+			m_oValidateLatency.record(pnElapsedNanos);
+
+		if (pbValid)
+			m_nValidFiles.incrementAndGet();
+		else
+			m_nInvalidFiles.incrementAndGet();
+
+		if (pbAborted)
+			m_nAbortedFiles.incrementAndGet();
+
+		if (pnBytes > 0)
+			m_nBytesValidated.addAndGet(pnBytes);
+
+		if (pnErrorCount > 0)
+			m_nErrorCount.addAndGet(pnErrorCount);
+	}
+
+	/**
+	 * Registers the metrics with the platform's MBean server, so that they can be read via JMX (Ex. by JConsole).
+	 *
+	 * @return None
+	 */
+	public void registerMBean() {
+
+		try {
+			MBeanServer oMBeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName  oObjectName  = new ObjectName(CONST_OBJECT_NAME);
+
+			if (!oMBeanServer.isRegistered(oObjectName))
+				oMBeanServer.registerMBean(this, oObjectName);
+		}
+		catch (Exception e) {
+			OnixValidator.logError("ERROR!  Could not register the metrics with JMX.");
+			OnixValidator.logException(e);
+		}
+	}
+
+	/**
+	 * Renders the metrics in the Prometheus text format (version 0.0.4).
+	 *
+	 * @return the rendered metrics
+	 */
+	public String toPrometheusText() {
+
+		StringBuilder sbMetrics = new StringBuilder(4096);
+
+		sbMetrics.append("# HELP onix_files_total The number of ONIX files validated, by verdict.\n");
+		sbMetrics.append("# TYPE onix_files_total counter\n");
+		sbMetrics.append("onix_files_total{verdict=\"valid\"} ").append(m_nValidFiles.get()).append('\n');
+		sbMetrics.append("onix_files_total{verdict=\"invalid\"} ").append(m_nInvalidFiles.get()).append('\n');
+
+		appendMetric(sbMetrics, "onix_files_aborted_total", "counter", "The number of ONIX files whose validation was aborted.", m_nAbortedFiles.get());
+		appendMetric(sbMetrics, "onix_bytes_validated_total", "counter", "The number of (uncompressed) bytes parsed.", m_nBytesValidated.get());
+		appendMetric(sbMetrics, "onix_validation_errors_total", "counter", "The number of validation errors found.", m_nErrorCount.get());
+		appendMetric(sbMetrics, "onix_files_per_second", "gauge", "The average number of files validated per second.", getFilesPerSecond());
+		appendMetric(sbMetrics, "onix_bytes_per_second", "gauge", "The average number of bytes parsed per second.", getBytesPerSecond());
+		appendMetric(sbMetrics, "onix_queue_depth", "gauge", "The number of files waiting for a worker thread.", m_nQueueDepth.get());
+		appendMetric(sbMetrics, "onix_active_workers", "gauge", "The number of worker threads busy with a file.", m_nActiveWorkers.get());
+		appendMetric(sbMetrics, "onix_heap_used_megabytes", "gauge", "The amount of heap in use.", getUsedMemoryMB());
+		appendMetric(sbMetrics, "onix_heap_free_megabytes", "gauge", "The amount of free heap.", getAvailableMemoryMB());
+
+		sbMetrics.append("# HELP onix_phase_duration_seconds The latency of each phase of the validator, per file.\n");
+		sbMetrics.append("# TYPE onix_phase_duration_seconds summary\n");
+
+		appendSummary(sbMetrics, CONST_PHASE_DTD_REWRITE, m_oDtdRewriteLatency);
+		appendSummary(sbMetrics, CONST_PHASE_VALIDATE, m_oValidateLatency);
+		appendSummary(sbMetrics, CONST_PHASE_MOVE, m_oMoveLatency);
+
+		return sbMetrics.toString();
+	}
+
+	public int getActiveWorkers() {
+		return m_nActiveWorkers.get();
+	}
+
+	public long getAvailableMemoryMB() {
+		return OnixValidatorCommonCalls.getAvailableMemoryMB();
+	}
+
+	public long getBytesValidated() {
+		return m_nBytesValidated.get();
+	}
+
+	public double getBytesPerSecond() {
+		return m_nBytesValidated.get() / getUptimeSeconds();
+	}
+
+	public double getDtdRewriteP99Millis() {
+		return m_oDtdRewriteLatency.getValueAtPercentile(99.0) / CONST_NANOS_PER_MILLI;
+	}
+
+	public long getErrorCount() {
+		return m_nErrorCount.get();
+	}
+
+	public double getFilesPerSecond() {
+		return (m_nValidFiles.get() + m_nInvalidFiles.get()) / getUptimeSeconds();
+	}
+
+	public long getInvalidFiles() {
+		return m_nInvalidFiles.get();
+	}
+
+	public double getMoveP99Millis() {
+		return m_oMoveLatency.getValueAtPercentile(99.0) / CONST_NANOS_PER_MILLI;
+	}
+
+	public int getQueueDepth() {
+		return m_nQueueDepth.get();
+	}
+
+	public long getUsedMemoryMB() {
+		return OnixValidatorCommonCalls.getUsedMemoryMB();
+	}
+
+	public long getValidFiles() {
+		return m_nValidFiles.get();
+	}
+
+	public double getValidateMaxMillis() {
+		return m_oValidateLatency.getMax() / CONST_NANOS_PER_MILLI;
+	}
+
+	public double getValidateP50Millis() {
+		return m_oValidateLatency.getValueAtPercentile(50.0) / CONST_NANOS_PER_MILLI;
+	}
+
+	public double getValidateP99Millis() {
+		return m_oValidateLatency.getValueAtPercentile(99.0) / CONST_NANOS_PER_MILLI;
+	}
+
+	/**
+	 * Returns a summary of the metrics (for logging when the program finishes).
+	 *
+	 * @return the summary of the metrics
+	 */
+	public String getStatistics() {
+
+		return String.format("Metrics : Valid(%d), Invalid(%d), Errors(%d), Files/sec(%.1f), Bytes/sec(%.0f), Validate p50/p99/max(%.1f/%.1f/%.1f ms), " +
+				             "DTD Rewrite p99(%.1f ms), Move p99(%.1f ms)",
+				             getValidFiles(), getInvalidFiles(), getErrorCount(), getFilesPerSecond(), getBytesPerSecond(),
+				             getValidateP50Millis(), getValidateP99Millis(), getValidateMaxMillis(), getDtdRewriteP99Millis(), getMoveP99Millis());
+	}
+
+	private double getUptimeSeconds() {
+		return Math.max((System.nanoTime() - m_nStartNanos) / CONST_NANOS_PER_SECOND, 0.001);
+	}
+
+	private static void appendMetric(StringBuilder psbMetrics, String psName, String psType, String psHelp, double pdValue) {
+
+		psbMetrics.append("# HELP ").append(psName).append(' ').append(psHelp).append('\n');
+		psbMetrics.append("# TYPE ").append(psName).append(' ').append(psType).append('\n');
+		psbMetrics.append(psName).append(' ');
+
+		if (pdValue == Math.rint(pdValue))
+			psbMetrics.append((long) pdValue);
+		else
+			psbMetrics.append(pdValue);
+
+		psbMetrics.append('\n');
+	}
+
+	private static void appendSummary(StringBuilder psbMetrics, String psPhase, OnixLatencyHistogram poLatency) {
+
+		for (double dQuantile : CONST_QUANTILES) {
+
+			psbMetrics.append("onix_phase_duration_seconds{phase=\"").append(psPhase).append("\",quantile=\"").append(dQuantile).append("\"} ");
+			psbMetrics.append(poLatency.getValueAtPercentile(dQuantile * 100.0) / CONST_NANOS_PER_SECOND).append('\n');
+		}
+
+		psbMetrics.append("onix_phase_duration_seconds_sum{phase=\"").append(psPhase).append("\"} ");
+		psbMetrics.append(poLatency.getTotal() / CONST_NANOS_PER_SECOND).append('\n');
+		psbMetrics.append("onix_phase_duration_seconds_count{phase=\"").append(psPhase).append("\"} ");
+		psbMetrics.append(poLatency.getCount()).append('\n');
+	}
+}
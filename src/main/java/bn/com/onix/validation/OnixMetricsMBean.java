@@ -0,0 +1,38 @@
+package bn.com.onix.validation;
+
+/**
+ * OnixMetricsMBean --- This interface describes the attributes of the validator that are published via JMX.
+ * @author    Aaron Kendall
+ */
+public interface OnixMetricsMBean {
+
+	public long getValidFiles();
+
+	public long getInvalidFiles();
+
+	public long getBytesValidated();
+
+	public long getErrorCount();
+
+	public double getFilesPerSecond();
+
+	public double getBytesPerSecond();
+
+	public int getQueueDepth();
+
+	public int getActiveWorkers();
+
+	public long getUsedMemoryMB();
+
+	public long getAvailableMemoryMB();
+
+	public double getDtdRewriteP99Millis();
+
+	public double getValidateP50Millis();
+
+	public double getValidateP99Millis();
+
+	public double getValidateMaxMillis();
+
+	public double getMoveP99Millis();
+}
@@ -0,0 +1,115 @@
+package bn.com.onix.validation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * OnixMetricsServer --- This class serves the OnixMetrics in the Prometheus text format (at "/metrics"), so that
+ *                       the validator can be scraped while it runs.
+ * <p>
+ * The server only listens on the loopback address, since the metrics are meant for a local agent (Ex. a Prometheus
+ * node exporter or a sidecar) rather than for the network.
+ * @author    Aaron Kendall
+ */
+public class OnixMetricsServer {
+
+	public static final String CONST_METRICS_PATH = "/metrics";
+	public static final String CONST_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final Charset s_oMetricsCharset = Charset.forName("UTF-8");
+
+	private final HttpServer      m_oHttpServer;
+	private final ExecutorService m_oRequestThread;
+
+	/**
+	 * Creates (but does not start) the server on the specified port of the loopback address.
+	 *
+	 * @param  pnPort the port on which to listen
+	 * @param  poMetrics the metrics to serve
+	 * @see    IOException
+	 */
+	public OnixMetricsServer(int pnPort, final OnixMetrics poMetrics)
+			throws IOException {
+
+		m_oHttpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), pnPort), 0);
+
+		m_oHttpServer.createContext(CONST_METRICS_PATH, new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange poExchange) throws IOException {
+
+				try {
+					if (!"GET".equalsIgnoreCase(poExchange.getRequestMethod())) {
+						poExchange.sendResponseHeaders(405, -1);
+						return;
+					}
+
+					byte[] aResponse = poMetrics.toPrometheusText().getBytes(s_oMetricsCharset);
+
+					poExchange.getResponseHeaders().set("Content-Type", CONST_CONTENT_TYPE);
+					poExchange.sendResponseHeaders(200, aResponse.length);
+
+					try (OutputStream oResponseStream = poExchange.getResponseBody()) {
+						oResponseStream.write(aResponse);
+					}
+				}
+				finally {
+					poExchange.close();
+				}
+			}
+		});
+
+		// NOTE: A single (daemon) thread is enough for a scraper, and it will not keep the JVM alive
+		m_oRequestThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable poRunnable) {
+
+				Thread oThread = new Thread(poRunnable, "onix-metrics-server");
+				oThread.setDaemon(true);
+
+				return oThread;
+			}
+		});
+
+		m_oHttpServer.setExecutor(m_oRequestThread);
+	}
+
+	public int getPort() {
+		return m_oHttpServer.getAddress().getPort();
+	}
+
+	/**
+	 * Starts listening for requests.
+	 *
+	 * @return None
+	 */
+	public void start() {
+
+		m_oHttpServer.start();
+
+		OnixValidator.logInfo("The metrics are being served at (http://" + m_oHttpServer.getAddress().getHostString() + ":" + getPort() +
+				              CONST_METRICS_PATH + ").");
+	}
+
+	/**
+	 * Stops listening for requests, waiting up to a second for any request in progress.
+	 *
+	 * @return None
+	 */
+	public void stop() {
+
+		m_oHttpServer.stop(1);
+		m_oRequestThread.shutdown();
+	}
+}
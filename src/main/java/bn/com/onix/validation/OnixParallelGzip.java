@@ -0,0 +1,440 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * OnixParallelGzip --- This class compresses files into the gzip format on several cores at once, in the manner of pigz.
+ * <p>
+ * The input is divided into blocks that are deflated independently (each one primed with the last 32 KB of the
+ * preceding block as its dictionary, so that the ratio barely suffers).  Each block but the last ends with a sync flush,
+ * which leaves it on a byte boundary, so that the blocks can simply be concatenated into a single valid gzip member.
+ * The block buffers are pooled and reused, so that the memory use is bounded by the number of blocks in flight.
+ * <p>
+ * Files can also be handed to a background stage (Ex. as they are routed into the output directory), which replaces
+ * each one with its compressed version.
+ * @author    Aaron Kendall
+ */
+public class OnixParallelGzip {
+
+	public static final int CONST_DEFAULT_BLOCK_SIZE = 1024 * 1024;
+	public static final int CONST_DICTIONARY_SIZE    = 32 * 1024;
+
+	public static final String CONST_GZIP_SUFFIX = ".gz";
+
+	private static final byte[] CONST_GZIP_HEADER =
+		new byte[] { (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private static volatile OnixParallelGzip s_oSharedInstance = null;
+
+	private final int             m_nNumOfThreads;
+	private final int             m_nBlockSize;
+	private final int             m_nLevel;
+	private final ExecutorService m_oCompressPool;
+	private final ExecutorService m_oBackgroundStage;
+
+	private final BlockingQueue<byte[]> m_oInputBufferPool;
+	private final BlockingQueue<byte[]> m_oOutputBufferPool;
+
+	private final ThreadLocal<Deflater> m_oThreadDeflater = new ThreadLocal<Deflater>() {
+
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(m_nLevel, true);
+		}
+	};
+
+	private final AtomicInteger m_nFileCount     = new AtomicInteger(0);
+	private final AtomicLong    m_nBytesIn       = new AtomicLong(0);
+	private final AtomicLong    m_nBytesOut      = new AtomicLong(0);
+	private final AtomicLong    m_nElapsedNanos  = new AtomicLong(0);
+
+	/**
+	 * Holds the compressed version of a single block.
+	 */
+	private static class CompressedBlock {
+
+		final byte[] aOutput;
+		final int    nOutputLength;
+
+		CompressedBlock(byte[] paOutput, int pnOutputLength) {
+
+			aOutput       = paOutput;
+			nOutputLength = pnOutputLength;
+		}
+	}
+
+	/**
+	 * Creates the compressor along with its pool of threads.
+	 *
+	 * @param  pnNumOfThreads the number of compression threads (a value less than 1 indicates one thread per available processor)
+	 * @param  pnBlockSize the size of each independently compressed block (a value less than 1 indicates the default size)
+	 * @param  pnLevel the compression level (Ex. Deflater.DEFAULT_COMPRESSION)
+	 */
+	public OnixParallelGzip(int pnNumOfThreads, int pnBlockSize, int pnLevel) {
+
+		m_nNumOfThreads = (pnNumOfThreads > 0) ? pnNumOfThreads : Runtime.getRuntime().availableProcessors();
+		m_nBlockSize    = Math.max((pnBlockSize > 0) ? pnBlockSize : CONST_DEFAULT_BLOCK_SIZE, CONST_DICTIONARY_SIZE);
+		m_nLevel        = pnLevel;
+
+		m_oInputBufferPool  = new ArrayBlockingQueue<byte[]>(getMaxBlocksInFlight() + 1);
+		m_oOutputBufferPool = new ArrayBlockingQueue<byte[]>(getMaxBlocksInFlight() + 1);
+
+		m_oCompressPool    = Executors.newFixedThreadPool(m_nNumOfThreads, createThreadFactory("onix-gzip-"));
+		m_oBackgroundStage = Executors.newSingleThreadExecutor(createThreadFactory("onix-gzip-stage-"));
+	}
+
+	/**
+	 * Returns the compressor that is shared by the callers that do not configure their own (Ex. gzipIt()).
+	 *
+	 * @return the shared compressor, which is created upon first use
+	 */
+	public static OnixParallelGzip getSharedInstance() {
+
+		if (s_oSharedInstance == null) {
+
+			synchronized (OnixParallelGzip.class) {
+
+				if (s_oSharedInstance == null)
+					s_oSharedInstance = new OnixParallelGzip(0, CONST_DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+			}
+		}
+
+		return s_oSharedInstance;
+	}
+
+	/**
+	 * Blocks until every file handed to the background stage has been compressed, after which the stage
+	 * will no longer accept any files.
+	 *
+	 * @return None
+	 */
+	public void awaitCompletion() {
+		OnixValidatorCommonCalls.waitOnThreads(new ExecutorService[] { m_oBackgroundStage });
+	}
+
+	/**
+	 * Compresses the specified file into the gzip format.
+	 * <p>
+	 * This method is thread-safe, although the files compressed at the same time will share the compression threads.
+	 *
+	 * @param  poInputFile the file to compress
+	 * @param  poOutputFile the compressed file to create (or to overwrite)
+	 * @return the size of the compressed file
+	 * @see    IOException
+	 */
+	public long compressFile(File poInputFile, File poOutputFile)
+			throws IOException {
+
+		long nStartNanos = System.nanoTime();
+		long nBytesIn    = 0;
+		long nBytesOut   = 0;
+
+		Deque<Future<CompressedBlock>> oPendingBlocks = new ArrayDeque<Future<CompressedBlock>>();
+		Deque<byte[]>                  oPendingInputs = new ArrayDeque<byte[]>();
+		Deque<Integer>                 oPendingSizes  = new ArrayDeque<Integer>();
+
+		CRC32 oCrc = new CRC32();
+
+		try (InputStream oInput = new FileInputStream(poInputFile); OutputStream oOutput = new FileOutputStream(poOutputFile)) {
+
+			oOutput.write(CONST_GZIP_HEADER);
+			nBytesOut += CONST_GZIP_HEADER.length;
+
+			byte[]  aDictionary = null;
+			boolean bLastBlock  = false;
+
+			while (!bLastBlock) {
+
+				byte[] aInput    = acquireBuffer(m_oInputBufferPool, m_nBlockSize);
+				int    nInputLen = readBlock(oInput, aInput);
+
+				// NOTE: A short read means that the end of the file has been reached
+				bLastBlock = (nInputLen < aInput.length);
+
+				oPendingBlocks.add(m_oCompressPool.submit(createBlockTask(aInput, nInputLen, aDictionary, bLastBlock)));
+				oPendingInputs.add(aInput);
+				oPendingSizes.add(nInputLen);
+
+				// NOTE: The dictionary is copied, since the input buffer will be recycled before the next block is compressed
+				if (nInputLen >= CONST_DICTIONARY_SIZE)
+					aDictionary = Arrays.copyOfRange(aInput, nInputLen - CONST_DICTIONARY_SIZE, nInputLen);
+				else if (nInputLen > 0)
+					aDictionary = appendDictionary(aDictionary, aInput, nInputLen);
+
+				while (!oPendingBlocks.isEmpty() && (bLastBlock || (oPendingBlocks.size() >= getMaxBlocksInFlight()))) {
+
+					CompressedBlock oBlock   = awaitBlock(oPendingBlocks.poll());
+					byte[]          aWritten = oPendingInputs.poll();
+					int             nWritten = oPendingSizes.poll();
+
+					oCrc.update(aWritten, 0, nWritten);
+					oOutput.write(oBlock.aOutput, 0, oBlock.nOutputLength);
+
+					nBytesIn  += nWritten;
+					nBytesOut += oBlock.nOutputLength;
+
+					releaseBuffer(m_oInputBufferPool, aWritten);
+					releaseBuffer(m_oOutputBufferPool, oBlock.aOutput);
+				}
+			}
+
+			byte[] aTrailer = new byte[8];
+
+			writeIntLE(aTrailer, 0, oCrc.getValue());
+			writeIntLE(aTrailer, 4, nBytesIn);
+
+			oOutput.write(aTrailer);
+			nBytesOut += aTrailer.length;
+		}
+		catch (IOException e) {
+
+			for (Future<CompressedBlock> oPending : oPendingBlocks)
+				oPending.cancel(false);
+
+			poOutputFile.delete();
+
+			throw e;
+		}
+
+		long nElapsedNanos = Math.max(System.nanoTime() - nStartNanos, 1);
+
+		m_nFileCount.incrementAndGet();
+		m_nBytesIn.addAndGet(nBytesIn);
+		m_nBytesOut.addAndGet(nBytesOut);
+		m_nElapsedNanos.addAndGet(nElapsedNanos);
+
+		OnixValidator.logInfo("Compressed file(" + poInputFile.getAbsolutePath() + ") from (" + nBytesIn + ") to (" + nBytesOut +
+		                      ") bytes in (" + (nElapsedNanos / 1000000) + ") ms : Bytes/sec(" + ((nBytesIn * 1000000000L) / nElapsedNanos) + ").");
+
+		return nBytesOut;
+	}
+
+	/**
+	 * Replaces the specified file with its compressed version (Ex. "Feed.xml" becomes "Feed.xml.gz"), writing it under
+	 * a temporary name until it is complete.
+	 *
+	 * @param  poInputFile the file to compress and then delete
+	 * @return the compressed file
+	 * @see    IOException
+	 */
+	public File compressAndReplace(File poInputFile)
+			throws IOException {
+
+		File oTempFile = new File(poInputFile.getAbsolutePath() + CONST_GZIP_SUFFIX + ".tmp");
+		File oGzipFile = new File(poInputFile.getAbsolutePath() + CONST_GZIP_SUFFIX);
+
+		compressFile(poInputFile, oTempFile);
+
+		OnixRoutingJournal.replaceAtomically(oTempFile.toPath(), oGzipFile.toPath());
+
+		if (!poInputFile.delete())
+			OnixValidator.logError("ERROR!  Could not delete file(" + poInputFile.getAbsolutePath() + ") after compressing it.");
+
+		return oGzipFile;
+	}
+
+	public int getNumOfThreads() {
+		return m_nNumOfThreads;
+	}
+
+	/**
+	 * Returns a summary of the compressor's usage, which is intended for logging.
+	 *
+	 * @return the string that describes the number of files, the bytes in/out and the throughput
+	 */
+	public String getStatistics() {
+
+		long nElapsedNanos = Math.max(m_nElapsedNanos.get(), 1);
+
+		return "Parallel Gzip : Files(" + m_nFileCount.get() + "), BytesIn(" + m_nBytesIn.get() + "), BytesOut(" + m_nBytesOut.get() +
+		       "), Bytes/sec(" + ((m_nBytesIn.get() * 1000000000L) / nElapsedNanos) + ")";
+	}
+
+	/**
+	 * Hands a file to the background stage, which will replace it with its compressed version.
+	 * <p>
+	 * Files that are already compressed (i.e., "*.gz" and "*.zip") are left as they are.
+	 *
+	 * @param  poInputFile the file to compress
+	 * @return None
+	 */
+	public void submitBackground(final File poInputFile) {
+
+		String sName = poInputFile.getName().toLowerCase();
+
+		if (sName.endsWith(CONST_GZIP_SUFFIX) || sName.endsWith(OnixArchiveValidator.CONST_ZIP_SUFFIX))
+			return;
+
+		m_oBackgroundStage.execute(new Runnable() {
+
+			@Override
+			public void run() {
+
+				try {
+					compressAndReplace(poInputFile);
+				}
+				catch (Exception e) {
+					OnixValidator.logError("ERROR!  Could not compress file(" + poInputFile.getAbsolutePath() + ").");
+					OnixValidator.logException(e);
+				}
+			}
+		});
+	}
+
+	private static byte[] acquireBuffer(BlockingQueue<byte[]> poPool, int pnSize) {
+
+		byte[] aBuffer = poPool.poll();
+
+		return ((aBuffer != null) && (aBuffer.length >= pnSize)) ? aBuffer : new byte[pnSize];
+	}
+
+	/**
+	 * Extends a short dictionary (i.e., after a short block) with the content of the latest block.
+	 */
+	private static byte[] appendDictionary(byte[] paDictionary, byte[] paInput, int pnInputLen) {
+
+		int    nOldLen = (paDictionary != null) ? paDictionary.length : 0;
+		int    nKeep   = Math.min(nOldLen, CONST_DICTIONARY_SIZE - pnInputLen);
+		byte[] aResult = new byte[nKeep + pnInputLen];
+
+		if (nKeep > 0)
+			System.arraycopy(paDictionary, nOldLen - nKeep, aResult, 0, nKeep);
+
+		System.arraycopy(paInput, 0, aResult, nKeep, pnInputLen);
+
+		return aResult;
+	}
+
+	private static CompressedBlock awaitBlock(Future<CompressedBlock> poBlock)
+			throws IOException {
+
+		try {
+			return poBlock.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing a block.", e);
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Could not compress a block.", e.getCause());
+		}
+	}
+
+	/**
+	 * Creates the task that deflates one block, ending it with a sync flush (or, for the last block, with the final block marker).
+	 */
+	private Callable<CompressedBlock> createBlockTask(final byte[] paInput, final int pnInputLen, final byte[] paDictionary, final boolean pbLastBlock) {
+
+		return new Callable<CompressedBlock>() {
+
+			@Override
+			public CompressedBlock call() {
+
+				Deflater oDeflater = m_oThreadDeflater.get();
+				oDeflater.reset();
+
+				if (paDictionary != null)
+					oDeflater.setDictionary(paDictionary);
+
+				oDeflater.setInput(paInput, 0, pnInputLen);
+
+				if (pbLastBlock)
+					oDeflater.finish();
+
+				byte[] aOutput    = acquireBuffer(m_oOutputBufferPool, m_nBlockSize + (m_nBlockSize >> 3) + 64);
+				int    nOutputLen = 0;
+
+				while (true) {
+
+					if (nOutputLen == aOutput.length)
+						aOutput = Arrays.copyOf(aOutput, aOutput.length * 2);
+
+					int nSpace = aOutput.length - nOutputLen;
+
+					if (pbLastBlock) {
+						nOutputLen += oDeflater.deflate(aOutput, nOutputLen, nSpace);
+
+						if (oDeflater.finished())
+							break;
+					}
+					else {
+						int nDeflated = oDeflater.deflate(aOutput, nOutputLen, nSpace, Deflater.SYNC_FLUSH);
+						nOutputLen += nDeflated;
+
+						// NOTE: The flush is complete once the deflater leaves some of the output space unused
+						if (nDeflated < nSpace)
+							break;
+					}
+				}
+
+				return new CompressedBlock(aOutput, nOutputLen);
+			}
+		};
+	}
+
+	private static ThreadFactory createThreadFactory(final String psPrefix) {
+
+		return new ThreadFactory() {
+
+			private final AtomicInteger nThreadCount = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable poRunnable) {
+
+				Thread oThread = new Thread(poRunnable, psPrefix + nThreadCount.incrementAndGet());
+				oThread.setDaemon(true);
+
+				return oThread;
+			}
+		};
+	}
+
+	private int getMaxBlocksInFlight() {
+		return 2 * m_nNumOfThreads;
+	}
+
+	private static int readBlock(InputStream poInput, byte[] paBuffer)
+			throws IOException {
+
+		int nTotal = 0;
+		int nRead  = 0;
+
+		while ((nTotal < paBuffer.length) && ((nRead = poInput.read(paBuffer, nTotal, paBuffer.length - nTotal)) > 0))
+			nTotal += nRead;
+
+		return nTotal;
+	}
+
+	private static void releaseBuffer(BlockingQueue<byte[]> poPool, byte[] paBuffer) {
+		poPool.offer(paBuffer);
+	}
+
+	private static void writeIntLE(byte[] paBuffer, int pnOffset, long pnValue) {
+
+		paBuffer[pnOffset]     = (byte) (pnValue & 0xFF);
+		paBuffer[pnOffset + 1] = (byte) ((pnValue >> 8) & 0xFF);
+		paBuffer[pnOffset + 2] = (byte) ((pnValue >> 16) & 0xFF);
+		paBuffer[pnOffset + 3] = (byte) ((pnValue >> 24) & 0xFF);
+	}
+}
@@ -0,0 +1,362 @@
+package bn.com.onix.validation;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.xml.sax.SAXParseException;
+
+/**
+ * OnixProductParallelValidator --- This class validates a single (very large) ONIX file on several cores, by splitting it
+ *                                  at its Product boundaries and validating the chunks in parallel on a fork/join pool.
+ * <p>
+ * Each chunk is validated as a standalone ONIX message, consisting of the file's header, a run of Product records and the
+ * file's tail.  The errors of each chunk are mapped back onto the line numbers of the original file, and then they are
+ * reported (in order) through the caller's error handler.  Since each chunk is validated in isolation, constraints that
+ * span several Product records (Ex. ID/IDREF attributes) are not checked in this mode.
+ * @author    Aaron Kendall
+ */
+public class OnixProductParallelValidator {
+
+	public static final int CONST_MAX_HEADER_BYTES     = 16 * 1024 * 1024;
+	public static final int CONST_MAX_TAIL_BYTES       = 1024 * 1024;
+	public static final int CONST_MAX_ERRORS_PER_CHUNK = 1000;
+
+	private static final ForkJoinPool s_oForkJoinPool = new ForkJoinPool();
+
+	/**
+	 * Holds an error of one chunk, along with the location at which it occurred.
+	 */
+	private static class ChunkError {
+
+		final Exception oException;
+		final String    sSeverity;
+		final String    sElementPath;
+		final String    sRecordReference;
+
+		ChunkError(Exception poException, String psSeverity, String psElementPath, String psRecordReference) {
+
+			oException       = poException;
+			sSeverity        = psSeverity;
+			sElementPath     = psElementPath;
+			sRecordReference = psRecordReference;
+		}
+	}
+
+	/**
+	 * Holds the errors of one chunk, translating their line numbers from the chunk's synthetic message onto the original file.
+	 */
+	private static class ChunkErrorHandler extends OnixFileErrorHandler {
+
+		private final String  m_sSystemId;
+		private final long    m_nHeaderEndLine;
+		private final long    m_nChunkStartLine;
+		private final long    m_nTailStartLine;
+		private final boolean m_bReportHeader;
+		private final boolean m_bReportTail;
+
+		private final List<ChunkError> m_oErrors = new ArrayList<ChunkError>();
+
+		private long m_nErrorCount   = 0;
+		private long m_nDroppedCount = 0;
+
+		ChunkErrorHandler(String psOnixFilepath, String psSystemId, long pnHeaderEndLine, OnixProductSplitter.Chunk poChunk,
+				          boolean pbReportHeader, boolean pbReportTail, boolean pbTrackPaths) {
+
+			super(psOnixFilepath, null, pbTrackPaths);
+
+			m_sSystemId       = psSystemId;
+			m_nHeaderEndLine  = pnHeaderEndLine;
+			m_nChunkStartLine = poChunk.nStartLine;
+			m_nTailStartLine  = pnHeaderEndLine + (poChunk.nEndLine - poChunk.nStartLine);
+			m_bReportHeader   = pbReportHeader;
+			m_bReportTail     = pbReportTail;
+		}
+
+		@Override
+		public long getErrorCount() {
+			return m_nErrorCount;
+		}
+
+		@Override
+		public boolean isValid() {
+			return (m_nErrorCount == 0);
+		}
+
+		@Override
+		public void recordError(Exception poException, String psSeverity, String psElementPath, String psRecordReference) {
+
+			if (poException instanceof SAXParseException) {
+
+				SAXParseException oParseException = (SAXParseException) poException;
+				long              nLine           = oParseException.getLineNumber();
+
+				// NOTE: Every chunk contains the header and the tail, so only the first and last chunks report their errors
+				if ((nLine > 0) && (nLine < m_nHeaderEndLine) && !m_bReportHeader)
+					return;
+				else if ((nLine > m_nTailStartLine) && !m_bReportTail)
+					return;
+
+				if (nLine >= m_nHeaderEndLine)
+					nLine = (nLine - m_nHeaderEndLine) + m_nChunkStartLine;
+
+				poException = new SAXParseException(oParseException.getMessage(), oParseException.getPublicId(), m_sSystemId,
+				                                    (int) nLine, oParseException.getColumnNumber(), oParseException.getException());
+			}
+
+			++m_nErrorCount;
+
+			if (m_oErrors.size() < CONST_MAX_ERRORS_PER_CHUNK)
+				m_oErrors.add(new ChunkError(poException, psSeverity, psElementPath, psRecordReference));
+			else
+				++m_nDroppedCount;
+		}
+
+		/**
+		 * Reports the collected errors to the handler of the whole file.
+		 */
+		void replay(OnixFileErrorHandler poFileErrorHandler) {
+
+			for (ChunkError oError : m_oErrors) {
+
+				poFileErrorHandler.recordError(oError.oException, oError.sSeverity, oError.sElementPath, oError.sRecordReference);
+
+				try {
+					poFileErrorHandler.checkBudget();
+				}
+				catch (OnixValidationAbortException e) {
+					return;
+				}
+			}
+
+			if (m_nDroppedCount > 0)
+				OnixValidator.logError("ERROR!  An additional (" + m_nDroppedCount + ") errors were found in the Product records starting at line(" +
+				                       m_nChunkStartLine + ") of ONIX file(" + getOnixFilepath() + ").");
+
+			if (isAborted())
+				poFileErrorHandler.abort(getAbortReason());
+		}
+	}
+
+	/**
+	 * Reads a region of a file via positional reads, so that several threads can share the same FileChannel.
+	 */
+	static class FileRegionInputStream extends InputStream {
+
+		private final FileChannel m_oChannel;
+		private final long        m_nEndOffset;
+		private       long        m_nPosition;
+
+		FileRegionInputStream(FileChannel poChannel, long pnStartOffset, long pnEndOffset) {
+
+			m_oChannel   = poChannel;
+			m_nPosition  = pnStartOffset;
+			m_nEndOffset = pnEndOffset;
+		}
+
+		@Override
+		public int read() throws IOException {
+
+			byte[] aByte = new byte[1];
+
+			return (read(aByte, 0, 1) > 0) ? (aByte[0] & 0xFF) : -1;
+		}
+
+		@Override
+		public int read(byte[] paBuffer, int pnOffset, int pnLength) throws IOException {
+
+			if (m_nPosition >= m_nEndOffset)
+				return -1;
+
+			int nLength = (int) Math.min(pnLength, m_nEndOffset - m_nPosition);
+			int nRead   = m_oChannel.read(ByteBuffer.wrap(paBuffer, pnOffset, nLength), m_nPosition);
+
+			if (nRead > 0)
+				m_nPosition += nRead;
+
+			return nRead;
+		}
+	}
+
+	/**
+	 * Validates a range of chunks, dividing the range in half until each task covers a single chunk.
+	 */
+	private static class ChunkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient ValidationContext m_oContext;
+		private final int               m_nFirst;
+		private final int               m_nLast;
+
+		ChunkTask(ValidationContext poContext, int pnFirst, int pnLast) {
+
+			m_oContext = poContext;
+			m_nFirst   = pnFirst;
+			m_nLast    = pnLast;
+		}
+
+		@Override
+		protected void compute() {
+
+			if ((m_nLast - m_nFirst) > 1) {
+
+				int nMiddle = (m_nFirst + m_nLast) >>> 1;
+
+				invokeAll(new ChunkTask(m_oContext, m_nFirst, nMiddle), new ChunkTask(m_oContext, nMiddle, m_nLast));
+			}
+			else
+				m_oContext.validateChunk(m_nFirst);
+		}
+	}
+
+	/**
+	 * Holds everything shared by the chunk tasks of a single file.
+	 */
+	private static class ValidationContext {
+
+		final OnixProductSplitter oSplitter;
+		final FileChannel         oChannel;
+		final byte[]              aHeader;
+		final byte[]              aTail;
+		final String              sSystemId;
+		final ChunkErrorHandler[] aHandlers;
+		final boolean             bTrackPaths;
+		final long                nMaxErrors;
+		final long                nDeadlineMillis;
+
+		volatile boolean bAborted = false;
+
+		ValidationContext(OnixProductSplitter poSplitter, FileChannel poChannel, byte[] paHeader, byte[] paTail, OnixFileErrorHandler poErrorHandler) {
+
+			oSplitter   = poSplitter;
+			oChannel    = poChannel;
+			aHeader     = paHeader;
+			aTail       = paTail;
+			sSystemId   = poSplitter.getOnixFile().toURI().toString();
+			aHandlers   = new ChunkErrorHandler[poSplitter.getChunks().size()];
+
+			bTrackPaths     = (poErrorHandler.getPathTracker() != null);
+			nMaxErrors      = poErrorHandler.getMaxErrors();
+			nDeadlineMillis = poErrorHandler.getDeadlineMillis();
+		}
+
+		void validateChunk(int pnIndex) {
+
+			OnixProductSplitter.Chunk oChunk = oSplitter.getChunks().get(pnIndex);
+
+			ChunkErrorHandler oHandler =
+				new ChunkErrorHandler(oSplitter.getOnixFile().getAbsolutePath(), sSystemId, oSplitter.getHeaderEndLine(), oChunk,
+				                      (pnIndex == 0), (pnIndex == (aHandlers.length - 1)), bTrackPaths);
+
+			aHandlers[pnIndex] = oHandler;
+
+			// NOTE: Once any chunk has exhausted the error budget, the remaining chunks are not worth validating
+			if (bAborted)
+				return;
+
+			oHandler.setErrorBudget(nMaxErrors, nDeadlineMillis);
+
+			List<InputStream> oParts = Arrays.asList(new ByteArrayInputStream(aHeader),
+			                                         new FileRegionInputStream(oChannel, oChunk.nStartOffset, oChunk.nEndOffset),
+			                                         new ByteArrayInputStream(aTail));
+
+			try (InputStream oChunkStream = new SequenceInputStream(Collections.enumeration(oParts))) {
+				OnixFileValidator.ValidateStream(oChunkStream, sSystemId, oHandler);
+			}
+			catch (Exception e) {
+				oHandler.recordError(e);
+			}
+
+			if (oHandler.isAborted())
+				bAborted = true;
+		}
+	}
+
+	/**
+	 * Returns the fork/join pool that runs the parallel validations (i.e., of chunks and of archive entries).
+	 *
+	 * @return the shared fork/join pool
+	 */
+	static ForkJoinPool getForkJoinPool() {
+		return s_oForkJoinPool;
+	}
+
+	/**
+	 * Validates a specified ONIX file by splitting it into chunks of Product records, which are validated in parallel.
+	 * <p>
+	 * If the file cannot be split (Ex. it has a multi-byte encoding or a single chunk), it is validated normally instead.
+	 *
+	 * @param  pOnixFile the ONIX file that we are attempting to validate
+	 * @param  poErrorHandler the handler that records whether the ONIX file is valid or invalid
+	 * @param  pnProductsPerChunk the maximum number of Product records in each chunk
+	 * @return None
+	 */
+	public static void ValidateFile(File pOnixFile, OnixFileErrorHandler poErrorHandler, int pnProductsPerChunk)
+			throws org.xml.sax.SAXException, java.io.IOException, javax.xml.parsers.ParserConfigurationException  {
+
+		long nStartMillis = System.currentTimeMillis();
+
+		OnixProductSplitter oSplitter = null;
+
+		try {
+			oSplitter = OnixProductSplitter.scan(pOnixFile, pnProductsPerChunk);
+		}
+		catch (IOException exception) {
+			poErrorHandler.recordError(exception);
+			return;
+		}
+
+		if ((oSplitter == null) || (oSplitter.getChunks().size() < 2) ||
+			(oSplitter.getHeaderEndOffset() > CONST_MAX_HEADER_BYTES) ||
+			((oSplitter.getFileLength() - oSplitter.getTailStartOffset()) > CONST_MAX_TAIL_BYTES)) {
+
+			OnixFileValidator.ValidateFile(pOnixFile, poErrorHandler);
+			return;
+		}
+
+		try (FileChannel oChannel = FileChannel.open(pOnixFile.toPath(), StandardOpenOption.READ)) {
+
+			byte[] aHeader = readRegion(oChannel, 0, oSplitter.getHeaderEndOffset());
+			byte[] aTail   = readRegion(oChannel, oSplitter.getTailStartOffset(), oSplitter.getFileLength());
+
+			ValidationContext oContext = new ValidationContext(oSplitter, oChannel, aHeader, aTail, poErrorHandler);
+
+			s_oForkJoinPool.invoke(new ChunkTask(oContext, 0, oContext.aHandlers.length));
+
+			for (ChunkErrorHandler oHandler : oContext.aHandlers)
+				oHandler.replay(poErrorHandler);
+		}
+		catch (IOException exception) {
+			poErrorHandler.recordError(exception);
+		}
+
+		OnixValidator.logInfo("Validated ONIX file(" + pOnixFile.getAbsolutePath() + ") as (" + oSplitter.getChunks().size() + ") chunks of (" +
+		                      oSplitter.getProductCount() + ") Products in (" + (System.currentTimeMillis() - nStartMillis) + ") ms.");
+	}
+
+	static byte[] readRegion(FileChannel poChannel, long pnStartOffset, long pnEndOffset)
+			throws IOException {
+
+		ByteBuffer oBuffer = ByteBuffer.allocate((int) (pnEndOffset - pnStartOffset));
+
+		while (oBuffer.hasRemaining()) {
+
+			if (poChannel.read(oBuffer, pnStartOffset + oBuffer.position()) < 0)
+				throw new IOException("Unexpected end of file while reading the region (" + pnStartOffset + ", " + pnEndOffset + ").");
+		}
+
+		return oBuffer.array();
+	}
+}
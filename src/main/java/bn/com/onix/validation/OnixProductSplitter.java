@@ -0,0 +1,378 @@
+package bn.com.onix.validation;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * OnixProductSplitter --- This class scans an ONIX file at the byte level (without parsing it), finding the boundaries of
+ *                         its Product records so that the file can be divided into chunks that are validated independently.
+ * <p>
+ * Each chunk covers a contiguous run of Product records.  The file's header (i.e., everything before the first Product,
+ * including the DOCTYPE and Header tags) and tail (i.e., everything after the last Product) are shared by all chunks.
+ * Only ASCII-compatible encodings (Ex. UTF-8, ISO-8859-1) can be split, since the scan matches the tags as raw bytes.
+ * @author    Aaron Kendall
+ */
+public class OnixProductSplitter {
+
+	public static final int CONST_SCAN_BUFFER_SIZE = 1024 * 1024;
+	public static final int CONST_MAX_NAME_LENGTH  = 16;
+
+	private static final int STATE_TEXT           = 0;
+	private static final int STATE_TAG_OPEN       = 1;
+	private static final int STATE_START_TAG_NAME = 2;
+	private static final int STATE_END_TAG_NAME   = 3;
+	private static final int STATE_AWAIT_END_GT   = 4;
+	private static final int STATE_MARKUP_DECL    = 5;
+	private static final int STATE_COMMENT        = 6;
+	private static final int STATE_CDATA          = 7;
+
+	/**
+	 * Describes a contiguous run of Product records within the file.
+	 */
+	public static class Chunk {
+
+		public final long nStartOffset;
+		public final long nEndOffset;
+		public final long nStartLine;
+		public final long nEndLine;
+		public final int  nProductCount;
+
+		Chunk(long pnStartOffset, long pnEndOffset, long pnStartLine, long pnEndLine, int pnProductCount) {
+
+			nStartOffset  = pnStartOffset;
+			nEndOffset    = pnEndOffset;
+			nStartLine    = pnStartLine;
+			nEndLine      = pnEndLine;
+			nProductCount = pnProductCount;
+		}
+	}
+
+	/**
+	 * Receives the boundaries of each Product record as the scan finds them.
+	 */
+	public interface ProductListener {
+
+		/**
+		 * Called once the end tag of a Product record has been scanned.
+		 *
+		 * @param  pnStartOffset the offset at which the start tag of the Product begins
+		 * @param  pnEndOffset the offset just after the end tag of the Product
+		 * @param  pnStartLine the line on which the Product begins
+		 * @param  pnEndLine the line on which the Product ends
+		 * @return None
+		 * @see    IOException
+		 */
+		void product(long pnStartOffset, long pnEndOffset, long pnStartLine, long pnEndLine) throws IOException;
+	}
+
+	private final File            m_oOnixFile;
+	private final List<Chunk>     m_oChunks = new ArrayList<Chunk>();
+	private final ProductListener m_oListener;
+
+	private long m_nChunkStart      = -1;
+	private long m_nChunkStartLine  = 1;
+	private int  m_nChunkProducts   = 0;
+
+	private long m_nHeaderEndOffset = -1;
+	private long m_nHeaderEndLine   = 1;
+	private long m_nTailStartOffset = -1;
+	private long m_nTailStartLine   = 1;
+	private long m_nFileLength      = 0;
+	private long m_nProductCount    = 0;
+	private long m_nProductStart    = -1;
+	private long m_nProductLine     = 1;
+
+	private OnixProductSplitter(File poOnixFile, ProductListener poListener) {
+
+		m_oOnixFile = poOnixFile;
+		m_oListener = poListener;
+	}
+
+	/**
+	 * Scans the specified ONIX file in a single streaming pass, grouping its Product records into chunks.
+	 *
+	 * @param  poOnixFile the ONIX file to scan
+	 * @param  pnProductsPerChunk the maximum number of Product records within a chunk
+	 * @return the splitter that describes the chunks (or null if the file cannot be split)
+	 * @see    IOException
+	 */
+	public static OnixProductSplitter scan(File poOnixFile, int pnProductsPerChunk)
+			throws IOException {
+
+		return scan(poOnixFile, pnProductsPerChunk, null);
+	}
+
+	/**
+	 * Scans the specified ONIX file in a single streaming pass, grouping its Product records into chunks and reporting
+	 * each record to the listener as soon as it ends.
+	 *
+	 * @param  poOnixFile the ONIX file to scan
+	 * @param  pnProductsPerChunk the maximum number of Product records within a chunk
+	 * @param  poListener the listener that receives the boundaries of each Product record (or null if there is none)
+	 * @return the splitter that describes the chunks (or null if the file cannot be split)
+	 * @see    IOException
+	 */
+	public static OnixProductSplitter scan(File poOnixFile, int pnProductsPerChunk, ProductListener poListener)
+			throws IOException {
+
+		OnixProductSplitter oSplitter = new OnixProductSplitter(poOnixFile, poListener);
+
+		try (InputStream oFileStream = new BufferedInputStream(new FileInputStream(poOnixFile), CONST_SCAN_BUFFER_SIZE)) {
+
+			if (!oSplitter.scanStream(oFileStream, Math.max(pnProductsPerChunk, 1)))
+				return null;
+		}
+
+		return oSplitter;
+	}
+
+	public List<Chunk> getChunks() {
+		return m_oChunks;
+	}
+
+	public long getFileLength() {
+		return m_nFileLength;
+	}
+
+	/**
+	 * Returns the offset at which the header ends (i.e., where the first Product record begins).
+	 */
+	public long getHeaderEndOffset() {
+		return m_nHeaderEndOffset;
+	}
+
+	/**
+	 * Returns the line on which the header ends (i.e., where the first Product record begins).
+	 */
+	public long getHeaderEndLine() {
+		return m_nHeaderEndLine;
+	}
+
+	public File getOnixFile() {
+		return m_oOnixFile;
+	}
+
+	public long getProductCount() {
+		return m_nProductCount;
+	}
+
+	/**
+	 * Returns the offset at which the tail begins (i.e., where the last Product record ends).
+	 */
+	public long getTailStartOffset() {
+		return m_nTailStartOffset;
+	}
+
+	/**
+	 * Returns the line on which the tail begins (i.e., where the last Product record ends).
+	 */
+	public long getTailStartLine() {
+		return m_nTailStartLine;
+	}
+
+	private static boolean isNameByte(int pnByte) {
+
+		return ((pnByte >= 'a') && (pnByte <= 'z')) || ((pnByte >= 'A') && (pnByte <= 'Z')) ||
+		       ((pnByte >= '0') && (pnByte <= '9')) || (pnByte == '_') || (pnByte == '-') || (pnByte == '.') || (pnByte == ':');
+	}
+
+	private static boolean isProductName(byte[] paName, int pnNameLen) {
+
+		if (pnNameLen != 7)
+			return false;
+
+		return ((paName[0] == 'P') || (paName[0] == 'p')) && (paName[1] == 'r') && (paName[2] == 'o') &&
+		       (paName[3] == 'd') && (paName[4] == 'u') && (paName[5] == 'c') && (paName[6] == 't');
+	}
+
+	/**
+	 * Records the end of a Product record, closing the current chunk once it holds enough records.
+	 */
+	private void endProduct(long pnEndOffset, long pnEndLine, int pnProductsPerChunk)
+			throws IOException {
+
+		if ((m_oListener != null) && (m_nProductStart >= 0))
+			m_oListener.product(m_nProductStart, pnEndOffset, m_nProductLine, pnEndLine);
+
+		m_nProductStart = -1;
+
+		if (++m_nChunkProducts >= pnProductsPerChunk) {
+
+			m_oChunks.add(new Chunk(m_nChunkStart, pnEndOffset, m_nChunkStartLine, pnEndLine, m_nChunkProducts));
+			m_nChunkStart    = -1;
+			m_nChunkProducts = 0;
+		}
+
+		m_nTailStartOffset = pnEndOffset;
+		m_nTailStartLine   = pnEndLine;
+	}
+
+	/**
+	 * Records the start of a Product record, opening a new chunk if necessary.
+	 */
+	private void startProduct(long pnTagOffset, long pnTagLine) {
+
+		if (m_nHeaderEndOffset < 0) {
+			m_nHeaderEndOffset = pnTagOffset;
+			m_nHeaderEndLine   = pnTagLine;
+		}
+
+		if (m_nChunkStart < 0) {
+			m_nChunkStart     = pnTagOffset;
+			m_nChunkStartLine = pnTagLine;
+		}
+
+		m_nProductStart = pnTagOffset;
+		m_nProductLine  = pnTagLine;
+
+		++m_nProductCount;
+	}
+
+	/**
+	 * Runs the byte-level state machine over the stream, recording the boundaries of each Product record.
+	 * <p>
+	 * Comments and CDATA sections are skipped, so that any Product tags inside them are ignored.
+	 *
+	 * @return boolean Indicates whether or not the file can be split
+	 */
+	private boolean scanStream(InputStream poStream, int pnProductsPerChunk)
+			throws IOException {
+
+		byte[] aBuffer  = new byte[CONST_SCAN_BUFFER_SIZE];
+		byte[] aName    = new byte[CONST_MAX_NAME_LENGTH];
+		int    nNameLen = 0;
+		int    nRead    = 0;
+
+		int nState      = STATE_TEXT;
+		int nMarkupSeen = 0;
+		int nCloseSeen  = 0;
+
+		long nOffset   = 0;
+		long nLine     = 1;
+		long nTagStart = 0;
+		long nTagLine  = 1;
+
+		while ((nRead = poStream.read(aBuffer)) > 0) {
+
+			for (int i = 0; i < nRead; ++i, ++nOffset) {
+
+				int nByte = aBuffer[i] & 0xFF;
+
+				if (nByte == '\n')
+					++nLine;
+
+				// NOTE: A UTF-16 (or other multi-byte) encoding cannot be matched as raw bytes
+				if ((nOffset < 2) && ((nByte == 0x00) || (nByte == 0xFE) || (nByte == 0xFF)))
+					return false;
+
+				switch (nState) {
+
+				case STATE_TEXT:
+					if (nByte == '<') {
+						nState    = STATE_TAG_OPEN;
+						nNameLen  = 0;
+						nTagStart = nOffset;
+						nTagLine  = nLine;
+					}
+					break;
+
+				case STATE_TAG_OPEN:
+					if (nByte == '/')
+						nState = STATE_END_TAG_NAME;
+					else if (nByte == '!') {
+						nState      = STATE_MARKUP_DECL;
+						nMarkupSeen = 0;
+					}
+					else if (isNameByte(nByte)) {
+						nState   = STATE_START_TAG_NAME;
+						aName[0] = (byte) nByte;
+						nNameLen = 1;
+					}
+					else
+						nState = STATE_TEXT;
+					break;
+
+				case STATE_START_TAG_NAME:
+				case STATE_END_TAG_NAME:
+					if (isNameByte(nByte)) {
+
+						if (nNameLen < CONST_MAX_NAME_LENGTH)
+							aName[nNameLen] = (byte) nByte;
+
+						++nNameLen;
+					}
+					else if (!isProductName(aName, nNameLen))
+						nState = STATE_TEXT;
+					else if (nState == STATE_START_TAG_NAME) {
+						startProduct(nTagStart, nTagLine);
+						nState = STATE_TEXT;
+					}
+					else if (nByte == '>') {
+						endProduct(nOffset + 1, nLine, pnProductsPerChunk);
+						nState = STATE_TEXT;
+					}
+					else
+						nState = STATE_AWAIT_END_GT;
+					break;
+
+				case STATE_AWAIT_END_GT:
+					if (nByte == '>') {
+						endProduct(nOffset + 1, nLine, pnProductsPerChunk);
+						nState = STATE_TEXT;
+					}
+					break;
+
+				case STATE_MARKUP_DECL:
+					// NOTE: Distinguishes a comment ("<!--") and a CDATA section ("<![") from a declaration like DOCTYPE
+					if ((nByte == '-') && (nMarkupSeen < 2)) {
+						if (++nMarkupSeen == 2) {
+							nState     = STATE_COMMENT;
+							nCloseSeen = 0;
+						}
+					}
+					else if ((nByte == '[') && (nMarkupSeen == 0)) {
+						nState     = STATE_CDATA;
+						nCloseSeen = 0;
+					}
+					else
+						nState = STATE_TEXT;
+					break;
+
+				case STATE_COMMENT:
+					if ((nByte == '>') && (nCloseSeen >= 2))
+						nState = STATE_TEXT;
+					else
+						nCloseSeen = (nByte == '-') ? (nCloseSeen + 1) : 0;
+					break;
+
+				case STATE_CDATA:
+					if ((nByte == '>') && (nCloseSeen >= 2))
+						nState = STATE_TEXT;
+					else
+						nCloseSeen = (nByte == ']') ? (nCloseSeen + 1) : 0;
+					break;
+				}
+
+				// NOTE: A '<' that ends a tag name (Ex. "<Product<") begins a new tag
+				if ((nState == STATE_TEXT) && (nByte == '<') && (nTagStart != nOffset)) {
+					nState    = STATE_TAG_OPEN;
+					nNameLen  = 0;
+					nTagStart = nOffset;
+					nTagLine  = nLine;
+				}
+			}
+		}
+
+		m_nFileLength = nOffset;
+
+		if (m_nChunkProducts > 0)
+			m_oChunks.add(new Chunk(m_nChunkStart, m_nTailStartOffset, m_nChunkStartLine, m_nTailStartLine, m_nChunkProducts));
+
+		return (m_nProductCount > 0) && (nState == STATE_TEXT) && (m_nTailStartOffset > m_nHeaderEndOffset);
+	}
+}
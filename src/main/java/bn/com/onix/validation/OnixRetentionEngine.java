@@ -0,0 +1,395 @@
+package bn.com.onix.validation;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OnixRetentionEngine --- This class purges the old files of the log, output and failed directories, according to a policy
+ *                         of age and/or total size for each directory.
+ * <p>
+ * Each directory is walked once (via Files.walkFileTree), so that the tree is never listed up front and no file is examined
+ * twice; the files that have outlived their age are deleted during the walk, and then (if the directory is still larger
+ * than its size limit) the oldest of the remaining files are deleted.  The deletes are made in batches
+ * whose rate is limited, so that a purge (Ex. of a backlog of 100k+ files) does not starve the validation of its disk I/O.
+ * In daemon mode, the purge runs on a schedule via a background thread of low priority.
+ * @author    Aaron Kendall
+ */
+public class OnixRetentionEngine {
+
+	private static final long CONST_INITIAL_DELAY_SECONDS = 60;
+
+	private static final long CONST_MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private static final String CONST_TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * RetentionPolicy --- The limits placed upon the contents of a single directory.
+	 */
+	private static class RetentionPolicy {
+
+		final Path    oDirectory;
+		final double  dMaxAgeDays;
+		final long    nMaxSizeBytes;
+		final boolean bPruneEmptyDirs;
+
+		RetentionPolicy(Path poDirectory, double pdMaxAgeDays, long pnMaxSizeBytes, boolean pbPruneEmptyDirs) {
+
+			oDirectory      = poDirectory;
+			dMaxAgeDays     = pdMaxAgeDays;
+			nMaxSizeBytes   = pnMaxSizeBytes;
+			bPruneEmptyDirs = pbPruneEmptyDirs;
+		}
+	}
+
+	/**
+	 * RetainedFile --- A file that survived the age limit, which may still be deleted by the size limit.
+	 */
+	private static class RetainedFile {
+
+		final Path oPath;
+		final long nLastModified;
+		final long nSize;
+
+		RetainedFile(Path poPath, long pnLastModified, long pnSize) {
+
+			oPath         = poPath;
+			nLastModified = pnLastModified;
+			nSize         = pnSize;
+		}
+	}
+
+	private final List<RetentionPolicy> m_oPolicies = new ArrayList<RetentionPolicy>();
+
+	private final int m_nDeletesPerSecond;
+	private final int m_nBatchSize;
+
+	// NOTE: The state of the current batch of deletes (only used by the purging thread)
+	private int  m_nBatchDeletes    = 0;
+	private long m_nBatchStartNanos = 0;
+
+	// NOTE: The scheduler has its own lock, so that it can be stopped while a purge (which holds the lock of the engine) is running
+	private final Object m_oSchedulerLock = new Object();
+
+	private ScheduledExecutorService m_oScheduler = null;
+
+	private final AtomicLong m_nPurgeCount   = new AtomicLong(0);
+	private final AtomicLong m_nFilesDeleted = new AtomicLong(0);
+	private final AtomicLong m_nBytesFreed   = new AtomicLong(0);
+	private final AtomicLong m_nDirsRemoved  = new AtomicLong(0);
+	private final AtomicLong m_nFailures     = new AtomicLong(0);
+	private final AtomicLong m_nPurgeMillis  = new AtomicLong(0);
+
+	/**
+	 * Creates the engine (without any policies).
+	 *
+	 * @param  pnDeletesPerSecond the maximum rate of deletes (where 0 indicates no limit)
+	 * @param  pnBatchSize the number of deletes made between each pause of the rate limit
+	 */
+	public OnixRetentionEngine(int pnDeletesPerSecond, int pnBatchSize) {
+
+		m_nDeletesPerSecond = Math.max(pnDeletesPerSecond, 0);
+		m_nBatchSize        = Math.max(pnBatchSize, 1);
+	}
+
+	/**
+	 * Adds the policy of a directory, which is ignored if it specifies neither an age nor a size limit.
+	 *
+	 * @param  psDirectory the directory whose contents should be purged (which itself is never removed)
+	 * @param  pdMaxAgeDays the age (in days) after which a file is deleted (where 0 indicates no limit)
+	 * @param  pnMaxSizeMB the total size (in megabytes) above which the oldest files are deleted (where 0 indicates no limit)
+	 * @param  pbPruneEmptyDirs indicates whether the subdirectories left empty (and older than the age limit) should be removed
+	 * @return None
+	 */
+	public void addPolicy(String psDirectory, double pdMaxAgeDays, long pnMaxSizeMB, boolean pbPruneEmptyDirs) {
+
+		if ((psDirectory == null) || psDirectory.trim().isEmpty() || ((pdMaxAgeDays <= 0) && (pnMaxSizeMB <= 0)))
+			return;
+
+		m_oPolicies.add(new RetentionPolicy(Paths.get(psDirectory.trim()).toAbsolutePath().normalize(),
+				                            Math.max(pdMaxAgeDays, 0), Math.max(pnMaxSizeMB, 0) * 1024 * 1024, pbPruneEmptyDirs));
+	}
+
+	public String getStatistics() {
+
+		long nPurgeCount = m_nPurgeCount.get();
+
+		return "Retention statistics: Purges(" + nPurgeCount + "), Files Deleted(" + m_nFilesDeleted.get() + "), MB Freed(" +
+		       (m_nBytesFreed.get() / (1024 * 1024)) + "), Directories Removed(" + m_nDirsRemoved.get() + "), Failures(" +
+		       m_nFailures.get() + "), Avg Purge ms(" + ((nPurgeCount > 0) ? (m_nPurgeMillis.get() / nPurgeCount) : 0) + ").";
+	}
+
+	public boolean hasPolicies() {
+		return !m_oPolicies.isEmpty();
+	}
+
+	/**
+	 * Applies every policy once, on the calling thread.
+	 *
+	 * @return None
+	 */
+	public synchronized void purge() {
+
+		long nStartMillis = System.currentTimeMillis();
+		long nStartFiles  = m_nFilesDeleted.get();
+		long nStartBytes  = m_nBytesFreed.get();
+
+		m_nBatchDeletes    = 0;
+		m_nBatchStartNanos = System.nanoTime();
+
+		for (RetentionPolicy oPolicy : m_oPolicies) {
+
+			if (Thread.currentThread().isInterrupted())
+				break;
+
+			try {
+				purge(oPolicy);
+			}
+			catch (IOException e) {
+				OnixValidator.logError("ERROR!  Could not purge the directory(" + oPolicy.oDirectory + ").");
+				OnixValidator.logException(e);
+
+				m_nFailures.incrementAndGet();
+			}
+		}
+
+		long nElapsedMillis = System.currentTimeMillis() - nStartMillis;
+
+		m_nPurgeCount.incrementAndGet();
+		m_nPurgeMillis.addAndGet(nElapsedMillis);
+
+		OnixValidator.logInfo("Purged (" + (m_nFilesDeleted.get() - nStartFiles) + ") files (" +
+		                      ((m_nBytesFreed.get() - nStartBytes) / (1024 * 1024)) + " MB) in (" + nElapsedMillis + ") ms.");
+	}
+
+	/**
+	 * Applies a single policy, deleting the files older than its age limit during the walk and then (if necessary)
+	 * the oldest of the remaining files until the directory is within its size limit.
+	 */
+	private void purge(final RetentionPolicy poPolicy)
+			throws IOException {
+
+		if (!Files.isDirectory(poPolicy.oDirectory))
+			return;
+
+		final long nCutoffMillis =
+			(poPolicy.dMaxAgeDays > 0) ? (System.currentTimeMillis() - Math.round(poPolicy.dMaxAgeDays * CONST_MILLIS_PER_DAY)) : 0;
+
+		final List<RetainedFile> oRetainedFiles = (poPolicy.nMaxSizeBytes > 0) ? new ArrayList<RetainedFile>() : null;
+		final Set<Path>          oStaleDirs     = new HashSet<Path>();
+		final long[]             anTotalSize    = { 0 };
+
+		Files.walkFileTree(poPolicy.oDirectory, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path poDir, BasicFileAttributes poAttrs) {
+
+				// NOTE: The age of a directory is taken before its files are deleted (which would update its modification time)
+				if (poPolicy.bPruneEmptyDirs && (nCutoffMillis > 0) && !poDir.equals(poPolicy.oDirectory) &&
+					(poAttrs.lastModifiedTime().toMillis() < nCutoffMillis))
+					oStaleDirs.add(poDir);
+
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path poFile, BasicFileAttributes poAttrs) {
+
+				if (!poAttrs.isRegularFile())
+					return FileVisitResult.CONTINUE;
+
+				long nLastModified = poAttrs.lastModifiedTime().toMillis();
+
+				if ((nCutoffMillis > 0) && (nLastModified < nCutoffMillis))
+					delete(poFile, poAttrs.size());
+				else {
+					anTotalSize[0] += poAttrs.size();
+
+					if (oRetainedFiles != null)
+						oRetainedFiles.add(new RetainedFile(poFile, nLastModified, poAttrs.size()));
+				}
+
+				return Thread.currentThread().isInterrupted() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path poFile, IOException poException) {
+
+				// NOTE: A file may be moved (Ex. by the validation) while the walk is in progress
+				if (!(poException instanceof NoSuchFileException))
+					m_nFailures.incrementAndGet();
+
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path poDir, IOException poException) {
+
+				if (oStaleDirs.remove(poDir)) {
+
+					try {
+						Files.delete(poDir);
+
+						m_nDirsRemoved.incrementAndGet();
+					}
+					catch (IOException e) {
+						// NOTE: The directory still has files (Ex. ones that are younger than the age limit)
+					}
+				}
+
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		if ((oRetainedFiles == null) || (anTotalSize[0] <= poPolicy.nMaxSizeBytes))
+			return;
+
+		Collections.sort(oRetainedFiles, new Comparator<RetainedFile>() {
+
+			@Override
+			public int compare(RetainedFile poFirst, RetainedFile poSecond) {
+				return Long.compare(poFirst.nLastModified, poSecond.nLastModified);
+			}
+		});
+
+		for (RetainedFile oFile : oRetainedFiles) {
+
+			if ((anTotalSize[0] <= poPolicy.nMaxSizeBytes) || Thread.currentThread().isInterrupted())
+				break;
+
+			// NOTE: A temporary file is still being written (Ex. by the compression of the output)
+			if (oFile.oPath.getFileName().toString().endsWith(CONST_TEMP_SUFFIX))
+				continue;
+
+			if (delete(oFile.oPath, oFile.nSize))
+				anTotalSize[0] -= oFile.nSize;
+		}
+	}
+
+	/**
+	 * Deletes a file, pausing (when the current batch of deletes is complete) for as long as the rate limit requires.
+	 */
+	private boolean delete(Path poFile, long pnSize) {
+
+		boolean bDeleted = false;
+
+		try {
+			bDeleted = Files.deleteIfExists(poFile);
+
+			if (bDeleted) {
+				m_nFilesDeleted.incrementAndGet();
+				m_nBytesFreed.addAndGet(pnSize);
+			}
+		}
+		catch (IOException e) {
+			// NOTE: A file may still be open (Ex. the current log file on Windows), in which case it is left for the next purge
+			m_nFailures.incrementAndGet();
+		}
+
+		if ((m_nDeletesPerSecond > 0) && (++m_nBatchDeletes >= m_nBatchSize)) {
+
+			long nMinBatchNanos = TimeUnit.SECONDS.toNanos(m_nBatchDeletes) / m_nDeletesPerSecond;
+			long nSleepNanos    = nMinBatchNanos - (System.nanoTime() - m_nBatchStartNanos);
+
+			try {
+				if (nSleepNanos > 0)
+					TimeUnit.NANOSECONDS.sleep(nSleepNanos);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			m_nBatchDeletes    = 0;
+			m_nBatchStartNanos = System.nanoTime();
+		}
+
+		return bDeleted;
+	}
+
+	/**
+	 * Starts applying the policies on a schedule, via a background thread of low priority.
+	 *
+	 * @param  pnIntervalMinutes the time between the end of one purge and the start of the next
+	 * @return None
+	 */
+	public void start(long pnIntervalMinutes) {
+
+		synchronized (m_oSchedulerLock) {
+
+			if ((m_oScheduler != null) || m_oPolicies.isEmpty())
+				return;
+
+			m_oScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable poRunnable) {
+
+					Thread oThread = new Thread(poRunnable, "onix-retention");
+
+					oThread.setDaemon(true);
+					oThread.setPriority(Thread.MIN_PRIORITY);
+
+					return oThread;
+				}
+			});
+
+			m_oScheduler.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+
+					try {
+						purge();
+					}
+					catch (RuntimeException e) {
+						// NOTE: An exception would cancel all of the later purges
+						OnixValidator.logException(e);
+					}
+				}
+			}, CONST_INITIAL_DELAY_SECONDS, TimeUnit.MINUTES.toSeconds(Math.max(pnIntervalMinutes, 1)), TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Stops the scheduled purges, interrupting any purge that is in progress.
+	 *
+	 * @return None
+	 */
+	public void stop() {
+
+		ScheduledExecutorService oScheduler = null;
+
+		synchronized (m_oSchedulerLock) {
+			oScheduler   = m_oScheduler;
+			m_oScheduler = null;
+		}
+
+		if (oScheduler != null) {
+
+			oScheduler.shutdownNow();
+
+			try {
+				oScheduler.awaitTermination(30, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,768 @@
+package bn.com.onix.validation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OnixRoutingJournal --- This class moves the validated ONIX files into their destinations so that, even if the program
+ *                        crashes in the middle of a move, each file ends up in exactly one place (and is never half-copied).
+ * <p>
+ * Each move is made via an atomic rename whenever the source and the destination share a filesystem.  Otherwise, the file
+ * is copied under a temporary name, forced to disk and then renamed into place, so that the destination only ever holds
+ * a complete file.  Before a move begins, its intent is appended to a small write-ahead journal, and its completion is
+ * appended afterwards.  When the journal is opened, any move that was begun but never completed is finished.
+ * <p>
+ * The journal (along with the directories that have changed) is forced to disk by a background thread, once per batch of
+ * moves or interval rather than once per move.  A move whose records were lost to a crash was either never made or is
+ * found in its destination by the rename's atomicity, so the fsyncs can be batched without losing any file.  Only the
+ * (rare) copy between filesystems waits for its intent to reach the disk.
+ * <p>
+ * Each intent also records the identity (i.e., the size and the modification time) of its source, so that a recovery never
+ * removes (or routes) a different file that has since arrived under the same name.  The split of a zip archive into its
+ * entries is journaled as a single move, whose completion includes the deletion of the archive.
+ * @author    Aaron Kendall
+ */
+public class OnixRoutingJournal {
+
+	public static final String CONST_TEMP_SUFFIX = ".routing.tmp";
+
+	private static final String CONST_INTENT_FLAG = "R";
+	private static final String CONST_SPLIT_FLAG  = "S";
+	private static final String CONST_COMMIT_FLAG = "C";
+
+	private static final Charset s_oJournalCharset = Charset.forName("UTF-8");
+
+	private final File        m_oJournalFile;
+	private final FileChannel m_oJournalChannel;
+	private final int         m_nSyncBatchSize;
+	private final long        m_nSyncNanos;
+
+	private final AtomicLong m_nNextMoveId   = new AtomicLong(1);
+	private final AtomicLong m_nMoveCount    = new AtomicLong(0);
+	private final AtomicLong m_nCopyCount    = new AtomicLong(0);
+	private final AtomicLong m_nSyncCount    = new AtomicLong(0);
+	private final AtomicLong m_nRecoverCount = new AtomicLong(0);
+
+	private final ReentrantLock m_oLock        = new ReentrantLock();
+	private final Condition     m_oSyncNeeded  = m_oLock.newCondition();
+	private final Set<Path>     m_oChangedDirs = new HashSet<Path>();
+	private final Thread        m_oSyncThread;
+
+	// NOTE: These are guarded by m_oLock
+	private int     m_nOpenMoves     = 0;
+	private int     m_nUnsyncedMoves = 0;
+	private boolean m_bJournalDirty  = false;
+
+	// NOTE: The intents of any moves that are left for the next run to finish, which survive each truncation of the journal
+	private final List<String> m_oStrandedRecords = new ArrayList<String>();
+
+	private final Map<Long, String> m_oOpenSplits = new ConcurrentHashMap<Long, String>();
+
+	private volatile boolean m_bDirSyncFailed = false;
+
+	private volatile boolean m_bClosed = false;
+
+	/**
+	 * Opens (or creates) the journal, finishing any moves that were interrupted by the previous run of the program.
+	 *
+	 * @param  psJournalFilepath the path of the journal file
+	 * @param  pnSyncBatchSize the number of moves after which the journal is forced to disk
+	 * @param  pnSyncMillis the longest time that a completed move can wait before the journal is forced to disk
+	 * @see    IOException
+	 */
+	public OnixRoutingJournal(String psJournalFilepath, int pnSyncBatchSize, long pnSyncMillis)
+			throws IOException {
+
+		m_oJournalFile   = new File(psJournalFilepath).getAbsoluteFile();
+		m_nSyncBatchSize = Math.max(pnSyncBatchSize, 1);
+		m_nSyncNanos     = TimeUnit.MILLISECONDS.toNanos(Math.max(pnSyncMillis, 1));
+
+		if (m_oJournalFile.getParentFile() != null)
+			m_oJournalFile.getParentFile().mkdirs();
+
+		if (m_oJournalFile.exists())
+			recover(m_oStrandedRecords);
+
+		m_oJournalChannel =
+			FileChannel.open(m_oJournalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+		// NOTE: Any move that still could not be finished is kept for the next run
+		writeStrandedRecords();
+
+		m_oJournalChannel.force(true);
+
+		m_oSyncThread = new Thread("onix-routing-journal") {
+
+			@Override
+			public void run() {
+				syncBatches();
+			}
+		};
+
+		m_oSyncThread.setDaemon(true);
+	}
+
+	/**
+	 * Forces any outstanding records to disk and closes the journal, which is left empty if no move is in progress.
+	 *
+	 * @return None
+	 * @see    IOException
+	 */
+	public void close()
+			throws IOException {
+
+		m_oLock.lock();
+		try {
+			if (m_bClosed)
+				return;
+
+			m_bClosed = true;
+
+			m_oSyncNeeded.signalAll();
+		}
+		finally {
+			m_oLock.unlock();
+		}
+
+		try {
+			m_oSyncThread.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		sync();
+
+		m_oJournalChannel.close();
+	}
+
+	/**
+	 * Ends the split of a zip archive (as begun by beginSplit()) once all of its entries have been extracted, by deleting the archive.
+	 * <p>
+	 * If the archive cannot be deleted, the split is left for the next run to finish.
+	 *
+	 * @param  pnSplitId the ID returned by beginSplit()
+	 * @param  poArchiveFile the archive that has been split
+	 * @param  poTargetFiles the destinations of its entries
+	 * @return None
+	 * @see    IOException
+	 */
+	public void endSplit(long pnSplitId, File poArchiveFile, List<File> poTargetFiles)
+			throws IOException {
+
+		Path[] aChangedDirs = new Path[poTargetFiles.size() + 1];
+
+		aChangedDirs[0] = poArchiveFile.getAbsoluteFile().toPath().getParent();
+
+		for (int i = 0; i < poTargetFiles.size(); ++i)
+			aChangedDirs[i + 1] = poTargetFiles.get(i).getAbsoluteFile().toPath().getParent();
+
+		if (!poArchiveFile.delete()) {
+
+			OnixValidator.logError("ERROR!  Could not delete the split ONIX archive(" + poArchiveFile.getAbsolutePath() + ").");
+
+			strandMove(m_oOpenSplits.remove(pnSplitId), aChangedDirs);
+			return;
+		}
+
+		m_oOpenSplits.remove(pnSplitId);
+
+		m_nMoveCount.incrementAndGet();
+
+		appendRecord(CONST_COMMIT_FLAG + "\t" + pnSplitId + "\n", -1, aChangedDirs, true);
+	}
+
+	/**
+	 * Abandons the split of a zip archive (as begun by beginSplit()), whose extracted entries have already been removed by the caller.
+	 *
+	 * @param  pnSplitId the ID returned by beginSplit()
+	 * @return None
+	 * @see    IOException
+	 */
+	public void abandonSplit(long pnSplitId)
+			throws IOException {
+
+		m_oOpenSplits.remove(pnSplitId);
+
+		appendRecord(CONST_COMMIT_FLAG + "\t" + pnSplitId + "\n", -1, null, false);
+	}
+
+	/**
+	 * Begins the split of a zip archive into its entries, whose intent is forced to disk before any entry is extracted.
+	 * <p>
+	 * Each entry should then be extracted via extractIntoPlace(), and the split ended via endSplit() (or abandonSplit()).  If the
+	 * program crashes in the meantime, the next run either deletes the archive (when all of its entries were extracted) or
+	 * removes the extracted entries (so that the archive, still in the Inbox, can be split again).
+	 *
+	 * @param  poArchiveFile the archive to split
+	 * @param  poTargetFiles the destinations of its entries, none of which may exist yet
+	 * @return the ID of the split
+	 * @see    IOException
+	 */
+	public long beginSplit(File poArchiveFile, List<File> poTargetFiles)
+			throws IOException {
+
+		Path oArchive = poArchiveFile.getAbsoluteFile().toPath();
+
+		StringBuilder sbRecord = new StringBuilder(256);
+
+		long nSplitId = m_nNextMoveId.getAndIncrement();
+
+		sbRecord.append(CONST_SPLIT_FLAG).append('\t').append(nSplitId).append('\t').append(oArchive).append('\t').append(getIdentity(oArchive));
+
+		for (File oTargetFile : poTargetFiles) {
+
+			Path oTarget = oTargetFile.getAbsoluteFile().toPath();
+
+			if (Files.exists(oTarget))
+				throw new FileAlreadyExistsException(oTarget.toString());
+
+			sbRecord.append('\t').append(oTarget);
+		}
+
+		String sIntent = sbRecord.append('\n').toString();
+
+		m_oOpenSplits.put(nSplitId, sIntent);
+
+		appendRecord(sIntent, 1, null, false);
+
+		sync();
+
+		return nSplitId;
+	}
+
+	/**
+	 * Returns a summary of the journal's usage (for logging when the program finishes).
+	 *
+	 * @return the summary of the journal
+	 */
+	public String getStatistics() {
+
+		return "Routing Journal : Moves(" + m_nMoveCount.get() + "), Copies(" + m_nCopyCount.get() + "), Syncs(" + m_nSyncCount.get() +
+		       "), Recovered(" + m_nRecoverCount.get() + ")";
+	}
+
+	/**
+	 * Moves a file into its destination exactly once, as described by the class.
+	 * <p>
+	 * As with FileUtils.moveFile(), an existing destination is never replaced.
+	 *
+	 * @param  poSourceFile the file to move
+	 * @param  poTargetFile the destination of the file
+	 * @return None
+	 * @see    IOException
+	 */
+	public void route(File poSourceFile, File poTargetFile)
+			throws IOException {
+
+		Path oSource = poSourceFile.getAbsoluteFile().toPath();
+		Path oTarget = poTargetFile.getAbsoluteFile().toPath();
+
+		if (Files.exists(oTarget))
+			throw new FileAlreadyExistsException(oTarget.toString());
+
+		long nMoveId = m_nNextMoveId.getAndIncrement();
+
+		String sIntent = CONST_INTENT_FLAG + "\t" + nMoveId + "\t" + oSource + "\t" + oTarget + "\t" + getIdentity(oSource) + "\n";
+
+		appendRecord(sIntent, 1, null, false);
+
+		try {
+			try {
+				Files.move(oSource, oTarget, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+
+				// NOTE: A copy between filesystems is rare, so its intent is forced to disk before the copy begins
+				sync();
+
+				copyIntoPlace(oSource, oTarget, true);
+
+				m_nCopyCount.incrementAndGet();
+
+				if (!oSource.toFile().delete()) {
+
+					// NOTE: The move is left for the next run, which will remove the source (if it is still the same file)
+					OnixValidator.logError("ERROR!  Could not delete file(" + oSource + ") after copying it into (" + oTarget + ").");
+
+					strandMove(sIntent, new Path[] { oSource.getParent(), oTarget.getParent() });
+					return;
+				}
+			}
+		}
+		catch (IOException e) {
+			// NOTE: Nothing was moved, so the intent is simply abandoned
+			appendRecord(CONST_COMMIT_FLAG + "\t" + nMoveId + "\n", -1, null, false);
+			throw e;
+		}
+
+		m_nMoveCount.incrementAndGet();
+
+		appendRecord(CONST_COMMIT_FLAG + "\t" + nMoveId + "\n", -1, new Path[] { oSource.getParent(), oTarget.getParent() }, true);
+	}
+
+	/**
+	 * Starts the background thread that forces the journal to disk.  The journal must be closed by its owner (Ex. by the 
+	 * shutdown hook of the OnixValidator, once no more files are being routed).
+	 *
+	 * @return None
+	 */
+	public void start() {
+		m_oSyncThread.start();
+	}
+
+	/**
+	 * Copies a file under a temporary name beside its destination, and then renames it into place, so that the destination
+	 * never holds a partial copy.
+	 *
+	 * @param  poSource the file to copy
+	 * @param  poTarget the destination of the copy
+	 * @param  pbForce Indicates whether or not the copy should be forced to disk before it is renamed
+	 * @return None
+	 * @see    IOException
+	 */
+	static void copyIntoPlace(Path poSource, Path poTarget, boolean pbForce)
+			throws IOException {
+
+		Path oTempPath = poTarget.resolveSibling(poTarget.getFileName() + CONST_TEMP_SUFFIX);
+
+		try {
+			Files.copy(poSource, oTempPath, StandardCopyOption.REPLACE_EXISTING);
+
+			if (pbForce) {
+				try (FileChannel oTempChannel = FileChannel.open(oTempPath, StandardOpenOption.WRITE)) {
+					oTempChannel.force(true);
+				}
+			}
+
+			replaceAtomically(oTempPath, poTarget);
+		}
+		catch (IOException e) {
+			Files.deleteIfExists(oTempPath);
+			throw e;
+		}
+	}
+
+	/**
+	 * Extracts a file (Ex. an entry of a zip archive) into its destination, via a temporary name beside the destination
+	 * that is forced to disk before it is renamed into place.  Unlike copyIntoPlace(), an existing destination is never replaced.
+	 *
+	 * @param  poSource the file to extract
+	 * @param  poTarget the destination of the file
+	 * @return None
+	 * @see    IOException
+	 */
+	static void extractIntoPlace(Path poSource, Path poTarget)
+			throws IOException {
+
+		if (Files.exists(poTarget))
+			throw new FileAlreadyExistsException(poTarget.toString());
+
+		Path oTempPath = poTarget.resolveSibling(poTarget.getFileName() + CONST_TEMP_SUFFIX);
+
+		try {
+			Files.copy(poSource, oTempPath, StandardCopyOption.REPLACE_EXISTING);
+
+			try (FileChannel oTempChannel = FileChannel.open(oTempPath, StandardOpenOption.WRITE)) {
+				oTempChannel.force(true);
+			}
+
+			// NOTE: Without REPLACE_EXISTING, the rename fails if the destination has appeared in the meantime
+			Files.move(oTempPath, poTarget);
+		}
+		catch (IOException e) {
+			Files.deleteIfExists(oTempPath);
+			throw e;
+		}
+	}
+
+	/**
+	 * Provides the identity of a file (i.e., its size and its modification time), which is recorded along with its intent.
+	 */
+	private static String getIdentity(Path poPath)
+			throws IOException {
+
+		BasicFileAttributes oAttributes = Files.readAttributes(poPath, BasicFileAttributes.class);
+
+		return oAttributes.size() + "\t" + oAttributes.lastModifiedTime().toMillis();
+	}
+
+	/**
+	 * Determines whether a file still has the identity recorded along with an intent (where a missing identity, from a journal
+	 * written by an older version, never matches).
+	 */
+	private static boolean hasIdentity(Path poPath, String psSize, String psModifiedMillis) {
+
+		if ((psSize == null) || (psModifiedMillis == null))
+			return false;
+
+		try {
+			return getIdentity(poPath).equals(psSize + "\t" + psModifiedMillis);
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Replaces a file with another one in the same directory (Ex. a rewritten copy of the file), so that the original is
+	 * never lost: a reader sees either the old file or the new one.
+	 *
+	 * @param  poNewPath the file that holds the new content (which will no longer exist afterwards)
+	 * @param  poTarget the file to replace
+	 * @return None
+	 * @see    IOException
+	 */
+	static void replaceAtomically(Path poNewPath, Path poTarget)
+			throws IOException {
+
+		try {
+			Files.move(poNewPath, poTarget, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(poNewPath, poTarget, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Appends a record to the journal, noting which directories will need to be forced to disk.
+	 */
+	private void appendRecord(String psRecord, int pnOpenDelta, Path[] paChangedDirs, boolean pbCompleted)
+			throws IOException {
+
+		ByteBuffer oRecordBuffer = ByteBuffer.wrap(psRecord.getBytes(s_oJournalCharset));
+
+		m_oLock.lock();
+		try {
+			while (oRecordBuffer.hasRemaining())
+				m_oJournalChannel.write(oRecordBuffer);
+
+			m_bJournalDirty = true;
+			m_nOpenMoves   += pnOpenDelta;
+
+			if (paChangedDirs != null) {
+
+				for (Path oChangedDir : paChangedDirs) {
+
+					if (oChangedDir != null)
+						m_oChangedDirs.add(oChangedDir);
+				}
+			}
+
+			if (pbCompleted && (++m_nUnsyncedMoves >= m_nSyncBatchSize))
+				m_oSyncNeeded.signal();
+		}
+		finally {
+			m_oLock.unlock();
+		}
+	}
+
+	/**
+	 * Finishes any moves of the previous run that were begun but never completed, which is done before the journal is truncated.
+	 *
+	 * @param  poUnfinished the list that receives the intents of any moves that still could not be finished
+	 * @return None
+	 * @see    IOException
+	 */
+	private void recover(List<String> poUnfinished)
+			throws IOException {
+
+		Map<String, String> oOpenMoves = new LinkedHashMap<String, String>();
+
+		try (BufferedReader oJournalReader = Files.newBufferedReader(m_oJournalFile.toPath(), s_oJournalCharset)) {
+
+			String sRecord = null;
+
+			while ((sRecord = oJournalReader.readLine()) != null) {
+
+				String[] aFields = sRecord.split("\t");
+
+				// NOTE: A record cut short by the crash is ignored, since its move cannot have started
+				if ((CONST_INTENT_FLAG.equals(aFields[0]) && ((aFields.length == 4) || (aFields.length == 6))) ||
+				    (CONST_SPLIT_FLAG.equals(aFields[0]) && (aFields.length >= 5))) {
+
+					oOpenMoves.put(aFields[1], sRecord);
+
+					// NOTE: The new moves are numbered after the old ones, so that their records cannot be confused
+					try {
+						m_nNextMoveId.set(Math.max(m_nNextMoveId.get(), Long.parseLong(aFields[1]) + 1));
+					}
+					catch (NumberFormatException e) {
+						continue;
+					}
+				}
+				else if (CONST_COMMIT_FLAG.equals(aFields[0]) && (aFields.length == 2))
+					oOpenMoves.remove(aFields[1]);
+			}
+		}
+
+		for (String sRecord : oOpenMoves.values()) {
+
+			String[] aFields = sRecord.split("\t");
+
+			try {
+				if (CONST_SPLIT_FLAG.equals(aFields[0]))
+					recoverSplit(aFields);
+				else
+					recoverMove(aFields);
+			}
+			catch (IOException e) {
+				OnixValidator.logError("ERROR!  Could not finish the interrupted move of file(" + aFields[2] + ").");
+				OnixValidator.logException(e);
+
+				poUnfinished.add(sRecord + "\n");
+			}
+		}
+
+		forceDirectory(m_oJournalFile.getParentFile().toPath());
+	}
+
+	/**
+	 * Finishes an interrupted move of a file, as long as the source is still the file whose identity was recorded.
+	 */
+	private void recoverMove(String[] paFields)
+			throws IOException {
+
+		Path oSource   = new File(paFields[2]).toPath();
+		Path oTarget   = new File(paFields[3]).toPath();
+		Path oTempPath = oTarget.resolveSibling(oTarget.getFileName() + CONST_TEMP_SUFFIX);
+
+		String sSize           = (paFields.length == 6) ? paFields[4] : null;
+		String sModifiedMillis = (paFields.length == 6) ? paFields[5] : null;
+
+		Files.deleteIfExists(oTempPath);
+
+		boolean bSourceExists = Files.exists(oSource);
+		boolean bTargetExists = Files.exists(oTarget);
+
+		// NOTE: A different file under the same name (Ex. the next feed from the same publisher) is left in the Inbox to be validated
+		if (bSourceExists && !hasIdentity(oSource, sSize, sModifiedMillis)) {
+
+			OnixValidator.logInfo("Left file(" + oSource + ") in place, since it is not the file whose move into (" + oTarget + ") was interrupted.");
+			return;
+		}
+
+		if (bSourceExists && bTargetExists) {
+
+			// NOTE: A copy is only renamed into place once it is complete, so the source is all that remains to remove
+			Files.delete(oSource);
+		}
+		else if (bSourceExists) {
+
+			try {
+				Files.move(oSource, oTarget, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+
+				copyIntoPlace(oSource, oTarget, true);
+
+				Files.delete(oSource);
+			}
+		}
+		else if (!bTargetExists) {
+			OnixValidator.logError("ERROR!  The interrupted move of file(" + oSource + ") cannot be finished, since the file no longer exists.");
+			return;
+		}
+
+		// NOTE: The move may have been made before the crash, but the file was never stamped by OnixValidator.routeFile()
+		OnixValidator.stampRoutingTime(oTarget.toFile());
+
+		m_nRecoverCount.incrementAndGet();
+
+		OnixValidator.logInfo("Finished the interrupted move of file(" + oSource + ") into (" + oTarget + ").");
+	}
+
+	/**
+	 * Finishes an interrupted split of a zip archive, either by deleting the archive (when all of its entries were extracted)
+	 * or by removing the extracted entries (so that the archive can be split again by this run).
+	 */
+	private void recoverSplit(String[] paFields)
+			throws IOException {
+
+		Path oArchive = new File(paFields[2]).toPath();
+
+		// NOTE: If the archive is gone (or has been replaced by another one), the split had already been completed
+		if (!Files.exists(oArchive) || !hasIdentity(oArchive, paFields[3], paFields[4]))
+			return;
+
+		boolean bAllExtracted = true;
+
+		for (int i = 5; i < paFields.length; ++i) {
+
+			Path oTarget = new File(paFields[i]).toPath();
+
+			Files.deleteIfExists(oTarget.resolveSibling(oTarget.getFileName() + CONST_TEMP_SUFFIX));
+
+			bAllExtracted &= Files.exists(oTarget);
+		}
+
+		if (bAllExtracted) {
+
+			Files.delete(oArchive);
+
+			OnixValidator.logInfo("Finished the interrupted split of ONIX archive(" + oArchive + ").");
+		}
+		else {
+			for (int i = 5; i < paFields.length; ++i)
+				Files.deleteIfExists(new File(paFields[i]).toPath());
+
+			OnixValidator.logInfo("Undid the interrupted split of ONIX archive(" + oArchive + "), which will be split again.");
+		}
+
+		m_nRecoverCount.incrementAndGet();
+	}
+
+	/**
+	 * Forces the journal and the changed directories to disk, truncating the journal if no move is in progress.
+	 */
+	private void sync()
+			throws IOException {
+
+		Set<Path> oChangedDirs = null;
+
+		m_oLock.lock();
+		try {
+			if (!m_bJournalDirty && m_oChangedDirs.isEmpty())
+				return;
+
+			m_bJournalDirty  = false;
+			m_nUnsyncedMoves = 0;
+
+			oChangedDirs = new HashSet<Path>(m_oChangedDirs);
+			m_oChangedDirs.clear();
+		}
+		finally {
+			m_oLock.unlock();
+		}
+
+		// NOTE: The directories are forced first, so that a completed move is on disk before its records could be discarded
+		for (Path oChangedDir : oChangedDirs)
+			forceDirectory(oChangedDir);
+
+		m_oJournalChannel.force(false);
+
+		m_oLock.lock();
+		try {
+			// NOTE: Since no move is in progress and every completed move is on disk, the journal can be emptied
+			if ((m_nOpenMoves == 0) && !m_bJournalDirty && m_oChangedDirs.isEmpty()) {
+
+				m_oJournalChannel.truncate(0);
+				m_oJournalChannel.position(0);
+
+				if (!m_oStrandedRecords.isEmpty()) {
+
+					writeStrandedRecords();
+
+					m_oJournalChannel.force(false);
+				}
+			}
+		}
+		finally {
+			m_oLock.unlock();
+		}
+
+		m_nSyncCount.incrementAndGet();
+	}
+
+	/**
+	 * Forces the entries of a directory to disk, which is only possible on some platforms (Ex. not on Windows,
+	 * where the rename itself is durable).
+	 */
+	private void forceDirectory(Path poDirectory) {
+
+		if (m_bDirSyncFailed)
+			return;
+
+		try (FileChannel oDirChannel = FileChannel.open(poDirectory, StandardOpenOption.READ)) {
+			oDirChannel.force(true);
+		}
+		catch (IOException e) {
+			m_bDirSyncFailed = true;
+		}
+	}
+
+	/**
+	 * Leaves a move for the next run to finish, so that its intent is kept when the journal is truncated (rather than
+	 * keeping the move open, which would stop the journal from ever being truncated).
+	 */
+	private void strandMove(String psIntent, Path[] paChangedDirs)
+			throws IOException {
+
+		m_oLock.lock();
+		try {
+			m_oStrandedRecords.add(psIntent);
+		}
+		finally {
+			m_oLock.unlock();
+		}
+
+		appendRecord("", -1, paChangedDirs, true);
+	}
+
+	/**
+	 * Writes the intents of the stranded moves at the current position of the journal.
+	 */
+	private void writeStrandedRecords()
+			throws IOException {
+
+		for (String sRecord : m_oStrandedRecords) {
+
+			ByteBuffer oRecordBuffer = ByteBuffer.wrap(sRecord.getBytes(s_oJournalCharset));
+
+			while (oRecordBuffer.hasRemaining())
+				m_oJournalChannel.write(oRecordBuffer);
+		}
+	}
+
+	/**
+	 * The loop of the background thread, which forces the journal to disk once per batch of moves (or interval)
+	 * until the journal is closed.
+	 */
+	private void syncBatches() {
+
+		while (!m_bClosed) {
+
+			m_oLock.lock();
+			try {
+				if (!m_bClosed && (m_nUnsyncedMoves < m_nSyncBatchSize))
+					m_oSyncNeeded.awaitNanos(m_nSyncNanos);
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			finally {
+				m_oLock.unlock();
+			}
+
+			try {
+				sync();
+			}
+			catch (IOException e) {
+				OnixValidator.logError("ERROR!  Could not force the routing journal(" + m_oJournalFile.getAbsolutePath() + ") to disk.");
+				OnixValidator.logException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.XMLConstants;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.xml.sax.SAXException;
+
+/**
+ * OnixSchemaCache --- This class compiles each ONIX XSD (i.e., one per namespace) once per process and then hands out
+ *                     validators for it, with each worker thread reusing its own validator.
+ * <p>
+ * A compiled Schema is immutable and thread-safe, but a Validator is not; so, the validators are pooled per thread.
+ * @author    Aaron Kendall
+ */
+public class OnixSchemaCache {
+
+	public static final String CONST_XERCES_SCHEMA_FACTORY = "org.apache.xerces.jaxp.validation.XMLSchemaFactory";
+
+	private static final OnixSchemaCache s_oInstance = new OnixSchemaCache();
+
+	private final ConcurrentMap<String, File>   m_oSchemaFiles = new ConcurrentHashMap<String, File>();
+	private final ConcurrentMap<String, Schema> m_oSchemas     = new ConcurrentHashMap<String, Schema>();
+
+	private final AtomicLong m_nHitCount  = new AtomicLong(0);
+	private final AtomicLong m_nMissCount = new AtomicLong(0);
+
+	private final ThreadLocal<Map<String, Validator>> m_oThreadValidators = new ThreadLocal<Map<String, Validator>>() {
+
+		@Override
+		protected Map<String, Validator> initialValue() {
+			return new HashMap<String, Validator>();
+		}
+	};
+
+	private OnixSchemaCache() {}
+
+	public static OnixSchemaCache getInstance() {
+		return s_oInstance;
+	}
+
+	public long getHitCount() {
+		return m_nHitCount.get();
+	}
+
+	public long getMissCount() {
+		return m_nMissCount.get();
+	}
+
+	/**
+	 * Returns a summary of the cache's usage, which is intended for logging.
+	 *
+	 * @return the string that describes the number of hits and misses
+	 */
+	public String getStatistics() {
+		return "Schema Cache : Schemas(" + m_oSchemas.size() + "), Hits(" + getHitCount() + "), Misses(" + getMissCount() + ")";
+	}
+
+	/**
+	 * Returns the compiled schema for the specified namespace, compiling it upon the first request.
+	 *
+	 * @param  psNamespace the namespace of the root element in the ONIX file
+	 * @return the compiled schema (or null if no XSD has been registered for the namespace)
+	 * @see    Schema
+	 */
+	public Schema getSchema(String psNamespace)
+			throws SAXException {
+
+		Schema oSchema = m_oSchemas.get(psNamespace);
+
+		if (oSchema != null) {
+			m_nHitCount.incrementAndGet();
+			return oSchema;
+		}
+
+		File oSchemaFile = m_oSchemaFiles.get(psNamespace);
+		if (oSchemaFile == null)
+			return null;
+
+		// NOTE: A SchemaFactory is not thread-safe, and we only want to compile each XSD once
+		synchronized (this) {
+
+			oSchema = m_oSchemas.get(psNamespace);
+
+			if (oSchema == null) {
+
+				m_nMissCount.incrementAndGet();
+
+				SchemaFactory oFactory =
+					SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI, CONST_XERCES_SCHEMA_FACTORY, OnixSchemaCache.class.getClassLoader());
+
+				oSchema = oFactory.newSchema(oSchemaFile);
+
+				m_oSchemas.put(psNamespace, oSchema);
+
+				OnixValidator.logInfo("Compiled the XSD(" + oSchemaFile.getAbsolutePath() + ") for namespace(" + psNamespace + ").");
+			}
+			else
+				m_nHitCount.incrementAndGet();
+		}
+
+		return oSchema;
+	}
+
+	/**
+	 * Returns the validator owned by the calling thread for the specified namespace, after resetting it.
+	 *
+	 * @param  psNamespace the namespace of the root element in the ONIX file
+	 * @return the validator (or null if no XSD has been registered for the namespace)
+	 * @see    Validator
+	 */
+	public Validator getValidator(String psNamespace)
+			throws SAXException {
+
+		Map<String, Validator> oValidators = m_oThreadValidators.get();
+		Validator              oValidator  = oValidators.get(psNamespace);
+
+		if (oValidator == null) {
+
+			Schema oSchema = getSchema(psNamespace);
+			if (oSchema == null)
+				return null;
+
+			oValidator = oSchema.newValidator();
+			oValidators.put(psNamespace, oValidator);
+		}
+		else {
+			m_nHitCount.incrementAndGet();
+			oValidator.reset();
+		}
+
+		return oValidator;
+	}
+
+	/**
+	 * Registers the local XSD file that should be used to validate ONIX files with the specified namespace.
+	 *
+	 * @param  psNamespace the namespace of the root element (Ex. "http://ns.editeur.org/onix/3.0/reference")
+	 * @param  poSchemaFile the local XSD file
+	 * @return None
+	 */
+	public void registerSchema(String psNamespace, File poSchemaFile) {
+
+		m_oSchemaFiles.put(psNamespace, poSchemaFile);
+		m_oSchemas.remove(psNamespace);
+	}
+}
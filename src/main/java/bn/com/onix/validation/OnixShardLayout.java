@@ -0,0 +1,134 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * OnixShardLayout --- This class spreads the routed files (and their error reports) across subdirectories of the output
+ *                     and failed directories, so that no single directory grows past the point where its scans and renames
+ *                     slow down (i.e., roughly 100k entries on most file systems).
+ * <p>
+ * In the HASH mode, a file is placed into one of a fixed number of subdirectories (Ex. "3f") chosen by the hash of its name,
+ * so the subdirectory of a file can always be computed again from its name alone.  In the DATE mode, a file is placed into
+ * a subdirectory named after the day on which it was routed (i.e., "yyyy/MM/dd"), which also suits a purge by age.  The
+ * subdirectories are created when they are first needed.
+ * @author    Aaron Kendall
+ */
+public class OnixShardLayout {
+
+	public static final String CONST_MODE_NONE = "NONE";
+	public static final String CONST_MODE_HASH = "HASH";
+	public static final String CONST_MODE_DATE = "DATE";
+
+	private static final int CONST_MAX_HASH_SHARDS = 4096;
+
+	private static final DateTimeFormatter CONST_DATE_SHARD_FORMAT = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+
+	private final String m_sMode;
+	private final int    m_nHashShards;
+	private final int    m_nHashDigits;
+
+	// NOTE: The directories known to exist, so that each one is only created (and checked) once
+	private final Set<String> m_oCreatedDirs = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Creates the layout.
+	 *
+	 * @param  psMode the sharding of the directories (i.e., CONST_MODE_NONE, CONST_MODE_HASH or CONST_MODE_DATE)
+	 * @param  pnHashShards the number of subdirectories in the HASH mode (between 2 and 4096)
+	 */
+	public OnixShardLayout(String psMode, int pnHashShards) {
+
+		if (CONST_MODE_HASH.equalsIgnoreCase(psMode))
+			m_sMode = CONST_MODE_HASH;
+		else if (CONST_MODE_DATE.equalsIgnoreCase(psMode))
+			m_sMode = CONST_MODE_DATE;
+		else
+			m_sMode = CONST_MODE_NONE;
+
+		m_nHashShards = Math.max(Math.min(pnHashShards, CONST_MAX_HASH_SHARDS), 2);
+		m_nHashDigits = Integer.toHexString(m_nHashShards - 1).length();
+	}
+
+	public String getMode() {
+		return m_sMode;
+	}
+
+	/**
+	 * Provides the name of the subdirectory (relative to the base directory) into which a file should be placed.
+	 *
+	 * @param  psFileName the name of the file (or report) being routed
+	 * @return String the relative name of the subdirectory (or an empty string if the directories are not sharded)
+	 */
+	public String getShardName(String psFileName) {
+
+		if (CONST_MODE_HASH.equals(m_sMode)) {
+
+			int nHash = psFileName.hashCode();
+
+			// NOTE: The bits are mixed, since the names of a feed (Ex. "Feed_0001.xml") often only differ in their last characters
+			nHash ^= (nHash >>> 16);
+			nHash *= 0x45d9f3b;
+			nHash ^= (nHash >>> 16);
+
+			String sShard = Integer.toHexString(Math.floorMod(nHash, m_nHashShards));
+
+			while (sShard.length() < m_nHashDigits)
+				sShard = "0" + sShard;
+
+			return sShard;
+		}
+		else if (CONST_MODE_DATE.equals(m_sMode))
+			return LocalDate.now().format(CONST_DATE_SHARD_FORMAT);
+		else
+			return "";
+	}
+
+	/**
+	 * Provides (and creates, if necessary) the directory into which a file should be placed.
+	 *
+	 * @param  psBaseDir the output or failed directory
+	 * @param  psFileName the name of the file (or report) being routed
+	 * @return File the directory that should hold the file
+	 * @see    IOException
+	 */
+	public File getTargetDir(String psBaseDir, String psFileName)
+			throws IOException {
+
+		String sShard = getShardName(psFileName);
+
+		if (sShard.isEmpty())
+			return new File(psBaseDir);
+
+		File oTargetDir = new File(psBaseDir, sShard);
+
+		if (!m_oCreatedDirs.contains(oTargetDir.getPath())) {
+
+			// NOTE: Another thread (or process) may create the same directory at the same time, which is fine
+			if (!oTargetDir.mkdirs() && !oTargetDir.isDirectory())
+				throw new IOException("Could not create the shard directory(" + oTargetDir.getAbsolutePath() + ").");
+
+			m_oCreatedDirs.add(oTargetDir.getPath());
+		}
+
+		return oTargetDir;
+	}
+
+	/**
+	 * Provides the path to which a file should be routed.
+	 *
+	 * @param  psBaseDir the output or failed directory
+	 * @param  psFileName the name of the file being routed
+	 * @return File the target of the file
+	 * @see    IOException
+	 */
+	public File getTargetFile(String psBaseDir, String psFileName)
+			throws IOException {
+
+		return new File(getTargetDir(psBaseDir, psFileName), psFileName);
+	}
+}
@@ -0,0 +1,17 @@
+package bn.com.onix.validation;
+
+import org.xml.sax.SAXException;
+
+/**
+ * OnixValidationAbortException --- This exception stops the parse of an ONIX file that has exhausted its error budget
+ *                                  (i.e., too many errors or too much time), since the file is already known to be invalid.
+ * @author    Aaron Kendall
+ */
+public class OnixValidationAbortException extends SAXException {
+
+	private static final long serialVersionUID = 1L;
+
+	public OnixValidationAbortException(String psReason) {
+		super(psReason);
+	}
+}
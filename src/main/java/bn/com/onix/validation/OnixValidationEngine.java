@@ -0,0 +1,121 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * OnixValidationEngine --- This class validates ONIX files in parallel, using a pool of worker threads
+ *                          that each validate and then route one file at a time.
+ * @author    Aaron Kendall
+ */
+public class OnixValidationEngine {
+
+	private final ExecutorService m_oWorkerPool;
+	private final int             m_nNumOfThreads;
+
+	private final AtomicInteger m_nValidCount   = new AtomicInteger(0);
+	private final AtomicInteger m_nInvalidCount = new AtomicInteger(0);
+
+	/**
+	 * Creates the engine along with its pool of worker threads.
+	 *
+	 * @param  pnNumOfThreads the number of worker threads (a value less than 1 indicates one thread per available processor)
+	 */
+	public OnixValidationEngine(int pnNumOfThreads) {
+
+		m_nNumOfThreads = (pnNumOfThreads > 0) ? pnNumOfThreads : Runtime.getRuntime().availableProcessors();
+
+		m_oWorkerPool = Executors.newFixedThreadPool(m_nNumOfThreads, new ThreadFactory() {
+
+			private final AtomicInteger nThreadCount = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable poRunnable) {
+				return new Thread(poRunnable, "onix-validator-" + nThreadCount.incrementAndGet());
+			}
+		});
+	}
+
+	/**
+	 * Blocks until every submitted ONIX file has been validated and routed, after which the engine
+	 * will no longer accept any files.
+	 *
+	 * @return None
+	 */
+	public void awaitCompletion() {
+		OnixValidatorCommonCalls.waitOnThreads(new ExecutorService[] { m_oWorkerPool });
+	}
+
+	public int getInvalidCount() {
+		return m_nInvalidCount.get();
+	}
+
+	public int getNumOfThreads() {
+		return m_nNumOfThreads;
+	}
+
+	public int getValidCount() {
+		return m_nValidCount.get();
+	}
+
+	/**
+	 * Queues an ONIX file so that one of the worker threads will validate it and then move it
+	 * into either the output directory or the failed directory.
+	 *
+	 * @param  poOnixFile the ONIX file to validate
+	 * @param  psOutputDir the directory to which the file will be moved if valid
+	 * @param  psFailedDir the directory to which the file will be moved if invalid
+	 * @return None
+	 */
+	public void submit(File poOnixFile, String psOutputDir, String psFailedDir) {
+		submit(poOnixFile, psOutputDir, psFailedDir, null);
+	}
+
+	/**
+	 * Queues an ONIX file so that one of the worker threads will validate it and then move it
+	 * into either the output directory or the failed directory.
+	 *
+	 * @param  poOnixFile the ONIX file to validate
+	 * @param  psOutputDir the directory to which the file will be moved if valid
+	 * @param  psFailedDir the directory to which the file will be moved if invalid
+	 * @param  poOnComplete the callback to run (on the worker thread) once the file has been routed, which can be null
+	 * @return None
+	 */
+	public void submit(final File poOnixFile, final String psOutputDir, final String psFailedDir, final Runnable poOnComplete) {
+
+		// NOTE: The depth of the queue (and the number of busy workers) is published via the OnixMetrics
+		OnixMetrics.getInstance().adjustQueueDepth(1);
+
+		m_oWorkerPool.execute(new Runnable() {
+
+			@Override
+			public void run() {
+
+				OnixMetrics.getInstance().adjustQueueDepth(-1);
+				OnixMetrics.getInstance().adjustActiveWorkers(1);
+
+				try {
+					if (OnixValidator.validateAndRouteFile(poOnixFile, psOutputDir, psFailedDir))
+						m_nValidCount.incrementAndGet();
+					else
+						m_nInvalidCount.incrementAndGet();
+				}
+				catch (Exception e) {
+					OnixValidator.logError("ERROR!  Could not validate and route ONIX file(" + poOnixFile.getAbsolutePath() + ").");
+					OnixValidator.logException(e);
+
+					m_nInvalidCount.incrementAndGet();
+				}
+				finally {
+					OnixMetrics.getInstance().adjustActiveWorkers(-1);
+
+					if (poOnComplete != null)
+						poOnComplete.run();
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,492 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * OnixValidationPipeline --- This class validates the files of the Inbox as a staged pipeline, so that the disk and the CPUs
+ *                            are kept busy at the same time (rather than in separate passes over the Inbox).
+ * <p>
+ * The stages are as follows, each joined to the next by a bounded queue:
+ *
+ * 1.) Discover : Lists the Inbox, one entry at a time, and hands each file to the OnixAdmissionScheduler, which admits it into
+ *                the read stage in the order of shortest-job-first (and only once its estimated heap usage fits the budget).
+ * 2.) Read     : Rewrites the DOCTYPE tag (in REWRITE mode) and reads the file ahead of the parser, so that it is already
+ *                in the OS cache by the time that a validator reaches it.
+ * 3.) Validate : Parses the file, on one platform thread per core (or as configured).
+ * 4.) Route    : Moves the file into either the output directory or the failed directory.
+ * 5.) Archive  : Compresses the valid files (when 'compressOutput' is Y).
+ * <p>
+ * Since the I/O stages spend nearly all of their time waiting on the disk, they run on virtual threads.  When a stage falls
+ * behind, its queue fills up and the stages before it simply wait, so the number of files in flight never exceeds the
+ * capacity of the queues.  The reservation of memory for an admitted file is released as soon as it has been validated.
+ * @author    Aaron Kendall
+ */
+public class OnixValidationPipeline {
+
+	public static final int CONST_PREFETCH_BUFFER_SIZE = 64 * 1024;
+	public static final int CONST_ARCHIVE_WORKERS      = 2;
+
+	private static final PipelineItem CONST_END_OF_STREAM = new PipelineItem(null);
+
+	private final String           m_sInboxDir;
+	private final String           m_sOutputDir;
+	private final String           m_sFailedDir;
+	private final int              m_nNumOfThreads;
+	private final int              m_nIoThreads;
+	private final int              m_nQueueSize;
+	private final long             m_nPrefetchLimitBytes;
+	private final OnixParallelGzip m_oOutputCompressor;
+	private final long             m_nMemoryBudgetMB;
+	private final int              m_nHeapPercent;
+	private final long             m_nAgingMillisPerMB;
+
+	private OnixAdmissionScheduler m_oScheduler = null;
+
+	private final AtomicInteger m_nValidCount   = new AtomicInteger(0);
+	private final AtomicInteger m_nInvalidCount = new AtomicInteger(0);
+
+	private final List<Thread> m_oStageThreads = new ArrayList<Thread>();
+
+	/**
+	 * A file that is moving through the pipeline, along with its verdict once it has been validated.
+	 */
+	private static class PipelineItem {
+
+		final File oOnixFile;
+
+		boolean  bValid     = false;
+		boolean  bRouted    = false;
+		File     oTarget    = null;
+		Runnable oOnRelease = null;
+
+		PipelineItem(File poOnixFile) {
+			oOnixFile = poOnixFile;
+		}
+
+		/**
+		 * Releases the admission of the file (i.e., its reservation of memory), which happens only once per item.
+		 */
+		synchronized void release() {
+
+			if (oOnRelease != null) {
+
+				Runnable oRelease = oOnRelease;
+
+				oOnRelease = null;
+
+				oRelease.run();
+			}
+		}
+	}
+
+	/**
+	 * A stage of the pipeline, whose workers take items from its queue until each of them has received the end of the stream.
+	 * The last worker to finish then passes the end of the stream onto the next stage.
+	 */
+	private abstract class Stage {
+
+		final String                      m_sStageName;
+		final BlockingQueue<PipelineItem> m_oInputQueue;
+		final int                         m_nWorkers;
+		final AtomicInteger               m_nRunningWorkers;
+
+		Stage m_oNextStage = null;
+
+		Stage(String psStageName, int pnWorkers) {
+
+			m_sStageName      = psStageName;
+			m_oInputQueue     = new ArrayBlockingQueue<PipelineItem>(m_nQueueSize);
+			m_nWorkers        = Math.max(pnWorkers, 1);
+			m_nRunningWorkers = new AtomicInteger(m_nWorkers);
+		}
+
+		/**
+		 * Handles a single item, passing it on to the next stage (via emit()) when appropriate.
+		 */
+		abstract void process(PipelineItem poItem)
+				throws Exception;
+
+		void emit(PipelineItem poItem)
+				throws InterruptedException {
+
+			if (m_oNextStage != null)
+				m_oNextStage.m_oInputQueue.put(poItem);
+		}
+
+		void finish()
+				throws InterruptedException {
+
+			for (int i = 0; i < m_nWorkers; ++i)
+				m_oInputQueue.put(CONST_END_OF_STREAM);
+		}
+
+		void start(ThreadFactory poThreadFactory) {
+
+			for (int i = 0; i < m_nWorkers; ++i) {
+
+				Thread oWorker = poThreadFactory.newThread(new Runnable() {
+
+					@Override
+					public void run() {
+						runWorker();
+					}
+				});
+
+				m_oStageThreads.add(oWorker);
+
+				oWorker.start();
+			}
+		}
+
+		private void runWorker() {
+
+			boolean bEndOfStream = false;
+
+			try {
+				while (true) {
+
+					PipelineItem oItem = m_oInputQueue.take();
+
+					if (oItem == CONST_END_OF_STREAM) {
+						bEndOfStream = true;
+						break;
+					}
+
+					try {
+						process(oItem);
+					}
+					catch (InterruptedException e) {
+						throw e;
+					}
+					catch (Exception e) {
+						OnixValidator.logError("ERROR!  The (" + m_sStageName + ") stage could not handle ONIX file(" +
+						                       oItem.oOnixFile.getAbsolutePath() + ").");
+						OnixValidator.logException(e);
+
+						// NOTE: The file goes no further, so its admission is released (and the scheduler can admit the next file)
+						oItem.release();
+					}
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				// NOTE: Even when a worker dies of an Error (Ex. OutOfMemoryError), the next stage must still receive the end of
+				//       the stream, or else run() would wait forever to join its workers
+				if (m_nRunningWorkers.decrementAndGet() == 0)
+					endStage(bEndOfStream);
+			}
+		}
+
+		/**
+		 * Ends the stage once its last worker has stopped, passing the end of the stream onto the next stage.
+		 * <p>
+		 * If that worker died before the end of the stream, the rest of the queue is discarded (leaving those files in the Inbox
+		 * for the next run), so that the stage before this one is not blocked forever on a full queue.
+		 */
+		private void endStage(boolean pbEndOfStream) {
+
+			try {
+				if (!pbEndOfStream && !Thread.currentThread().isInterrupted()) {
+
+					OnixValidator.logError("ERROR!  The (" + m_sStageName + ") stage has lost all of its workers, so its remaining files are skipped.");
+
+					PipelineItem oItem = null;
+
+					while ((oItem = m_oInputQueue.take()) != CONST_END_OF_STREAM)
+						oItem.release();
+				}
+
+				if (m_oNextStage != null)
+					m_oNextStage.finish();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Creates the pipeline for a single pass over the Inbox.
+	 *
+	 * @param  psInboxDir the directory that holds our ONIX files to validate
+	 * @param  psOutputDir the directory to which all valid ONIX files will be moved
+	 * @param  psFailedDir the directory to which all invalid ONIX files will be moved
+	 * @param  pnNumOfThreads the number of validating threads (a value less than 1 indicates one thread per available processor)
+	 * @param  pnIoThreads the number of (virtual) threads in each of the read and route stages
+	 * @param  pnQueueSize the capacity of the queue in front of each stage
+	 * @param  pnPrefetchLimitMB the size above which a file is not read ahead (since it would only push the files before it out of the OS cache)
+	 * @param  poOutputCompressor the compressor for the valid files (or null if they should not be compressed)
+	 * @param  pnMemoryBudgetMB the heap (in MB) that the admitted files may use in total (as described by the OnixAdmissionScheduler)
+	 * @param  pnHeapPercent the estimated heap usage of a file, as a percentage of its uncompressed size
+	 * @param  pnAgingMillisPerMB the delay (in ms) by which each MB of a file postpones its turn (where 0 indicates FIFO order)
+	 */
+	public OnixValidationPipeline(String psInboxDir, String psOutputDir, String psFailedDir, int pnNumOfThreads, int pnIoThreads,
+			                      int pnQueueSize, int pnPrefetchLimitMB, OnixParallelGzip poOutputCompressor, long pnMemoryBudgetMB, 
+			                      int pnHeapPercent, long pnAgingMillisPerMB) {
+
+		m_sInboxDir           = psInboxDir;
+		m_sOutputDir          = psOutputDir;
+		m_sFailedDir          = psFailedDir;
+		m_nNumOfThreads       = (pnNumOfThreads > 0) ? pnNumOfThreads : Runtime.getRuntime().availableProcessors();
+		m_nIoThreads          = Math.max(pnIoThreads, 1);
+		m_nQueueSize          = Math.max(pnQueueSize, 1);
+		m_nPrefetchLimitBytes = Math.max(pnPrefetchLimitMB, 0) * 1024L * 1024L;
+		m_oOutputCompressor   = poOutputCompressor;
+		m_nMemoryBudgetMB     = pnMemoryBudgetMB;
+		m_nHeapPercent        = pnHeapPercent;
+		m_nAgingMillisPerMB   = pnAgingMillisPerMB;
+	}
+
+	public int getInvalidCount() {
+		return m_nInvalidCount.get();
+	}
+
+	public int getNumOfThreads() {
+		return m_nNumOfThreads;
+	}
+
+	/**
+	 * Returns the statistics of the admission scheduler for the last run of the pipeline.
+	 *
+	 * @return the statistics of the scheduler (or an empty string if the pipeline has not run)
+	 */
+	public String getAdmissionStatistics() {
+		return (m_oScheduler != null) ? m_oScheduler.getStatistics() : "";
+	}
+
+	public int getValidCount() {
+		return m_nValidCount.get();
+	}
+
+	/**
+	 * Runs the pipeline over the current contents of the Inbox, blocking until every file has been validated, routed and
+	 * (if configured) compressed.
+	 *
+	 * @return None
+	 * @see    IOException
+	 */
+	public void run()
+			throws IOException {
+
+		Stage oReadStage = new Stage("read", m_nIoThreads) {
+
+			@Override
+			void process(PipelineItem poItem)
+					throws Exception {
+
+				try {
+					OnixValidator.prepareOnixFile(poItem.oOnixFile);
+
+					prefetch(poItem.oOnixFile);
+				}
+				catch (IOException e) {
+					// NOTE: The file is still validated, which will record the problem (if it persists) against the file
+					OnixValidator.logError("ERROR!  Could not read ONIX file(" + poItem.oOnixFile.getAbsolutePath() + ") ahead of its validation.");
+					OnixValidator.logException(e);
+				}
+
+				// NOTE: The depth of the queue (and the number of busy workers) is published via the OnixMetrics
+				OnixMetrics.getInstance().adjustQueueDepth(1);
+
+				emit(poItem);
+			}
+		};
+
+		Stage oValidateStage = new Stage("validate", m_nNumOfThreads) {
+
+			@Override
+			void process(PipelineItem poItem)
+					throws Exception {
+
+				OnixMetrics.getInstance().adjustQueueDepth(-1);
+				OnixMetrics.getInstance().adjustActiveWorkers(1);
+
+				try {
+					validate(poItem);
+				}
+				catch (Exception e) {
+					// NOTE: As with the OnixValidationEngine, a file that could not be validated at all is left in the Inbox
+					OnixValidator.logError("ERROR!  Could not validate and route ONIX file(" + poItem.oOnixFile.getAbsolutePath() + ").");
+					OnixValidator.logException(e);
+
+					m_nInvalidCount.incrementAndGet();
+					return;
+				}
+				finally {
+					OnixMetrics.getInstance().adjustActiveWorkers(-1);
+
+					// NOTE: The parse is over, so the memory reserved for the file can be given to the next one
+					poItem.release();
+				}
+
+				if (poItem.bValid)
+					m_nValidCount.incrementAndGet();
+				else
+					m_nInvalidCount.incrementAndGet();
+
+				if (!poItem.bRouted)
+					emit(poItem);
+			}
+		};
+
+		Stage oRouteStage = new Stage("route", m_nIoThreads) {
+
+			@Override
+			void process(PipelineItem poItem)
+					throws Exception {
+
+				poItem.oTarget = OnixValidator.getRoutingFile(poItem.bValid ? m_sOutputDir : m_sFailedDir, poItem.oOnixFile.getName());
+
+				OnixValidator.routeFile(poItem.oOnixFile, poItem.oTarget);
+
+				if (poItem.bValid && (m_oOutputCompressor != null))
+					emit(poItem);
+			}
+		};
+
+		Stage oArchiveStage = new Stage("archive", CONST_ARCHIVE_WORKERS) {
+
+			@Override
+			void process(PipelineItem poItem)
+					throws Exception {
+
+				String sName = poItem.oTarget.getName().toLowerCase();
+
+				// NOTE: Files that are already compressed are left as they are
+				if (!sName.endsWith(OnixParallelGzip.CONST_GZIP_SUFFIX) && !sName.endsWith(OnixArchiveValidator.CONST_ZIP_SUFFIX))
+					m_oOutputCompressor.compressAndReplace(poItem.oTarget);
+			}
+		};
+
+		oReadStage.m_oNextStage     = oValidateStage;
+		oValidateStage.m_oNextStage = oRouteStage;
+		oRouteStage.m_oNextStage    = oArchiveStage;
+
+		final BlockingQueue<PipelineItem> oReadQueue = oReadStage.m_oInputQueue;
+
+		// NOTE: Each validating thread may have one file being validated and one being read ahead, and since no more files
+		//       than that are admitted at once, the queue of the read stage always has room for an admitted file
+		int nMaxInFlight = Math.min(2 * m_nNumOfThreads, m_nQueueSize);
+
+		m_oScheduler = new OnixAdmissionScheduler(new OnixAdmissionScheduler.AdmissionTarget() {
+
+			@Override
+			public void admit(File poOnixFile, String psOutputDir, String psFailedDir, Runnable poOnRelease) {
+
+				PipelineItem oItem = new PipelineItem(poOnixFile);
+				oItem.oOnRelease = poOnRelease;
+
+				if (!oReadQueue.offer(oItem)) {
+
+					OnixValidator.logError("ERROR!  Could not admit ONIX file(" + poOnixFile.getAbsolutePath() + ") into the read stage, so it is left in the Inbox.");
+
+					oItem.release();
+				}
+			}
+		}, nMaxInFlight, m_nQueueSize, m_nMemoryBudgetMB, m_nHeapPercent, m_nAgingMillisPerMB);
+
+		long nStartMillis = System.currentTimeMillis();
+
+		oReadStage.start(Thread.ofVirtual().name("onix-read-", 1).factory());
+		oValidateStage.start(Thread.ofPlatform().name("onix-validator-", 1).factory());
+		oRouteStage.start(Thread.ofVirtual().name("onix-route-", 1).factory());
+		oArchiveStage.start(Thread.ofVirtual().name("onix-archive-", 1).factory());
+
+		try {
+			discover();
+		}
+		finally {
+			// NOTE: Even if the listing fails, the files already discovered are seen through the rest of the pipeline
+			try {
+				m_oScheduler.awaitIdle();
+
+				oReadStage.finish();
+
+				for (Thread oStageThread : m_oStageThreads)
+					oStageThread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		long nElapsedMillis = Math.max(System.currentTimeMillis() - nStartMillis, 1);
+		int  nTotalFiles    = m_nValidCount.get() + m_nInvalidCount.get();
+
+		OnixValidator.logInfo("Validated (" + nTotalFiles + ") ONIX files via the pipeline with (" + m_nNumOfThreads + ") validating threads in (" +
+		                      nElapsedMillis + ") ms : Valid(" + m_nValidCount.get() + "), Invalid(" + m_nInvalidCount.get() + "), Files/sec(" +
+		                      ((nTotalFiles * 1000L) / nElapsedMillis) + ").");
+	}
+
+	/**
+	 * The discover stage, which hands each file of the Inbox to the scheduler as soon as it has been listed (blocking while
+	 * the scheduler's queue is full).
+	 */
+	private void discover()
+			throws IOException {
+
+		try (DirectoryStream<Path> oInboxStream = OnixValidatorCommonCalls.openFileStream(m_sInboxDir)) {
+
+			for (Path oInboxPath : oInboxStream)
+				m_oScheduler.submit(oInboxPath.toFile(), m_sOutputDir, m_sFailedDir);
+		}
+	}
+
+	/**
+	 * Reads a file ahead of its validation (discarding its content), so that the parser finds it in the OS cache.
+	 * <p>
+	 * A memory mapping would avoid the copy, but a mapped file remains locked on Windows (and so could not be moved)
+	 * until the mapping is garbage collected.
+	 */
+	private void prefetch(File poOnixFile)
+			throws IOException {
+
+		if (poOnixFile.length() > m_nPrefetchLimitBytes)
+			return;
+
+		byte[] aBuffer = new byte[CONST_PREFETCH_BUFFER_SIZE];
+
+		try (InputStream oFileStream = Files.newInputStream(poOnixFile.toPath())) {
+			while (oFileStream.read(aBuffer) > 0);
+		}
+	}
+
+	/**
+	 * The work of the validate stage, which mirrors OnixValidator.validateAndRouteFile() except that the move is left to the
+	 * route stage.  A zip archive is still validated and routed here, since its entries may be routed individually.
+	 */
+	private void validate(PipelineItem poItem)
+			throws Exception {
+
+		if (OnixArchiveValidator.isZipArchive(poItem.oOnixFile)) {
+
+			poItem.bValid  = OnixValidator.validateAndRouteFile(poItem.oOnixFile, m_sOutputDir, m_sFailedDir);
+			poItem.bRouted = true;
+
+			return;
+		}
+
+		try {
+			poItem.bValid = OnixValidator.validateContent(OnixArchiveValidator.forFile(poItem.oOnixFile), m_sFailedDir);
+		}
+		catch (IOException e) {
+			OnixValidator.logError("ERROR!  Could not correctly parse ONIX file(" + poItem.oOnixFile.getAbsolutePath() + ").");
+			OnixValidator.logException(e);
+
+			poItem.bValid = false;
+		}
+	}
+}
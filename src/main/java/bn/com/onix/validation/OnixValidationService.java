@@ -0,0 +1,460 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * OnixValidationService --- This class validates ONIX payloads that are POSTed to it (at "/validate"), so that other
+ *                           systems can check a feed before they drop it into the Inbox.
+ * <p>
+ * The body of each request is streamed straight into the parser (and never held in memory or written to disk), and the
+ * verdict is returned as a JSON object whose errors have the same form as the lines of an OnixErrorReport.  Since the
+ * requests are handled by a fixed set of threads, each one reuses its own warm parser along with the grammar/schema caches.
+ * <p>
+ * At most a fixed number of payloads are validated at the same time.  Once that limit is reached, any further request
+ * waits for (at most) the admission timeout and is then turned away with a 503, so that a burst of uploads cannot
+ * exhaust the heap of the validator.  The requests waiting for a thread are held in a bounded queue, and a request
+ * that finds the queue full is turned away with a 503 at once (rather than waiting unseen within the HttpServer).
+ * <p>
+ * Since the payloads are untrusted, they are parsed without any external general or parameter entities, and the only
+ * external entities that can be loaded are the DTDs/XSDs (and their modules) within the local directory.
+ * @author    Aaron Kendall
+ */
+public class OnixValidationService {
+
+	public static final String CONST_VALIDATE_PATH = "/validate";
+	public static final String CONST_HEALTH_PATH   = "/health";
+	public static final String CONST_CONTENT_TYPE  = "application/json; charset=utf-8";
+
+	public static final int CONST_MAX_REPORTED_ERRORS = 1000;
+
+	private static final Charset s_oResponseCharset = Charset.forName("UTF-8");
+
+	private final HttpServer         m_oHttpServer;
+	private final ThreadPoolExecutor m_oRequestThreads;
+	private final Semaphore          m_oValidationPermits;
+	private final int                m_nMaxConcurrent;
+	private final long               m_nAdmitTimeoutMillis;
+	private final String             m_sLocalDtdRoot;
+	private final OnixEntityResolver m_oEntityResolver;
+	private final long               m_nMaxErrors;
+	private final int                m_nMaxSeconds;
+
+	private final AtomicLong m_nAcceptedCount = new AtomicLong(0);
+	private final AtomicLong m_nRejectedCount = new AtomicLong(0);
+
+	private final CountDownLatch m_oStoppedLatch = new CountDownLatch(1);
+
+	// NOTE: Set upon the thread that handles a request which overflowed the queue, so that the request is only turned away
+	private static final ThreadLocal<Boolean> s_oOverflowFlag = new ThreadLocal<Boolean>();
+
+	/**
+	 * Holds the errors of a single request in memory (up to CONST_MAX_REPORTED_ERRORS), so that they can be
+	 * returned in the response.
+	 */
+	private static class ResponseErrors extends OnixErrorReport {
+
+		private final List<String> m_oErrorLines = new ArrayList<String>();
+
+		private boolean m_bTruncated = false;
+
+		ResponseErrors(String psOnixFilepath) {
+			super(psOnixFilepath);
+		}
+
+		@Override
+		protected synchronized boolean writeLine(String psLine) {
+
+			if (m_oErrorLines.size() >= CONST_MAX_REPORTED_ERRORS) {
+				m_bTruncated = true;
+				return true;
+			}
+
+			// NOTE: Each line is already a JSON object, so only its newline needs to be removed
+			m_oErrorLines.add(psLine.trim());
+
+			return true;
+		}
+
+		synchronized void appendErrors(StringBuilder psbJson) {
+
+			psbJson.append('[');
+
+			for (int i = 0; i < m_oErrorLines.size(); ++i) {
+
+				if (i > 0)
+					psbJson.append(',');
+
+				psbJson.append(m_oErrorLines.get(i));
+			}
+
+			psbJson.append(']');
+		}
+
+		synchronized boolean isTruncated() {
+			return m_bTruncated;
+		}
+	}
+
+	/**
+	 * Creates (but does not start) the service.
+	 *
+	 * @param  psBindAddress the address on which to listen (Ex. "127.0.0.1", or "0.0.0.0" for every interface)
+	 * @param  pnPort the port on which to listen
+	 * @param  pnMaxConcurrent the maximum number of payloads validated at the same time (a value less than 1 indicates one per available processor)
+	 * @param  pnAdmitTimeoutMillis the longest time that a request waits for its turn before it is turned away with a 503
+	 * @param  psLocalDtdRoot the local directory of the DTDs/XSDs, against which relative references in a payload are resolved
+	 * @param  pnMaxErrors the number of errors after which the validation of a payload is aborted (or 0 for no limit)
+	 * @param  pnMaxSeconds the number of seconds after which the validation of a payload is aborted (or 0 for no limit)
+	 * @see    IOException
+	 */
+	public OnixValidationService(String psBindAddress, int pnPort, int pnMaxConcurrent, long pnAdmitTimeoutMillis, String psLocalDtdRoot,
+			                     long pnMaxErrors, int pnMaxSeconds)
+			throws IOException {
+
+		m_nMaxConcurrent      = (pnMaxConcurrent > 0) ? pnMaxConcurrent : Runtime.getRuntime().availableProcessors();
+		m_nAdmitTimeoutMillis = Math.max(pnAdmitTimeoutMillis, 0);
+		m_sLocalDtdRoot       = psLocalDtdRoot;
+		m_oEntityResolver     = new OnixEntityResolver(psLocalDtdRoot, true);
+		m_nMaxErrors          = pnMaxErrors;
+		m_nMaxSeconds         = pnMaxSeconds;
+		m_oValidationPermits  = new Semaphore(m_nMaxConcurrent, true);
+
+		InetAddress oBindAddress =
+			((psBindAddress == null) || psBindAddress.trim().isEmpty()) ? InetAddress.getLoopbackAddress() : InetAddress.getByName(psBindAddress.trim());
+
+		m_oHttpServer = HttpServer.create(new InetSocketAddress(oBindAddress, pnPort), 0);
+
+		m_oHttpServer.createContext(CONST_VALIDATE_PATH, new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange poExchange) throws IOException {
+
+				try {
+					handleValidate(poExchange);
+				}
+				finally {
+					poExchange.close();
+				}
+			}
+		});
+
+		m_oHttpServer.createContext(CONST_HEALTH_PATH, new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange poExchange) throws IOException {
+
+				try {
+					StringBuilder sbJson = new StringBuilder(128);
+
+					sbJson.append("{\"status\":\"UP\"");
+					sbJson.append(",\"inFlight\":").append(m_nMaxConcurrent - m_oValidationPermits.availablePermits());
+					sbJson.append(",\"maxConcurrent\":").append(m_nMaxConcurrent);
+					sbJson.append(",\"accepted\":").append(m_nAcceptedCount.get());
+					sbJson.append(",\"rejected\":").append(m_nRejectedCount.get());
+					sbJson.append('}');
+
+					sendJson(poExchange, 200, sbJson);
+				}
+				finally {
+					poExchange.close();
+				}
+			}
+		});
+
+		// NOTE: There are twice as many threads as permits, so that a saturated service can still turn requests away promptly,
+		//       and the queue in front of them is bounded, so that an overflowing request is turned away rather than left waiting
+		m_oRequestThreads = new ThreadPoolExecutor(m_nMaxConcurrent * 2, m_nMaxConcurrent * 2, 0, TimeUnit.MILLISECONDS,
+		                                           new ArrayBlockingQueue<Runnable>(m_nMaxConcurrent), new ThreadFactory() {
+
+			private final AtomicInteger nThreadCount = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable poRunnable) {
+				return new Thread(poRunnable, "onix-service-" + nThreadCount.incrementAndGet());
+			}
+		}, new RejectedExecutionHandler() {
+
+			@Override
+			public void rejectedExecution(final Runnable poExchange, ThreadPoolExecutor poExecutor) {
+
+				if (poExecutor.isShutdown())
+					throw new RejectedExecutionException("The validation service has been stopped.");
+
+				// NOTE: The request must still be read (and answered) by a thread, which only sends the 503 and so needs no platform thread
+				Thread.ofVirtual().name("onix-service-overflow").start(new Runnable() {
+
+					@Override
+					public void run() {
+
+						s_oOverflowFlag.set(Boolean.TRUE);
+
+						try {
+							poExchange.run();
+						}
+						finally {
+							s_oOverflowFlag.remove();
+						}
+					}
+				});
+			}
+		});
+
+		m_oHttpServer.setExecutor(m_oRequestThreads);
+	}
+
+	/**
+	 * Blocks until the service has been stopped.
+	 *
+	 * @return None
+	 */
+	public void awaitStop() {
+
+		try {
+			m_oStoppedLatch.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public long getAcceptedCount() {
+		return m_nAcceptedCount.get();
+	}
+
+	public int getPort() {
+		return m_oHttpServer.getAddress().getPort();
+	}
+
+	public long getRejectedCount() {
+		return m_nRejectedCount.get();
+	}
+
+	/**
+	 * Returns a summary of the requests handled by the service (for logging when the program finishes).
+	 *
+	 * @return the summary of the service
+	 */
+	public String getStatistics() {
+		return "Validation Service : Accepted(" + m_nAcceptedCount.get() + "), Rejected(" + m_nRejectedCount.get() + ")";
+	}
+
+	/**
+	 * Starts listening for requests.
+	 *
+	 * @return None
+	 */
+	public void start() {
+
+		m_oHttpServer.start();
+
+		OnixValidator.logInfo("The validation service is listening at (http://" + m_oHttpServer.getAddress().getHostString() + ":" +
+				              getPort() + CONST_VALIDATE_PATH + "), with up to (" + m_nMaxConcurrent + ") concurrent validations.");
+	}
+
+	/**
+	 * Stops listening for requests, waiting up to the specified time for the validations in progress.
+	 *
+	 * @param  pnDelaySeconds the longest time to wait for the requests in progress
+	 * @return None
+	 */
+	public void stop(int pnDelaySeconds) {
+
+		m_oHttpServer.stop(pnDelaySeconds);
+		m_oRequestThreads.shutdown();
+
+		m_oStoppedLatch.countDown();
+	}
+
+	/**
+	 * Validates the body of a single POST, which is streamed into the parser as it arrives.
+	 * <p>
+	 * The name of the payload can be given as the query parameter "name" (for the log and the errors), and a body
+	 * compressed with gzip is accepted when its Content-Encoding says so.
+	 *
+	 * @param  poExchange the exchange of the request
+	 * @return None
+	 * @see    IOException
+	 */
+	private void handleValidate(HttpExchange poExchange)
+			throws IOException {
+
+		if (!"POST".equalsIgnoreCase(poExchange.getRequestMethod())) {
+
+			poExchange.getResponseHeaders().set("Allow", "POST");
+			poExchange.sendResponseHeaders(405, -1);
+			return;
+		}
+
+		boolean bAdmitted = false;
+
+		// NOTE: A request that overflowed the queue is turned away without waiting for a permit
+		if (s_oOverflowFlag.get() == null) {
+
+			try {
+				bAdmitted = m_oValidationPermits.tryAcquire(m_nAdmitTimeoutMillis, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (!bAdmitted) {
+
+			m_nRejectedCount.incrementAndGet();
+
+			StringBuilder sbJson = new StringBuilder(128);
+
+			sbJson.append("{\"error\":");
+			OnixErrorReport.appendJsonString(sbJson, "The validator is busy with (" + m_nMaxConcurrent + ") payloads, so please try again later.");
+			sbJson.append('}');
+
+			poExchange.getResponseHeaders().set("Retry-After", "1");
+			sendJson(poExchange, 503, sbJson);
+			return;
+		}
+
+		try {
+			m_nAcceptedCount.incrementAndGet();
+
+			String sPayloadName = getPayloadName(poExchange);
+			String sOnixPath    = "http://" + poExchange.getRemoteAddress().getAddress().getHostAddress() + "/" + sPayloadName;
+
+			ResponseErrors       oErrors       = new ResponseErrors(sOnixPath);
+			OnixFileErrorHandler oErrorHandler = new OnixFileErrorHandler(sOnixPath, oErrors);
+
+			oErrorHandler.setErrorBudget(m_nMaxErrors, (m_nMaxSeconds > 0) ? (System.currentTimeMillis() + (m_nMaxSeconds * 1000L)) : 0);
+
+			// NOTE: Relative references within the payload are resolved as if it had been placed into the local DTD root
+			String sSystemId = new File(m_sLocalDtdRoot, sPayloadName).toURI().toString();
+
+			OnixFileFormat oFormat      = null;
+			long           nParsedBytes = 0;
+			long           nStartNanos  = System.nanoTime();
+
+			try (CountingInputStream oBodyStream = new CountingInputStream(openBody(poExchange))) {
+				try {
+					oFormat = OnixFileValidator.ValidateUntrustedStream(oBodyStream, sSystemId, oErrorHandler, m_oEntityResolver);
+				}
+				finally {
+					nParsedBytes = oBodyStream.getByteCount();
+				}
+			}
+			catch (Exception e) {
+				oErrorHandler.recordError(e);
+			}
+
+			long nElapsedNanos = System.nanoTime() - nStartNanos;
+
+			OnixMetrics.getInstance().recordValidation(nElapsedNanos, nParsedBytes, oErrorHandler.getErrorCount(), oErrorHandler.isValid(),
+					                                   oErrorHandler.isAborted());
+
+			OnixValidator.logInfo("The validation service found payload(" + sOnixPath + ") to be " + (oErrorHandler.isValid() ? "valid" : "invalid") +
+					              " after (" + TimeUnit.NANOSECONDS.toMillis(nElapsedNanos) + ") ms.");
+
+			StringBuilder sbJson = new StringBuilder(1024);
+
+			sbJson.append("{\"name\":");
+			OnixErrorReport.appendJsonString(sbJson, sPayloadName);
+			sbJson.append(",\"valid\":").append(oErrorHandler.isValid());
+			sbJson.append(",\"grammar\":");
+			OnixErrorReport.appendJsonString(sbJson, (oFormat != null) ? oFormat.getGrammarId() : null);
+			sbJson.append(",\"bytes\":").append(nParsedBytes);
+			sbJson.append(",\"elapsedMillis\":").append(TimeUnit.NANOSECONDS.toMillis(nElapsedNanos));
+			sbJson.append(",\"errorCount\":").append(oErrorHandler.getErrorCount());
+			sbJson.append(",\"aborted\":").append(oErrorHandler.isAborted());
+			sbJson.append(",\"abortReason\":");
+			OnixErrorReport.appendJsonString(sbJson, oErrorHandler.getAbortReason());
+			sbJson.append(",\"errorsTruncated\":").append(oErrors.isTruncated());
+			sbJson.append(",\"errors\":");
+			oErrors.appendErrors(sbJson);
+			sbJson.append('}');
+
+			sendJson(poExchange, 200, sbJson);
+		}
+		finally {
+			m_oValidationPermits.release();
+		}
+	}
+
+	/**
+	 * Returns the name of the payload, as given by the query parameter "name" (or "payload.xml" if none was given).
+	 */
+	private static String getPayloadName(HttpExchange poExchange) {
+
+		String sQuery = poExchange.getRequestURI().getRawQuery();
+
+		if (sQuery != null) {
+
+			for (String sParam : sQuery.split("&")) {
+
+				if (sParam.startsWith("name=") && (sParam.length() > 5)) {
+					try {
+						String sName = new File(URLDecoder.decode(sParam.substring(5), "UTF-8")).getName();
+
+						if (!sName.isEmpty())
+							return sName;
+					}
+					catch (IllegalArgumentException | UnsupportedEncodingException e) {
+						break;
+					}
+				}
+			}
+		}
+
+		return "payload.xml";
+	}
+
+	/**
+	 * Opens the body of the request, decompressing it on the fly when its Content-Encoding is gzip.
+	 */
+	private static InputStream openBody(HttpExchange poExchange)
+			throws IOException {
+
+		String sEncoding = poExchange.getRequestHeaders().getFirst("Content-Encoding");
+
+		if ((sEncoding != null) && sEncoding.trim().equalsIgnoreCase("gzip"))
+			return new GZIPInputStream(poExchange.getRequestBody(), OnixArchiveValidator.CONST_GZIP_BUFFER_SIZE);
+
+		return poExchange.getRequestBody();
+	}
+
+	private static void sendJson(HttpExchange poExchange, int pnStatus, StringBuilder psbJson)
+			throws IOException {
+
+		byte[] aResponse = psbJson.toString().getBytes(s_oResponseCharset);
+
+		poExchange.getResponseHeaders().set("Content-Type", CONST_CONTENT_TYPE);
+		poExchange.sendResponseHeaders(pnStatus, aResponse.length);
+
+		try (OutputStream oResponseStream = poExchange.getResponseBody()) {
+			oResponseStream.write(aResponse);
+		}
+	}
+}
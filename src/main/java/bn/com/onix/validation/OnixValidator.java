@@ -13,10 +13,14 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.MalformedURLException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.Properties;
+import java.util.zip.Deflater;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.log4j.PropertyConfigurator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,15 +46,61 @@ public class OnixValidator {
 	public static final String CONST_DEFAULT_LOG_DIR  = "log";
 	
 	public static final String CONST_DEFAULT_ONIX_DTD_URL_BASE = "http://www.editeur.org/onix/";
+	
+	public static final String CONST_DEFAULT_ONIX21_REF_DTD   = "2.1/reference/onix-international.dtd";
+	public static final String CONST_DEFAULT_ONIX21_SHORT_DTD = "2.1/short/onix-international.dtd";
+	public static final String CONST_DEFAULT_ONIX30_REF_XSD   = "3.0/reference/ONIX_BookProduct_3.0_reference.xsd";
+	public static final String CONST_DEFAULT_ONIX30_SHORT_XSD = "3.0/short/ONIX_BookProduct_3.0_short.xsd";
     
     private static boolean s_bDebug  = false;
     
+    private static boolean s_bRewriteDtdReferences = false;
+    private static boolean s_bByteLevelDtdRewrite  = true;
+    private static boolean s_bDaemonMode           = false;
+    private static boolean s_bWriteErrorReports    = true;
+    private static boolean s_bSplitArchives        = false;
+    
+    private static String s_sLocalDtdRoot = "";
+    private static String s_sDeltaOutputDir = "";
+    
     private static int  s_mnPurgeLogsOlderThanNumDays = 7;
 	private static int  s_mnMaxEntityCount            = 64000;
+	private static int  s_mnNumOfValidationThreads    = 0;
+	private static int  s_mnProductSplitThresholdMB   = 0;
+	private static int  s_mnProductsPerChunk          = 5000;
+	private static int  s_mnMaxErrorsPerFile          = 1000;
+	private static int  s_mnMaxValidationSeconds     = 0;
+	private static int  s_mnDiscoveryBatchSize        = 1024;
+	private static int  s_mnDeltaMinFileMB            = 0;
 
     private static Properties s_oProperties  = new Properties();
     
+    private static OnixVerdictLedger s_oVerdictLedger = null;
+    
+    private static OnixDeltaIndex s_oDeltaIndex = null;
+    
+    private static OnixRoutingJournal s_oRoutingJournal = null;
+    
+    private static volatile OnixValidatorDaemon s_oDaemon = null;
+    
+    private static boolean s_bShutDown = false;
+    
+    private static OnixRetentionEngine s_oRetentionEngine = null;
+    
+    private static OnixShardLayout s_oShardLayout = new OnixShardLayout(OnixShardLayout.CONST_MODE_NONE, 256);
+    
+    private static OnixParallelGzip s_oOutputCompressor = null;
+    
+    private static OnixMetricsServer s_oMetricsServer = null;
+    
+    private static OnixValidationService s_oValidationService = null;
+    
     public static Logger s_oSearchExtractLog = null;
+    
+    private static OnixAsyncLogger s_oAsyncLog = null;
+    
+    private static PrintStream s_oConsoleOut = System.out;
+    private static PrintStream s_oConsoleErr = System.err;
 
 /**
  * This method is the main thread of the program.  After initializing its members via the *.properties files,
@@ -58,6 +108,8 @@ public class OnixValidator {
  *
  * 1.) It will iterate through the Inbox directory, examining each file and expecting that file to be an ONIX XML file:
  *   a. )For that file, it will attempt to edit the DOCTYPE tag inside and point the DTD URL to a specified local directory.
+ *       (This step only happens when 'dtdResolutionMode' is REWRITE; otherwise, the parser resolves the EDITEUR URLs
+ *       to the local directory on the fly, and the file is left untouched.)
  *   b.) For that file, it will then attempt to validate.
  *   c.) Valid files will go into the Output directory; invalid files will go into the Failed directory.
  * 
@@ -102,6 +154,9 @@ public class OnixValidator {
 			
 		    s_oSearchExtractLog = LoggerFactory.getLogger(OnixValidator.class);
 		    
+		    s_oConsoleOut = System.out;
+		    s_oConsoleErr = System.err;
+		    
 		    System.setOut(createInfoLoggingProxy(System.out,  s_oSearchExtractLog));
 	        System.setErr(createErrorLoggingProxy(System.err, s_oSearchExtractLog));
 		    
@@ -147,6 +202,10 @@ public class OnixValidator {
 				System.exit(1);
 	    }
 		
+		initLogging();
+		
+		registerShutdownHook();
+		
 		s_oSearchExtractLog.info("The ONIX Validator is starting.");		
         		
 		try {
@@ -196,12 +255,168 @@ public class OnixValidator {
 	        catch (Exception e) {
 	        	s_mnMaxEntityCount = 64000;
 	        }			
+
+		    try {
+		    	String sNumOfValidationThreads = s_oProperties.getProperty("numOfValidationThreads");
+		    	
+		    	s_mnNumOfValidationThreads = Integer.parseInt(sNumOfValidationThreads);
+		    }
+	        catch (Exception e) {
+	        	s_mnNumOfValidationThreads = 0;
+	        }
+		    
+		    try {
+		    	String sProductSplitThresholdMB = s_oProperties.getProperty("productSplitThresholdMB");
+		    	
+		    	s_mnProductSplitThresholdMB = Integer.parseInt(sProductSplitThresholdMB.trim());
+		    }
+	        catch (Exception e) {
+	        	s_mnProductSplitThresholdMB = 0;
+	        }
+		    
+		    try {
+		    	String sProductsPerChunk = s_oProperties.getProperty("productsPerChunk");
+		    	
+		    	s_mnProductsPerChunk = Integer.parseInt(sProductsPerChunk.trim());
+		    }
+	        catch (Exception e) {
+	        	s_mnProductsPerChunk = 5000;
+	        }
+		    
+		    try {
+		    	String sMaxErrorsPerFile = s_oProperties.getProperty("maxErrorsPerFile");
+		    	
+		    	s_mnMaxErrorsPerFile = Integer.parseInt(sMaxErrorsPerFile.trim());
+		    }
+	        catch (Exception e) {
+	        	s_mnMaxErrorsPerFile = 1000;
+	        }
+		    
+		    try {
+		    	String sMaxValidationSeconds = s_oProperties.getProperty("maxValidationSeconds");
+		    	
+		    	s_mnMaxValidationSeconds = Integer.parseInt(sMaxValidationSeconds.trim());
+		    }
+	        catch (Exception e) {
+	        	s_mnMaxValidationSeconds = 0;
+	        }
+		    
+		    try {
+		    	String sDiscoveryBatchSize = s_oProperties.getProperty("discoveryBatchSize");
+		    	
+		    	s_mnDiscoveryBatchSize = Math.max(Integer.parseInt(sDiscoveryBatchSize.trim()), 1);
+		    }
+	        catch (Exception e) {
+	        	s_mnDiscoveryBatchSize = 1024;
+	        }
+		    
+		    int nShardCount = 256;
+		    
+		    try {
+		    	nShardCount = Integer.parseInt(s_oProperties.getProperty("routingShardCount").trim());
+		    }
+	        catch (Exception e) {
+	        	nShardCount = 256;
+	        }
+		    
+		    s_oShardLayout = new OnixShardLayout(s_oProperties.getProperty("routingShardMode", "NONE").trim(), nShardCount);
+		    
+		    String sDtdResolutionMode = s_oProperties.getProperty("dtdResolutionMode", "RESOLVER");
+		    
+		    s_bRewriteDtdReferences = sDtdResolutionMode.trim().equalsIgnoreCase("REWRITE");
+		    s_bByteLevelDtdRewrite  = !s_oProperties.getProperty("dtdRewriteMode", "BYTE").trim().equalsIgnoreCase("LINE");
+		    
+		    s_bDaemonMode = s_oProperties.getProperty("daemonMode", "N").trim().equalsIgnoreCase("y");
+		    
+		    s_bWriteErrorReports = s_oProperties.getProperty("writeErrorReports", "Y").trim().equalsIgnoreCase("y");
+		    
+		    s_bSplitArchives = s_oProperties.getProperty("archiveRoutingMode", "WHOLE").trim().equalsIgnoreCase("SPLIT");
+		    
+		    if (s_oProperties.getProperty("compressOutput", "N").trim().equalsIgnoreCase("y")) {
+		    	
+		    	int nCompressionThreads = 0;
+		    	int nCompressionBlockKB = 1024;
+		    	
+			    try {
+			    	nCompressionThreads = Integer.parseInt(s_oProperties.getProperty("compressionThreads").trim());
+			    }
+		        catch (Exception e) {
+		        	nCompressionThreads = 0;
+		        }
+			    
+			    try {
+			    	nCompressionBlockKB = Integer.parseInt(s_oProperties.getProperty("compressionBlockKB").trim());
+			    }
+		        catch (Exception e) {
+		        	nCompressionBlockKB = 1024;
+		        }
+			    
+			    s_oOutputCompressor = new OnixParallelGzip(nCompressionThreads, nCompressionBlockKB * 1024, Deflater.DEFAULT_COMPRESSION);
+		    }
+		    
+		    startMetrics();
 		    
 		    if ((sLocalDtdRoot != null) && !sLocalDtdRoot.isEmpty()) {
 		    	
-		    	replaceDtdReferences(sInboxDir, CONST_DEFAULT_ONIX_DTD_URL_BASE, sLocalDtdRoot);
+		    	s_sLocalDtdRoot = sLocalDtdRoot;
+		    	
+		    	validateDirectory(sLocalDtdRoot, "Local ONIX Root");
+		    	
+		    	registerSchemas(sLocalDtdRoot);
+		    	
+		    	loadCodeLists();
+		    	
+		    	// NOTE: Even in REWRITE mode, the resolver is needed for the compressed files (which cannot be rewritten)
+		    	OnixEntityResolver oEntityResolver = new OnixEntityResolver(sLocalDtdRoot);
+		    	
+		    	OnixFileValidator.setEntityResolver(oEntityResolver);
+		    	
+		    	registerGrammars(sLocalDtdRoot, oEntityResolver);
+		    	
+		    	String sVerdictLedgerFile = s_oProperties.getProperty("verdictLedgerFile", "").trim();
 		    	
-		    	validateOnixFiles(sInboxDir, sOutputDir, sFailedDir);
+		    	if (!sVerdictLedgerFile.isEmpty()) {
+		    		
+		    		long nMaxVerdicts = getLongProperty("verdictLedgerMaxEntries");
+		    		
+		    		if (nMaxVerdicts <= 0)
+		    			nMaxVerdicts = OnixVerdictLedger.CONST_DEFAULT_MAX_VERDICTS;
+		    		
+		    		s_oVerdictLedger = new OnixVerdictLedger(sVerdictLedgerFile, OnixVerdictLedger.computeGrammarVersion(new File(sLocalDtdRoot)), 
+		    				                                 (int) Math.min(nMaxVerdicts, Integer.MAX_VALUE));
+		    	}
+		    	
+		    	openDeltaIndex();
+		    	
+		    	// NOTE: Any moves interrupted by the previous run are finished before any new files are routed
+		    	openRoutingJournal();
+		    	
+		    	s_oRetentionEngine = createRetentionEngine(sOutputDir, sFailedDir);
+		    	
+		    	if (s_oProperties.getProperty("serviceMode", "N").trim().equalsIgnoreCase("y"))
+		    		startService(sLocalDtdRoot);
+		    	
+		    	// NOTE: A long-running process purges on a schedule, while a batch run purges once its files have been routed
+		    	if ((s_oRetentionEngine != null) && (s_bDaemonMode || (s_oValidationService != null)))
+		    		startRetention();
+		    	
+		    	if (s_bDaemonMode)
+		    		runDaemon(sInboxDir, sOutputDir, sFailedDir);
+		    	else if (s_oValidationService != null)
+		    		s_oValidationService.awaitStop();
+		    	else if (s_oProperties.getProperty("pipelineMode", "N").trim().equalsIgnoreCase("y"))
+		    		runPipeline(sInboxDir, sOutputDir, sFailedDir);
+		    	else {
+			    	if (s_bRewriteDtdReferences)
+			    		replaceDtdReferences(sInboxDir, CONST_DEFAULT_ONIX_DTD_URL_BASE, sLocalDtdRoot);
+			    	
+			    	validateOnixFiles(sInboxDir, sOutputDir, sFailedDir);
+			    	
+			    	awaitOutputCompression();
+		    	}
+		    	
+		    	if ((s_oRetentionEngine != null) && !s_bDaemonMode && (s_oValidationService == null))
+		    		s_oRetentionEngine.purge();
 		    }
 		    		    			    		    		  
 		} catch (ParserConfigurationException e) {
@@ -218,7 +433,98 @@ public class OnixValidator {
 	    	logException(e);
 		}
 		
-		s_oSearchExtractLog.info("The ONIX Validator is complete.");		
+		// NOTE: The statistics are logged, and the stores are closed, by the shutdown hook (see shutdown()) once the JVM exits
+	}
+	
+	/**
+	 * Registers the one shutdown hook of the program, which finishes the files in progress and then closes every store.
+	 * <p>
+	 * The JVM runs its shutdown hooks all at once, so the stores (i.e., the verdict ledger, the routing journal and the 
+	 * delta index) are only ever closed here, after the daemon (or the service) has stopped using them.
+	 *
+	 * @return None
+	 */		        
+    private static void registerShutdownHook() {
+    	
+    	Runtime.getRuntime().addShutdownHook(new Thread("onix-validator-shutdown") {
+    		
+    		@Override
+    		public void run() {
+    			shutdown();
+    		}
+    	});
+    }
+    
+	/**
+	 * Stops the daemon (or the service), waits for the output compression, logs the final statistics and closes every store.
+	 * <p>
+	 * Only the first call has any effect, so that the program can never close a store twice.
+	 *
+	 * @return None
+	 */		        
+    static synchronized void shutdown() {
+    	
+    	if (s_bShutDown)
+    		return;
+    	
+    	s_bShutDown = true;
+    	
+    	if (s_oDaemon != null)
+    		s_oDaemon.stop();
+    	
+    	if (s_oValidationService != null)
+    		s_oValidationService.stop(5);
+    	
+    	awaitOutputCompression();
+    	
+		s_oSearchExtractLog.info(OnixGrammarCache.getInstance().getStatistics());
+		s_oSearchExtractLog.info(OnixSchemaCache.getInstance().getStatistics());
+		
+		if (OnixCodeLists.getInstance() != null)
+			s_oSearchExtractLog.info(OnixCodeLists.getInstance().getStatistics());
+		s_oSearchExtractLog.info(OnixMetrics.getInstance().getStatistics());
+		
+		if (s_oMetricsServer != null)
+			s_oMetricsServer.stop();
+		
+		if (s_oValidationService != null)
+			s_oSearchExtractLog.info(s_oValidationService.getStatistics());
+		
+		if (s_oRetentionEngine != null) {
+			
+			s_oRetentionEngine.stop();
+			
+			s_oSearchExtractLog.info(s_oRetentionEngine.getStatistics());
+		}
+		
+		if (s_oRoutingJournal != null) {
+			
+			try { s_oRoutingJournal.close(); }
+			catch (IOException e) { logException(e); }
+			
+			s_oSearchExtractLog.info(s_oRoutingJournal.getStatistics());
+		}
+		
+		if (s_oVerdictLedger != null) {
+			
+			s_oSearchExtractLog.info(s_oVerdictLedger.getStatistics());
+			
+			try { s_oVerdictLedger.close(); }
+			catch (IOException e) { logException(e); }
+		}
+		
+		if (s_oDeltaIndex != null) {
+			
+			s_oSearchExtractLog.info(s_oDeltaIndex.getStatistics());
+			
+			try { s_oDeltaIndex.close(); }
+			catch (IOException e) { logException(e); }
+		}
+		s_oSearchExtractLog.info("The ONIX Validator is complete.");
+		
+		// NOTE: The asynchronous log is closed last, so that it writes every message above before the JVM halts
+		if (s_oAsyncLog != null)
+			s_oAsyncLog.close();
 	}
 	
     /**
@@ -238,7 +544,7 @@ public class OnixValidator {
         	
             public void print(final String psLogMsg) {
             	poPrintStream.print(psLogMsg);
-            	poLogger.error(psLogMsg);
+            	logTo(poLogger, OnixAsyncLogger.CONST_LEVEL_ERROR, psLogMsg);
             }
         };
     }	
@@ -260,7 +566,7 @@ public class OnixValidator {
         	
             public void print(final String psLogMsg) {
             	poPrintStream.print(psLogMsg);
-            	poLogger.info(psLogMsg);
+            	logTo(poLogger, OnixAsyncLogger.CONST_LEVEL_INFO, psLogMsg);
             }
         };
     }
@@ -316,6 +622,66 @@ public class OnixValidator {
 		String sLocalDtdRoot = "";
 		String sPLNumOfDays  = "";
 		String sMaxEntityCnt = "64000";
+		String sNumOfThreads = "";
+		String sDtdResMode   = "";
+		String sDtdRwMode    = "";
+		String sXsdRefPath   = "";
+		String sXsdShortPath = "";
+		String sDaemonMode   = "";
+		String sSettleSecs   = "";
+		String sMarkerSuffix = "";
+		String sLedgerFile   = "";
+		String sLedgerMax    = "";
+		String sSplitMB      = "";
+		String sPerChunk     = "";
+		String sErrorReports = "";
+		String sMaxErrors    = "";
+		String sMaxSeconds   = "";
+		String sArchiveMode  = "";
+		String sCompressOut  = "";
+		String sCompThreads  = "";
+		String sCompBlockKB  = "";
+		String sMetricsPort  = "";
+		String sMetricsJmx   = "";
+		String sAsyncLogging = "";
+		String sAsyncBufSize = "";
+		String sAsyncBatch   = "";
+		String sAsyncFlushMs = "";
+		String sAsyncOverflw = "";
+		String sConsoleProxy = "";
+		String sServiceMode  = "";
+		String sServicePort  = "";
+		String sServiceAddr  = "";
+		String sServiceMax   = "";
+		String sServiceAdmit = "";
+		String sPipelineMode = "";
+		String sPipelineIo   = "";
+		String sPipelineQSz  = "";
+		String sPrefetchMB   = "";
+		String sJournalFile  = "";
+		String sJournalBatch = "";
+		String sJournalMs    = "";
+		String sShardMode    = "";
+		String sShardCount   = "";
+		String sDiscoveryBSz = "";
+		String sLogDir       = "";
+		String sLogMaxMB     = "";
+		String sOutputDays   = "";
+		String sOutputMaxMB  = "";
+		String sFailedDays   = "";
+		String sFailedMaxMB  = "";
+		String sRetainMins   = "";
+		String sRetainRate   = "";
+		String sRetainBatch  = "";
+		String sAdmitBudget  = "";
+		String sAdmitHeapPct = "";
+		String sAgingMsPerMB = "";
+		String sDeltaIndex   = "";
+		String sDeltaCapac   = "";
+		String sDeltaMinMB   = "";
+		String sDeltaOutDir  = "";
+		String sCodeListDir  = "";
+		String sCodeListIss  = "";
 		File   oLocalCfgDir  = new File(CONST_DEFAULT_CFG_DIR);
 		
 		StringBuilder       sbPropListing = new StringBuilder("");
@@ -341,6 +707,66 @@ public class OnixValidator {
 		sLocalDtdRoot = s_oProperties.getProperty("localDtdRoot");
 		sPLNumOfDays  = s_oProperties.getProperty("purgeLogsOlderThanNumOfDays");
 		sMaxEntityCnt = s_oProperties.getProperty("maxEntityCount");
+		sNumOfThreads = s_oProperties.getProperty("numOfValidationThreads");
+		sDtdResMode   = s_oProperties.getProperty("dtdResolutionMode");
+		sDtdRwMode    = s_oProperties.getProperty("dtdRewriteMode");
+		sXsdRefPath   = s_oProperties.getProperty("xsdReferenceSchema");
+		sXsdShortPath = s_oProperties.getProperty("xsdShortSchema");
+		sDaemonMode   = s_oProperties.getProperty("daemonMode");
+		sSettleSecs   = s_oProperties.getProperty("daemonSettleSeconds");
+		sMarkerSuffix = s_oProperties.getProperty("daemonMarkerSuffix");
+		sLedgerFile   = s_oProperties.getProperty("verdictLedgerFile");
+		sLedgerMax    = s_oProperties.getProperty("verdictLedgerMaxEntries");
+		sSplitMB      = s_oProperties.getProperty("productSplitThresholdMB");
+		sPerChunk     = s_oProperties.getProperty("productsPerChunk");
+		sErrorReports = s_oProperties.getProperty("writeErrorReports");
+		sMaxErrors    = s_oProperties.getProperty("maxErrorsPerFile");
+		sMaxSeconds   = s_oProperties.getProperty("maxValidationSeconds");
+		sArchiveMode  = s_oProperties.getProperty("archiveRoutingMode");
+		sCompressOut  = s_oProperties.getProperty("compressOutput");
+		sCompThreads  = s_oProperties.getProperty("compressionThreads");
+		sCompBlockKB  = s_oProperties.getProperty("compressionBlockKB");
+		sMetricsPort  = s_oProperties.getProperty("metricsPort");
+		sMetricsJmx   = s_oProperties.getProperty("metricsJmx");
+		sAsyncLogging = s_oProperties.getProperty("asyncLogging");
+		sAsyncBufSize = s_oProperties.getProperty("asyncLogBufferSize");
+		sAsyncBatch   = s_oProperties.getProperty("asyncLogBatchSize");
+		sAsyncFlushMs = s_oProperties.getProperty("asyncLogFlushMillis");
+		sAsyncOverflw = s_oProperties.getProperty("asyncLogOverflow");
+		sConsoleProxy = s_oProperties.getProperty("consoleLogProxy");
+		sServiceMode  = s_oProperties.getProperty("serviceMode");
+		sServicePort  = s_oProperties.getProperty("servicePort");
+		sServiceAddr  = s_oProperties.getProperty("serviceBindAddress");
+		sServiceMax   = s_oProperties.getProperty("serviceMaxConcurrent");
+		sServiceAdmit = s_oProperties.getProperty("serviceAdmitMillis");
+		sPipelineMode = s_oProperties.getProperty("pipelineMode");
+		sPipelineIo   = s_oProperties.getProperty("pipelineIoThreads");
+		sPipelineQSz  = s_oProperties.getProperty("pipelineQueueSize");
+		sPrefetchMB   = s_oProperties.getProperty("pipelinePrefetchMB");
+		sJournalFile  = s_oProperties.getProperty("routingJournalFile");
+		sJournalBatch = s_oProperties.getProperty("routingSyncBatchSize");
+		sJournalMs    = s_oProperties.getProperty("routingSyncMillis");
+		sShardMode    = s_oProperties.getProperty("routingShardMode");
+		sShardCount   = s_oProperties.getProperty("routingShardCount");
+		sDiscoveryBSz = s_oProperties.getProperty("discoveryBatchSize");
+		sLogDir       = s_oProperties.getProperty("logDirectory");
+		sLogMaxMB     = s_oProperties.getProperty("logRetentionMaxMB");
+		sOutputDays   = s_oProperties.getProperty("outputRetentionDays");
+		sOutputMaxMB  = s_oProperties.getProperty("outputRetentionMaxMB");
+		sFailedDays   = s_oProperties.getProperty("failedRetentionDays");
+		sFailedMaxMB  = s_oProperties.getProperty("failedRetentionMaxMB");
+		sRetainMins   = s_oProperties.getProperty("retentionIntervalMinutes");
+		sRetainRate   = s_oProperties.getProperty("retentionDeletesPerSecond");
+		sRetainBatch  = s_oProperties.getProperty("retentionBatchSize");
+		sAdmitBudget  = s_oProperties.getProperty("admissionMemoryBudgetMB");
+		sAdmitHeapPct = s_oProperties.getProperty("admissionHeapPercent");
+		sAgingMsPerMB = s_oProperties.getProperty("schedulingAgingMillisPerMB");
+		sDeltaIndex   = s_oProperties.getProperty("deltaIndexFile");
+		sDeltaCapac   = s_oProperties.getProperty("deltaIndexCapacity");
+		sDeltaMinMB   = s_oProperties.getProperty("deltaMinFileMB");
+		sDeltaOutDir  = s_oProperties.getProperty("deltaOutputDir");
+		sCodeListDir  = s_oProperties.getProperty("codeListDirectory");
+		sCodeListIss  = s_oProperties.getProperty("codeListIssue");
 
 		sbPropListing.append("\n----------\n");
 		sbPropListing.append("PROPERTIES:\n");
@@ -352,6 +778,66 @@ public class OnixValidator {
 		sbPropListing.append("Name(localDtdRoot)       : (" + sLocalDtdRoot + ")\n");
 		sbPropListing.append("Name(purgeLogsOlderThanNumOfDays)    : (" + sPLNumOfDays + ")\n");
 		sbPropListing.append("Name(maxEntityCount)     : (" + sMaxEntityCnt + ")\r\n");
+		sbPropListing.append("Name(numOfValidationThreads)         : (" + sNumOfThreads + ")\n");
+		sbPropListing.append("Name(dtdResolutionMode)  : (" + sDtdResMode + ")\n");
+		sbPropListing.append("Name(dtdRewriteMode)     : (" + sDtdRwMode + ")\n");
+		sbPropListing.append("Name(xsdReferenceSchema) : (" + sXsdRefPath + ")\n");
+		sbPropListing.append("Name(xsdShortSchema)     : (" + sXsdShortPath + ")\n");
+		sbPropListing.append("Name(daemonMode)         : (" + sDaemonMode + ")\n");
+		sbPropListing.append("Name(daemonSettleSeconds)            : (" + sSettleSecs + ")\n");
+		sbPropListing.append("Name(daemonMarkerSuffix) : (" + sMarkerSuffix + ")\n");
+		sbPropListing.append("Name(verdictLedgerFile)  : (" + sLedgerFile + ")\n");
+		sbPropListing.append("Name(verdictLedgerMaxEntries)        : (" + sLedgerMax + ")\n");
+		sbPropListing.append("Name(productSplitThresholdMB)        : (" + sSplitMB + ")\n");
+		sbPropListing.append("Name(productsPerChunk)   : (" + sPerChunk + ")\n");
+		sbPropListing.append("Name(writeErrorReports)  : (" + sErrorReports + ")\n");
+		sbPropListing.append("Name(maxErrorsPerFile)   : (" + sMaxErrors + ")\n");
+		sbPropListing.append("Name(maxValidationSeconds)           : (" + sMaxSeconds + ")\n");
+		sbPropListing.append("Name(archiveRoutingMode) : (" + sArchiveMode + ")\n");
+		sbPropListing.append("Name(compressOutput)     : (" + sCompressOut + ")\n");
+		sbPropListing.append("Name(compressionThreads) : (" + sCompThreads + ")\n");
+		sbPropListing.append("Name(compressionBlockKB) : (" + sCompBlockKB + ")\n");
+		sbPropListing.append("Name(metricsPort)        : (" + sMetricsPort + ")\n");
+		sbPropListing.append("Name(metricsJmx)         : (" + sMetricsJmx + ")\n");
+		sbPropListing.append("Name(asyncLogging)       : (" + sAsyncLogging + ")\n");
+		sbPropListing.append("Name(asyncLogBufferSize) : (" + sAsyncBufSize + ")\n");
+		sbPropListing.append("Name(asyncLogBatchSize)  : (" + sAsyncBatch + ")\n");
+		sbPropListing.append("Name(asyncLogFlushMillis)            : (" + sAsyncFlushMs + ")\n");
+		sbPropListing.append("Name(asyncLogOverflow)   : (" + sAsyncOverflw + ")\n");
+		sbPropListing.append("Name(consoleLogProxy)    : (" + sConsoleProxy + ")\n");
+		sbPropListing.append("Name(serviceMode)        : (" + sServiceMode + ")\n");
+		sbPropListing.append("Name(servicePort)        : (" + sServicePort + ")\n");
+		sbPropListing.append("Name(serviceBindAddress) : (" + sServiceAddr + ")\n");
+		sbPropListing.append("Name(serviceMaxConcurrent)           : (" + sServiceMax + ")\n");
+		sbPropListing.append("Name(serviceAdmitMillis) : (" + sServiceAdmit + ")\n");
+		sbPropListing.append("Name(pipelineMode)       : (" + sPipelineMode + ")\n");
+		sbPropListing.append("Name(pipelineIoThreads)  : (" + sPipelineIo + ")\n");
+		sbPropListing.append("Name(pipelineQueueSize)  : (" + sPipelineQSz + ")\n");
+		sbPropListing.append("Name(pipelinePrefetchMB) : (" + sPrefetchMB + ")\n");
+		sbPropListing.append("Name(routingJournalFile) : (" + sJournalFile + ")\n");
+		sbPropListing.append("Name(routingSyncBatchSize)           : (" + sJournalBatch + ")\n");
+		sbPropListing.append("Name(routingSyncMillis)  : (" + sJournalMs + ")\n");
+		sbPropListing.append("Name(routingShardMode)   : (" + sShardMode + ")\n");
+		sbPropListing.append("Name(routingShardCount)  : (" + sShardCount + ")\n");
+		sbPropListing.append("Name(discoveryBatchSize) : (" + sDiscoveryBSz + ")\n");
+		sbPropListing.append("Name(logDirectory)       : (" + sLogDir + ")\n");
+		sbPropListing.append("Name(logRetentionMaxMB)              : (" + sLogMaxMB + ")\n");
+		sbPropListing.append("Name(outputRetentionDays)            : (" + sOutputDays + ")\n");
+		sbPropListing.append("Name(outputRetentionMaxMB)           : (" + sOutputMaxMB + ")\n");
+		sbPropListing.append("Name(failedRetentionDays)            : (" + sFailedDays + ")\n");
+		sbPropListing.append("Name(failedRetentionMaxMB)           : (" + sFailedMaxMB + ")\n");
+		sbPropListing.append("Name(retentionIntervalMinutes)       : (" + sRetainMins + ")\n");
+		sbPropListing.append("Name(retentionDeletesPerSecond)      : (" + sRetainRate + ")\n");
+		sbPropListing.append("Name(retentionBatchSize)             : (" + sRetainBatch + ")\n");
+		sbPropListing.append("Name(admissionMemoryBudgetMB)        : (" + sAdmitBudget + ")\n");
+		sbPropListing.append("Name(admissionHeapPercent)           : (" + sAdmitHeapPct + ")\n");
+		sbPropListing.append("Name(schedulingAgingMillisPerMB)     : (" + sAgingMsPerMB + ")\n");
+		sbPropListing.append("Name(deltaIndexFile)     : (" + sDeltaIndex + ")\n");
+		sbPropListing.append("Name(deltaIndexCapacity) : (" + sDeltaCapac + ")\n");
+		sbPropListing.append("Name(deltaMinFileMB)     : (" + sDeltaMinMB + ")\n");
+		sbPropListing.append("Name(deltaOutputDir)     : (" + sDeltaOutDir + ")\n");
+		sbPropListing.append("Name(codeListDirectory)  : (" + sCodeListDir + ")\n");
+		sbPropListing.append("Name(codeListIssue)      : (" + sCodeListIss + ")\n");
 		sbPropListing.append("");
 		sbPropListing.append("----------\n");
 		
@@ -401,6 +887,52 @@ public class OnixValidator {
 		return bSuccess;
     }
 	
+	/**
+	 * Compiles the local ONIX 2.1 DTDs (i.e., reference and short tags) into the grammar cache, which is then the only
+	 * source of the DTDs that are shared between the parses.
+	 * <p>
+	 * The DTDs must mirror the layout of EDITEUR's site within the local ONIX root, since each is also cached under its EDITEUR URL.
+	 *
+	 * @param  psLocalDtdRoot the local directory that contains the downloaded DTDs/XSDs
+	 * @param  poEntityResolver the resolver that maps the EDITEUR URLs onto the local copies of the DTDs and their modules
+	 * @return None
+	 * @see    IOException
+	 */
+	static void registerGrammars(String psLocalDtdRoot, OnixEntityResolver poEntityResolver)
+			throws IOException {
+		
+		String[] aDtdPaths = { CONST_DEFAULT_ONIX21_REF_DTD, CONST_DEFAULT_ONIX21_SHORT_DTD };
+		
+		OnixGrammarCache.getInstance().loadGrammars(psLocalDtdRoot, aDtdPaths, poEntityResolver);
+	}
+	
+	/**
+	 * Registers the local ONIX 3.0 XSDs (i.e., reference and short tags) with the schema cache, so that ONIX files
+	 * which refer to an XSD namespace (rather than a DTD) can be validated.
+	 * <p>
+	 * The locations are taken from the 'xsdReferenceSchema' and 'xsdShortSchema' properties, relative to the local ONIX root.
+	 *
+	 * @param  psLocalDtdRoot the local directory that contains the downloaded DTDs/XSDs
+	 * @return None
+	 */
+	private static void registerSchemas(String psLocalDtdRoot) {
+		
+		String[][] aSchemas = { 
+				{ OnixFileFormat.CONST_ONIX30_REF_NAMESPACE,   s_oProperties.getProperty("xsdReferenceSchema", CONST_DEFAULT_ONIX30_REF_XSD) },
+				{ OnixFileFormat.CONST_ONIX30_SHORT_NAMESPACE, s_oProperties.getProperty("xsdShortSchema", CONST_DEFAULT_ONIX30_SHORT_XSD) } 
+		};
+		
+		for (String[] aSchema : aSchemas) {
+			
+			File oSchemaFile = new File(psLocalDtdRoot, aSchema[1].trim());
+			
+			if (oSchemaFile.exists())
+				OnixSchemaCache.getInstance().registerSchema(aSchema[0], oSchemaFile);
+			else
+				logDebug("The XSD(" + oSchemaFile.getAbsolutePath() + ") for namespace(" + aSchema[0] + ") does not exist.");
+		}
+	}
+	
 	/**
 	 * Indicates whether or not the current platform is a Windows machine.
 	 *
@@ -410,18 +942,28 @@ public class OnixValidator {
         return (OS_NAME.indexOf("win") >= 0);
     }	
 
+	public static int getMaxEntityCount() {
+		return s_mnMaxEntityCount;
+	}
+
     public static void logDebug(String psDebugMsg) {
-    	s_oSearchExtractLog.debug(psDebugMsg);
+    	logTo(s_oSearchExtractLog, OnixAsyncLogger.CONST_LEVEL_DEBUG, psDebugMsg);
     }
     
     public static void logError(String psErrMsg) {
-    	s_oSearchExtractLog.error(psErrMsg);
+    	logTo(s_oSearchExtractLog, OnixAsyncLogger.CONST_LEVEL_ERROR, psErrMsg);
     }
     
     public static void logException(Exception poException) {
 
-    	String sStackTrace = getStackTrace(poException);     	
-    	logException(sStackTrace);
+    	// NOTE: The stack trace is only rendered when it will be written (and by the writer thread, in the asynchronous mode)
+    	if (s_oAsyncLog != null)
+    		s_oAsyncLog.log(OnixAsyncLogger.CONST_LEVEL_ERROR, null, poException);
+    	else if (s_oSearchExtractLog.isErrorEnabled()) {
+    		
+        	String sStackTrace = getStackTrace(poException);     	
+        	logException(sStackTrace);
+    	}
     }
     
     public static void logException(String psExceptionStackTrace) {    	
@@ -434,7 +976,79 @@ public class OnixValidator {
     }        
 
     public static void logInfo(String psInfoMsg) {
-    	s_oSearchExtractLog.info(psInfoMsg);
+    	logTo(s_oSearchExtractLog, OnixAsyncLogger.CONST_LEVEL_INFO, psInfoMsg);
+    }
+    
+	/**
+	 * Writes a message to the specified logger, via the asynchronous path when it is enabled (via 'asyncLogging')
+	 * and the logger is the one of the program.
+	 *
+	 * @param  poLogger the logger to which the message should be written
+	 * @param  pnLevel the level of the message (Ex. OnixAsyncLogger.CONST_LEVEL_INFO)
+	 * @param  psLogMsg the message
+	 * @return None
+	 */
+    private static void logTo(Logger poLogger, int pnLevel, String psLogMsg) {
+    	
+    	if ((s_oAsyncLog != null) && (poLogger == s_oSearchExtractLog))
+    		s_oAsyncLog.log(pnLevel, psLogMsg, null);
+    	else if (pnLevel == OnixAsyncLogger.CONST_LEVEL_DEBUG)
+    		poLogger.debug(psLogMsg);
+    	else if (pnLevel == OnixAsyncLogger.CONST_LEVEL_INFO)
+    		poLogger.info(psLogMsg);
+    	else
+    		poLogger.error(psLogMsg);
+    }
+    
+	/**
+	 * Configures the logging of the program once its properties are known, which consists of removing the proxies of 
+	 * System.out/System.err (when 'consoleLogProxy' is N) and of starting the asynchronous path (when 'asyncLogging' is Y).
+	 *
+	 * @return None
+	 */
+    private static void initLogging() {
+    	
+    	if (s_oProperties.getProperty("consoleLogProxy", "Y").trim().equalsIgnoreCase("n")) {
+    		
+    		System.setOut(s_oConsoleOut);
+    		System.setErr(s_oConsoleErr);
+    	}
+    	
+    	if (s_oProperties.getProperty("asyncLogging", "N").trim().equalsIgnoreCase("y")) {
+    		
+    		int  nBufferSize  = 8192;
+    		int  nBatchSize   = 256;
+    		long nFlushMillis = 200;
+    		
+		    try {
+		    	nBufferSize = Integer.parseInt(s_oProperties.getProperty("asyncLogBufferSize").trim());
+		    }
+	        catch (Exception e) {
+	        	nBufferSize = 8192;
+	        }
+		    
+		    try {
+		    	nBatchSize = Integer.parseInt(s_oProperties.getProperty("asyncLogBatchSize").trim());
+		    }
+	        catch (Exception e) {
+	        	nBatchSize = 256;
+	        }
+		    
+		    try {
+		    	nFlushMillis = Long.parseLong(s_oProperties.getProperty("asyncLogFlushMillis").trim());
+		    }
+	        catch (Exception e) {
+	        	nFlushMillis = 200;
+	        }
+		    
+		    OnixAsyncLogger oAsyncLog = 
+		    	new OnixAsyncLogger(s_oSearchExtractLog, nBufferSize, nBatchSize, nFlushMillis, 
+		    			            s_oProperties.getProperty("asyncLogOverflow", OnixAsyncLogger.CONST_OVERFLOW_DROP).trim());
+		    
+		    oAsyncLog.start();
+		    
+		    s_oAsyncLog = oAsyncLog;
+    	}
     }
     
 	/**
@@ -451,63 +1065,119 @@ public class OnixValidator {
 	 * @param  psReplaceUrl the string to replace the specified substring (Ex. "Y:/onix_dtds")
 	 * @return None
 	 */		    
-    private static void replaceDtdReferences(String psInboxDir, String psSearchUrl, String psReplaceUrl)
+    static void replaceDtdReferences(String psInboxDir, String psSearchUrl, String psReplaceUrl)
     		throws FileNotFoundException, IOException, XMLStreamException, Exception {
     	
     	validateDirectory(psReplaceUrl, "Local ONIX Root");
     	
-    	File   oTargetDir   = new File(psInboxDir);		    	
-		File[] aSourceFiles = oTargetDir.listFiles();
-				
-		for (File onixFile : aSourceFiles) {
+    	// NOTE: The Inbox is listed lazily, since an array of its (possibly 100k+) files is not needed
+    	try (DirectoryStream<Path> oInboxStream = OnixValidatorCommonCalls.openFileStream(psInboxDir)) {
+    		
+			for (Path oInboxPath : oInboxStream)
+				replaceDtdReference(oInboxPath.toFile(), psSearchUrl, psReplaceUrl);
+    	}
+    }
+    
+	/**
+	 * Replaces the original URL mentioned in the DOCTYPE tag of an ONIX file with an alternate one, using either
+	 * the byte-level rewrite or the legacy line-based rewrite (as specified by the 'dtdRewriteMode' property).
+	 *
+	 * @param  poOnixFile the ONIX file whose DOCTYPE tag should be edited
+	 * @param  psSearchUrl the substring of the URL to replace (Ex. "http://www.editeur.org/onix")
+	 * @param  psReplaceUrl the string to replace the specified substring (Ex. "Y:/onix_dtds")
+	 * @return None
+	 */		    
+    private static void replaceDtdReference(File poOnixFile, String psSearchUrl, String psReplaceUrl)
+    		throws FileNotFoundException, IOException {
+    	
+    	// NOTE: Compressed files cannot be rewritten in place, so their DTDs are found via the entity resolver instead
+    	if (OnixArchiveValidator.isGzipFile(poOnixFile) || OnixArchiveValidator.isZipArchive(poOnixFile))
+    		return;
+    	
+    	long nStartNanos = System.nanoTime();
+    	
+		if (s_bByteLevelDtdRewrite)
+			OnixDoctypeRewriter.rewriteDoctype(poOnixFile, psSearchUrl, psReplaceUrl);
+		else
+			replaceDtdReferenceByLine(poOnixFile, psSearchUrl, psReplaceUrl);
+		
+		OnixMetrics.getInstance().recordDtdRewrite(System.nanoTime() - nStartNanos);
+    }
+    
+	/**
+	 * Prepares a single ONIX file for validation, which consists of rewriting its DOCTYPE tag when the
+	 * 'dtdResolutionMode' property is REWRITE (and doing nothing otherwise).
+	 * <p>
+	 * This function is used by the daemon mode, which handles each file as it arrives rather than as a batch.
+	 *
+	 * @param  poOnixFile the ONIX file to prepare
+	 * @return None
+	 */		    
+    static void prepareOnixFile(File poOnixFile)
+    		throws FileNotFoundException, IOException {
+    	
+    	if (s_bRewriteDtdReferences)
+    		replaceDtdReference(poOnixFile, CONST_DEFAULT_ONIX_DTD_URL_BASE, s_sLocalDtdRoot);
+    }
+    
+	/**
+	 * Replaces the original URL mentioned in the DOCTYPE tag of an ONIX file with an alternate one, by 
+	 * decoding and rewriting the file line by line.
+	 * <p>
+	 * This legacy approach (selected by setting 'dtdRewriteMode' to LINE) uses the platform charset and
+	 * normalizes the line endings of the file.  Otherwise, the OnixDoctypeRewriter is used instead.
+	 *
+	 * @param  poOnixFile the ONIX file whose DOCTYPE tag should be edited
+	 * @param  psSearchUrl the substring of the URL to replace (Ex. "http://www.editeur.org/onix")
+	 * @param  psReplaceUrl the string to replace the specified substring (Ex. "Y:/onix_dtds")
+	 * @return None
+	 */		    
+    private static void replaceDtdReferenceByLine(File onixFile, String psSearchUrl, String psReplaceUrl)
+    		throws FileNotFoundException, IOException {
+    	
+		File onixTmpFile = new File(onixFile.getAbsoluteFile() + ".tmp");
+		
+        try (FileReader fr = new FileReader(onixFile))
+        { 
+        	try (FileOutputStream onixTmpStream = new FileOutputStream(onixTmpFile))
+        	{ 
+            	boolean bFoundDTD = false;
+            	
+                String sTempLine = "";
+                
+                try (BufferedReader br = new BufferedReader(fr)) {
 
-			if (onixFile.isFile()) {
-				
-				File onixTmpFile = new File(onixFile.getAbsoluteFile() + ".tmp");
-				
-                try (FileReader fr = new FileReader(onixFile))
-                { 
-                	try (FileOutputStream onixTmpStream = new FileOutputStream(onixTmpFile))
-                	{ 
-	                	boolean bFoundDTD = false;
-	                	
-		                String sTempLine = "";
-		                
-		                try (BufferedReader br = new BufferedReader(fr)) {
-		
-		                    while ((sTempLine = br.readLine()) != null) {
-		                    	
-	                        	if (!bFoundDTD) {
-	                        		bFoundDTD = sTempLine.contains("DOCTYPE");
-	                        		
-	                        		if (bFoundDTD)
-	                        			sTempLine = sTempLine.replace(psSearchUrl, psReplaceUrl) + NWL_CHAR;
-	                        		else
-	                        			sTempLine += NWL_CHAR;
-	                        	}
-	                        	else
-	                        		sTempLine += NWL_CHAR;
-	                        	
-	                        	byte[] contentInBytes = sTempLine.getBytes();
-	
-	                        	onixTmpStream.write(contentInBytes);
-		                    }
-		                }
-                	}
+                    while ((sTempLine = br.readLine()) != null) {
+                    	
+                    	if (!bFoundDTD) {
+                    		bFoundDTD = sTempLine.contains("DOCTYPE");
+                    		
+                    		if (bFoundDTD)
+                    			sTempLine = sTempLine.replace(psSearchUrl, psReplaceUrl) + NWL_CHAR;
+                    		else
+                    			sTempLine += NWL_CHAR;
+                    	}
+                    	else
+                    		sTempLine += NWL_CHAR;
+                    	
+                    	byte[] contentInBytes = sTempLine.getBytes();
+
+                    	onixTmpStream.write(contentInBytes);
+                    }
                 }
-				
-                FileUtils.forceDelete(onixFile);
-                
-				FileUtils.moveFile(onixTmpFile, onixFile);
-			}
-	    }    	
+        	}
+        }
+		
+        // NOTE: The original is replaced in a single step, so that it cannot be lost if the program is interrupted
+		OnixRoutingJournal.replaceAtomically(onixTmpFile.toPath(), onixFile.toPath());
     }
     
 	/**
-	 * Iterates through files (supposedly ONIX) specified in a directory, validating each one in turn.
+	 * Iterates through files (supposedly ONIX) specified in a directory, validating them in parallel.
 	 * <p>
 	 * This function will validate each ONIX file (with respect to its specified DTD).  Valid files 
 	 * will be moved to a success directory while invalid files will be moved to a separate failed directory.
+	 * The files are handed to a pool of worker threads, whose size is set by the 'numOfValidationThreads' property.
 	 *
 	 * @param  psInboxDir the directory that contains all of our ONIX files to validate
 	 * @param  psOutputDir the directory to which all valid ONIX files will be moved
@@ -516,41 +1186,688 @@ public class OnixValidator {
 	 */		    
     private static void validateOnixFiles(String psInboxDir, String psOutputDir, String psFailedDir)
     		throws FileNotFoundException, IOException, XMLStreamException, ParserConfigurationException, SAXException {
+    	
+    	validateOnixFiles(psInboxDir, psOutputDir, psFailedDir, s_mnNumOfValidationThreads);
+    }
+    
+	/**
+	 * Iterates through files (supposedly ONIX) specified in a directory, validating them in parallel with
+	 * the specified number of worker threads.
+	 *
+	 * @param  psInboxDir the directory that contains all of our ONIX files to validate
+	 * @param  psOutputDir the directory to which all valid ONIX files will be moved
+	 * @param  psFailedDir the directory to which all invalid ONIX files will be moved
+	 * @param  pnNumOfThreads the number of worker threads (where 0 indicates the number of available cores)
+	 * @return None
+	 */		    
+    static void validateOnixFiles(String psInboxDir, String psOutputDir, String psFailedDir, int pnNumOfThreads)
+    		throws FileNotFoundException, IOException, XMLStreamException, ParserConfigurationException, SAXException {
         	
-        File   oTargetDir   = new File(psInboxDir);
-        File   oSuccessDir  = new File(psOutputDir);
-        File   oFailedDir   = new File(psFailedDir);
-    	File[] aSourceFiles = oTargetDir.listFiles();
-    		
-    	for (File onixFile : aSourceFiles) {
+    	long nStartMillis = System.currentTimeMillis();
+    	
+    	OnixValidationEngine   oEngine    = new OnixValidationEngine(pnNumOfThreads);
+    	OnixAdmissionScheduler oScheduler = createAdmissionScheduler(oEngine);
+    	
+    	// NOTE: The Inbox is listed lazily, and no more than a batch of its files waits for admission at any time
+    	try (DirectoryStream<Path> oInboxStream = OnixValidatorCommonCalls.openFileStream(psInboxDir)) {
     		
-    		if (onixFile.isFile()) {
-
-    			try {
-		    		if (OnixFileValidator.ValidateFile(onixFile))
-		    		{
-		    			File validFile = new File(psOutputDir + FS_SEP + onixFile.getName());
-		
-		    			FileUtils.moveFile(onixFile, validFile);
-		    		}
-		    		else
-		    		{
-		    			File invalidFile = new File(psFailedDir + FS_SEP + onixFile.getName());
-		
-		    			FileUtils.moveFile(onixFile, invalidFile);    			
-		    		}
-    			}
-			    catch (IOException e) {
-		        	OnixValidator.logError("ERROR!  Could not correctly parse ONIX file(" + onixFile.getAbsolutePath() + ").");
-					OnixValidator.logException(e);
-					
-	    			File invalidFile = new File(psFailedDir + FS_SEP + onixFile.getName());
-	    			FileUtils.moveFile(onixFile, invalidFile);
-			    }    			
-    		}
-    	}    	
+    		for (Path oInboxPath : oInboxStream)
+    			oScheduler.submit(oInboxPath.toFile(), psOutputDir, psFailedDir);
+    	}
+    	finally {
+    		oScheduler.awaitCompletion();
+    	}
+    	
+    	long nElapsedMillis = Math.max(System.currentTimeMillis() - nStartMillis, 1);
+    	int  nTotalFiles    = oEngine.getValidCount() + oEngine.getInvalidCount();
+    	
+    	logInfo("Validated (" + nTotalFiles + ") ONIX files with (" + oEngine.getNumOfThreads() + ") threads in (" + nElapsedMillis + 
+    			") ms : Valid(" + oEngine.getValidCount() + "), Invalid(" + oEngine.getInvalidCount() + "), Files/sec(" + 
+    			((nTotalFiles * 1000L) / nElapsedMillis) + ").");
+    	
+    	logInfo(oScheduler.getStatistics());
+    }
+    
+	/**
+	 * Creates the scheduler that admits the files of the Inbox into the engine, in the order of shortest-job-first with aging
+	 * (as set by 'schedulingAgingMillisPerMB') and within a budget of heap (as set by 'admissionMemoryBudgetMB').
+	 *
+	 * @param  poEngine the engine that will validate the admitted files
+	 * @return OnixAdmissionScheduler the scheduler
+	 */		    
+    private static OnixAdmissionScheduler createAdmissionScheduler(OnixValidationEngine poEngine) {
+    	
+	    return new OnixAdmissionScheduler(poEngine, s_mnDiscoveryBatchSize, getLongProperty("admissionMemoryBudgetMB"), getAdmissionHeapPercent(), 
+	    		                          getSchedulingAgingMillisPerMB());
     }    
-
+    
+	/**
+	 * Provides the estimated heap usage of a file, as a percentage of its uncompressed size (i.e., the 'admissionHeapPercent' property).
+	 *
+	 * @return int the percentage (25 by default)
+	 */		    
+    private static int getAdmissionHeapPercent() {
+    	
+    	int nHeapPercent = 25;
+    	
+	    try {
+	    	nHeapPercent = Integer.parseInt(s_oProperties.getProperty("admissionHeapPercent").trim());
+	    }
+        catch (Exception e) {
+        	nHeapPercent = 25;
+        }
+	    
+	    return nHeapPercent;
+    }
+    
+	/**
+	 * Provides the delay by which each MB of a file postpones its turn (i.e., the 'schedulingAgingMillisPerMB' property).
+	 *
+	 * @return long the delay in ms (100 by default)
+	 */		    
+    private static long getSchedulingAgingMillisPerMB() {
+    	
+    	long nAgingMillisPerMB = 100;
+    	
+	    try {
+	    	nAgingMillisPerMB = Long.parseLong(s_oProperties.getProperty("schedulingAgingMillisPerMB").trim());
+	    }
+        catch (Exception e) {
+        	nAgingMillisPerMB = 100;
+        }
+	    
+	    return nAgingMillisPerMB;
+    }
+
+	/**
+	 * Validates a unit of ONIX content (Ex. a file or an archive entry) without routing it, writing any errors to its report.
+	 * <p>
+	 * This function is called by several threads at once, so it must remain thread-safe.  If the verdict ledger is enabled 
+	 * and already knows the verdict for the content, the content is not parsed (unless it is invalid and needs its report).  If the delta index is enabled, only the
+	 * new and changed Product records of a plain file are parsed.
+	 *
+	 * @param  poSource the ONIX content to validate
+	 * @param  psFailedDir the directory into which the error report will be written
+	 * @return boolean Indicates whether or not the ONIX content was valid
+	 */		    
+    static boolean validateContent(OnixContentSource poSource, String psFailedDir)
+    		throws IOException, ParserConfigurationException, SAXException {
+    	
+    	boolean bValid        = false;
+		String  sLedgerKey    = null;
+		Boolean oKnownVerdict = null;
+		
+		if (s_oVerdictLedger != null) {
+			try (InputStream oContentStream = poSource.openStream()) {
+				sLedgerKey = s_oVerdictLedger.computeKey(oContentStream);
+			}
+			
+			oKnownVerdict = s_oVerdictLedger.getVerdict(sLedgerKey);
+		}
+		
+		// NOTE: An invalid file is validated again when reports are written, so that the resent file gets its own report
+		if ((oKnownVerdict != null) && !oKnownVerdict.booleanValue() && s_bWriteErrorReports) {
+			logInfo("ONIX file(" + poSource.getOnixPath() + ") is known to be invalid from the ledger, so it is validated again for its report.");
+			
+			oKnownVerdict = null;
+		}
+		
+		if (oKnownVerdict != null) {
+			bValid = oKnownVerdict.booleanValue();
+			
+			logInfo("The verdict(" + (bValid ? "valid" : "invalid") + ") for ONIX file(" + poSource.getOnixPath() + 
+					") is already known from the ledger.");
+			
+			OnixMetrics.getInstance().recordValidation(-1, 0, 0, bValid, false);
+			
+			return bValid;
+		}
+		
+		// NOTE: The report (if any errors are found) is written next to where the invalid file will be moved
+		OnixErrorReport      oErrorReport  = 
+			s_bWriteErrorReports ? new OnixErrorReport(getRoutingDir(psFailedDir, poSource.getReportName()).getPath(), 
+					                                   poSource.getReportName(), poSource.getOnixPath()) : null;
+		OnixFileErrorHandler oErrorHandler = new OnixFileErrorHandler(poSource.getOnixPath(), oErrorReport);
+		
+		// NOTE: A hopeless file (Ex. truncated or wrongly encoded) is abandoned once it exhausts its error budget
+		oErrorHandler.setErrorBudget(s_mnMaxErrorsPerFile, 
+				                     (s_mnMaxValidationSeconds > 0) ? (System.currentTimeMillis() + (s_mnMaxValidationSeconds * 1000L)) : 0);
+		
+		long nStartNanos  = System.nanoTime();
+		long nParsedBytes = 0;
+		
+		try {
+			File oPlainFile = poSource.getOnixFile();
+			
+			long nDeltaBytes = -1;
+			
+			// NOTE: A daily full feed only needs its new and changed Product records to be validated
+			if ((oPlainFile != null) && (s_oDeltaIndex != null) && (oPlainFile.length() >= (s_mnDeltaMinFileMB * 1024L * 1024L))) {
+				try {
+					nDeltaBytes = OnixDeltaValidator.ValidateFile(oPlainFile, s_oDeltaIndex, oErrorHandler, s_sDeltaOutputDir);
+				}
+				catch (IOException exception) {
+					oErrorHandler.recordError(exception);
+					nDeltaBytes = 0;
+				}
+			}
+			
+			if (nDeltaBytes >= 0)
+				nParsedBytes = nDeltaBytes;
+			// NOTE: A very large (uncompressed) file is split at its Product boundaries and validated on several cores
+			else if ((oPlainFile != null) && (s_mnProductSplitThresholdMB > 0) && 
+				(oPlainFile.length() >= (s_mnProductSplitThresholdMB * 1024L * 1024L))) {
+				OnixProductParallelValidator.ValidateFile(oPlainFile, oErrorHandler, s_mnProductsPerChunk);
+				
+				nParsedBytes = oPlainFile.length();
+			}
+			else {
+				try (CountingInputStream oContentStream = new CountingInputStream(poSource.openStream())) {
+					try {
+						OnixFileValidator.ValidateStream(oContentStream, poSource.getSystemId(), oErrorHandler);
+					}
+					finally {
+						nParsedBytes = oContentStream.getByteCount();
+					}
+				}
+				catch (IOException exception) {
+					oErrorHandler.recordError(exception);
+				}
+			}
+		}
+		finally {
+			if (oErrorReport != null)
+				oErrorReport.close();
+		}
+		
+		if ((oErrorReport != null) && (oErrorReport.getErrorCount() > 0))
+			logError("ERROR!  Could not correctly parse ONIX file(" + poSource.getOnixPath() + ") : its (" + oErrorReport.getErrorCount() + 
+					") errors have been written to the report(" + oErrorReport.getReportFile().getAbsolutePath() + ").");
+		
+		bValid = oErrorHandler.isValid();
+		
+		OnixMetrics.getInstance().recordValidation(System.nanoTime() - nStartNanos, nParsedBytes, oErrorHandler.getErrorCount(), 
+				                                   bValid, oErrorHandler.isAborted());
+		
+		// NOTE: A file that could not be read (or ran out of time) says nothing about its content, so its verdict is not remembered
+		if ((s_oVerdictLedger != null) && !oErrorHandler.hasIoFailure() && !oErrorHandler.isDeadlineExceeded())
+			s_oVerdictLedger.recordVerdict(sLedgerKey, bValid);
+		
+		return bValid;
+    }
+    
+	/**
+	 * Validates a single ONIX file and then moves it into the appropriate directory.
+	 * <p>
+	 * This function is called by the worker threads of the OnixValidationEngine, so it must remain thread-safe.
+	 * If the verdict ledger is enabled (via the 'verdictLedgerFile' property) and already knows the verdict 
+	 * for the content of the file, the file is routed immediately without being parsed.
+	 *
+	 * @param  poOnixFile the ONIX file to validate
+	 * @param  psOutputDir the directory to which the file will be moved if valid
+	 * @param  psFailedDir the directory to which the file will be moved if invalid
+	 * @return boolean Indicates whether or not the ONIX file was valid
+	 */		    
+    static boolean validateAndRouteFile(File poOnixFile, String psOutputDir, String psFailedDir)
+    		throws IOException, ParserConfigurationException, SAXException {
+    	
+    	// NOTE: The entries of a zip archive are validated (and possibly routed) individually
+    	if (OnixArchiveValidator.isZipArchive(poOnixFile))
+    		return OnixArchiveValidator.validateAndRouteZip(poOnixFile, psOutputDir, psFailedDir, s_bSplitArchives);
+    	
+    	boolean bValid = false;
+    	
+		try {
+			bValid = validateContent(OnixArchiveValidator.forFile(poOnixFile), psFailedDir);
+    		
+    		if (bValid)
+    		{
+    			File validFile = getRoutingFile(psOutputDir, poOnixFile.getName());
+
+    			routeFile(poOnixFile, validFile);
+    			
+    			// NOTE: The compression of valid files happens in the background, so the workers can move onto the next file
+    			if (s_oOutputCompressor != null)
+    				s_oOutputCompressor.submitBackground(validFile);
+    		}
+    		else
+    		{
+    			File invalidFile = getRoutingFile(psFailedDir, poOnixFile.getName());
+
+    			routeFile(poOnixFile, invalidFile);
+    		}
+		}
+	    catch (IOException e) {
+        	OnixValidator.logError("ERROR!  Could not correctly parse ONIX file(" + poOnixFile.getAbsolutePath() + ").");
+			OnixValidator.logException(e);
+			
+			bValid = false;
+			
+			File invalidFile = getRoutingFile(psFailedDir, poOnixFile.getName());
+			routeFile(poOnixFile, invalidFile);
+	    }
+		
+		return bValid;
+    }
+
+	/**
+	 * Moves a validated ONIX file into its destination, recording the duration of the move with the OnixMetrics.
+	 * <p>
+	 * If the routing journal is enabled (via the 'routingJournalFile' property), the move is made exactly once 
+	 * even if the program is interrupted (as described by the OnixRoutingJournal).  Afterwards, the file is stamped
+	 * with the time of its routing, as described by stampRoutingTime().
+	 *
+	 * @param  poOnixFile the ONIX file to move
+	 * @param  poTargetFile the destination of the file
+	 * @return None
+	 */		    
+    static void routeFile(File poOnixFile, File poTargetFile)
+    		throws IOException {
+    	
+    	long nStartNanos = System.nanoTime();
+    	
+    	if (s_oRoutingJournal != null)
+    		s_oRoutingJournal.route(poOnixFile, poTargetFile);
+    	else
+    		FileUtils.moveFile(poOnixFile, poTargetFile);
+    	
+    	stampRoutingTime(poTargetFile);
+    	
+    	OnixMetrics.getInstance().recordMove(System.nanoTime() - nStartNanos);
+    }
+
+	/**
+	 * Sets the modification time of a routed file to the current time.
+	 * <p>
+	 * Since a move keeps the modification time given to the file by its publisher, a feed that was generated long ago would
+	 * otherwise be purged by the OnixRetentionEngine on its first pass after the routing.  With this stamp, the age of each
+	 * file in the output and failed directories is counted from the moment that it was routed there.
+	 *
+	 * @param  poRoutedFile the file that has just been routed
+	 * @return None
+	 */		    
+    static void stampRoutingTime(File poRoutedFile) {
+    	
+    	if (!poRoutedFile.setLastModified(System.currentTimeMillis()))
+    		logError("WARNING!  Could not set the routing time of file(" + poRoutedFile.getAbsolutePath() + "), so its age is that of the original.");
+    }
+
+	/**
+	 * Provides the routing journal, so that the moves that are not a simple rename (Ex. the split of a zip archive) can be journaled.
+	 *
+	 * @return OnixRoutingJournal the journal (or null if the 'routingJournalFile' property is not set)
+	 */
+    static OnixRoutingJournal getRoutingJournal() {
+    	return s_oRoutingJournal;
+    }
+
+	/**
+	 * Provides (and creates, if necessary) the directory within the output or failed directory that should hold a routed
+	 * file or report, as specified by the 'routingShardMode' property (i.e., NONE, HASH or DATE).
+	 *
+	 * @param  psBaseDir the output or failed directory
+	 * @param  psFileName the name of the file (or report) being routed
+	 * @return File the directory that should hold the file
+	 */
+    static File getRoutingDir(String psBaseDir, String psFileName)
+    		throws IOException {
+
+    	return s_oShardLayout.getTargetDir(psBaseDir, psFileName);
+    }
+
+	/**
+	 * Provides the destination of a routed file within the output or failed directory (as described by getRoutingDir()).
+	 *
+	 * @param  psBaseDir the output or failed directory
+	 * @param  psFileName the name of the file being routed
+	 * @return File the destination of the file
+	 */
+    static File getRoutingFile(String psBaseDir, String psFileName)
+    		throws IOException {
+
+    	return s_oShardLayout.getTargetFile(psBaseDir, psFileName);
+    }
+
+	/**
+	 * Publishes the OnixMetrics via JMX (unless 'metricsJmx' is N) and starts serving them in the Prometheus 
+	 * text format on the loopback address (when 'metricsPort' is greater than 0).
+	 *
+	 * @return None
+	 */		    
+    private static void startMetrics() {
+    	
+    	int nMetricsPort = 0;
+    	
+	    try {
+	    	nMetricsPort = Integer.parseInt(s_oProperties.getProperty("metricsPort").trim());
+	    }
+        catch (Exception e) {
+        	nMetricsPort = 0;
+        }
+	    
+	    if (s_oProperties.getProperty("metricsJmx", "Y").trim().equalsIgnoreCase("y"))
+	    	OnixMetrics.getInstance().registerMBean();
+	    
+	    if (nMetricsPort > 0) {
+	    	
+	    	try {
+	    		s_oMetricsServer = new OnixMetricsServer(nMetricsPort, OnixMetrics.getInstance());
+	    		s_oMetricsServer.start();
+	    	}
+	    	catch (IOException e) {
+	    		logError("ERROR!  Could not serve the metrics on port(" + nMetricsPort + ").");
+	    		logException(e);
+	    		
+	    		s_oMetricsServer = null;
+	    	}
+	    }
+    }
+
+	/**
+	 * Waits until the background compression of the output directory (if enabled via 'compressOutput') has finished,
+	 * and then logs its throughput.
+	 *
+	 * @return None
+	 */		    
+    private static void awaitOutputCompression() {
+    	
+    	if (s_oOutputCompressor != null) {
+    		
+    		s_oOutputCompressor.awaitCompletion();
+    		
+    		logInfo(s_oOutputCompressor.getStatistics());
+    	}
+    }
+    
+	/**
+	 * Runs the validator as a daemon, which watches the Inbox directory and validates each ONIX file as it arrives.
+	 * <p>
+	 * The daemon runs until the JVM is asked to shut down, at which point the files already submitted will 
+	 * be validated and routed before the program exits.
+	 *
+	 * @param  psInboxDir the directory that will receive our ONIX files to validate
+	 * @param  psOutputDir the directory to which all valid ONIX files will be moved
+	 * @param  psFailedDir the directory to which all invalid ONIX files will be moved
+	 * @return None
+	 */		        
+    private static void runDaemon(String psInboxDir, String psOutputDir, String psFailedDir)
+    		throws IOException {
+    	
+    	long nSettleSeconds = 5;
+    	
+	    try {
+	    	nSettleSeconds = Long.parseLong(s_oProperties.getProperty("daemonSettleSeconds").trim());
+	    }
+        catch (Exception e) {
+        	nSettleSeconds = 5;
+        }
+    	
+    	OnixValidationEngine oEngine = new OnixValidationEngine(s_mnNumOfValidationThreads);
+    	
+    	OnixValidatorDaemon oDaemon = 
+    		new OnixValidatorDaemon(psInboxDir, psOutputDir, psFailedDir, createAdmissionScheduler(oEngine), oEngine, 
+    				                nSettleSeconds * 1000, s_oProperties.getProperty("daemonMarkerSuffix", ""));
+    	
+    	// NOTE: The daemon is stopped by the shutdown hook (see shutdown()), before the stores that it uses are closed
+    	synchronized (OnixValidator.class) {
+    		
+    		if (s_bShutDown)
+    			return;
+    		
+    		s_oDaemon = oDaemon;
+    	}
+    	
+    	oDaemon.run();
+    }
+    
+	/**
+	 * Creates the retention engine, which purges the old files of the log, output and failed directories according to
+	 * the age and size limits of each (Ex. 'purgeLogsOlderThanNumOfDays', 'outputRetentionDays', 'failedRetentionMaxMB').
+	 *
+	 * @param  psOutputDir the directory to which all valid ONIX files are moved
+	 * @param  psFailedDir the directory to which all invalid ONIX files are moved
+	 * @return OnixRetentionEngine the engine (or null if no limits have been set)
+	 */		        
+    private static OnixRetentionEngine createRetentionEngine(String psOutputDir, String psFailedDir) {
+    	
+    	int nDeletesPerSecond = 500;
+    	int nBatchSize        = 100;
+    	
+	    try {
+	    	nDeletesPerSecond = Integer.parseInt(s_oProperties.getProperty("retentionDeletesPerSecond").trim());
+	    }
+        catch (Exception e) {
+        	nDeletesPerSecond = 500;
+        }
+	    
+	    try {
+	    	nBatchSize = Integer.parseInt(s_oProperties.getProperty("retentionBatchSize").trim());
+	    }
+        catch (Exception e) {
+        	nBatchSize = 100;
+        }
+	    
+	    OnixRetentionEngine oRetentionEngine = new OnixRetentionEngine(nDeletesPerSecond, nBatchSize);
+	    
+	    // NOTE: The subdirectories of the HASH layout are permanent, so only the other layouts have their empty directories removed
+	    boolean bPruneEmptyDirs = !OnixShardLayout.CONST_MODE_HASH.equals(s_oShardLayout.getMode());
+	    
+	    oRetentionEngine.addPolicy(s_oProperties.getProperty("logDirectory", "log"), s_mnPurgeLogsOlderThanNumDays, 
+	    		                   getLongProperty("logRetentionMaxMB"), true);
+	    
+	    oRetentionEngine.addPolicy(psOutputDir, getLongProperty("outputRetentionDays"), getLongProperty("outputRetentionMaxMB"), bPruneEmptyDirs);
+	    oRetentionEngine.addPolicy(psFailedDir, getLongProperty("failedRetentionDays"), getLongProperty("failedRetentionMaxMB"), bPruneEmptyDirs);
+	    
+	    return oRetentionEngine.hasPolicies() ? oRetentionEngine : null;
+    }
+    
+    private static long getLongProperty(String psName) {
+    	
+    	try {
+    		return Long.parseLong(s_oProperties.getProperty(psName).trim());
+    	}
+    	catch (Exception e) {
+    		return 0;
+    	}
+    }
+    
+	/**
+	 * Starts the scheduled purges of the retention engine (every 'retentionIntervalMinutes' minutes), which run 
+	 * in the background at a limited rate of deletes.
+	 *
+	 * @return None
+	 */		        
+    private static void startRetention() {
+    	
+    	long nIntervalMinutes = 60;
+    	
+	    try {
+	    	nIntervalMinutes = Long.parseLong(s_oProperties.getProperty("retentionIntervalMinutes").trim());
+	    }
+        catch (Exception e) {
+        	nIntervalMinutes = 60;
+        }
+	    
+	    if (nIntervalMinutes > 0)
+	    	s_oRetentionEngine.start(nIntervalMinutes);
+    }
+    
+	/**
+	 * Loads the EDITEUR code lists (when 'codeListDirectory' is set), so that the value of each coded element is checked
+	 * during the parse.  The issue is chosen by 'codeListIssue' (where 0 indicates the latest issue in the directory).
+	 *
+	 * @return None
+	 */		        
+    private static void loadCodeLists()
+    		throws IOException {
+    	
+    	String sCodeListDir = s_oProperties.getProperty("codeListDirectory", "").trim();
+    	
+    	if (sCodeListDir.isEmpty())
+    		return;
+    	
+    	OnixCodeLists.setInstance(OnixCodeLists.load(sCodeListDir, (int) getLongProperty("codeListIssue")));
+    }
+    
+	/**
+	 * Opens the delta index (when 'deltaIndexFile' is set), so that the plain files of at least 'deltaMinFileMB' MB
+	 * only have their new and changed Product records validated.
+	 *
+	 * @return None
+	 */		        
+    private static void openDeltaIndex()
+    		throws IOException {
+    	
+    	String sIndexFile = s_oProperties.getProperty("deltaIndexFile", "").trim();
+    	
+    	if (sIndexFile.isEmpty())
+    		return;
+    	
+    	long nCapacity = 4194304;
+    	
+	    try {
+	    	nCapacity = Long.parseLong(s_oProperties.getProperty("deltaIndexCapacity").trim());
+	    }
+        catch (Exception e) {
+        	nCapacity = 4194304;
+        }
+	    
+	    s_mnDeltaMinFileMB = (int) getLongProperty("deltaMinFileMB");
+	    s_sDeltaOutputDir  = s_oProperties.getProperty("deltaOutputDir", "").trim();
+	    
+	    s_oDeltaIndex = new OnixDeltaIndex(sIndexFile, nCapacity);
+    }
+    
+	/**
+	 * Opens the routing journal (when 'routingJournalFile' is set), which finishes any moves that were interrupted
+	 * by the previous run of the program.
+	 *
+	 * @return None
+	 */		        
+    private static void openRoutingJournal()
+    		throws IOException {
+    	
+    	String sJournalFile = s_oProperties.getProperty("routingJournalFile", "").trim();
+    	
+    	if (sJournalFile.isEmpty())
+    		return;
+    	
+    	int  nSyncBatchSize = 256;
+    	long nSyncMillis    = 200;
+    	
+	    try {
+	    	nSyncBatchSize = Integer.parseInt(s_oProperties.getProperty("routingSyncBatchSize").trim());
+	    }
+        catch (Exception e) {
+        	nSyncBatchSize = 256;
+        }
+	    
+	    try {
+	    	nSyncMillis = Long.parseLong(s_oProperties.getProperty("routingSyncMillis").trim());
+	    }
+        catch (Exception e) {
+        	nSyncMillis = 200;
+        }
+	    
+	    OnixRoutingJournal oRoutingJournal = new OnixRoutingJournal(sJournalFile, nSyncBatchSize, nSyncMillis);
+	    
+	    oRoutingJournal.start();
+	    
+	    s_oRoutingJournal = oRoutingJournal;
+    }
+    
+	/**
+	 * Validates the files of the Inbox via the OnixValidationPipeline, in which the DOCTYPE rewrite, the validation,
+	 * the moves and the compression of the files all overlap (rather than happening in separate passes).
+	 *
+	 * @param  psInboxDir the directory that holds our ONIX files to validate
+	 * @param  psOutputDir the directory to which all valid ONIX files will be moved
+	 * @param  psFailedDir the directory to which all invalid ONIX files will be moved
+	 * @return None
+	 */		        
+    private static void runPipeline(String psInboxDir, String psOutputDir, String psFailedDir)
+    		throws IOException {
+    	
+    	int nIoThreads  = 8;
+    	int nQueueSize  = 64;
+    	int nPrefetchMB = 64;
+    	
+	    try {
+	    	nIoThreads = Integer.parseInt(s_oProperties.getProperty("pipelineIoThreads").trim());
+	    }
+        catch (Exception e) {
+        	nIoThreads = 8;
+        }
+	    
+	    try {
+	    	nQueueSize = Integer.parseInt(s_oProperties.getProperty("pipelineQueueSize").trim());
+	    }
+        catch (Exception e) {
+        	nQueueSize = 64;
+        }
+	    
+	    try {
+	    	nPrefetchMB = Integer.parseInt(s_oProperties.getProperty("pipelinePrefetchMB").trim());
+	    }
+        catch (Exception e) {
+        	nPrefetchMB = 64;
+        }
+	    
+	    OnixValidationPipeline oPipeline = 
+	    	new OnixValidationPipeline(psInboxDir, psOutputDir, psFailedDir, s_mnNumOfValidationThreads, nIoThreads, nQueueSize, nPrefetchMB,
+	    			                   s_oOutputCompressor, getLongProperty("admissionMemoryBudgetMB"), getAdmissionHeapPercent(), 
+	    			                   getSchedulingAgingMillisPerMB());
+	    
+	    oPipeline.run();
+	    
+	    logInfo(oPipeline.getAdmissionStatistics());
+    }
+    
+	/**
+	 * Starts the OnixValidationService, so that ONIX payloads can be POSTed to the validator over HTTP.  The service runs 
+	 * alongside the daemon (when 'daemonMode' is Y) or on its own, until the JVM is shut down.
+	 *
+	 * @param  psLocalDtdRoot the local directory of the DTDs/XSDs
+	 * @return None
+	 */		        
+    private static void startService(String psLocalDtdRoot)
+    		throws IOException {
+    	
+    	int  nServicePort   = 8089;
+    	int  nMaxConcurrent = 0;
+    	long nAdmitMillis   = 0;
+    	
+	    try {
+	    	nServicePort = Integer.parseInt(s_oProperties.getProperty("servicePort").trim());
+	    }
+        catch (Exception e) {
+        	nServicePort = 8089;
+        }
+	    
+	    try {
+	    	nMaxConcurrent = Integer.parseInt(s_oProperties.getProperty("serviceMaxConcurrent").trim());
+	    }
+        catch (Exception e) {
+        	nMaxConcurrent = s_mnNumOfValidationThreads;
+        }
+	    
+	    try {
+	    	nAdmitMillis = Long.parseLong(s_oProperties.getProperty("serviceAdmitMillis").trim());
+	    }
+        catch (Exception e) {
+        	nAdmitMillis = 0;
+        }
+	    
+	    OnixValidationService oService = 
+	    	new OnixValidationService(s_oProperties.getProperty("serviceBindAddress", "127.0.0.1"), nServicePort, nMaxConcurrent, nAdmitMillis, 
+	    			                  psLocalDtdRoot, s_mnMaxErrorsPerFile, s_mnMaxValidationSeconds);
+	    
+	    oService.start();
+	    
+	    // NOTE: The service is stopped by the shutdown hook (see shutdown())
+    	s_oValidationService = oService;
+    }
+    
 	/**
 	 * Ensures that the specified directory exists on the system.
 	 *
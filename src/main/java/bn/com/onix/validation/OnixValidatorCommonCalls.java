@@ -1,8 +1,6 @@
 package bn.com.onix.validation;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -10,13 +8,16 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.Collection;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.*;
-import org.apache.commons.io.filefilter.*;
 import org.slf4j.Logger;
 
 /**
@@ -25,6 +26,9 @@ import org.slf4j.Logger;
  */
 public class OnixValidatorCommonCalls {
 	
+	// NOTE: The suffix of the files that are still being written in place (Ex. by the DOCTYPE rewrite), which are never ONIX feeds
+	public static final String CONST_TEMP_FILE_SUFFIX = ".tmp";
+	
 	/**
      * This function copies the file from the source directory to the target directory (and renamed as a different file).
      *
@@ -112,25 +116,39 @@ public class OnixValidatorCommonCalls {
 	public static boolean deleteDirectories(String psTargetDirectory, double dNumOfDaysThreshold) {
 
 		boolean bSuccess = true;
-		long    nCutoff  = System.currentTimeMillis() - Math.round(dNumOfDaysThreshold * 24 * 60 * 60 * 1000);
+		final long nCutoff = System.currentTimeMillis() - Math.round(dNumOfDaysThreshold * 24 * 60 * 60 * 1000);
 
-		File oTargetDir = new File(psTargetDirectory);
+		final Path oTargetDir = new File(psTargetDirectory).toPath().toAbsolutePath().normalize();
 		
-		if (oTargetDir.exists() && oTargetDir.isDirectory()) {
+		if (Files.isDirectory(oTargetDir)) {
 
-			Collection<File> oTargetFiles = 
-					FileUtils.listFilesAndDirs(oTargetDir, TrueFileFilter.TRUE, TrueFileFilter.TRUE);
-			
-			for (File oTempFile : oTargetFiles) {
+			try {
+				// NOTE: The tree is walked (rather than listed up front), and the target directory itself is never deleted
+				Files.walkFileTree(oTargetDir, new SimpleFileVisitor<Path>() {
 
-				if (oTempFile.exists() && (oTempFile.getAbsolutePath() != psTargetDirectory)) {
-					
-					if (oTempFile.isDirectory() && FileUtils.isFileOlder(oTempFile, nCutoff)) {
-						OnixValidator.logInfo("\tDeleting the directory(" + oTempFile.getAbsolutePath() + ").");
-					    FileUtils.deleteQuietly(oTempFile);
+					@Override
+					public FileVisitResult preVisitDirectory(Path poDir, BasicFileAttributes poAttrs) {
+
+						if (!poDir.equals(oTargetDir) && (poAttrs.lastModifiedTime().toMillis() < nCutoff)) {
+							OnixValidator.logInfo("\tDeleting the directory(" + poDir + ").");
+						    FileUtils.deleteQuietly(poDir.toFile());
+
+						    return FileVisitResult.SKIP_SUBTREE;
+						}
+
+						return FileVisitResult.CONTINUE;
 					}
-				}
-		    }
+
+					@Override
+					public FileVisitResult visitFileFailed(Path poFile, IOException poException) {
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			}
+			catch (IOException e) {
+				OnixValidator.logException(e);
+				bSuccess = false;
+			}
 		}
 		else {
 			OnixValidator.logError("Cannot delete directories since the target directory(" + psTargetDirectory + ") does not exist!");
@@ -150,25 +168,40 @@ public class OnixValidatorCommonCalls {
 	public static boolean deleteFiles(String psTargetDirectory, double dNumOfDaysThreshold) {
 
 		boolean bSuccess = true;
-		long    nCutoff  = System.currentTimeMillis() - Math.round(dNumOfDaysThreshold * 24 * 60 * 60 * 1000);
+		final long nCutoff = System.currentTimeMillis() - Math.round(dNumOfDaysThreshold * 24 * 60 * 60 * 1000);
 
-		File oTargetDir = new File(psTargetDirectory);
+		final Path oTargetDir = new File(psTargetDirectory).toPath().toAbsolutePath().normalize();
 		
-		if (oTargetDir.exists() && oTargetDir.isDirectory()) {
+		if (Files.isDirectory(oTargetDir)) {
 
-			Collection<File> oTargetFiles = 
-					FileUtils.listFilesAndDirs(oTargetDir, TrueFileFilter.TRUE, TrueFileFilter.TRUE);
-			
-			for (File oTempFile : oTargetFiles) {
-				
-				if (oTempFile.exists() && (oTempFile.getAbsolutePath() != psTargetDirectory)) {
-					
-					if (FileUtils.isFileOlder(oTempFile, nCutoff)) {
-						OnixValidator.logInfo("\tDeleting the file/directory(" + oTempFile.getAbsolutePath() + ").");
-					    FileUtils.deleteQuietly(oTempFile);
+			// NOTE: The old subdirectories are deleted first, since deleting their files would make them appear younger
+			bSuccess = deleteDirectories(psTargetDirectory, dNumOfDaysThreshold);
+
+			try {
+				// NOTE: The attributes provided by the walk are used, so that no file is examined twice
+				Files.walkFileTree(oTargetDir, new SimpleFileVisitor<Path>() {
+
+					@Override
+					public FileVisitResult visitFile(Path poFile, BasicFileAttributes poAttrs) {
+
+						if (poAttrs.lastModifiedTime().toMillis() < nCutoff) {
+							OnixValidator.logInfo("\tDeleting the file(" + poFile + ").");
+						    FileUtils.deleteQuietly(poFile.toFile());
+						}
+
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path poFile, IOException poException) {
+						return FileVisitResult.CONTINUE;
 					}
-				}
-		    }			
+				});
+			}
+			catch (IOException e) {
+				OnixValidator.logException(e);
+				bSuccess = false;
+			}
 		}
 		else {
 			OnixValidator.logError("Cannot delete files since the target directory(" + psTargetDirectory + ") does not exist!");
@@ -226,38 +259,19 @@ public class OnixValidatorCommonCalls {
 	}	
 	
 	/**
-     * This function creates a compressed version of the specified file.
+     * This function creates a compressed version of the specified file (i.e., with the ".gz" suffix), 
+     * compressing it on several cores via the shared OnixParallelGzip.
      *
      * @param psInputFilepath the target file of which we want to create a compressed version
      * @return None
+     * @see IOException
      */
-	public static void gzipIt(String psInputFilepath) {
-		 
-	     byte[] buffer = new byte[1024];
-	     
-	     try{
-	 
-	    	GZIPOutputStream gzos = 
-	    		new GZIPOutputStream(new FileOutputStream(psInputFilepath + ".gz"));
-	 
-	        FileInputStream in = 
-	            new FileInputStream(psInputFilepath);
-	 
-	        int len;
-	        while ((len = in.read(buffer)) > 0) {
-	        	gzos.write(buffer, 0, len);
-	        }
-	 
-	        in.close();
-	 
-	    	gzos.finish();
-	    	gzos.close();
-	    	
-	    	OnixValidator.logDebug("Complete!  Done with running GZIP on (" + psInputFilepath + ").");
-	 
-	    }catch(IOException ex){
-	    	OnixValidator.logError(OnixValidator.getStackTrace(ex));
-	    }
+	public static void gzipIt(String psInputFilepath) 
+			throws IOException {
+		
+		OnixParallelGzip.getSharedInstance().compressFile(new File(psInputFilepath), new File(psInputFilepath + ".gz"));
+		
+		OnixValidator.logDebug("Complete!  Done with running GZIP on (" + psInputFilepath + ").");
     }
 
 	/**
@@ -290,6 +304,37 @@ public class OnixValidatorCommonCalls {
 		return bSuccess;		
 	}
 
+	/**
+     * This function determines whether a file is a temporary file (Ex. an 'x.xml.tmp' left by the DOCTYPE rewrite), 
+     * which must never be treated as an ONIX file of the Inbox.
+     *
+     * @param psFileName the name of the file
+     * @return boolean Indicates whether or not the file is a temporary file
+     */
+	public static boolean isTempFile(String psFileName) {
+		return psFileName.toLowerCase().endsWith(CONST_TEMP_FILE_SUFFIX);
+	}
+
+	/**
+     * This function lists the regular files of a directory lazily, so that a large directory (Ex. an Inbox with 100k+ files)
+     * can be processed without first building an array of all its entries.  The stream must be closed by the caller.
+     * The temporary files (see isTempFile()) are skipped.
+     *
+     * @param psDirectory the directory whose files should be listed
+     * @return DirectoryStream<Path> The stream of the files within the directory
+     * @see IOException
+     */
+	public static DirectoryStream<Path> openFileStream(String psDirectory) throws IOException {
+
+		return Files.newDirectoryStream(new File(psDirectory).toPath(), new DirectoryStream.Filter<Path>() {
+
+			@Override
+			public boolean accept(Path poPath) {
+				return Files.isRegularFile(poPath) && !isTempFile(poPath.getFileName().toString());
+			}
+		});
+	}
+
 	/**
      * This function removes all files from a directory that have a certain file extension.
      *
@@ -0,0 +1,256 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OnixValidatorDaemon --- This class keeps the validator running, watching the Inbox directory and validating each
+ *                         ONIX file as soon as it has been completely written.
+ * <p>
+ * Since the JVM, the worker threads and the grammar/schema caches all stay warm, a new file is validated and routed
+ * within seconds of being dropped into the Inbox.  A file is considered complete when either its size and modification
+ * time have been stable for the settle period or (if a marker suffix is configured) its marker file has appeared.
+ * @author    Aaron Kendall
+ */
+public class OnixValidatorDaemon {
+
+	private final File                   m_oInboxDir;
+	private final String                 m_sOutputDir;
+	private final String                 m_sFailedDir;
+	private final OnixAdmissionScheduler m_oScheduler;
+	private final OnixValidationEngine   m_oEngine;
+	private final long                   m_nSettleMillis;
+	private final String                 m_sMarkerSuffix;
+
+	private final Map<String, PendingFile> m_oPendingFiles  = new HashMap<String, PendingFile>();
+	private final Set<String>              m_oInFlightFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final CountDownLatch m_oStoppedLatch = new CountDownLatch(1);
+
+	private volatile boolean m_bRunning = true;
+
+	/**
+	 * Tracks the size and modification time of a file that is still being written into the Inbox.
+	 */
+	private static class PendingFile {
+
+		long nSize         = -1;
+		long nLastModified = -1;
+		long nStableSince  = 0;
+	}
+
+	/**
+	 * Creates the daemon, which will hand each completed file to the provided engine.
+	 *
+	 * @param  psInboxDir the directory to watch for new ONIX files
+	 * @param  psOutputDir the directory to which all valid ONIX files will be moved
+	 * @param  psFailedDir the directory to which all invalid ONIX files will be moved
+	 * @param  poScheduler the scheduler that admits the files into the engine (in the order of shortest-job-first and within its memory budget)
+	 * @param  poEngine the engine whose worker threads will validate the files
+	 * @param  pnSettleMillis the time for which a file must be unchanged before it is considered complete
+	 * @param  psMarkerSuffix the suffix of the marker file that signals completion (Ex. ".done"), or an empty string to use the settle time
+	 */
+	public OnixValidatorDaemon(String psInboxDir, String psOutputDir, String psFailedDir, OnixAdmissionScheduler poScheduler,
+			                   OnixValidationEngine poEngine, long pnSettleMillis, String psMarkerSuffix) {
+
+		m_oInboxDir     = new File(psInboxDir);
+		m_sOutputDir    = psOutputDir;
+		m_sFailedDir    = psFailedDir;
+		m_oScheduler    = poScheduler;
+		m_oEngine       = poEngine;
+		m_nSettleMillis = Math.max(pnSettleMillis, 0);
+		m_sMarkerSuffix = (psMarkerSuffix != null) ? psMarkerSuffix.trim() : "";
+	}
+
+	/**
+	 * Watches the Inbox directory and submits each completed file to the scheduler, blocking until stop() is called.
+	 * <p>
+	 * Any files already in the Inbox when the daemon starts are also picked up.
+	 *
+	 * @return None
+	 * @see    IOException
+	 */
+	public void run()
+			throws IOException {
+
+		Path oInboxPath = m_oInboxDir.toPath();
+		long nPollMillis = Math.max(Math.min(m_nSettleMillis, 1000), 100);
+
+		try (WatchService oWatcher = FileSystems.getDefault().newWatchService()) {
+
+			oInboxPath.register(oWatcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+			OnixValidator.logInfo("The ONIX Validator daemon is watching the Inbox(" + m_oInboxDir.getAbsolutePath() + ").");
+
+			scanInbox();
+
+			while (m_bRunning) {
+
+				WatchKey oKey = oWatcher.poll(nPollMillis, TimeUnit.MILLISECONDS);
+
+				if (oKey != null) {
+
+					for (WatchEvent<?> oEvent : oKey.pollEvents()) {
+
+						if (oEvent.kind() == StandardWatchEventKinds.OVERFLOW)
+							scanInbox();
+						else
+							addPendingFile(oInboxPath.resolve((Path) oEvent.context()).toFile());
+					}
+
+					oKey.reset();
+				}
+
+				submitCompletedFiles();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			m_oScheduler.awaitCompletion();
+
+			OnixValidator.logInfo("The ONIX Validator daemon has stopped : Valid(" + m_oEngine.getValidCount() +
+			                      "), Invalid(" + m_oEngine.getInvalidCount() + ").");
+
+			OnixValidator.logInfo(m_oScheduler.getStatistics());
+
+			m_oStoppedLatch.countDown();
+		}
+	}
+
+	/**
+	 * Signals the daemon to stop, and then blocks until the files already submitted have been validated and routed.
+	 *
+	 * @return None
+	 */
+	public void stop() {
+
+		m_bRunning = false;
+
+		try {
+			m_oStoppedLatch.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void addPendingFile(File poFile) {
+
+		String sName = poFile.getName();
+
+		if (OnixValidatorCommonCalls.isTempFile(sName))
+			return;
+
+		if (!m_sMarkerSuffix.isEmpty() && sName.endsWith(m_sMarkerSuffix)) {
+
+			// NOTE: The arrival of a marker file makes its ONIX file eligible
+			poFile = new File(poFile.getParentFile(), sName.substring(0, sName.length() - m_sMarkerSuffix.length()));
+			sName  = poFile.getName();
+		}
+
+		if (!m_oInFlightFiles.contains(sName) && !m_oPendingFiles.containsKey(sName))
+			m_oPendingFiles.put(sName, new PendingFile());
+	}
+
+	/**
+	 * Determines whether a pending file has been completely written, by way of either its marker file or its settle time.
+	 *
+	 * @return boolean Indicates whether or not the file is ready to be validated
+	 */
+	private boolean isComplete(File poFile, PendingFile poPending, long pnNowMillis) {
+
+		if (!m_sMarkerSuffix.isEmpty())
+			return new File(poFile.getAbsolutePath() + m_sMarkerSuffix).exists();
+
+		long nSize         = poFile.length();
+		long nLastModified = poFile.lastModified();
+
+		if ((nSize != poPending.nSize) || (nLastModified != poPending.nLastModified)) {
+
+			poPending.nSize         = nSize;
+			poPending.nLastModified = nLastModified;
+			poPending.nStableSince  = pnNowMillis;
+
+			return false;
+		}
+
+		return (pnNowMillis - poPending.nStableSince) >= m_nSettleMillis;
+	}
+
+	private void scanInbox() {
+
+		try (DirectoryStream<Path> oInboxStream = OnixValidatorCommonCalls.openFileStream(m_oInboxDir.getPath())) {
+
+			for (Path oInboxPath : oInboxStream)
+				addPendingFile(oInboxPath.toFile());
+		}
+		catch (IOException e) {
+			OnixValidator.logError("ERROR!  Could not scan the Inbox directory(" + m_oInboxDir.getAbsolutePath() + ").");
+			OnixValidator.logException(e);
+		}
+	}
+
+	private void submitCompletedFiles() {
+
+		long nNowMillis = System.currentTimeMillis();
+
+		Iterator<Map.Entry<String, PendingFile>> oIter = m_oPendingFiles.entrySet().iterator();
+
+		while (oIter.hasNext()) {
+
+			Map.Entry<String, PendingFile> oEntry = oIter.next();
+
+			final String sName    = oEntry.getKey();
+			File         onixFile = new File(m_oInboxDir, sName);
+
+			if (!onixFile.isFile()) {
+				oIter.remove();
+				continue;
+			}
+
+			if (!isComplete(onixFile, oEntry.getValue(), nNowMillis))
+				continue;
+
+			oIter.remove();
+
+			try {
+				if (!m_sMarkerSuffix.isEmpty())
+					new File(onixFile.getAbsolutePath() + m_sMarkerSuffix).delete();
+
+				OnixValidator.prepareOnixFile(onixFile);
+			}
+			catch (Exception e) {
+				OnixValidator.logError("ERROR!  Could not prepare ONIX file(" + onixFile.getAbsolutePath() + ") for validation.");
+				OnixValidator.logException(e);
+			}
+
+			m_oInFlightFiles.add(sName);
+
+			// NOTE: The submission blocks while the scheduler's queue is full, which holds back the daemon until files are admitted
+			m_oScheduler.submit(onixFile, m_sOutputDir, m_sFailedDir, new Runnable() {
+
+				@Override
+				public void run() {
+					m_oInFlightFiles.remove(sName);
+				}
+			});
+		}
+	}
+}
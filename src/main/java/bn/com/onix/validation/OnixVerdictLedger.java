@@ -0,0 +1,419 @@
+package bn.com.onix.validation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OnixVerdictLedger --- This class remembers the verdict of every ONIX file that has been validated, keyed by the hash
+ *                       of its content along with the DTD/XSD that it refers to, so that resent files are never revalidated.
+ * <p>
+ * The ledger is an append-only text file (one verdict per line), which is loaded into memory upon opening and
+ * compacted whenever most of its lines have become redundant.  All of the methods are safe for concurrent workers.
+ * <p>
+ * Each key also carries the version of the local DTD/XSD files (see computeGrammarVersion()), so that the verdicts
+ * are not trusted once the grammars have been replaced.  Only the most recently used verdicts are held in memory
+ * (and kept by a compaction), so that the ledger cannot outgrow the heap of a long-running daemon.
+ * @author    Aaron Kendall
+ */
+public final class OnixVerdictLedger {
+
+	public static final int CONST_HASH_BUFFER_SIZE = 64 * 1024;
+
+	public static final int CONST_DEFAULT_MAX_VERDICTS = 250000;
+
+	public static final String CONST_VALID_FLAG   = "V";
+	public static final String CONST_INVALID_FLAG = "I";
+
+	private static final Charset s_oLedgerCharset = Charset.forName("UTF-8");
+
+	private final File   m_oLedgerFile;
+	private final String m_sGrammarVersion;
+
+	private final Map<String, Boolean> m_oVerdicts;
+
+	private final AtomicLong m_nHitCount  = new AtomicLong(0);
+	private final AtomicLong m_nMissCount = new AtomicLong(0);
+
+	private Writer  m_oLedgerWriter = null;
+	private long    m_nLedgerLines  = 0;
+	private boolean m_bClosed       = false;
+
+	/**
+	 * Opens (or creates) the ledger file, loading its most recent verdicts and compacting it if necessary.
+	 *
+	 * @param  psLedgerFilepath the path of the ledger file
+	 * @param  psGrammarVersion the version of the local DTD/XSD files (as computed by computeGrammarVersion())
+	 * @param  pnMaxVerdicts the maximum number of verdicts held in memory
+	 * @see    IOException
+	 */
+	public OnixVerdictLedger(String psLedgerFilepath, String psGrammarVersion, final int pnMaxVerdicts)
+			throws IOException {
+
+		m_oLedgerFile     = new File(psLedgerFilepath);
+		m_sGrammarVersion = (psGrammarVersion != null) ? psGrammarVersion : "";
+
+		// NOTE: The map is kept in the order of access, so that the least recently used verdict is the one forgotten
+		m_oVerdicts = new LinkedHashMap<String, Boolean>(1024, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> poEldest) {
+				return size() > Math.max(pnMaxVerdicts, 1);
+			}
+		};
+
+		if (m_oLedgerFile.getAbsoluteFile().getParentFile() != null)
+			m_oLedgerFile.getAbsoluteFile().getParentFile().mkdirs();
+
+		if (m_oLedgerFile.exists())
+			load();
+
+		if (needsCompaction())
+			compact();
+		else
+			openWriter();
+
+		OnixValidator.logInfo("Loaded (" + m_oVerdicts.size() + ") verdicts from the ledger(" + m_oLedgerFile.getAbsolutePath() + ").");
+	}
+
+	/**
+	 * Closes the ledger, compacting it beforehand if necessary.  Closing a closed ledger has no effect.
+	 *
+	 * @return None
+	 * @see    IOException
+	 */
+	public synchronized void close()
+			throws IOException {
+
+		if (m_bClosed)
+			return;
+
+		m_bClosed = true;
+
+		if (needsCompaction())
+			compactFile();
+
+		if (m_oLedgerWriter != null) {
+			m_oLedgerWriter.close();
+			m_oLedgerWriter = null;
+		}
+	}
+
+	/**
+	 * Rewrites the ledger so that it only contains the latest verdict for each key, replacing the old file atomically.
+	 *
+	 * @return None
+	 * @see    IOException
+	 */
+	public synchronized void compact()
+			throws IOException {
+
+		checkOpen();
+
+		compactFile();
+
+		openWriter();
+	}
+
+	/**
+	 * Computes the ledger key of an ONIX file, which is the SHA-256 hash of its content along with the identifier
+	 * of the DTD/XSD that it refers to (and of the issue of the code lists, if they are checked).
+	 * <p>
+	 * The file is streamed through the hash, so that memory use is constant regardless of the file size.
+	 *
+	 * @param  poOnixFile the ONIX file
+	 * @return the key of the file within the ledger
+	 * @see    IOException
+	 */
+	public String computeKey(File poOnixFile)
+			throws IOException {
+
+		try (InputStream oFileStream = new FileInputStream(poOnixFile)) {
+			return computeKey(oFileStream);
+		}
+	}
+
+	/**
+	 * Computes the ledger key of an ONIX stream, which is the SHA-256 hash of its content along with the identifier
+	 * of the DTD/XSD that it refers to (and of the issue of the code lists, if they are checked).
+	 *
+	 * @param  poOnixStream the stream containing the ONIX content (which is read to its end, but not closed)
+	 * @return the key of the content within the ledger
+	 * @see    IOException
+	 */
+	public String computeKey(InputStream poOnixStream)
+			throws IOException {
+
+		BufferedInputStream oBufferedStream = new BufferedInputStream(poOnixStream, CONST_HASH_BUFFER_SIZE);
+		OnixFileFormat      oFormat         = OnixFileFormat.sniff(oBufferedStream);
+
+		MessageDigest oDigest = null;
+
+		try {
+			oDigest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		byte[] aBuffer = new byte[CONST_HASH_BUFFER_SIZE];
+		int    nRead   = 0;
+
+		while ((nRead = oBufferedStream.read(aBuffer)) > 0)
+			oDigest.update(aBuffer, 0, nRead);
+
+		StringBuilder sbKey = new StringBuilder(96);
+
+		for (byte nByte : oDigest.digest()) {
+			sbKey.append(Character.forDigit((nByte >> 4) & 0xF, 16));
+			sbKey.append(Character.forDigit(nByte & 0xF, 16));
+		}
+
+		sbKey.append('\t').append(oFormat.getGrammarId().replace('\t', ' '));
+
+		if (!m_sGrammarVersion.isEmpty())
+			sbKey.append(" grammarVersion=").append(m_sGrammarVersion);
+
+		// NOTE: A verdict that included the code lists only holds for the issue of the code lists that was checked
+		if (OnixCodeLists.getInstance() != null)
+			sbKey.append(" codeListIssue=").append(OnixCodeLists.getInstance().getIssue());
+
+		return sbKey.toString();
+	}
+
+	/**
+	 * Computes the version of the DTD/XSD files (along with their modules) within the local ONIX root, which is a hash
+	 * of the relative path, size and modification time of each file.  Any download of new grammars changes the version.
+	 *
+	 * @param  poLocalDtdRoot the local directory that contains the downloaded DTDs and XSDs
+	 * @return the version of the grammars (or an empty string if the directory does not exist)
+	 * @see    IOException
+	 */
+	public static String computeGrammarVersion(File poLocalDtdRoot)
+			throws IOException {
+
+		if ((poLocalDtdRoot == null) || !poLocalDtdRoot.isDirectory())
+			return "";
+
+		final Path         oRootPath = poLocalDtdRoot.toPath();
+		final List<String> oEntries  = new ArrayList<String>();
+
+		Files.walkFileTree(oRootPath, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult visitFile(Path poPath, BasicFileAttributes poAttributes) {
+
+				String sName = poPath.getFileName().toString().toLowerCase();
+
+				if (poAttributes.isRegularFile() &&
+					(sName.endsWith(".dtd") || sName.endsWith(".ent") || sName.endsWith(".mod") || sName.endsWith(".xsd"))) {
+					oEntries.add(oRootPath.relativize(poPath).toString().replace('\\', '/') + "\t" + poAttributes.size() + "\t" +
+					             poAttributes.lastModifiedTime().toMillis());
+				}
+
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		// NOTE: The walk does not guarantee any order, so the entries are sorted to keep the version stable
+		Collections.sort(oEntries);
+
+		MessageDigest oDigest = null;
+
+		try {
+			oDigest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		for (String sEntry : oEntries)
+			oDigest.update((sEntry + "\n").getBytes(s_oLedgerCharset));
+
+		StringBuilder sbVersion = new StringBuilder(16);
+		byte[]        aDigest   = oDigest.digest();
+
+		// NOTE: The first 8 bytes are plenty to tell the downloads of the grammars apart
+		for (int i = 0; i < 8; ++i) {
+			sbVersion.append(Character.forDigit((aDigest[i] >> 4) & 0xF, 16));
+			sbVersion.append(Character.forDigit(aDigest[i] & 0xF, 16));
+		}
+
+		return sbVersion.toString();
+	}
+
+	public long getHitCount() {
+		return m_nHitCount.get();
+	}
+
+	public long getMissCount() {
+		return m_nMissCount.get();
+	}
+
+	/**
+	 * Returns a summary of the ledger's usage, which is intended for logging.
+	 *
+	 * @return the string that describes the number of verdicts, hits and misses
+	 */
+	public synchronized String getStatistics() {
+		return "Verdict Ledger : Verdicts(" + m_oVerdicts.size() + "), Hits(" + getHitCount() + "), Misses(" + getMissCount() + ")";
+	}
+
+	/**
+	 * Returns the past verdict for the specified key.
+	 *
+	 * @param  psKey the key of the ONIX file (as computed by computeKey())
+	 * @return the verdict (or null if the content has never been validated)
+	 */
+	public synchronized Boolean getVerdict(String psKey) {
+
+		Boolean oVerdict = m_oVerdicts.get(psKey);
+
+		if (oVerdict != null)
+			m_nHitCount.incrementAndGet();
+		else
+			m_nMissCount.incrementAndGet();
+
+		return oVerdict;
+	}
+
+	/**
+	 * Records the verdict for the specified key, appending it to the ledger file.
+	 *
+	 * @param  psKey the key of the ONIX file (as computed by computeKey())
+	 * @param  pbValid the verdict of the validation
+	 * @return None
+	 * @see    IOException
+	 * @see    IllegalStateException
+	 */
+	public synchronized void recordVerdict(String psKey, boolean pbValid)
+			throws IOException {
+
+		checkOpen();
+
+		Boolean oPrevious = m_oVerdicts.put(psKey, pbValid);
+
+		if ((oPrevious == null) || (oPrevious.booleanValue() != pbValid)) {
+
+			writeLine(m_oLedgerWriter, psKey, pbValid);
+			m_oLedgerWriter.flush();
+
+			++m_nLedgerLines;
+		}
+	}
+
+	private void checkOpen() {
+
+		if (m_bClosed)
+			throw new IllegalStateException("The ledger(" + m_oLedgerFile.getAbsolutePath() + ") has been closed.");
+	}
+
+	private void compactFile()
+			throws IOException {
+
+		if (m_oLedgerWriter != null) {
+			m_oLedgerWriter.close();
+			m_oLedgerWriter = null;
+		}
+
+		File oCompactFile = new File(m_oLedgerFile.getAbsolutePath() + ".tmp");
+
+		try (Writer oWriter = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(oCompactFile.toPath()), s_oLedgerCharset))) {
+
+			for (Map.Entry<String, Boolean> oEntry : m_oVerdicts.entrySet())
+				writeLine(oWriter, oEntry.getKey(), oEntry.getValue());
+		}
+
+		Files.move(oCompactFile.toPath(), m_oLedgerFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		m_nLedgerLines = m_oVerdicts.size();
+
+		OnixValidator.logInfo("Compacted the ledger(" + m_oLedgerFile.getAbsolutePath() + ") to (" + m_nLedgerLines + ") verdicts.");
+	}
+
+	private void load()
+			throws IOException {
+
+		try (BufferedReader oReader = new BufferedReader(new InputStreamReader(new FileInputStream(m_oLedgerFile), s_oLedgerCharset))) {
+
+			String sLine = null;
+
+			while ((sLine = oReader.readLine()) != null) {
+
+				// NOTE: A partially written line (i.e., from a crash) is ignored, since it lacks the trailing verdict
+				int nLastTab = sLine.lastIndexOf('\t');
+				if (nLastTab <= 0)
+					continue;
+
+				String sFlag = sLine.substring(nLastTab + 1);
+
+				if (sFlag.equals(CONST_VALID_FLAG) || sFlag.equals(CONST_INVALID_FLAG)) {
+					m_oVerdicts.put(sLine.substring(0, nLastTab), sFlag.equals(CONST_VALID_FLAG));
+					++m_nLedgerLines;
+				}
+			}
+		}
+	}
+
+	private boolean needsCompaction() {
+		return (m_nLedgerLines > 1000) && (m_nLedgerLines > (2 * m_oVerdicts.size()));
+	}
+
+	private void openWriter()
+			throws IOException {
+
+		boolean bMissingNewline = false;
+
+		// NOTE: If a crash left a partially written line, it must be terminated before any new lines are appended
+		if (m_oLedgerFile.length() > 0) {
+
+			try (RandomAccessFile oLedgerRaf = new RandomAccessFile(m_oLedgerFile, "r")) {
+				oLedgerRaf.seek(oLedgerRaf.length() - 1);
+				bMissingNewline = (oLedgerRaf.read() != '\n');
+			}
+		}
+
+		m_oLedgerWriter =
+			new BufferedWriter(new OutputStreamWriter(new FileOutputStream(m_oLedgerFile, true), s_oLedgerCharset));
+
+		if (bMissingNewline) {
+			m_oLedgerWriter.write('\n');
+			m_oLedgerWriter.flush();
+		}
+	}
+
+	private static void writeLine(Writer poWriter, String psKey, boolean pbValid)
+			throws IOException {
+
+		poWriter.write(psKey);
+		poWriter.write('\t');
+		poWriter.write(pbValid ? CONST_VALID_FLAG : CONST_INVALID_FLAG);
+		poWriter.write('\n');
+	}
+}
@@ -0,0 +1,214 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * OnixAdmissionSchedulerTest --- The tests of the OnixAdmissionScheduler, which must admit the files in the order of their
+ *                                aged sizes, within its memory budget, and must always release what it has reserved.
+ * @author    Aaron Kendall
+ */
+public class OnixAdmissionSchedulerTest {
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	/**
+	 * Records the admitted files, holding on to their callbacks until the test releases them.
+	 */
+	private static class RecordingTarget implements OnixAdmissionScheduler.AdmissionTarget {
+
+		final List<String>   m_oAdmitted = new ArrayList<String>();
+		final List<Runnable> m_oReleases = new ArrayList<Runnable>();
+
+		String m_sRejectedName = null;
+
+		@Override
+		public synchronized void admit(File poOnixFile, String psOutputDir, String psFailedDir, Runnable poOnRelease) {
+
+			if (poOnixFile.getName().equals(m_sRejectedName))
+				throw new IllegalStateException("The target has been shut down.");
+
+			m_oAdmitted.add(poOnixFile.getName());
+			m_oReleases.add(poOnRelease);
+		}
+
+		synchronized List<String> getAdmitted() {
+			return new ArrayList<String>(m_oAdmitted);
+		}
+
+		void release(int pnIndex) {
+
+			Runnable oRelease = null;
+
+			synchronized (this) {
+				oRelease = m_oReleases.get(pnIndex);
+			}
+
+			oRelease.run();
+		}
+	}
+
+	@Before
+	public void setUp() {
+		OnixTestFixtures.configureLogger();
+	}
+
+	private File createFile(String psName, long pnSizeMB)
+			throws IOException {
+
+		File oFile = m_oTempFolder.newFile(psName);
+
+		// NOTE: Only the length of the file matters to the scheduler, so the file is left sparse
+		try (RandomAccessFile oRaf = new RandomAccessFile(oFile, "rw")) {
+			oRaf.setLength(pnSizeMB * 1024L * 1024L);
+		}
+
+		return oFile;
+	}
+
+	@Test
+	public void testSmallFileOvertakesLargeFile()
+			throws IOException {
+
+		RecordingTarget        oTarget    = new RecordingTarget();
+		OnixAdmissionScheduler oScheduler = new OnixAdmissionScheduler(oTarget, 1, 10, 100000, 0, 1000);
+
+		oScheduler.submit(createFile("First.xml", 0), "out", "failed");
+		oScheduler.submit(createFile("Large.xml", 50), "out", "failed");
+		oScheduler.submit(createFile("Small.xml", 1), "out", "failed");
+
+		assertEquals(1, oTarget.getAdmitted().size());
+
+		oTarget.release(0);
+		oTarget.release(1);
+		oTarget.release(2);
+
+		oScheduler.awaitIdle();
+
+		assertEquals("First.xml", oTarget.getAdmitted().get(0));
+		assertEquals("Small.xml", oTarget.getAdmitted().get(1));
+		assertEquals("Large.xml", oTarget.getAdmitted().get(2));
+	}
+
+	@Test
+	public void testFifoWithoutAging()
+			throws IOException {
+
+		RecordingTarget        oTarget    = new RecordingTarget();
+		OnixAdmissionScheduler oScheduler = new OnixAdmissionScheduler(oTarget, 1, 10, 100000, 0, 0);
+
+		oScheduler.submit(createFile("First.xml", 0), "out", "failed");
+		oScheduler.submit(createFile("Large.xml", 50), "out", "failed");
+		oScheduler.submit(createFile("Small.xml", 1), "out", "failed");
+
+		for (int i = 0; i < 3; ++i)
+			oTarget.release(i);
+
+		oScheduler.awaitIdle();
+
+		assertEquals("Large.xml", oTarget.getAdmitted().get(1));
+		assertEquals("Small.xml", oTarget.getAdmitted().get(2));
+	}
+
+	@Test
+	public void testLargeFileWaitsForMemory()
+			throws IOException {
+
+		RecordingTarget        oTarget    = new RecordingTarget();
+		OnixAdmissionScheduler oScheduler = new OnixAdmissionScheduler(oTarget, 4, 10, 20, 100, 0);
+
+		// NOTE: Each file costs 4 MB plus its size, so the second file does not fit beside the first one
+		oScheduler.submit(createFile("First.xml", 0), "out", "failed");
+		oScheduler.submit(createFile("Large.xml", 18), "out", "failed");
+		oScheduler.submit(createFile("Small.xml", 0), "out", "failed");
+
+		// NOTE: The head of the queue is never overtaken, even by a file that would fit
+		assertEquals(1, oTarget.getAdmitted().size());
+
+		oTarget.release(0);
+
+		assertEquals(2, oTarget.getAdmitted().size());
+		assertEquals("Large.xml", oTarget.getAdmitted().get(1));
+
+		oTarget.release(1);
+		oTarget.release(2);
+
+		oScheduler.awaitIdle();
+
+		assertEquals(3, oTarget.getAdmitted().size());
+	}
+
+	@Test
+	public void testRejectedAdmissionIsReleased()
+			throws IOException {
+
+		final AtomicInteger oCompleted = new AtomicInteger(0);
+
+		RecordingTarget        oTarget    = new RecordingTarget();
+		OnixAdmissionScheduler oScheduler = new OnixAdmissionScheduler(oTarget, 1, 10, 100000, 0, 0);
+
+		Runnable oOnComplete = new Runnable() {
+
+			@Override
+			public void run() {
+				oCompleted.incrementAndGet();
+			}
+		};
+
+		oTarget.m_sRejectedName = "Rejected.xml";
+
+		oScheduler.submit(createFile("Rejected.xml", 0), "out", "failed", oOnComplete);
+
+		// NOTE: The rejected file no longer holds the only slot, so the next file is admitted at once
+		oScheduler.submit(createFile("Accepted.xml", 0), "out", "failed", oOnComplete);
+
+		assertEquals(1, oCompleted.get());
+		assertEquals(1, oTarget.getAdmitted().size());
+		assertEquals("Accepted.xml", oTarget.getAdmitted().get(0));
+
+		oTarget.release(0);
+
+		oScheduler.awaitIdle();
+
+		assertEquals(2, oCompleted.get());
+	}
+
+	@Test
+	public void testReleaseIsCountedOnce()
+			throws IOException {
+
+		RecordingTarget        oTarget    = new RecordingTarget();
+		OnixAdmissionScheduler oScheduler = new OnixAdmissionScheduler(oTarget, 1, 10, 100000, 0, 0);
+
+		oScheduler.submit(createFile("First.xml", 0), "out", "failed");
+
+		oTarget.release(0);
+		oTarget.release(0);
+
+		// NOTE: Had the second release freed another slot, both of these files would be admitted at once
+		oScheduler.submit(createFile("Second.xml", 0), "out", "failed");
+		oScheduler.submit(createFile("Third.xml", 0), "out", "failed");
+
+		assertEquals(2, oTarget.getAdmitted().size());
+
+		oTarget.release(1);
+		oTarget.release(2);
+
+		oScheduler.awaitIdle();
+
+		assertTrue(oScheduler.getStatistics().contains("Admitted(3)"));
+	}
+}
@@ -0,0 +1,117 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * OnixArchiveValidatorTest --- The tests of the OnixArchiveValidator, which must give each entry of a split archive
+ *                              (and its report) a name of its own.
+ * @author    Aaron Kendall
+ */
+public class OnixArchiveValidatorTest {
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	private File m_oLocalDtdRoot = null;
+	private File m_oInboxDir     = null;
+	private File m_oOutputDir    = null;
+	private File m_oFailedDir    = null;
+
+	@Before
+	public void setUp()
+			throws IOException {
+
+		OnixTestFixtures.configureLogger();
+
+		m_oLocalDtdRoot = OnixTestFixtures.createLocalDtdRoot(m_oTempFolder.newFolder("dtds"));
+		m_oInboxDir     = m_oTempFolder.newFolder("inbox");
+		m_oOutputDir    = m_oTempFolder.newFolder("valid");
+		m_oFailedDir    = m_oTempFolder.newFolder("failed");
+
+		OnixEntityResolver oEntityResolver = new OnixEntityResolver(m_oLocalDtdRoot.getPath());
+
+		OnixFileValidator.setEntityResolver(oEntityResolver);
+		OnixValidator.registerGrammars(m_oLocalDtdRoot.getPath(), oEntityResolver);
+	}
+
+	@After
+	public void tearDown()
+			throws IOException {
+
+		OnixFileValidator.setEntityResolver(null);
+		OnixGrammarCache.getInstance().loadGrammars(m_oLocalDtdRoot.getPath(), new String[0], null);
+	}
+
+	private File createArchive(String psName, String... paEntryNames)
+			throws IOException {
+
+		File oArchiveFile = new File(m_oInboxDir, psName);
+
+		try (ZipOutputStream oZip = new ZipOutputStream(new FileOutputStream(oArchiveFile))) {
+
+			for (String sEntryName : paEntryNames) {
+
+				// NOTE: Each entry records its own name, so that the test can tell where each one was extracted
+				String sOnix = OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "A",
+				                                             "<RecordReference>" + sEntryName + "</RecordReference>");
+
+				oZip.putNextEntry(new ZipEntry(sEntryName));
+				oZip.write(sOnix.getBytes(StandardCharsets.UTF_8));
+				oZip.closeEntry();
+			}
+		}
+
+		return oArchiveFile;
+	}
+
+	private static String readFile(File poFile)
+			throws IOException {
+		return new String(Files.readAllBytes(poFile.toPath()), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testFlattenedNamesDoNotCollide()
+			throws IOException {
+
+		File oArchiveFile = createArchive("Feed.zip", "a_b.xml", "a/b.xml", "a_b_1.xml");
+
+		assertTrue(OnixArchiveValidator.validateAndRouteZip(oArchiveFile, m_oOutputDir.getPath(), m_oFailedDir.getPath(), true));
+
+		assertFalse(oArchiveFile.exists());
+		assertEquals(0, m_oFailedDir.list().length);
+		assertEquals(3, m_oOutputDir.list().length);
+
+		// NOTE: The (sorted) first entry keeps its flattened name, and each later one has its index inserted
+		assertTrue(readFile(new File(m_oOutputDir, "Feed_a_b.xml")).contains("<RecordReference>a/b.xml</RecordReference>"));
+		assertTrue(readFile(new File(m_oOutputDir, "Feed_a_b_1.xml")).contains("<RecordReference>a_b.xml</RecordReference>"));
+		assertTrue(readFile(new File(m_oOutputDir, "Feed_a_b_1_2.xml")).contains("<RecordReference>a_b_1.xml</RecordReference>"));
+	}
+
+	@Test
+	public void testDistinctNamesAreKept()
+			throws IOException {
+
+		File oArchiveFile = createArchive("Feed.zip", "books/2024.xml", "books/2025.xml");
+
+		assertTrue(OnixArchiveValidator.validateAndRouteZip(oArchiveFile, m_oOutputDir.getPath(), m_oFailedDir.getPath(), true));
+
+		assertTrue(new File(m_oOutputDir, "Feed_books_2024.xml").isFile());
+		assertTrue(new File(m_oOutputDir, "Feed_books_2025.xml").isFile());
+	}
+}
@@ -0,0 +1,107 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * OnixCodeListCheckerTest --- The tests of the OnixCodeListChecker, which must fail a file whose coded values are not part of
+ *                             their lists in the loaded issue (and must leave alone the elements whose lists are not loaded).
+ * @author    Aaron Kendall
+ */
+public class OnixCodeListCheckerTest {
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	private File m_oLocalDtdRoot = null;
+	private File m_oCodeListDir  = null;
+
+	@Before
+	public void setUp()
+			throws IOException {
+
+		OnixTestFixtures.configureLogger();
+
+		m_oLocalDtdRoot = OnixTestFixtures.createLocalDtdRoot(m_oTempFolder.newFolder("dtds"));
+		m_oCodeListDir  = m_oTempFolder.newFolder("codelists");
+
+		OnixEntityResolver oEntityResolver = new OnixEntityResolver(m_oLocalDtdRoot.getPath());
+
+		OnixFileValidator.setEntityResolver(oEntityResolver);
+		OnixValidator.registerGrammars(m_oLocalDtdRoot.getPath(), oEntityResolver);
+	}
+
+	@After
+	public void tearDown()
+			throws IOException {
+
+		OnixCodeLists.setInstance(null);
+		OnixFileValidator.setEntityResolver(null);
+		OnixGrammarCache.getInstance().loadGrammars(m_oLocalDtdRoot.getPath(), new String[0], null);
+	}
+
+	private void loadCodeLists(String psContent)
+			throws IOException {
+
+		OnixTestFixtures.writeFile(new File(m_oCodeListDir, "ONIX_BookProduct_Codelists_Issue_61.txt"), psContent);
+
+		OnixCodeLists.setInstance(OnixCodeLists.load(m_oCodeListDir.getPath(), 0));
+	}
+
+	private boolean validate(String psName, String psProductForm)
+			throws Exception {
+
+		String sOnix = OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "A",
+		                                             "<RecordReference>1</RecordReference><ProductForm>" + psProductForm + "</ProductForm>");
+
+		return OnixFileValidator.ValidateFile(OnixTestFixtures.writeFile(m_oTempFolder.newFile(psName), sOnix));
+	}
+
+	@Test
+	public void testValuesAreCheckedAgainstTheirList()
+			throws Exception {
+
+		// NOTE: List 7 holds the product forms of ONIX 2.1
+		loadCodeLists("List\tCode\tDescription\n7\tBA\tBook\n7\tBB\tHardback\n");
+
+		assertTrue(validate("Valid.xml", "BB"));
+		assertTrue(validate("Padded.xml", " BA\n"));
+		assertFalse(validate("Invalid.xml", "XX"));
+	}
+
+	@Test
+	public void testListsMissingFromIssueAreNotChecked()
+			throws Exception {
+
+		// NOTE: An issue in which list 7 has been retired (as it has been by EDITEUR) does not check the product forms of ONIX 2.1
+		loadCodeLists("150\tBA\tBook\n");
+
+		assertTrue(validate("Retired.xml", "XX"));
+	}
+
+	@Test
+	public void testContentHandlerIsCreatedOnce()
+			throws IOException {
+
+		assertNull(new OnixFileErrorHandler("Feed.xml").getContentHandler());
+
+		loadCodeLists("7\tBA\tBook\n");
+
+		OnixFileErrorHandler oErrorHandler = new OnixFileErrorHandler("Feed.xml");
+
+		// NOTE: The checker must be the same for every consumer of the parse (Ex. the XSD validator and the SAX reader)
+		assertTrue(oErrorHandler.getContentHandler() instanceof OnixCodeListChecker);
+		assertSame(oErrorHandler.getContentHandler(), oErrorHandler.getContentHandler());
+	}
+}
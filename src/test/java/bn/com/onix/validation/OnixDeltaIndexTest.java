@@ -0,0 +1,236 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+/**
+ * OnixDeltaIndexTest --- The tests of the OnixDeltaIndex, covering the storage of records, the growth of the table
+ *                        (via its generations) and the rebuild of an index that was not closed cleanly.
+ * @author    Aaron Kendall
+ */
+public class OnixDeltaIndexTest {
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	private File           m_oIndexFile = null;
+	private OnixDeltaIndex m_oIndex     = null;
+
+	@Before
+	public void setUp() {
+
+		OnixValidator.s_oSearchExtractLog = LoggerFactory.getLogger(OnixDeltaIndexTest.class);
+
+		m_oIndexFile = new File(m_oTempFolder.getRoot(), "deltas.idx");
+	}
+
+	@After
+	public void tearDown()
+			throws IOException {
+
+		if (m_oIndex != null)
+			m_oIndex.close();
+	}
+
+	/**
+	 * Provides the file of the current generation of the table, as named by the pointer file.
+	 */
+	private File getCurrentTable()
+			throws IOException {
+
+		String sGeneration = new String(Files.readAllBytes(m_oIndexFile.toPath()), "UTF-8").trim();
+
+		return new File(m_oIndexFile.getPath() + "." + sGeneration);
+	}
+
+	private int countTables() {
+
+		int nCount = 0;
+
+		for (String sName : m_oTempFolder.getRoot().list()) {
+
+			if (sName.matches("deltas\\.idx\\.[0-9]+"))
+				++nCount;
+		}
+
+		return nCount;
+	}
+
+	private void putRecords(long pnFirstKey, int pnCount, long pnContentOffset)
+			throws IOException {
+
+		long[] aKeys     = new long[pnCount];
+		long[] aContents = new long[pnCount];
+
+		for (int i = 0; i < pnCount; ++i) {
+
+			aKeys[i]     = pnFirstKey + i;
+			aContents[i] = pnFirstKey + i + pnContentOffset;
+		}
+
+		m_oIndex.putAll(aKeys, aContents, pnCount);
+	}
+
+	@Test
+	public void testInsertAndLookup()
+			throws IOException {
+
+		m_oIndex = new OnixDeltaIndex(m_oIndexFile.getPath(), 1024);
+
+		putRecords(100, 10, 1000);
+
+		assertEquals(10, m_oIndex.getSize());
+		assertEquals(1105, m_oIndex.getContentHash(105));
+		assertEquals(0, m_oIndex.getContentHash(99));
+
+		assertTrue(m_oIndex.isUnchanged(105, 1105));
+		assertFalse(m_oIndex.isUnchanged(105, 1106));
+		assertFalse(m_oIndex.isUnchanged(99, 1099));
+
+		// NOTE: An update of a known record replaces its content without adding a record
+		m_oIndex.putAll(new long[] { 105 }, new long[] { 2105 }, 1);
+
+		assertEquals(10, m_oIndex.getSize());
+		assertEquals(2105, m_oIndex.getContentHash(105));
+	}
+
+	@Test
+	public void testClosedIndexIsRefused()
+			throws IOException {
+
+		m_oIndex = new OnixDeltaIndex(m_oIndexFile.getPath(), 1024);
+
+		putRecords(100, 10, 1000);
+
+		m_oIndex.close();
+		m_oIndex.close();
+
+		try {
+			m_oIndex.getContentHash(105);
+			fail("A closed index must not be read.");
+		}
+		catch (IllegalStateException e) {
+			// NOTE: The lookup was refused, as expected
+		}
+
+		try {
+			m_oIndex.putAll(new long[] { 105 }, new long[] { 2105 }, 1);
+			fail("A closed index must not be written.");
+		}
+		catch (IllegalStateException e) {
+			// NOTE: The update was refused, as expected
+		}
+
+		assertEquals(10, m_oIndex.getSize());
+		assertTrue(m_oIndex.getStatistics().contains("Records(10)"));
+	}
+
+	@Test
+	public void testZeroHashesAreStoredAsOne()
+			throws IOException {
+
+		m_oIndex = new OnixDeltaIndex(m_oIndexFile.getPath(), 1024);
+
+		m_oIndex.putAll(new long[] { 0, 7 }, new long[] { 42, 0 }, 2);
+
+		assertEquals(42, m_oIndex.getContentHash(0));
+		assertEquals(42, m_oIndex.getContentHash(1));
+		assertTrue(m_oIndex.isUnchanged(7, 0));
+		assertTrue(m_oIndex.isUnchanged(7, 1));
+	}
+
+	@Test
+	public void testGrowthKeepsRecordsAcrossGenerations()
+			throws IOException {
+
+		m_oIndex = new OnixDeltaIndex(m_oIndexFile.getPath(), 1024);
+
+		File oFirstTable = getCurrentTable();
+
+		// NOTE: 2000 records exceed 75% of both 1024 and 2048 slots, so the table grows twice
+		putRecords(1, 2000, 5);
+
+		assertEquals(2000, m_oIndex.getSize());
+		assertTrue(m_oIndex.getStatistics().contains("Growths(2)"));
+
+		for (long nKey = 1; nKey <= 2000; ++nKey)
+			assertEquals(nKey + 5, m_oIndex.getContentHash(nKey));
+
+		File oGrownTable = getCurrentTable();
+
+		assertFalse(oGrownTable.equals(oFirstTable));
+		assertTrue(oGrownTable.isFile());
+		assertFalse(oFirstTable.exists());
+		assertEquals(1, countTables());
+
+		m_oIndex.close();
+
+		m_oIndex = new OnixDeltaIndex(m_oIndexFile.getPath(), 1024);
+
+		assertEquals(2000, m_oIndex.getSize());
+		assertEquals(1005, m_oIndex.getContentHash(1000));
+		assertEquals(oGrownTable, getCurrentTable());
+	}
+
+	@Test
+	public void testDirtyIndexIsRebuilt()
+			throws IOException {
+
+		m_oIndex = new OnixDeltaIndex(m_oIndexFile.getPath(), 1024);
+
+		putRecords(1, 300, 1);
+
+		m_oIndex.close();
+		m_oIndex = null;
+
+		// NOTE: A crash leaves the index marked as dirty, with a count of records that is out of date
+		try (RandomAccessFile oTable = new RandomAccessFile(getCurrentTable(), "rw")) {
+
+			oTable.seek(16);
+			oTable.writeLong(5);
+			oTable.writeLong(1);
+		}
+
+		m_oIndex = new OnixDeltaIndex(m_oIndexFile.getPath(), 1024);
+
+		assertEquals(300, m_oIndex.getSize());
+		assertEquals(151, m_oIndex.getContentHash(150));
+	}
+
+	@Test
+	public void testLeftoverGenerationsAreDeleted()
+			throws IOException {
+
+		m_oIndex = new OnixDeltaIndex(m_oIndexFile.getPath(), 1024);
+
+		putRecords(1, 10, 1);
+
+		m_oIndex.close();
+		m_oIndex = null;
+
+		// NOTE: A growth interrupted before the pointer was replaced leaves an incomplete generation behind
+		File oLeftover = new File(m_oIndexFile.getPath() + ".7");
+
+		Files.write(oLeftover.toPath(), new byte[64]);
+
+		m_oIndex = new OnixDeltaIndex(m_oIndexFile.getPath(), 1024);
+
+		assertFalse(oLeftover.exists());
+		assertEquals(1, countTables());
+		assertEquals(10, m_oIndex.getSize());
+	}
+}
@@ -0,0 +1,102 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * OnixDeltaValidatorTest --- The tests of the hashes by which the OnixDeltaValidator identifies a Product record
+ *                            (i.e., its RecordReference) and recognizes its content.
+ * @author    Aaron Kendall
+ */
+public class OnixDeltaValidatorTest {
+
+	private static long hashRecordReference(String psProduct) {
+
+		byte[] aBytes = psProduct.getBytes(StandardCharsets.UTF_8);
+
+		return OnixDeltaValidator.hashRecordReference(aBytes, 0, aBytes.length);
+	}
+
+	private static long hashContent(long pnSeed, String psProduct) {
+
+		byte[] aBytes = psProduct.getBytes(StandardCharsets.UTF_8);
+
+		return OnixDeltaValidator.hashContent(pnSeed, aBytes, 0, aBytes.length);
+	}
+
+	@Test
+	public void testRecordReferenceIsTrimmed() {
+
+		long nHash = hashRecordReference("<Product><RecordReference>ABC-1</RecordReference></Product>");
+
+		assertTrue(nHash != 0);
+		assertEquals(nHash, hashRecordReference("<Product>\n  <RecordReference> ABC-1\n</RecordReference>\n</Product>"));
+		assertFalse(nHash == hashRecordReference("<Product><RecordReference>ABC-2</RecordReference></Product>"));
+	}
+
+	@Test
+	public void testRecordReferenceShortTag() {
+
+		assertEquals(hashRecordReference("<Product><RecordReference>ABC-1</RecordReference></Product>"),
+		             hashRecordReference("<product><a001 datestamp=\"20240101\">ABC-1</a001></product>"));
+	}
+
+	@Test
+	public void testMissingRecordReference() {
+
+		assertEquals(0, hashRecordReference("<Product><ProductForm>BA</ProductForm></Product>"));
+		assertEquals(0, hashRecordReference("<Product><RecordReference>  </RecordReference></Product>"));
+
+		// NOTE: Only the element itself counts, rather than any tag whose name merely begins the same way
+		assertEquals(0, hashRecordReference("<Product><RecordReferenceType>1</RecordReferenceType></Product>"));
+	}
+
+	@Test
+	public void testRecordReferenceWithinRange() {
+
+		byte[] aBytes = ("<Product><RecordReference>A</RecordReference></Product>" +
+		                 "<Product><RecordReference>B</RecordReference></Product>").getBytes(StandardCharsets.UTF_8);
+
+		int nSecondStart = aBytes.length / 2;
+
+		assertEquals(hashRecordReference("<Product><RecordReference>A</RecordReference></Product>"),
+		             OnixDeltaValidator.hashRecordReference(aBytes, 0, nSecondStart));
+		assertEquals(hashRecordReference("<Product><RecordReference>B</RecordReference></Product>"),
+		             OnixDeltaValidator.hashRecordReference(aBytes, nSecondStart, aBytes.length));
+	}
+
+	@Test
+	public void testContentIgnoresWhitespaceBetweenTags() {
+
+		long nHash = hashContent(1, "<Product><RecordReference>A</RecordReference><ProductForm>BA</ProductForm></Product>");
+
+		assertEquals(nHash, hashContent(1, "<Product>\r\n\t<RecordReference>A</RecordReference>\n    <ProductForm>BA</ProductForm>\n</Product>"));
+	}
+
+	@Test
+	public void testContentKeepsWhitespaceWithinText() {
+
+		long nHash = hashContent(1, "<Product><Title>Two Words</Title></Product>");
+
+		assertFalse(nHash == hashContent(1, "<Product><Title>TwoWords</Title></Product>"));
+		assertFalse(nHash == hashContent(1, "<Product><Title>Two Words </Title></Product>"));
+		assertFalse(nHash == hashContent(1, "<Product><Title> Two Words</Title></Product>"));
+	}
+
+	@Test
+	public void testContentDependsOnValuesAndSeed() {
+
+		String sProduct = "<Product><RecordReference>A</RecordReference><ProductForm>BA</ProductForm></Product>";
+
+		long nHash = hashContent(1, sProduct);
+
+		assertEquals(nHash, hashContent(1, sProduct));
+		assertFalse(nHash == hashContent(1, sProduct.replace("BA", "BB")));
+		assertFalse(nHash == hashContent(2, sProduct));
+	}
+}
@@ -0,0 +1,104 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * OnixDoctypeRewriterTest --- The tests of the OnixDoctypeRewriter, which must patch only the DOCTYPE tag of a file (in the
+ *                             file's own encoding) and must leave alone any file that it cannot patch.
+ * @author    Aaron Kendall
+ */
+public class OnixDoctypeRewriterTest {
+
+	// NOTE: A local root whose name cannot be encoded in ISO-8859-1
+	private static final String CONST_CYRILLIC_DIR = "ДТД";
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	private File m_oInboxDir = null;
+
+	@Before
+	public void setUp()
+			throws IOException {
+
+		OnixTestFixtures.configureLogger();
+
+		m_oInboxDir = m_oTempFolder.newFolder("inbox");
+	}
+
+	private File writeOnix(String psName, String psEncoding)
+			throws IOException {
+
+		String sOnix = OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "Café", "<RecordReference>1</RecordReference>")
+		               .replace("UTF-8", psEncoding);
+
+		File oFile = new File(m_oInboxDir, psName);
+
+		Files.write(oFile.toPath(), sOnix.getBytes(Charset.forName(psEncoding)));
+
+		return oFile;
+	}
+
+	@Test
+	public void testOnlyDoctypeIsRewritten()
+			throws IOException {
+
+		File   oFile     = writeOnix("Feed.xml", "ISO-8859-1");
+		byte[] aOriginal = Files.readAllBytes(oFile.toPath());
+
+		assertTrue(OnixDoctypeRewriter.rewriteDoctype(oFile, OnixValidator.CONST_DEFAULT_ONIX_DTD_URL_BASE, "file:///onix_dtds/"));
+
+		String sRewritten = new String(Files.readAllBytes(oFile.toPath()), StandardCharsets.ISO_8859_1);
+		String sExpected  = new String(aOriginal, StandardCharsets.ISO_8859_1).replace(OnixValidator.CONST_DEFAULT_ONIX_DTD_URL_BASE, "file:///onix_dtds/");
+
+		assertEquals(sExpected, sRewritten);
+		assertFalse(new File(oFile.getPath() + ".tmp").exists());
+
+		// NOTE: A file that no longer refers to the URL is not touched again
+		assertFalse(OnixDoctypeRewriter.rewriteDoctype(oFile, OnixValidator.CONST_DEFAULT_ONIX_DTD_URL_BASE, "file:///onix_dtds/"));
+	}
+
+	@Test
+	public void testUnencodableReplacementLeavesFileUnchanged()
+			throws IOException {
+
+		File   oFile     = writeOnix("Latin1.xml", "ISO-8859-1");
+		byte[] aOriginal = Files.readAllBytes(oFile.toPath());
+
+		assertFalse(OnixDoctypeRewriter.rewriteDoctype(oFile, OnixValidator.CONST_DEFAULT_ONIX_DTD_URL_BASE, "file:///" + CONST_CYRILLIC_DIR + "/"));
+
+		assertArrayEquals(aOriginal, Files.readAllBytes(oFile.toPath()));
+		assertFalse(new File(oFile.getPath() + ".tmp").exists());
+	}
+
+	@Test
+	public void testUnencodableFileDoesNotAbortPass()
+			throws Exception {
+
+		File oLocalDtdRoot = m_oTempFolder.newFolder(CONST_CYRILLIC_DIR);
+
+		File   oLatin1File = writeOnix("Latin1.xml", "ISO-8859-1");
+		File   oUtf8File   = writeOnix("Utf8.xml", "UTF-8");
+		byte[] aLatin1     = Files.readAllBytes(oLatin1File.toPath());
+
+		OnixValidator.replaceDtdReferences(m_oInboxDir.getPath(), OnixValidator.CONST_DEFAULT_ONIX_DTD_URL_BASE, oLocalDtdRoot.getPath());
+
+		// NOTE: The one file that cannot hold the path is left as it was, while the rest of the Inbox is still rewritten
+		assertArrayEquals(aLatin1, Files.readAllBytes(oLatin1File.toPath()));
+		assertTrue(new String(Files.readAllBytes(oUtf8File.toPath()), StandardCharsets.UTF_8).contains(oLocalDtdRoot.getPath()));
+	}
+}
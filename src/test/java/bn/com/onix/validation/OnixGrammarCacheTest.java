@@ -0,0 +1,133 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * OnixGrammarCacheTest --- The tests of the OnixGrammarCache, which must give each file the same verdict as an uncached parse
+ *                          (i.e., its entities must survive a cache hit, and no file may change the grammar of another).
+ * @author    Aaron Kendall
+ */
+public class OnixGrammarCacheTest {
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	private File m_oLocalDtdRoot = null;
+
+	@Before
+	public void setUp()
+			throws IOException {
+
+		OnixTestFixtures.configureLogger();
+
+		m_oLocalDtdRoot = OnixTestFixtures.createLocalDtdRoot(m_oTempFolder.newFolder("dtds"));
+
+		OnixEntityResolver oEntityResolver = new OnixEntityResolver(m_oLocalDtdRoot.getPath());
+
+		OnixFileValidator.setEntityResolver(oEntityResolver);
+		OnixValidator.registerGrammars(m_oLocalDtdRoot.getPath(), oEntityResolver);
+	}
+
+	@After
+	public void tearDown()
+			throws IOException {
+
+		OnixFileValidator.setEntityResolver(null);
+		OnixGrammarCache.getInstance().loadGrammars(m_oLocalDtdRoot.getPath(), new String[0], null);
+	}
+
+	private boolean validate(String psName, String psContent)
+			throws Exception {
+
+		return OnixFileValidator.ValidateFile(OnixTestFixtures.writeFile(m_oTempFolder.newFile(psName), psContent));
+	}
+
+	@Test
+	public void testEntitiesSurviveCacheHit()
+			throws Exception {
+
+		String sOnix = OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "Caf&eacute;&nbsp;Books",
+		                                             "<RecordReference>1</RecordReference>");
+
+		long nHits = OnixGrammarCache.getInstance().getHitCount();
+
+		assertTrue(validate("First.xml", sOnix));
+		assertTrue(validate("Second.xml", sOnix));
+		assertTrue(validate("Third.xml", sOnix));
+
+		assertEquals(nHits + 3, OnixGrammarCache.getInstance().getHitCount());
+	}
+
+	@Test
+	public void testUndeclaredEntityStillFails()
+			throws Exception {
+
+		assertFalse(validate("Unknown.xml", OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "Caf&eeacute;",
+		                                                                  "<RecordReference>1</RecordReference>")));
+	}
+
+	@Test
+	public void testInternalSubsetIsIsolated()
+			throws Exception {
+
+		String sSubsetDoctype = OnixTestFixtures.CONST_ONIX21_DOCTYPE.replace(">",
+				" [ <!ENTITY % product.content \"RecordReference, ProductForm?, Bogus?\"> <!ELEMENT Bogus EMPTY> ]>");
+
+		String sBogusProduct = "<RecordReference>1</RecordReference><Bogus/>";
+
+		long nHits = OnixGrammarCache.getInstance().getHitCount();
+
+		// NOTE: The feed may extend the DTD for itself, but the extension must not leak into the cached grammar
+		assertTrue(validate("Extended.xml", OnixTestFixtures.createOnix21(sSubsetDoctype, "A", sBogusProduct)));
+		assertEquals(nHits, OnixGrammarCache.getInstance().getHitCount());
+
+		assertFalse(validate("Bogus.xml", OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "A", sBogusProduct)));
+		assertTrue(validate("Extended2.xml", OnixTestFixtures.createOnix21(sSubsetDoctype, "A", sBogusProduct)));
+		assertFalse(validate("Bogus2.xml", OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "A", sBogusProduct)));
+	}
+
+	@Test
+	public void testRewrittenDoctypeUsesCache()
+			throws Exception {
+
+		File   oLocalDtd = new File(m_oLocalDtdRoot, OnixValidator.CONST_DEFAULT_ONIX21_REF_DTD);
+		String sDoctype  = "<!DOCTYPE ONIXMessage SYSTEM \"" + oLocalDtd.toURI() + "\">";
+
+		long nHits = OnixGrammarCache.getInstance().getHitCount();
+
+		assertTrue(validate("Rewritten.xml", OnixTestFixtures.createOnix21(sDoctype, "Caf&eacute;", "<RecordReference>1</RecordReference>")));
+		assertEquals(nHits + 1, OnixGrammarCache.getInstance().getHitCount());
+	}
+
+	@Test
+	public void testSniffInternalSubset()
+			throws IOException {
+
+		assertFalse(sniff(OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "A")).hasInternalSubset());
+		assertTrue(sniff(OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE.replace(">", " [ <!ELEMENT x EMPTY> ]>"), "A"))
+		           .hasInternalSubset());
+
+		// NOTE: A bracket within the system ID does not open an internal subset
+		assertFalse(sniff(OnixTestFixtures.createOnix21("<!DOCTYPE ONIXMessage SYSTEM \"file:///dtds[1]/onix.dtd\">", "A")).hasInternalSubset());
+	}
+
+	private static OnixFileFormat sniff(String psContent)
+			throws IOException {
+
+		return OnixFileFormat.sniff(new BufferedInputStream(new ByteArrayInputStream(psContent.getBytes(StandardCharsets.UTF_8))));
+	}
+}
@@ -0,0 +1,109 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * OnixParallelGzipTest --- The tests of the OnixParallelGzip, whose concatenated blocks must decompress (as a single gzip
+ *                          member) back into the original file, whatever the number of blocks.
+ * @author    Aaron Kendall
+ */
+public class OnixParallelGzipTest {
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	private OnixParallelGzip m_oGzip = null;
+
+	@Before
+	public void setUp() {
+
+		OnixTestFixtures.configureLogger();
+
+		// NOTE: The smallest block (i.e., the size of the dictionary), so that even a small file is spread across several threads
+		m_oGzip = new OnixParallelGzip(4, OnixParallelGzip.CONST_DICTIONARY_SIZE, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	private File createFile(String psName, int pnLength)
+			throws IOException {
+
+		Random        oRandom = new Random(pnLength);
+		StringBuilder sbOnix  = new StringBuilder(pnLength + 64);
+
+		// NOTE: Repetitive records (as in a feed) with some noise, so that both the matches and the literals cross the blocks
+		for (int i = 0; sbOnix.length() < pnLength; ++i)
+			sbOnix.append("<Product><RecordReference>").append(i).append("-").append(oRandom.nextInt()).append("</RecordReference></Product>\n");
+
+		sbOnix.setLength(pnLength);
+
+		return OnixTestFixtures.writeFile(m_oTempFolder.newFile(psName), sbOnix.toString());
+	}
+
+	private static byte[] decompress(File poGzipFile)
+			throws IOException {
+
+		try (InputStream oInput = new GZIPInputStream(Files.newInputStream(poGzipFile.toPath()))) {
+			return IOUtils.toByteArray(oInput);
+		}
+	}
+
+	private void assertRoundTrip(File poInputFile)
+			throws IOException {
+
+		File oGzipFile = new File(poInputFile.getPath() + OnixParallelGzip.CONST_GZIP_SUFFIX);
+
+		long nCompressedSize = m_oGzip.compressFile(poInputFile, oGzipFile);
+
+		assertEquals(oGzipFile.length(), nCompressedSize);
+		assertArrayEquals(Files.readAllBytes(poInputFile.toPath()), decompress(oGzipFile));
+	}
+
+	@Test
+	public void testManyBlocksRoundTrip()
+			throws IOException {
+		assertRoundTrip(createFile("Feed.xml", 20 * OnixParallelGzip.CONST_DICTIONARY_SIZE + 123));
+	}
+
+	@Test
+	public void testBlockBoundariesRoundTrip()
+			throws IOException {
+
+		// NOTE: A file that ends exactly on a block boundary is finished by an empty block
+		assertRoundTrip(createFile("Exact.xml", 3 * OnixParallelGzip.CONST_DICTIONARY_SIZE));
+		assertRoundTrip(createFile("Short.xml", 100));
+		assertRoundTrip(createFile("Empty.xml", 0));
+	}
+
+	@Test
+	public void testFileIsReplacedByItsCompressedVersion()
+			throws IOException {
+
+		File   oInputFile = createFile("Feed.xml", 5 * OnixParallelGzip.CONST_DICTIONARY_SIZE);
+		byte[] aOriginal  = Files.readAllBytes(oInputFile.toPath());
+
+		File oGzipFile = m_oGzip.compressAndReplace(oInputFile);
+
+		assertEquals("Feed.xml.gz", oGzipFile.getName());
+		assertFalse(oInputFile.exists());
+		assertFalse(new File(oGzipFile.getPath() + ".tmp").exists());
+		assertArrayEquals(aOriginal, decompress(oGzipFile));
+		assertTrue(new String(decompress(oGzipFile), StandardCharsets.UTF_8).startsWith("<Product>"));
+	}
+}
@@ -0,0 +1,126 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xml.sax.SAXParseException;
+
+/**
+ * OnixProductParallelValidatorTest --- The tests of the OnixProductParallelValidator, whose errors (once they are replayed from
+ *                                      their chunks) must match those of a single parse, line for line.
+ * @author    Aaron Kendall
+ */
+public class OnixProductParallelValidatorTest {
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	private File m_oLocalDtdRoot = null;
+
+	/**
+	 * Records the line and message of each error that it receives.
+	 */
+	private static class RecordingErrorHandler extends OnixFileErrorHandler {
+
+		final List<String> m_oErrors = new ArrayList<String>();
+
+		RecordingErrorHandler(String psOnixFilepath) {
+			super(psOnixFilepath);
+		}
+
+		@Override
+		public synchronized void recordError(Exception poException, String psSeverity, String psElementPath, String psRecordReference) {
+
+			super.recordError(poException, psSeverity, psElementPath, psRecordReference);
+
+			if (poException instanceof SAXParseException)
+				m_oErrors.add(((SAXParseException) poException).getLineNumber() + ": " + poException.getMessage());
+			else
+				m_oErrors.add(poException.toString());
+		}
+	}
+
+	@Before
+	public void setUp()
+			throws IOException {
+
+		OnixTestFixtures.configureLogger();
+
+		m_oLocalDtdRoot = OnixTestFixtures.createLocalDtdRoot(m_oTempFolder.newFolder("dtds"));
+
+		OnixEntityResolver oEntityResolver = new OnixEntityResolver(m_oLocalDtdRoot.getPath());
+
+		OnixFileValidator.setEntityResolver(oEntityResolver);
+		OnixValidator.registerGrammars(m_oLocalDtdRoot.getPath(), oEntityResolver);
+	}
+
+	@After
+	public void tearDown()
+			throws IOException {
+
+		OnixFileValidator.setEntityResolver(null);
+		OnixGrammarCache.getInstance().loadGrammars(m_oLocalDtdRoot.getPath(), new String[0], null);
+	}
+
+	private File createFeed(int pnProductCount, int... paInvalidProducts)
+			throws IOException {
+
+		String[] aProducts = new String[pnProductCount];
+
+		for (int i = 0; i < pnProductCount; ++i) {
+
+			// NOTE: Each Product spans several lines, so that the lines of a chunk and of the file differ by more than a constant
+			aProducts[i] = "\n<RecordReference>" + i + "</RecordReference>\n<ProductForm>BA</ProductForm>\n";
+
+			for (int nInvalid : paInvalidProducts) {
+				if (nInvalid == i)
+					aProducts[i] = "\n<ProductForm>BA</ProductForm>\n<RecordReference>" + i + "</RecordReference>\n";
+			}
+		}
+
+		return OnixTestFixtures.writeFile(m_oTempFolder.newFile("Feed.xml"),
+		                                  OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "A", aProducts));
+	}
+
+	@Test
+	public void testErrorsAreMappedOntoOriginalLines()
+			throws Exception {
+
+		File oFeed = createFeed(9, 1, 4, 8);
+
+		RecordingErrorHandler oSingleHandler   = new RecordingErrorHandler(oFeed.getPath());
+		RecordingErrorHandler oParallelHandler = new RecordingErrorHandler(oFeed.getPath());
+
+		OnixFileValidator.ValidateFile(oFeed, oSingleHandler);
+		OnixProductParallelValidator.ValidateFile(oFeed, oParallelHandler, 2);
+
+		assertFalse(oSingleHandler.m_oErrors.isEmpty());
+		assertEquals(oSingleHandler.m_oErrors, oParallelHandler.m_oErrors);
+		assertFalse(oParallelHandler.isValid());
+	}
+
+	@Test
+	public void testValidFileHasNoErrors()
+			throws Exception {
+
+		File oFeed = createFeed(9);
+
+		RecordingErrorHandler oParallelHandler = new RecordingErrorHandler(oFeed.getPath());
+
+		OnixProductParallelValidator.ValidateFile(oFeed, oParallelHandler, 2);
+
+		assertTrue(oParallelHandler.m_oErrors.isEmpty());
+		assertTrue(oParallelHandler.isValid());
+	}
+}
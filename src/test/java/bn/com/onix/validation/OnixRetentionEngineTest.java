@@ -0,0 +1,109 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * OnixRetentionEngineTest --- The tests of the OnixRetentionEngine, which must delete the files beyond the age and size limits
+ *                             of a directory (the oldest first) and nothing else.
+ * @author    Aaron Kendall
+ */
+public class OnixRetentionEngineTest {
+
+	private static final long CONST_MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	private File m_oDirectory = null;
+
+	@Before
+	public void setUp()
+			throws IOException {
+
+		OnixTestFixtures.configureLogger();
+
+		m_oDirectory = m_oTempFolder.newFolder("purged");
+	}
+
+	private static File createFile(File poDirectory, String psName, long pnSizeMB, int pnAgeDays)
+			throws IOException {
+
+		File oFile = new File(poDirectory, psName);
+
+		oFile.getParentFile().mkdirs();
+
+		try (RandomAccessFile oRaf = new RandomAccessFile(oFile, "rw")) {
+			oRaf.setLength(pnSizeMB * 1024L * 1024L);
+		}
+
+		assertTrue(oFile.setLastModified(System.currentTimeMillis() - (pnAgeDays * CONST_MILLIS_PER_DAY)));
+
+		return oFile;
+	}
+
+	@Test
+	public void testFilesBeyondAgeAreDeleted()
+			throws IOException {
+
+		File oOld    = createFile(m_oDirectory, "Old.log", 0, 31);
+		File oRecent = createFile(m_oDirectory, "Recent.log", 0, 29);
+
+		// NOTE: A subdirectory that is left empty (and is itself beyond the age limit) is removed as well
+		File oStale = createFile(m_oDirectory, "2024/01/Old.xml", 0, 31);
+
+		assertTrue(oStale.getParentFile().setLastModified(System.currentTimeMillis() - (31 * CONST_MILLIS_PER_DAY)));
+
+		OnixRetentionEngine oEngine = new OnixRetentionEngine(0, 100);
+
+		oEngine.addPolicy(m_oDirectory.getPath(), 30, 0, true);
+		oEngine.purge();
+
+		assertFalse(oOld.exists());
+		assertTrue(oRecent.exists());
+		assertFalse(oStale.getParentFile().exists());
+		assertTrue(m_oDirectory.isDirectory());
+	}
+
+	@Test
+	public void testOldestFilesAreDeletedBeyondSize()
+			throws IOException {
+
+		File oOldest = createFile(m_oDirectory, "Oldest.xml", 2, 3);
+		File oTemp   = createFile(m_oDirectory, "Older.xml.tmp", 2, 2);
+		File oOlder  = createFile(m_oDirectory, "Older.xml", 2, 2);
+		File oNewest = createFile(m_oDirectory, "Newest.xml", 2, 1);
+
+		OnixRetentionEngine oEngine = new OnixRetentionEngine(0, 100);
+
+		// NOTE: The 8 MB must fall to 4 MB, which takes the two oldest files (a temporary file is still being written, so it is skipped)
+		oEngine.addPolicy(m_oDirectory.getPath(), 0, 4, false);
+		oEngine.purge();
+
+		assertFalse(oOldest.exists());
+		assertFalse(oOlder.exists());
+		assertTrue(oTemp.exists());
+		assertTrue(oNewest.exists());
+	}
+
+	@Test
+	public void testZeroLimitsKeepEverything()
+			throws IOException {
+
+		OnixRetentionEngine oEngine = new OnixRetentionEngine(0, 100);
+
+		// NOTE: As with 'purgeLogsOlderThanNumOfDays' set to 0, a policy without limits is never applied
+		oEngine.addPolicy(m_oDirectory.getPath(), 0, 0, true);
+
+		assertFalse(oEngine.hasPolicies());
+	}
+}
@@ -0,0 +1,140 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * OnixRoutingJournalTest --- The tests of the OnixRoutingJournal, which (when it is opened after a crash) must finish each move
+ *                            and split that was begun but never completed, without touching any other file.
+ * @author    Aaron Kendall
+ */
+public class OnixRoutingJournalTest {
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	private File m_oInboxDir    = null;
+	private File m_oOutputDir   = null;
+	private File m_oJournalFile = null;
+
+	@Before
+	public void setUp()
+			throws IOException {
+
+		OnixTestFixtures.configureLogger();
+
+		m_oInboxDir    = m_oTempFolder.newFolder("inbox");
+		m_oOutputDir   = m_oTempFolder.newFolder("valid");
+		m_oJournalFile = new File(m_oTempFolder.getRoot(), "journal/routing.journal");
+	}
+
+	private static String getIdentity(File poFile)
+			throws IOException {
+		return Files.size(poFile.toPath()) + "\t" + Files.getLastModifiedTime(poFile.toPath()).toMillis();
+	}
+
+	private static String intent(long pnMoveId, File poSource, File poTarget, String psIdentity) {
+		return "R\t" + pnMoveId + "\t" + poSource.getAbsolutePath() + "\t" + poTarget.getAbsolutePath() + "\t" + psIdentity + "\n";
+	}
+
+	/**
+	 * Writes the journal as a crash would have left it, and then opens it (which recovers the moves) and closes it.
+	 */
+	private void recover(String... paRecords)
+			throws IOException {
+
+		m_oJournalFile.getParentFile().mkdirs();
+
+		OnixTestFixtures.writeFile(m_oJournalFile, String.join("", Arrays.asList(paRecords)));
+
+		OnixRoutingJournal oJournal = new OnixRoutingJournal(m_oJournalFile.getPath(), 1, 10);
+
+		oJournal.start();
+		oJournal.close();
+	}
+
+	@Test
+	public void testInterruptedMovesAreFinished()
+			throws IOException {
+
+		File oUnmoved   = OnixTestFixtures.writeFile(new File(m_oInboxDir, "Unmoved.xml"), "<ONIXMessage/>");
+		File oCopied    = OnixTestFixtures.writeFile(new File(m_oInboxDir, "Copied.xml"), "<ONIXMessage/>");
+		File oCommitted = OnixTestFixtures.writeFile(new File(m_oInboxDir, "Committed.xml"), "<ONIXMessage/>");
+
+		// NOTE: A copy between filesystems that was renamed into place, but whose source was never removed
+		Files.copy(oCopied.toPath(), new File(m_oOutputDir, "Copied.xml").toPath());
+
+		// NOTE: A copy that was cut short by the crash
+		OnixTestFixtures.writeFile(new File(m_oOutputDir, "Unmoved.xml" + OnixRoutingJournal.CONST_TEMP_SUFFIX), "<ONIX");
+
+		recover(intent(1, oUnmoved, new File(m_oOutputDir, "Unmoved.xml"), getIdentity(oUnmoved)),
+		        intent(2, oCopied, new File(m_oOutputDir, "Copied.xml"), getIdentity(oCopied)),
+		        intent(3, oCommitted, new File(m_oOutputDir, "Committed.xml"), getIdentity(oCommitted)),
+		        "C\t3\n");
+
+		assertFalse(oUnmoved.exists());
+		assertTrue(new File(m_oOutputDir, "Unmoved.xml").isFile());
+		assertFalse(new File(m_oOutputDir, "Unmoved.xml" + OnixRoutingJournal.CONST_TEMP_SUFFIX).exists());
+
+		assertFalse(oCopied.exists());
+		assertTrue(new File(m_oOutputDir, "Copied.xml").isFile());
+
+		// NOTE: A completed move (Ex. one whose file was later put back into the Inbox) is not made again
+		assertTrue(oCommitted.exists());
+		assertFalse(new File(m_oOutputDir, "Committed.xml").exists());
+
+		assertEquals(0, m_oJournalFile.length());
+	}
+
+	@Test
+	public void testNewFileUnderSameNameIsLeftAlone()
+			throws IOException {
+
+		File oFeed = OnixTestFixtures.writeFile(new File(m_oInboxDir, "Feed.xml"), "<ONIXMessage>the next feed</ONIXMessage>");
+
+		// NOTE: The interrupted move was of an earlier (shorter) file of the same name, which had already reached the output
+		recover(intent(1, oFeed, new File(m_oOutputDir, "Feed.xml"), "14\t" + (oFeed.lastModified() - 60000)));
+
+		assertTrue(oFeed.exists());
+		assertFalse(new File(m_oOutputDir, "Feed.xml").exists());
+	}
+
+	@Test
+	public void testInterruptedSplitsAreFinishedOrUndone()
+			throws IOException {
+
+		File oComplete = OnixTestFixtures.writeFile(new File(m_oInboxDir, "Complete.zip"), "PK");
+		File oPartial  = OnixTestFixtures.writeFile(new File(m_oInboxDir, "Partial.zip"), "PK");
+
+		File oCompleteA = OnixTestFixtures.writeFile(new File(m_oOutputDir, "Complete_a.xml"), "<ONIXMessage/>");
+		File oCompleteB = OnixTestFixtures.writeFile(new File(m_oOutputDir, "Complete_b.xml"), "<ONIXMessage/>");
+		File oPartialA  = OnixTestFixtures.writeFile(new File(m_oOutputDir, "Partial_a.xml"), "<ONIXMessage/>");
+		File oPartialB  = new File(m_oOutputDir, "Partial_b.xml");
+
+		recover("S\t1\t" + oComplete.getAbsolutePath() + "\t" + getIdentity(oComplete) + "\t" + oCompleteA.getAbsolutePath() + "\t" +
+		        oCompleteB.getAbsolutePath() + "\n",
+		        "S\t2\t" + oPartial.getAbsolutePath() + "\t" + getIdentity(oPartial) + "\t" + oPartialA.getAbsolutePath() + "\t" +
+		        oPartialB.getAbsolutePath() + "\n");
+
+		// NOTE: Every entry of the first archive was extracted, so only the archive's deletion was left to do
+		assertFalse(oComplete.exists());
+		assertTrue(oCompleteA.isFile());
+		assertTrue(oCompleteB.isFile());
+
+		// NOTE: The second archive stays in the Inbox to be split again, so its extracted entry is removed
+		assertTrue(oPartial.exists());
+		assertFalse(oPartialA.exists());
+	}
+}
@@ -0,0 +1,101 @@
+package bn.com.onix.validation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * OnixTestFixtures --- This class creates the small ONIX grammar and files shared by the tests, so that no test depends
+ *                      on a download of the EDITEUR DTDs.
+ * <p>
+ * The DTD mirrors the layout of EDITEUR's site (i.e., "2.1/reference/onix-international.dtd"), and like the real one, it
+ * is built from a parameter-entity module that declares the character entities (Ex. "&amp;eacute;").
+ * @author    Aaron Kendall
+ */
+final class OnixTestFixtures {
+
+	public static final String CONST_ONIX21_DTD_URL = OnixValidator.CONST_DEFAULT_ONIX_DTD_URL_BASE + OnixValidator.CONST_DEFAULT_ONIX21_REF_DTD;
+
+	public static final String CONST_ONIX21_DOCTYPE = "<!DOCTYPE ONIXMessage SYSTEM \"" + CONST_ONIX21_DTD_URL + "\">";
+
+	private static final String CONST_DTD =
+		"<!ENTITY % chars SYSTEM \"onix-xhtml-chars.ent\">\n" +
+		"%chars;\n" +
+		"<!ENTITY % product.content \"RecordReference, ProductForm?\">\n" +
+		"<!ELEMENT ONIXMessage (Header, Product*)>\n" +
+		"<!ATTLIST ONIXMessage release CDATA #IMPLIED>\n" +
+		"<!ELEMENT Header (FromCompany)>\n" +
+		"<!ELEMENT FromCompany (#PCDATA)>\n" +
+		"<!ELEMENT Product (%product.content;)>\n" +
+		"<!ELEMENT RecordReference (#PCDATA)>\n" +
+		"<!ELEMENT ProductForm (#PCDATA)>\n";
+
+	private static final String CONST_CHARS_MODULE =
+		"<!ENTITY eacute \"&#233;\">\n" +
+		"<!ENTITY nbsp \"&#160;\">\n";
+
+	private OnixTestFixtures() {}
+
+	/**
+	 * Sets the logger of the validator, which every class logs through.
+	 */
+	static void configureLogger() {
+
+		if (OnixValidator.s_oSearchExtractLog == null)
+			OnixValidator.s_oSearchExtractLog = LoggerFactory.getLogger(OnixTestFixtures.class);
+	}
+
+	/**
+	 * Creates the local ONIX root (with its ONIX 2.1 reference DTD and the DTD's module) within a directory.
+	 *
+	 * @param  poDirectory the directory in which to create the local ONIX root
+	 * @return the local ONIX root
+	 * @see    IOException
+	 */
+	static File createLocalDtdRoot(File poDirectory)
+			throws IOException {
+
+		File oDtdFile = new File(poDirectory, OnixValidator.CONST_DEFAULT_ONIX21_REF_DTD);
+
+		oDtdFile.getParentFile().mkdirs();
+
+		writeFile(oDtdFile, CONST_DTD);
+		writeFile(new File(oDtdFile.getParentFile(), "onix-xhtml-chars.ent"), CONST_CHARS_MODULE);
+
+		return poDirectory;
+	}
+
+	/**
+	 * Creates the content of an ONIX 2.1 file with the specified DOCTYPE tag and Products.
+	 *
+	 * @param  psDoctype the DOCTYPE tag of the file
+	 * @param  psCompany the content of the FromCompany element (which may use the entities of the DTD)
+	 * @param  paProducts the content of each Product element
+	 * @return the content of the file
+	 */
+	static String createOnix21(String psDoctype, String psCompany, String... paProducts) {
+
+		StringBuilder sbOnix = new StringBuilder();
+
+		sbOnix.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n").append(psDoctype).append("\n");
+		sbOnix.append("<ONIXMessage release=\"2.1\">\n<Header><FromCompany>").append(psCompany).append("</FromCompany></Header>\n");
+
+		for (String sProduct : paProducts)
+			sbOnix.append("<Product>").append(sProduct).append("</Product>\n");
+
+		sbOnix.append("</ONIXMessage>\n");
+
+		return sbOnix.toString();
+	}
+
+	static File writeFile(File poFile, String psContent)
+			throws IOException {
+
+		Files.write(poFile.toPath(), psContent.getBytes(StandardCharsets.UTF_8));
+
+		return poFile;
+	}
+}
@@ -0,0 +1,183 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * OnixUntrustedStreamTest --- The tests of OnixFileValidator.ValidateUntrustedStream(), which must validate a payload against
+ *                             the local EDITEUR DTDs while denying every other external entity, and which must never change
+ *                             the verdict of a trusted file.
+ * @author    Aaron Kendall
+ */
+public class OnixUntrustedStreamTest {
+
+	private static final String CONST_SECRET = "TOP-SECRET-CONTENT";
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	private File               m_oLocalDtdRoot   = null;
+	private OnixEntityResolver m_oLocalResolver  = null;
+
+	/**
+	 * Keeps the lines of a report in memory, as the validation service does.
+	 */
+	private static class MemoryReport extends OnixErrorReport {
+
+		private final StringBuilder m_sbLines = new StringBuilder();
+
+		MemoryReport() {
+			super("payload");
+		}
+
+		@Override
+		protected boolean writeLine(String psLine) {
+
+			m_sbLines.append(psLine).append('\n');
+
+			return true;
+		}
+
+		String getLines() {
+			return m_sbLines.toString();
+		}
+	}
+
+	@Before
+	public void setUp()
+			throws IOException {
+
+		OnixTestFixtures.configureLogger();
+
+		m_oLocalDtdRoot  = OnixTestFixtures.createLocalDtdRoot(m_oTempFolder.newFolder("dtds"));
+		m_oLocalResolver = new OnixEntityResolver(m_oLocalDtdRoot.getPath(), true);
+
+		OnixEntityResolver oTrustedResolver = new OnixEntityResolver(m_oLocalDtdRoot.getPath());
+
+		OnixFileValidator.setEntityResolver(oTrustedResolver);
+		OnixValidator.registerGrammars(m_oLocalDtdRoot.getPath(), oTrustedResolver);
+	}
+
+	@After
+	public void tearDown()
+			throws IOException {
+
+		OnixFileValidator.setEntityResolver(null);
+		OnixGrammarCache.getInstance().loadGrammars(m_oLocalDtdRoot.getPath(), new String[0], null);
+	}
+
+	private OnixFileErrorHandler validateUntrusted(String psContent, MemoryReport poReport)
+			throws Exception {
+
+		OnixFileErrorHandler oErrorHandler = new OnixFileErrorHandler("payload", poReport);
+
+		OnixFileValidator.ValidateUntrustedStream(new ByteArrayInputStream(psContent.getBytes(StandardCharsets.UTF_8)), "payload",
+		                                          oErrorHandler, m_oLocalResolver);
+
+		return oErrorHandler;
+	}
+
+	private boolean validateTrusted(String psName, String psContent)
+			throws Exception {
+
+		return OnixFileValidator.ValidateFile(OnixTestFixtures.writeFile(m_oTempFolder.newFile(psName), psContent));
+	}
+
+	@Test
+	public void testPayloadUsesDtdModules()
+			throws Exception {
+
+		// NOTE: The DTD declares its entities within a parameter-entity module, which must still be read for a payload
+		String sOnix = OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "Caf&eacute;", "<RecordReference>1</RecordReference>");
+
+		assertTrue(validateUntrusted(sOnix, new MemoryReport()).isValid());
+		assertTrue(validateUntrusted(sOnix, new MemoryReport()).isValid());
+	}
+
+	@Test
+	public void testPayloadDoesNotUseGrammarCache()
+			throws Exception {
+
+		long nHits   = OnixGrammarCache.getInstance().getHitCount();
+		long nMisses = OnixGrammarCache.getInstance().getMissCount();
+
+		validateUntrusted(OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "A", "<RecordReference>1</RecordReference>"),
+		                  new MemoryReport());
+
+		assertEquals(nHits, OnixGrammarCache.getInstance().getHitCount());
+		assertEquals(nMisses, OnixGrammarCache.getInstance().getMissCount());
+	}
+
+	@Test
+	public void testPayloadDoesNotChangeTrustedVerdicts()
+			throws Exception {
+
+		String sValid  = OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "Caf&eacute;", "<RecordReference>1</RecordReference>");
+		String sBogus  = OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "A", "<RecordReference>1</RecordReference><Bogus/>");
+		String sSubset = OnixTestFixtures.CONST_ONIX21_DOCTYPE.replace(">",
+				" [ <!ENTITY % product.content \"RecordReference, ProductForm?, Bogus?\"> <!ELEMENT Bogus EMPTY> ]>");
+
+		assertTrue(validateUntrusted(sValid, new MemoryReport()).isValid());
+		assertTrue(validateUntrusted(OnixTestFixtures.createOnix21(sSubset, "A", "<RecordReference>1</RecordReference><Bogus/>"),
+		                             new MemoryReport()).isValid());
+
+		assertTrue(validateTrusted("Valid.xml", sValid));
+		assertFalse(validateTrusted("Bogus.xml", sBogus));
+	}
+
+	@Test
+	public void testExternalEntitiesAreDenied()
+			throws Exception {
+
+		File oSecretFile = OnixTestFixtures.writeFile(m_oTempFolder.newFile("secret.txt"), CONST_SECRET);
+
+		// NOTE: An external general entity is never included, whether or not its file exists
+		String sDoctype = OnixTestFixtures.CONST_ONIX21_DOCTYPE.replace(">", " [ <!ENTITY secret SYSTEM \"" + oSecretFile.toURI() + "\"> ]>");
+
+		MemoryReport oReport = new MemoryReport();
+
+		validateUntrusted(OnixTestFixtures.createOnix21(sDoctype, "&secret;", "<RecordReference>&secret;</RecordReference>"), oReport);
+
+		assertFalse(oReport.getLines().contains(CONST_SECRET));
+
+		// NOTE: A DTD outside of the local ONIX root is denied (rather than read into an error message)
+		File oForeignDtd = OnixTestFixtures.writeFile(m_oTempFolder.newFile("foreign.dtd"), "<!ELEMENT ONIXMessage ANY>");
+
+		oReport = new MemoryReport();
+
+		OnixFileErrorHandler oErrorHandler =
+				validateUntrusted(OnixTestFixtures.createOnix21("<!DOCTYPE ONIXMessage SYSTEM \"" + oForeignDtd.toURI() + "\">", "A"), oReport);
+
+		assertFalse(oErrorHandler.isValid());
+
+		oReport = new MemoryReport();
+
+		oErrorHandler = validateUntrusted(OnixTestFixtures.createOnix21("<!DOCTYPE ONIXMessage SYSTEM \"" + oSecretFile.toURI() + "\">", "A"), oReport);
+
+		assertFalse(oErrorHandler.isValid());
+		assertFalse(oReport.getLines().contains(CONST_SECRET));
+	}
+
+	@Test
+	public void testTraversalOutOfRootIsDenied()
+			throws Exception {
+
+		OnixTestFixtures.writeFile(m_oTempFolder.newFile("outside.dtd"), "<!ELEMENT ONIXMessage ANY>");
+
+		String sDoctype = "<!DOCTYPE ONIXMessage SYSTEM \"" + OnixValidator.CONST_DEFAULT_ONIX_DTD_URL_BASE + "../outside.dtd\">";
+
+		assertFalse(validateUntrusted(OnixTestFixtures.createOnix21(sDoctype, "A"), new MemoryReport()).isValid());
+	}
+}
@@ -0,0 +1,103 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * OnixValidationPipelineTest --- The tests of the OnixValidationPipeline, which must route each ONIX file of the Inbox by its
+ *                                verdict while leaving the temporary files (Ex. those of the DOCTYPE rewrite) alone.
+ * @author    Aaron Kendall
+ */
+public class OnixValidationPipelineTest {
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	private File m_oLocalDtdRoot = null;
+	private File m_oInboxDir     = null;
+	private File m_oOutputDir    = null;
+	private File m_oFailedDir    = null;
+
+	@Before
+	public void setUp()
+			throws IOException {
+
+		OnixTestFixtures.configureLogger();
+
+		m_oLocalDtdRoot = OnixTestFixtures.createLocalDtdRoot(m_oTempFolder.newFolder("dtds"));
+		m_oInboxDir     = m_oTempFolder.newFolder("inbox");
+		m_oOutputDir    = m_oTempFolder.newFolder("valid");
+		m_oFailedDir    = m_oTempFolder.newFolder("failed");
+
+		OnixEntityResolver oEntityResolver = new OnixEntityResolver(m_oLocalDtdRoot.getPath());
+
+		OnixFileValidator.setEntityResolver(oEntityResolver);
+		OnixValidator.registerGrammars(m_oLocalDtdRoot.getPath(), oEntityResolver);
+	}
+
+	@After
+	public void tearDown()
+			throws IOException {
+
+		OnixFileValidator.setEntityResolver(null);
+		OnixGrammarCache.getInstance().loadGrammars(m_oLocalDtdRoot.getPath(), new String[0], null);
+	}
+
+	private OnixValidationPipeline createPipeline() {
+		return new OnixValidationPipeline(m_oInboxDir.getPath(), m_oOutputDir.getPath(), m_oFailedDir.getPath(), 2, 2, 4, 1, null, 0, 100, 0);
+	}
+
+	@Test
+	public void testFilesAreRoutedByVerdict()
+			throws IOException {
+
+		for (int i = 0; i < 5; ++i)
+			OnixTestFixtures.writeFile(new File(m_oInboxDir, "Valid" + i + ".xml"),
+			                           OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "Caf&eacute;", "<RecordReference>" + i + "</RecordReference>"));
+
+		OnixTestFixtures.writeFile(new File(m_oInboxDir, "Invalid.xml"),
+		                           OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "A", "<ProductForm>BA</ProductForm>"));
+
+		OnixValidationPipeline oPipeline = createPipeline();
+
+		oPipeline.run();
+
+		assertEquals(5, oPipeline.getValidCount());
+		assertEquals(1, oPipeline.getInvalidCount());
+
+		assertTrue(new File(m_oOutputDir, "Valid3.xml").isFile());
+		assertTrue(new File(m_oFailedDir, "Invalid.xml").isFile());
+		assertEquals(0, m_oInboxDir.list().length);
+	}
+
+	@Test
+	public void testTempFilesAreSkipped()
+			throws IOException {
+
+		String sOnix = OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "A", "<RecordReference>1</RecordReference>");
+
+		// NOTE: A rewrite in progress (or one interrupted by a crash) leaves its temporary file next to the ONIX file
+		OnixTestFixtures.writeFile(new File(m_oInboxDir, "Feed.xml"), sOnix);
+		OnixTestFixtures.writeFile(new File(m_oInboxDir, "Feed.xml.tmp"), sOnix.substring(0, sOnix.length() / 2));
+
+		OnixValidationPipeline oPipeline = createPipeline();
+
+		oPipeline.run();
+
+		assertEquals(1, oPipeline.getValidCount());
+		assertEquals(0, oPipeline.getInvalidCount());
+
+		assertTrue(new File(m_oInboxDir, "Feed.xml.tmp").isFile());
+		assertFalse(new File(m_oFailedDir, "Feed.xml.tmp").exists());
+	}
+}
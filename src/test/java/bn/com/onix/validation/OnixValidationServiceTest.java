@@ -0,0 +1,160 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * OnixValidationServiceTest --- The tests of the OnixValidationService, which must validate a POSTed payload and must turn
+ *                               away (with a 503) any request beyond its threads and their bounded queue.
+ * @author    Aaron Kendall
+ */
+public class OnixValidationServiceTest {
+
+	private static final long CONST_ADMIT_MILLIS = 5000;
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	private OnixValidationService m_oService = null;
+
+	private final List<Socket> m_oSockets = new ArrayList<Socket>();
+
+	@Before
+	public void setUp()
+			throws IOException {
+
+		OnixTestFixtures.configureLogger();
+
+		String sLocalDtdRoot = OnixTestFixtures.createLocalDtdRoot(m_oTempFolder.newFolder("dtds")).getPath();
+
+		// NOTE: A single permit, so that there are two request threads and a queue of one
+		m_oService = new OnixValidationService("127.0.0.1", 0, 1, CONST_ADMIT_MILLIS, sLocalDtdRoot, 0, 0);
+		m_oService.start();
+	}
+
+	@After
+	public void tearDown() {
+
+		for (Socket oSocket : m_oSockets) {
+			try { oSocket.close(); }
+			catch (IOException e) { /* NOTE: The socket is being discarded anyway */ }
+		}
+
+		m_oService.stop(0);
+	}
+
+	/**
+	 * Sends the headers of a POST whose body never arrives, so that the request holds its thread (or its place in the queue).
+	 */
+	private Socket sendStalledRequest()
+			throws IOException {
+
+		Socket oSocket = new Socket("127.0.0.1", m_oService.getPort());
+
+		m_oSockets.add(oSocket);
+
+		OutputStream oOutput = oSocket.getOutputStream();
+
+		oOutput.write(("POST /validate HTTP/1.1\r\nHost: localhost\r\nContent-Length: 100000\r\n\r\n<?xml version=\"1.0\"?>")
+		              .getBytes(StandardCharsets.US_ASCII));
+		oOutput.flush();
+
+		return oSocket;
+	}
+
+	private String getHealth()
+			throws IOException {
+
+		HttpURLConnection oConnection = (HttpURLConnection) new URL("http://127.0.0.1:" + m_oService.getPort() + "/health").openConnection();
+
+		try (InputStream oResponse = oConnection.getInputStream()) {
+			return IOUtils.toString(oResponse, StandardCharsets.UTF_8);
+		}
+	}
+
+	@Test
+	public void testPayloadIsValidated()
+			throws IOException {
+
+		HttpURLConnection oConnection =
+			(HttpURLConnection) new URL("http://127.0.0.1:" + m_oService.getPort() + "/validate?name=Feed.xml").openConnection();
+
+		oConnection.setRequestMethod("POST");
+		oConnection.setDoOutput(true);
+
+		try (OutputStream oBody = oConnection.getOutputStream()) {
+			oBody.write(OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "A", "<RecordReference>1</RecordReference>")
+			            .getBytes(StandardCharsets.UTF_8));
+		}
+
+		assertEquals(200, oConnection.getResponseCode());
+
+		try (InputStream oResponse = oConnection.getInputStream()) {
+
+			String sJson = IOUtils.toString(oResponse, StandardCharsets.UTF_8);
+
+			assertTrue(sJson, sJson.contains("\"name\":\"Feed.xml\""));
+			assertTrue(sJson, sJson.contains("\"valid\":true"));
+		}
+	}
+
+	@Test
+	public void testOverflowIsTurnedAwayAtOnce()
+			throws Exception {
+
+		sendStalledRequest();
+
+		// NOTE: The first request holds the only permit once its thread is parsing the (stalled) body
+		long nDeadline = System.currentTimeMillis() + 5000;
+
+		while (!getHealth().contains("\"inFlight\":1") && (System.currentTimeMillis() < nDeadline))
+			Thread.sleep(20);
+
+		// NOTE: The second request takes the other thread (waiting for a permit), and the third one fills the queue
+		sendStalledRequest();
+		Thread.sleep(300);
+		sendStalledRequest();
+		Thread.sleep(300);
+
+		Socket oOverflow = new Socket("127.0.0.1", m_oService.getPort());
+
+		m_oSockets.add(oOverflow);
+
+		// NOTE: The overflowing request must be answered well before any permit could have become free
+		oOverflow.setSoTimeout((int) (CONST_ADMIT_MILLIS / 2));
+
+		long nStartMillis = System.currentTimeMillis();
+
+		OutputStream oOutput = oOverflow.getOutputStream();
+
+		oOutput.write("POST /validate HTTP/1.1\r\nHost: localhost\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+		oOutput.flush();
+
+		BufferedReader oReader = new BufferedReader(new InputStreamReader(oOverflow.getInputStream(), StandardCharsets.US_ASCII));
+
+		String sStatusLine = oReader.readLine();
+
+		assertTrue(sStatusLine, sStatusLine.startsWith("HTTP/1.1 503"));
+		assertTrue((System.currentTimeMillis() - nStartMillis) < CONST_ADMIT_MILLIS);
+		assertEquals(1, m_oService.getRejectedCount());
+	}
+}
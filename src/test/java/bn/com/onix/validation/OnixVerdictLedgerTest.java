@@ -0,0 +1,175 @@
+package bn.com.onix.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * OnixVerdictLedgerTest --- The tests of the OnixVerdictLedger, whose verdicts must survive a restart, must be dropped
+ *                           once the local grammars change, and must stay within their bound.
+ * @author    Aaron Kendall
+ */
+public class OnixVerdictLedgerTest {
+
+	@Rule
+	public TemporaryFolder m_oTempFolder = new TemporaryFolder();
+
+	private File m_oLocalDtdRoot = null;
+	private File m_oLedgerFile   = null;
+
+	@Before
+	public void setUp()
+			throws IOException {
+
+		OnixTestFixtures.configureLogger();
+
+		m_oLocalDtdRoot = OnixTestFixtures.createLocalDtdRoot(m_oTempFolder.newFolder("dtds"));
+		m_oLedgerFile   = new File(m_oTempFolder.getRoot(), "ledger/verdicts.txt");
+	}
+
+	private OnixVerdictLedger openLedger(int pnMaxVerdicts)
+			throws IOException {
+
+		return new OnixVerdictLedger(m_oLedgerFile.getPath(), OnixVerdictLedger.computeGrammarVersion(m_oLocalDtdRoot), pnMaxVerdicts);
+	}
+
+	private static String computeKey(OnixVerdictLedger poLedger, String psRecordReference)
+			throws IOException {
+
+		String sOnix = OnixTestFixtures.createOnix21(OnixTestFixtures.CONST_ONIX21_DOCTYPE, "A",
+		                                             "<RecordReference>" + psRecordReference + "</RecordReference>");
+
+		return poLedger.computeKey(new ByteArrayInputStream(sOnix.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void testVerdictsSurviveReopen()
+			throws IOException {
+
+		OnixVerdictLedger oLedger = openLedger(100);
+
+		oLedger.recordVerdict(computeKey(oLedger, "1"), true);
+		oLedger.recordVerdict(computeKey(oLedger, "2"), false);
+		oLedger.close();
+
+		oLedger = openLedger(100);
+
+		assertEquals(Boolean.TRUE, oLedger.getVerdict(computeKey(oLedger, "1")));
+		assertEquals(Boolean.FALSE, oLedger.getVerdict(computeKey(oLedger, "2")));
+		assertNull(oLedger.getVerdict(computeKey(oLedger, "3")));
+
+		oLedger.close();
+	}
+
+	@Test
+	public void testGrammarChangeDropsVerdicts()
+			throws IOException {
+
+		OnixVerdictLedger oLedger = openLedger(100);
+
+		String sKey = computeKey(oLedger, "1");
+
+		oLedger.recordVerdict(sKey, true);
+		oLedger.close();
+
+		String sVersion = OnixVerdictLedger.computeGrammarVersion(m_oLocalDtdRoot);
+
+		assertEquals(sVersion, OnixVerdictLedger.computeGrammarVersion(m_oLocalDtdRoot));
+
+		// NOTE: A new download of a DTD module (i.e., with another size and time) makes every verdict unknown
+		File oModule = new File(m_oLocalDtdRoot, "2.1/reference/onix-xhtml-chars.ent");
+
+		Files.write(oModule.toPath(), "<!ENTITY eacute \"&#233;\">\n".getBytes(StandardCharsets.UTF_8));
+		assertTrue(oModule.setLastModified(oModule.lastModified() - 60000));
+
+		assertFalse(sVersion.equals(OnixVerdictLedger.computeGrammarVersion(m_oLocalDtdRoot)));
+
+		oLedger = openLedger(100);
+
+		assertFalse(sKey.equals(computeKey(oLedger, "1")));
+		assertNull(oLedger.getVerdict(computeKey(oLedger, "1")));
+
+		oLedger.close();
+	}
+
+	@Test
+	public void testGrammarVersionIgnoresOtherFiles()
+			throws IOException {
+
+		String sVersion = OnixVerdictLedger.computeGrammarVersion(m_oLocalDtdRoot);
+
+		OnixTestFixtures.writeFile(new File(m_oLocalDtdRoot, "readme.txt"), "Downloaded from EDITEUR");
+
+		assertEquals(sVersion, OnixVerdictLedger.computeGrammarVersion(m_oLocalDtdRoot));
+		assertEquals("", OnixVerdictLedger.computeGrammarVersion(new File(m_oTempFolder.getRoot(), "missing")));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedVerdictIsForgotten()
+			throws IOException {
+
+		OnixVerdictLedger oLedger = openLedger(2);
+
+		oLedger.recordVerdict(computeKey(oLedger, "1"), true);
+		oLedger.recordVerdict(computeKey(oLedger, "2"), true);
+
+		// NOTE: The first verdict is used again, so the second one becomes the eldest
+		assertEquals(Boolean.TRUE, oLedger.getVerdict(computeKey(oLedger, "1")));
+
+		oLedger.recordVerdict(computeKey(oLedger, "3"), false);
+
+		assertEquals(Boolean.TRUE, oLedger.getVerdict(computeKey(oLedger, "1")));
+		assertNull(oLedger.getVerdict(computeKey(oLedger, "2")));
+		assertEquals(Boolean.FALSE, oLedger.getVerdict(computeKey(oLedger, "3")));
+
+		// NOTE: A compaction only keeps the verdicts that are still held in memory
+		oLedger.compact();
+		oLedger.close();
+
+		assertEquals(2, Files.readAllLines(m_oLedgerFile.toPath(), StandardCharsets.UTF_8).size());
+
+		oLedger = openLedger(2);
+
+		assertNull(oLedger.getVerdict(computeKey(oLedger, "2")));
+		assertEquals(Boolean.FALSE, oLedger.getVerdict(computeKey(oLedger, "3")));
+
+		oLedger.close();
+	}
+
+	@Test
+	public void testCloseIsIdempotent()
+			throws IOException {
+
+		OnixVerdictLedger oLedger = openLedger(100);
+
+		String sKey = computeKey(oLedger, "1");
+
+		oLedger.recordVerdict(sKey, true);
+		oLedger.close();
+		oLedger.close();
+
+		try {
+			oLedger.recordVerdict(computeKey(oLedger, "2"), true);
+			fail("A closed ledger must not accept any verdicts.");
+		}
+		catch (IllegalStateException e) {
+			// NOTE: The verdict was refused, as expected
+		}
+
+		assertEquals(Boolean.TRUE, oLedger.getVerdict(sKey));
+		assertEquals(1, Files.readAllLines(m_oLedgerFile.toPath(), StandardCharsets.UTF_8).size());
+	}
+}